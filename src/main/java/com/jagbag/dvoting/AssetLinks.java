@@ -0,0 +1,78 @@
+package com.jagbag.dvoting;
+
+import org.springframework.core.io.Resource;
+import org.springframework.web.servlet.resource.ResourceTransformer;
+import org.springframework.web.servlet.resource.ResourceTransformerChain;
+import org.springframework.web.servlet.resource.ResourceUrlProvider;
+import org.springframework.web.servlet.resource.ResourceUrlProviderExposingInterceptor;
+import org.springframework.web.servlet.resource.TransformedResource;
+
+import javax.servlet.http.HttpServletRequest;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Points the script and stylesheet links in our pages at the fingerprinted versions of those files, so that
+ * e.g. src="voting.js?version=4" becomes src="voting-0b9f...e3.js". The fingerprint is a hash of the file's
+ * contents, so the browser can keep it forever, and when the file changes, so does the link.
+ * (The ?version=N on the links was how this used to be done, by hand.)
+ *
+ * Used as a ResourceTransformer for pages served straight from the static folder, and, via
+ * {@link Template#setFileFilter}, for the pages the controllers fill in. See {@link StaticAssets}.
+ */
+public class AssetLinks implements ResourceTransformer {
+    /** src="x.js" or href="x.css", maybe with a query string, but not pointing at some other server */
+    static final Pattern LINK = Pattern.compile("(src|href)=\"([^\"?#:]+\\.(?:js|css))(?:\\?[^\"]*)?\"");
+
+    /**
+     * @param html a page
+     * @param urls knows the fingerprinted paths of the static files
+     * @return the page with links to scripts and stylesheets pointing at their fingerprinted versions; links to
+     * anything urls doesn't know about are left alone
+     */
+    static String rewrite(String html, ResourceUrlProvider urls) {
+        Matcher m = LINK.matcher(html);
+        if (!m.find()) {
+            return html;
+        }
+        StringBuffer s = new StringBuffer(html.length());
+        do {
+            String path = m.group(2);
+            // Our pages are all at the top level, so a relative link is relative to /
+            boolean relative = !path.startsWith("/");
+            String url = urls.getForLookupPath(relative ? "/" + path : path);
+            if (url != null) {
+                if (relative) {
+                    url = url.substring(1);
+                }
+                m.appendReplacement(s, Matcher.quoteReplacement(m.group(1) + "=\"" + url + "\""));
+            }
+        } while (m.find());
+        m.appendTail(s);
+        return s.toString();
+    }
+
+    @Override
+    public Resource transform(HttpServletRequest request, Resource resource, ResourceTransformerChain chain)
+            throws IOException {
+        resource = chain.transform(request, resource);
+        String filename = resource.getFilename();
+        ResourceUrlProvider urls = (ResourceUrlProvider)request.getAttribute(
+                ResourceUrlProviderExposingInterceptor.RESOURCE_URL_PROVIDER_ATTR);
+        if (filename == null || !filename.endsWith(".html") || urls == null) {
+            return resource;
+        }
+        String html;
+        try (InputStream in = resource.getInputStream()) {
+            html = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+        String rewritten = rewrite(html, urls);
+        if (rewritten == html) {
+            return resource;
+        }
+        return new TransformedResource(resource, rewritten.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,17 @@
+package com.jagbag.dvoting;
+
+import java.util.List;
+
+/**
+ * Packaging of all the blinded chits for one Question that a client wants signed in one go: a response chit
+ * for each response option, plus the me chit. A list of these, one per Question on the ballot, is sent to
+ * ballots/sign.
+ */
+public class BallotSigningRequest {
+    /** ID of the Question the chits are for */
+    public long quid;
+    /** blinded response chits, to be signed with the CTF's key */
+    public List<String> responseChits;
+    /** blinded me chit, to be signed with the Question's key; may be null if it's already signed */
+    public String meChit;
+}
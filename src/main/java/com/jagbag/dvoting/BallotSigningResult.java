@@ -0,0 +1,35 @@
+package com.jagbag.dvoting;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * What we send back for one {@link BallotSigningRequest}: the outcome for each chit, in the same order as the
+ * chits were sent.
+ */
+public class BallotSigningResult {
+    /**
+     * The outcome of signing one chit: the HTTP status we would have returned had the chit been sent to
+     * ballot/{quid}/sign or ballot/{quid}/signme on its own, and, if that's OK, the signed blinded chit.
+     */
+    public static class SignedChit {
+        public int status;
+        public String signed;
+
+        public SignedChit(int status, String signed) {
+            this.status = status;
+            this.signed = signed;
+        }
+    }
+
+    /** ID of the Question the chits are for */
+    public long quid;
+    /** one per response chit sent */
+    public List<SignedChit> responseChits = new ArrayList<SignedChit>();
+    /** null if no me chit was sent */
+    public SignedChit meChit;
+
+    public BallotSigningResult(long quid) {
+        this.quid = quid;
+    }
+}
@@ -0,0 +1,37 @@
+package com.jagbag.dvoting;
+
+/**
+ * What every voter is sent about the current election: the CTF's key, and the Questions that may be voted on,
+ * already turned into JSON (and the big numbers already turned into decimal strings).
+ * The CTF makes a new one only when a Question is posted or closed, and hands the same one to everyone until then;
+ * see {@link CentralTabulatingFacility#ballotSnapshot()}. Never changed once made.
+ *
+ * The ETags let the browser ask "has this changed?" (If-None-Match) instead of fetching the whole thing again.
+ * They include something of the CTF's key, which is made anew each time the server starts, so an ETag from before a
+ * restart never matches.
+ */
+public class BallotSnapshot {
+    /** Goes up by one each time the list of votable Questions changes */
+    public final long version;
+    /** ETag for the list of votable Questions */
+    public final String eTag;
+    /** The votable Questions, as JSON */
+    public final String questionsJson;
+    /** ETag for the CTF's key; changes only when the server restarts */
+    public final String keysETag;
+    /** The CTF's public exponent and modulus, as JSON: {"public": "...", "modulus": "..."} */
+    public final String keysJson;
+    public final String publicExponent;
+    public final String modulus;
+
+    BallotSnapshot(long version, String keyTag, String questionsJson, String keysJson, String publicExponent,
+                   String modulus) {
+        this.version = version;
+        this.eTag = String.format("\"%s.%d\"", keyTag, version);
+        this.questionsJson = questionsJson;
+        this.keysETag = String.format("\"%s\"", keyTag);
+        this.keysJson = keysJson;
+        this.publicExponent = publicExponent;
+        this.modulus = modulus;
+    }
+}
@@ -1,8 +1,13 @@
 package com.jagbag.dvoting;
 
 import com.jagbag.dvoting.entities.*;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
+import org.hibernate.Session;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Component;
@@ -10,8 +15,14 @@ import org.springframework.stereotype.Component;
 import javax.persistence.EntityManager;
 import javax.persistence.EntityManagerFactory;
 import javax.persistence.Query;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
 import java.math.BigInteger;
+import java.sql.SQLException;
 import java.security.*;
 import java.security.interfaces.*;
 import java.util.regex.Matcher;
@@ -96,6 +107,7 @@ import java.util.regex.Pattern;
  * Separate endpoints are available to the client to request the signing of response chits and signing
  * the me chit&mdash; ballot/{quid}/sign and ballot/{quid}/signme respectively. These are signed by the CTF
  * itself or delegated to the Question respectively for signing, and then, later, for verifying.
+ * There is also ballots/sign, which takes all of a ballot's chits, for any number of Questions, in one request.
  * On the client side, when a Voter receives a list of votable questions, each Question comes with the
  * public key and modulus that will be used for signing the me chit. Each Chit chooses its secret k to
  * work with either the CTF's response-chit signing key or the Question's specific me-chit signing key,
@@ -103,6 +115,14 @@ import java.util.regex.Pattern;
  *
  * When a Vote is received, the CTF verifies the signature on the response chit itself, but delegates
  * verifying the signature on the me chit to the Question.
+ *
+ * Concurrency: there is no lock on the CTF as a whole. The only state that has to be checked-and-updated
+ * atomically is per Voter per Question (which blinded chits we have signed for them) and, for votes, per
+ * me chit number per Question (which Votes we have recorded for that number). The first is kept in the
+ * {@link ChitLedger}, which locks per Voter per Question. The second is kept in the {@link VoteIndex}, and
+ * guarded by one of a fixed set of lock stripes chosen by hashing the (question, me chit number) pair. Either way, requests from different voters
+ * don't wait on one another. The expensive parts&mdash; the modPow that signs a chit, and verifying signatures
+ * on a vote&mdash; happen outside of any lock.
  */
 @Component("ctf")
 public class CentralTabulatingFacility extends SigningEntity {
@@ -112,16 +132,45 @@ public class CentralTabulatingFacility extends SigningEntity {
     /** Our connection to the magical Hibernate Java Persistence API implementation. */
     @Autowired
     private EntityManagerFactory emf;
+    /** Where accepted votes go on their way to the Vote table. See {@link VoteJournal}. */
+    @Autowired
+    private VoteJournal voteJournal;
+    /** Spring's, so the Questions in a {@link BallotSnapshot} look the same as any other Question we send. */
+    @Autowired(required = false)
+    private ObjectMapper objectMapper;
 
     /** Regex pattern for picking the data out of chits, as put together by the client. */
     static Pattern chitPattern = Pattern.compile("^(\\d+) (\\d+) (.*)");
-    private Map<String, Map<Long, Set<String>>> blindedChitsPerVoterPerQuestion;
+    /** How many Vote rows to fetch from the database at a time when writing out the list of votes. */
+    static final int VERIFY_FETCH_SIZE = 500;
+    /** Doesn't close the streams it writes to; those belong to whoever handed them to us. */
+    private static final JsonFactory jsonFactory = new JsonFactory().disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+    /** Number of lock stripes guarding the votes recorded per me chit. */
+    static final int LOCK_STRIPES = 256;
+    /** Which blinded chits have been signed for whom, for each posted Question. */
+    private ChitLedger chitLedger;
     private Map<Long, Question> postedQuestions;
+    /** Which votes have been accepted on each posted Question. */
+    private VoteIndex voteIndex;
+    /** Running vote counts for each posted Question. */
+    private Map<Long, LiveTally> liveTallies;
+    /** Ranked choice results for closed Questions, which won't change. */
+    private Map<Long, RankedChoiceResult> rankedChoiceResults;
+    /** Guards the votes recorded per (Question, me chit number). */
+    private LockStripes voteLocks;
+    /** The current {@link BallotSnapshot}; null when the votable Questions have changed since it was made */
+    private volatile BallotSnapshot ballotSnapshot;
+    private long ballotVersion;
+    private final Object ballotSnapshotLock = new Object();
 
     public CentralTabulatingFacility() throws NoSuchAlgorithmException {
         initializeKeys();
-        blindedChitsPerVoterPerQuestion = new HashMap();
-        postedQuestions = new HashMap();
+        chitLedger = new ChitLedger();
+        postedQuestions = new ConcurrentHashMap<>();
+        voteIndex = new VoteIndex();
+        liveTallies = new ConcurrentHashMap<>();
+        rankedChoiceResults = new ConcurrentHashMap<>();
+        voteLocks = new LockStripes(LOCK_STRIPES);
     }
 
     /**
@@ -137,13 +186,49 @@ public class CentralTabulatingFacility extends SigningEntity {
         theQuestion = lookupPostedQuestion(quid);
         if (theQuestion == null) {
             EntityManager em = emf.createEntityManager();
-            // Look up the question in database
-            theQuestion = em.find(Question.class, quid);
+            // Look up the question in database, with its response options, in one query
+            Map<String, Object> hints = new HashMap<String, Object>();
+            hints.put("javax.persistence.fetchgraph", em.getEntityGraph(Question.WITH_RESPONSES));
+            theQuestion = em.find(Question.class, quid, hints);
             em.close();
         }
         return theQuestion;
     }
 
+    /**
+     * Lists every Question, oldest first, for the admin page: one query for the Questions, and one for all their
+     * response options.
+     */
+    public List<QuestionSummary> questionSummaries() {
+        EntityManager em = emf.createEntityManager();
+        try {
+            List<QuestionSummary> list = new ArrayList<QuestionSummary>();
+            Map<Long, QuestionSummary> byId = new HashMap<Long, QuestionSummary>();
+            List<Object[]> rows = em.createQuery(
+                    "select q.id, q.text, q.type, q.createdWhen, q.postedWhen, q.closedWhen from Question q order by q.createdWhen",
+                    Object[].class).getResultList();
+            for (Object[] row : rows) {
+                QuestionSummary summary = new QuestionSummary((Long)row[0], (String)row[1],
+                        (Question.CountingType)row[2], (java.time.LocalDateTime)row[3],
+                        (java.time.LocalDateTime)row[4], (java.time.LocalDateTime)row[5]);
+                list.add(summary);
+                byId.put(summary.id, summary);
+            }
+            rows = em.createQuery("select o.question.id, o.text from ResponseOption o order by o.id",
+                    Object[].class).getResultList();
+            for (Object[] row : rows) {
+                QuestionSummary summary = byId.get((Long)row[0]);
+                if (summary != null) {
+                    summary.possibleResponses.add(new QuestionSummary.Option((String)row[1]));
+                }
+            }
+            return list;
+        }
+        finally {
+            em.close();
+        }
+    }
+
     /**
      * Looks for and returns the Question with the given ID, ONLY if it's found the the in-memory
      * collection of currently-polling Questions.
@@ -172,7 +257,7 @@ public class CentralTabulatingFacility extends SigningEntity {
      * @param theQuestion the Question to which this response pertains
      * @return signed, i.e. encrypted with CTF's private key, version of blinded chit
      */
-    public synchronized String signResponseChit(String blindedMessageText, Voter voter, Question theQuestion) {
+    public String signResponseChit(String blindedMessageText, Voter voter, Question theQuestion) {
         if (voter == null || !voter.isAllowedToVote()) {
             TroubleLogger.reportTrouble(String.format("Invalid voter trying to register ballot: %s", voter));
             return null;
@@ -182,24 +267,20 @@ public class CentralTabulatingFacility extends SigningEntity {
         if (!theQuestion.getStatus().equals("polling")) {
             return null; // could happen if Q closed just as a client loads
         }
+        BigInteger t = decodedChit(blindedMessageText);
+        if (t == null) { return null; }
         // Check that a voter doesn't register more than one ballot per question.
-        Map<Long, Set<String>> blindedChitsPerQuestion
-                = blindedChitsPerVoterPerQuestion.computeIfAbsent(username, (x) -> new HashMap<Long, Set<String>>());
-        Set<String> blindedChits = blindedChitsPerQuestion.computeIfAbsent(theQuestion.getId(), (x) -> new HashSet<String>());
-        if (blindedChits.contains(blindedMessageText)) {
-            // Same blinded chit submitted again for signing. That's fine. Maybe it didn't get back to the client before.
-            // Fall through to below conditional, re-calculate the signed chit and send (again).
-            // Re-running the signing calculation will always produce the same result for a given chit.
-        }
-        else {
-            if (blindedChits.size() >= theQuestion.numberOfAllowedChits()) {
-                TroubleLogger.reportTrouble(String.format("Voter %s trying to register excessive chits for %s",
-                        username, theQuestion.getText()));
-                return null;
-            }
-            blindedChits.add(blindedMessageText);
+        // If it's the same blinded chit submitted again for signing, that's fine. Maybe it didn't get back to the
+        // client before. Re-calculate the signed chit and send (again).
+        // Re-running the signing calculation will always produce the same result for a given chit.
+        ChitLedger.Outcome outcome
+                = chitLedger.recordResponseChit(theQuestion.getId(), username, t, theQuestion.numberOfAllowedChits());
+        if (outcome == ChitLedger.Outcome.REFUSED) {
+            TroubleLogger.reportTrouble(String.format("Voter %s trying to register excessive chits for %s",
+                    username, theQuestion.getText()));
+            return null;
         }
-        return signText(blindedMessageText);
+        return encoded(sign(t));
     }
 
     /**
@@ -210,7 +291,7 @@ public class CentralTabulatingFacility extends SigningEntity {
      * @param theQuestion the Question for which this chit will be valid
      * @return signed, i.e. encrypted with the Question's private key, version of blinded chit
      */
-    public synchronized String signMeChit(String blindedMessageText, Voter voter, Question theQuestion) {
+    public String signMeChit(String blindedMessageText, Voter voter, Question theQuestion) {
         if (voter == null || !voter.isAllowedToVote()) {
             TroubleLogger.reportTrouble(String.format("Invalid voter trying to register ballot: %s", voter));
             return null;
@@ -219,23 +300,79 @@ public class CentralTabulatingFacility extends SigningEntity {
         if (!theQuestion.getStatus().equals("polling")) {
             return null; // could happen if Q closed just as a client loads
         }
+        BigInteger t = decodedChit(blindedMessageText);
+        if (t == null) { return null; }
         // Check that a voter doesn't register more than one ballot per question.
-        String existingBlindedChit = theQuestion.getBlindedChitForUser(username);
-        if (existingBlindedChit == null) {
-            // great, we are seeing a me chit on this question from this user for the first time; fall thru
-        }
-        else if (existingBlindedChit.equals(blindedMessageText)) {
-            // great, we are seeing the same blinded me chit (from the same V on the same Q); full through
-            // and re-calculate the same thing as before
-        }
-        else {
+        // NEW: great, we are seeing a me chit on this question from this user for the first time.
+        // REPEAT: great, we are seeing the same blinded me chit (from the same V on the same Q); re-calculate the
+        // same thing as before.
+        ChitLedger.Outcome outcome = chitLedger.recordMeChit(theQuestion.getId(), username, t);
+        if (outcome == ChitLedger.Outcome.REFUSED) {
             // Boo, this user sent a me chit for this question earlier, and it doesn't match what we just got!
             TroubleLogger.reportTrouble(String.format("Voter %s trying to register extra me chit for %s",
                     username, theQuestion.getText()));
             return null;
         }
-        theQuestion.setBlindedChitForUser(username, blindedMessageText);
-        return theQuestion.signText(blindedMessageText);
+        return encoded(theQuestion.sign(t));
+    }
+
+    /**
+     * Sign all the chits a Voter needs for any number of Questions at once, as requested through the
+     * ballots/sign endpoint. Each chit is vetted exactly as it would be by {@link #signResponseChit} or
+     * {@link #signMeChit}&mdash; same per-Voter limits, same willingness to re-sign a chit we've signed before&mdash;
+     * and the signing itself is spread across the available cores.
+     * @param requests the blinded chits, grouped by Question
+     * @param voter the Voter on whose behalf the chits are being signed
+     * @return for each request, the status and, where OK, signature of each of its chits
+     */
+    public List<BallotSigningResult> signBallots(List<BallotSigningRequest> requests, Voter voter) {
+        List<BallotSigningResult> results = new ArrayList<BallotSigningResult>();
+        List<Runnable> signingTasks = new ArrayList<Runnable>();
+        for (BallotSigningRequest request : requests) {
+            BallotSigningResult result = new BallotSigningResult(request.quid);
+            results.add(result);
+            Question theQuestion = lookupPostedQuestion(request.quid);
+            if (request.responseChits != null) {
+                for (String chit : request.responseChits) {
+                    BallotSigningResult.SignedChit signedChit = new BallotSigningResult.SignedChit(0, null);
+                    result.responseChits.add(signedChit);
+                    signingTasks.add(() -> signInto(signedChit, theQuestion, () -> signResponseChit(chit, voter, theQuestion)));
+                }
+            }
+            if (request.meChit != null) {
+                BallotSigningResult.SignedChit signedChit = new BallotSigningResult.SignedChit(0, null);
+                result.meChit = signedChit;
+                signingTasks.add(() -> signInto(signedChit, theQuestion, () -> signMeChit(request.meChit, voter, theQuestion)));
+            }
+        }
+        signingTasks.parallelStream().forEach(Runnable::run);
+        return results;
+    }
+
+    private static void signInto(BallotSigningResult.SignedChit signedChit, Question theQuestion,
+                                 Supplier<String> signing) {
+        if (theQuestion == null) {
+            signedChit.status = HttpStatus.NOT_FOUND.value();
+            return;
+        }
+        signedChit.signed = signing.get();
+        signedChit.status = (signedChit.signed == null) ? HttpStatus.FORBIDDEN.value() : HttpStatus.OK.value();
+    }
+
+    /**
+     * Read a blinded chit as sent by the client; null (and a complaint) if it isn't a base-36 number.
+     */
+    private static BigInteger decodedChit(String blindedMessageText) {
+        if (blindedMessageText == null) {
+            return null;
+        }
+        try {
+            return decoded(blindedMessageText);
+        }
+        catch (NumberFormatException ex) {
+            TroubleLogger.reportTrouble("Malformed blinded chit: " + blindedMessageText);
+            return null;
+        }
     }
 
     /**
@@ -255,7 +392,7 @@ public class CentralTabulatingFacility extends SigningEntity {
      *        FORBIDDEN if the signature on either chit is invalid
      *        INTERNAL SERVER ERROR if some wtf exception was thrown
      */
-    public synchronized HttpStatus receiveVoteOnQuestion(long quid, VoteMessage vote) {
+    public HttpStatus receiveVoteOnQuestion(long quid, VoteMessage vote) {
         if (vote.meChit == null || vote.meChit.length() < 1) {
             TroubleLogger.reportTrouble("Empty me chit submitted");
             return HttpStatus.BAD_REQUEST;
@@ -285,17 +422,16 @@ public class CentralTabulatingFacility extends SigningEntity {
             TroubleLogger.reportTrouble("Someone trying to submit too many responses for one question");
             return HttpStatus.FORBIDDEN;
         }
-        if (!theQuestion.confirmSignature(vote.meChit, vote.meChitSigned)) {
+        if (!theQuestion.getVerifier().verify(vote.meChit, vote.meChitSigned)) {
             TroubleLogger.reportTrouble("Invalid signature: " + vote.meChitSigned);
             return HttpStatus.FORBIDDEN;
         }
-        if (!confirmSignature(vote.responseChit, vote.responseChitSigned)) {
+        if (!getVerifier().verify(vote.responseChit, vote.responseChitSigned)) {
             TroubleLogger.reportTrouble("Invalid signature: " + vote.responseChitSigned);
             return HttpStatus.FORBIDDEN;
         }
         try {
-            castVote(theQuestion, vote.meChit, vote.responseChit, vote.ranking);
-            return HttpStatus.OK;
+            return castVote(theQuestion, vote.meChit, vote.responseChit, vote.ranking);
         }
         catch (Exception ex) {
             TroubleLogger.reportTrouble(ex.getMessage());
@@ -304,17 +440,19 @@ public class CentralTabulatingFacility extends SigningEntity {
     }
 
     /**
-     * Save a vote to the database, so it will be included in the tally; only invoked when the
-     * vote has passsed the vetting in receiveVoteOnQuestion. The random numbers (chosen by the Voter's
+     * Save a vote, so it will be included in the tally; only invoked when the
+     * vote has passsed the vetting in receiveVoteOnQuestion. The vote is written to the {@link VoteJournal},
+     * which copies it into the Vote table in the background, batched with other votes. The random numbers (chosen by the Voter's
      * client program) in each chit are saved, so that when the list of votes is reported, the Voter's
      * client program can verify that the ballot it cast was received and included in the results.
      * @param q the Question on which this vote is cast
      * @param voterIDChit a "me" chit-- specific to a specific Voter on a specific question
      * @param responseChit chit containing the actual response ("yes" or "no", or a candidates's name, for example)
      * @param ranking  For a ranked choice question, the position of this response in the ranking.
-     * @throws Exception  thrown if the client submitted malformed chit contents
+     * @return OK if the vote was accepted (or had been already), GONE if the Question was closed before it could be
+     * @throws Exception  thrown if the client submitted malformed chit contents, or a contradictory vote
      */
-    private synchronized void castVote(Question q, String voterIDChit, String responseChit, int ranking) throws Exception {
+    private HttpStatus castVote(Question q, String voterIDChit, String responseChit, int ranking) throws Exception {
         long quid = q.getId();
         String response = null;
         String voterChitNumber = null;
@@ -340,55 +478,168 @@ public class CentralTabulatingFacility extends SigningEntity {
         else {
             throw new Exception("Malformed response chit " + responseChit);
         }
-        EntityManager em = emf.createEntityManager();
-        String hql = "select v from Vote v where v.question = :q and v.voterChitNumber = :voterChitNumber and v.ranking = :ranking";
-        Query query= em.createQuery(hql);
-        query.setParameter("q", q);
-        query.setParameter("voterChitNumber", voterChitNumber);
-        query.setParameter("ranking", ranking);
-        List<Vote> list = query.getResultList();
-        Vote v = null;
-        if (list.size() > 0) {
-            v = list.get(0);
-            em.close();
-            if (!v.getResponseChitNumber().equals(responseChitNumber) || !v.getResponse().equals(response)) {
-                // Voting twice on the same question (with different choices) is an error.
-                throw new Exception(String.format("Contradictory votes from %s on question %d, rank %d. %s, %s", voterIDChit, quid, ranking, v.getResponse(), responseChit));
+        // Looking for an existing vote and adding this one must be atomic, or two copies of a contradictory vote
+        // arriving together could both get in.
+        synchronized (voteLocks.lockFor(quid, voterChitNumber)) {
+            switch (voteIndex.check(quid, voterChitNumber, ranking, responseChitNumber, response)) {
+                case CONTRADICTION:
+                    // Voting twice on the same question (with different choices) is an error.
+                    throw new Exception(String.format("Contradictory votes from %s on question %d, rank %d. %s", voterIDChit, quid, ranking, responseChit));
+                case REPEAT:
+                    // same message received twice-- that's fine!
+                    return HttpStatus.OK;
+                case NEW:
+                    voteJournal.append(new JournaledVote(quid, response, voterChitNumber, responseChitNumber, ranking));
+                    voteIndex.record(quid, voterChitNumber, ranking, responseChitNumber, response);
+                    countVote(quid, response, ranking);
+                    return HttpStatus.OK;
+                case UNKNOWN:
+                    // The Question was closed out from under us, after receiveVoteOnQuestion checked it was polling.
+                    break;
             }
-            // otherwise, same message received twice-- that's fine!
         }
-        else {
-            v = new Vote(q, response, voterChitNumber, responseChitNumber, ranking);
-            em.getTransaction().begin();
-            try {
-                em.persist(v);
-                em.getTransaction().commit();
-            }
-            catch (Exception ex) {
-                em.getTransaction().rollback();
+        TroubleLogger.reportTrouble("Someone trying to vote on question that was just closed: " + q.getText());
+        return HttpStatus.GONE;
+    }
+
+    /**
+     * Writes the list of Votes on a particular Question, as a JSON array, with only what a Voter needs to check
+     * their vote and count the votes: response, voterChitNumber, responseChitNumber, and ranking. Rows are read
+     * from the database a few at a time and written out as they're read, so this takes the same amount of
+     * memory for a million votes as it does for ten, and the first votes go out before the last are read.
+     * The votes are in no particular order; for a ranked-choice Question, there are several per Voter, and the
+     * client sorts them to put each Voter's ranking together.
+     * @param quid ID of the Question
+     * @param out where to write the JSON; not closed
+     */
+    public void writeVoteVerificationList(long quid, OutputStream out) throws IOException {
+        try {
+            voteJournal.flush();
+        }
+        catch (SQLException ex) {
+            TroubleLogger.reportTrouble("Reporting without journaled votes that could not be saved: " + ex.getMessage());
+        }
+        EntityManager em = emf.createEntityManager();
+        try (JsonGenerator json = jsonFactory.createGenerator(out)) {
+            String hql = "select v.response, v.voterChitNumber, v.responseChitNumber, v.ranking from Vote v where v.question.id = :quid";
+            org.hibernate.query.Query query = em.unwrap(Session.class).createQuery(hql);
+            query.setParameter("quid", quid);
+            query.setFetchSize(VERIFY_FETCH_SIZE);
+            query.setReadOnly(true);
+            json.writeStartArray();
+            try (ScrollableResults rows = query.scroll(ScrollMode.FORWARD_ONLY)) {
+                while (rows.next()) {
+                    json.writeStartObject();
+                    json.writeStringField("response", (String)rows.get(0));
+                    json.writeStringField("voterChitNumber", (String)rows.get(1));
+                    json.writeStringField("responseChitNumber", (String)rows.get(2));
+                    json.writeNumberField("ranking", (Integer)rows.get(3));
+                    json.writeEndObject();
+                }
             }
-            finally {
-                em.close();
+            json.writeEndArray();
+        }
+        finally {
+            em.close();
+        }
+    }
+
+    private void countVote(long quid, String response, int ranking) {
+        LiveTally tally = liveTallies.get(quid);
+        if (tally != null) {
+            tally.count(response, ranking);
+        }
+    }
+
+    /**
+     * Vote counts per response (and, for a ranked choice Question, per rank) for a Question. For a posted
+     * Question these are kept up to date as votes come in, so this is cheap no matter how many votes there are;
+     * for any other Question they are counted up by the database. So are they for a Question with a vote that the
+     * database refused (see {@link VoteJournal#refusedVotes}), which the running counts included when it came in.
+     * @param quid ID of the Question
+     * @return the counts, or null if there's no such Question
+     */
+    public LiveTally.Report tallyForQuestion(long quid) {
+        LiveTally tally = liveTallies.get(quid);
+        if (tally != null && !voteJournal.hasRefusedVotes(quid)) {
+            return tally.report();
+        }
+        Question q = lookUpQuestion(quid);
+        if (q == null) {
+            return null;
+        }
+        try {
+            voteJournal.flush();
+        }
+        catch (SQLException ex) {
+            TroubleLogger.reportTrouble("Tallying without journaled votes that could not be saved: " + ex.getMessage());
+        }
+        tally = new LiveTally(q);
+        countVotesInDatabase(tally, quid);
+        return tally.report();
+    }
+
+    private void countVotesInDatabase(LiveTally tally, long quid) {
+        EntityManager em = emf.createEntityManager();
+        try {
+            String hql = "select v.response, v.ranking, count(v) from Vote v where v.question.id = :quid group by v.response, v.ranking";
+            Query query = em.createQuery(hql);
+            query.setParameter("quid", quid);
+            List<Object[]> rows = query.getResultList();
+            for (Object[] row : rows) {
+                tally.add((String)row[0], (Integer)row[1], (Long)row[2]);
             }
         }
+        finally {
+            em.close();
+        }
     }
 
-    /** Queries the database for and returns the list of Votes on a particular Question.
-     * Note that for a ranked-choice Question, this will be multiple Votes per Voter.
-     * Note also that there is no guaranteed order for the list of results. The client will sort these
-     * to aggregate per-Voter responses and sort by ranking.
+    /**
+     * Instant-runoff results for a ranked choice Question; see {@link RankedChoiceTabulator}. Once a Question is
+     * closed, its votes don't change, so its result is worked out once and kept&mdash; once every vote on it has
+     * made it from the journal into the database.
      * @param quid ID of the Question
-     * @return  all the valid votes tallied for this question
+     * @return the results, or null if there's no such Question
      */
-    public List<Vote> detailedTabulationForQuestion(long quid) {
+    public RankedChoiceResult rankedChoiceResultForQuestion(long quid) {
+        RankedChoiceResult result = rankedChoiceResults.get(quid);
+        if (result != null) {
+            return result;
+        }
         Question q = lookUpQuestion(quid);
+        if (q == null) {
+            return null;
+        }
+        boolean closed = (lookupPostedQuestion(quid) == null);
+        boolean flushed = true;
+        try {
+            voteJournal.flush();
+        }
+        catch (SQLException ex) {
+            TroubleLogger.reportTrouble("Tabulating without journaled votes that could not be saved: " + ex.getMessage());
+            flushed = false;
+        }
+        RankedChoiceTabulator tabulator = new RankedChoiceTabulator();
         EntityManager em = emf.createEntityManager();
-        String hql = "select v from Vote v where v.question = :q";
-        Query query= em.createQuery(hql);
-        query.setParameter("q", q);
-        List<Vote> list = query.getResultList();
-        em.close();
-        return list;
+        try {
+            String hql = "select v.voterChitNumber, v.response from Vote v where v.question.id = :quid order by v.voterChitNumber, v.ranking";
+            Query query = em.createQuery(hql);
+            query.setParameter("quid", quid);
+            try (Stream<Object[]> rows = query.getResultStream()) {
+                rows.forEach((row) -> tabulator.addVote((String)row[0], (String)row[1]));
+            }
+        }
+        finally {
+            em.close();
+        }
+        result = tabulator.tabulate();
+        result.quid = quid;
+        // Only a result with every vote in it is final
+        if (closed && flushed && voteJournal.unflushedVotes(quid).isEmpty()) {
+            rankedChoiceResults.put(quid, result);
+        }
+        return result;
     }
 
     /**
@@ -400,7 +651,11 @@ public class CentralTabulatingFacility extends SigningEntity {
      */
     public void postQuestion(Question q) throws NoSuchAlgorithmException {
         q.post();
+        chitLedger.open(q.getId());
+        voteIndex.open(q.getId());
+        liveTallies.put(q.getId(), new LiveTally(q));
         postedQuestions.put(q.getId(), q);
+        ballotsChanged();
     }
 
     /**
@@ -412,6 +667,10 @@ public class CentralTabulatingFacility extends SigningEntity {
     public void closeQuestion(Question q) {
         q.close();
         postedQuestions.remove(q.getId());
+        chitLedger.release(q.getId());
+        voteIndex.release(q.getId());
+        liveTallies.remove(q.getId());
+        ballotsChanged();
     }
 
     /**
@@ -422,4 +681,53 @@ public class CentralTabulatingFacility extends SigningEntity {
         return new ArrayList(postedQuestions.values());
     }
 
+    /**
+     * Returns what every voter is sent about the current election: the votable Questions and the CTF's key, as
+     * JSON, with an ETag. Made the first time it's asked for after a Question is posted or closed, then the same
+     * one is handed out until the next such change.
+     * @return the current BallotSnapshot
+     */
+    public BallotSnapshot ballotSnapshot() {
+        BallotSnapshot snapshot = ballotSnapshot;
+        if (snapshot == null) {
+            synchronized (ballotSnapshotLock) {
+                snapshot = ballotSnapshot;
+                if (snapshot == null) {
+                    snapshot = makeBallotSnapshot();
+                    ballotSnapshot = snapshot;
+                }
+            }
+        }
+        return snapshot;
+    }
+
+    /**
+     * Throw away the current BallotSnapshot, so the next one asked for is made from the Questions as they are now.
+     * Called after postedQuestions has been changed; since making a snapshot and throwing one away both happen
+     * under the same lock, a snapshot made before the change can't be kept after it.
+     */
+    private void ballotsChanged() {
+        synchronized (ballotSnapshotLock) {
+            ++ballotVersion;
+            ballotSnapshot = null;
+        }
+    }
+
+    private BallotSnapshot makeBallotSnapshot() {
+        ObjectMapper mapper = (objectMapper != null) ? objectMapper : new ObjectMapper();
+        String publicExponent = getPublicExponent().toString(10);
+        String modulus = getModulus().toString(10);
+        Map<String, String> keys = new LinkedHashMap<String, String>();
+        keys.put("public", publicExponent);
+        keys.put("modulus", modulus);
+        try {
+            return new BallotSnapshot(ballotVersion, Integer.toUnsignedString(getModulus().hashCode(), 36),
+                    mapper.writeValueAsString(votableQuestionList()), mapper.writeValueAsString(keys),
+                    publicExponent, modulus);
+        }
+        catch (JsonProcessingException ex) {
+            throw new RuntimeException("Cannot write votable questions as JSON", ex);
+        }
+    }
+
 }
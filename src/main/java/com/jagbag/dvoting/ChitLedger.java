@@ -0,0 +1,173 @@
+package com.jagbag.dvoting;
+
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The CTF's record of which blinded chits it has signed for which Voter on which posted Question. This is what
+ * lets us re-sign a chit whose signature got lost on the way back to the client, while refusing to sign more
+ * than the allowed number of response chits, or more than one me chit, per Voter per Question.
+ *
+ * We don't need the chits themselves, only to recognize one if it's sent again, so each blinded chit (a number
+ * of about 400 digits in base 36) is reduced to a 128-bit fingerprint: the first 16 bytes of the SHA-256 hash of
+ * the number. Two different chits from the same Voter would have to collide in those 128 bits to slip an extra
+ * signature past us, which isn't going to happen by accident, and is far too much work to arrange on purpose.
+ *
+ * The ledger is split into one partition per posted Question, keyed by Voter username (interned, so that a
+ * Voter's username is stored once no matter how many Questions they sign chits for). A partition is created
+ * when the Question is posted and thrown away when it is closed, since we never sign chits for a closed
+ * Question. Recording a chit for a Question with no partition is refused.
+ *
+ * The partitions are concurrent maps, and the per-Voter entry is the lock for the check-and-record of that
+ * Voter's chits on that Question; nothing else waits on it.
+ *
+ * Like the signing keys, none of this is persisted. See {@link SigningEntity} for why that's fine.
+ */
+public class ChitLedger {
+    /** What became of a request to record a chit. */
+    public enum Outcome {
+        /** First time we've seen this chit; it's now recorded. Go ahead and sign it. */
+        NEW,
+        /** We've seen (and signed) this very chit for this Voter before; fine to sign it again. */
+        REPEAT,
+        /** Signing this chit would go over the limit for this Voter, or the Question isn't open. */
+        REFUSED
+    }
+
+    private static final ThreadLocal<MessageDigest> sha256 = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        }
+        catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex); // every JRE is required to provide SHA-256
+        }
+    });
+
+    private final Map<Long, Map<String, Entry>> partitions = new ConcurrentHashMap<>();
+
+    /**
+     * The chits recorded for one Voter on one Question. Fingerprints are stored as pairs of longs.
+     */
+    private static final class Entry {
+        long[] responseFingerprints = new long[0];
+        int responseCount;
+        boolean hasMeChit;
+        long meHigh;
+        long meLow;
+
+        boolean hasResponse(long high, long low) {
+            for (int i = 0; i < responseCount; ++i) {
+                if (responseFingerprints[2 * i] == high && responseFingerprints[2 * i + 1] == low) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        void addResponse(long high, long low) {
+            if (2 * responseCount == responseFingerprints.length) {
+                responseFingerprints = Arrays.copyOf(responseFingerprints, 2 * responseCount + 2);
+            }
+            responseFingerprints[2 * responseCount] = high;
+            responseFingerprints[2 * responseCount + 1] = low;
+            ++responseCount;
+        }
+    }
+
+    /**
+     * Start keeping track of chits for a Question that is being posted.
+     */
+    public void open(long quid) {
+        partitions.putIfAbsent(quid, new ConcurrentHashMap<>());
+    }
+
+    /**
+     * Forget everything about a Question's chits; called when it's closed.
+     */
+    public void release(long quid) {
+        partitions.remove(quid);
+    }
+
+    public boolean isOpen(long quid) {
+        return partitions.containsKey(quid);
+    }
+
+    /**
+     * @return the number of Voters who've had chits signed for the Question
+     */
+    public int voterCount(long quid) {
+        Map<String, Entry> partition = partitions.get(quid);
+        return (partition == null) ? 0 : partition.size();
+    }
+
+    /**
+     * Record a response chit for a Voter, if they're still under their limit for the Question.
+     * @param quid ID of the Question
+     * @param username Voter the chit is being signed for
+     * @param blindedChit the blinded chit
+     * @param allowedChits how many different response chits this Voter may have signed for this Question
+     */
+    public Outcome recordResponseChit(long quid, String username, BigInteger blindedChit, int allowedChits) {
+        Entry entry = entryFor(quid, username);
+        if (entry == null) {
+            return Outcome.REFUSED;
+        }
+        long[] fingerprint = fingerprint(blindedChit);
+        synchronized (entry) {
+            if (entry.hasResponse(fingerprint[0], fingerprint[1])) {
+                return Outcome.REPEAT;
+            }
+            if (entry.responseCount >= allowedChits) {
+                return Outcome.REFUSED;
+            }
+            entry.addResponse(fingerprint[0], fingerprint[1]);
+            return Outcome.NEW;
+        }
+    }
+
+    /**
+     * Record the one and only me chit for a Voter on a Question.
+     */
+    public Outcome recordMeChit(long quid, String username, BigInteger blindedChit) {
+        Entry entry = entryFor(quid, username);
+        if (entry == null) {
+            return Outcome.REFUSED;
+        }
+        long[] fingerprint = fingerprint(blindedChit);
+        synchronized (entry) {
+            if (!entry.hasMeChit) {
+                entry.hasMeChit = true;
+                entry.meHigh = fingerprint[0];
+                entry.meLow = fingerprint[1];
+                return Outcome.NEW;
+            }
+            if (entry.meHigh == fingerprint[0] && entry.meLow == fingerprint[1]) {
+                return Outcome.REPEAT;
+            }
+            return Outcome.REFUSED;
+        }
+    }
+
+    private Entry entryFor(long quid, String username) {
+        Map<String, Entry> partition = partitions.get(quid);
+        if (partition == null) {
+            return null;
+        }
+        Entry entry = partition.get(username);
+        if (entry == null) {
+            entry = partition.computeIfAbsent(username.intern(), (x) -> new Entry());
+        }
+        return entry;
+    }
+
+    static long[] fingerprint(BigInteger chit) {
+        MessageDigest digest = sha256.get();
+        ByteBuffer hash = ByteBuffer.wrap(digest.digest(chit.toByteArray()));
+        return new long[] { hash.getLong(), hash.getLong() };
+    }
+}
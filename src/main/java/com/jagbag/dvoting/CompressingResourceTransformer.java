@@ -0,0 +1,124 @@
+package com.jagbag.dvoting;
+
+import org.springframework.core.io.AbstractResource;
+import org.springframework.core.io.Resource;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.web.servlet.resource.HttpResource;
+import org.springframework.web.servlet.resource.ResourceTransformer;
+import org.springframework.web.servlet.resource.ResourceTransformerChain;
+
+import javax.servlet.http.HttpServletRequest;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Serves static files gzipped to browsers that can take that, compressing each file only the first time it's
+ * asked for, and keeping both the plain and the gzipped bytes in memory after that. When everyone in a meeting
+ * loads the voting page at the same moment, the server just copies bytes.
+ *
+ * Also marks a file that was asked for by its fingerprinted name (see {@link AssetLinks}) as cacheable forever:
+ * that name will never be used for any other contents.
+ *
+ * Should be the first transformer added to a resource chain, so that it compresses whatever the others made.
+ */
+public class CompressingResourceTransformer implements ResourceTransformer {
+    /** How long a browser may keep a file asked for by its fingerprinted name */
+    static final long FINGERPRINTED_MAX_AGE_DAYS = 365;
+    /** Not worth compressing anything smaller than this; it'd fit in a packet anyway */
+    static final int MIN_SIZE = 1024;
+
+    /** The contents of a file, as served, before and after compressing */
+    static class Contents {
+        final byte[] plain;
+        /** null if compressing didn't make it smaller */
+        final byte[] gzipped;
+
+        Contents(byte[] plain, byte[] gzipped) {
+            this.plain = plain;
+            this.gzipped = gzipped;
+        }
+    }
+
+    private final Map<String, Contents> cache = new ConcurrentHashMap<String, Contents>();
+
+    @Override
+    public Resource transform(HttpServletRequest request, Resource resource, ResourceTransformerChain chain)
+            throws IOException {
+        boolean fingerprinted = (resource instanceof HttpResource)
+                && ((HttpResource)resource).getResponseHeaders().getETag() != null;
+        String key = resource.getDescription() + "@" + resource.lastModified();
+        Contents contents = cache.get(key);
+        if (contents == null) {
+            contents = compress(chain.transform(request, resource));
+            cache.put(key, contents);
+        }
+        String acceptEncoding = request.getHeader(HttpHeaders.ACCEPT_ENCODING);
+        boolean gzip = contents.gzipped != null && acceptEncoding != null && acceptEncoding.contains("gzip");
+        HttpHeaders headers = new HttpHeaders();
+        if (contents.gzipped != null) {
+            headers.set(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+        }
+        if (gzip) {
+            headers.set(HttpHeaders.CONTENT_ENCODING, "gzip");
+        }
+        if (fingerprinted) {
+            headers.setAll(((HttpResource)resource).getResponseHeaders().toSingleValueMap());
+            // (this version of Spring's CacheControl doesn't know about immutable)
+            headers.setCacheControl(CacheControl.maxAge(FINGERPRINTED_MAX_AGE_DAYS, TimeUnit.DAYS)
+                    .cachePublic().getHeaderValue() + ", immutable");
+        }
+        return new ServedResource(resource, gzip ? contents.gzipped : contents.plain, headers);
+    }
+
+    static Contents compress(Resource resource) throws IOException {
+        byte[] plain;
+        try (InputStream in = resource.getInputStream()) {
+            plain = in.readAllBytes();
+        }
+        if (plain.length < MIN_SIZE) {
+            return new Contents(plain, null);
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(plain.length / 3);
+        try (GZIPOutputStream out = new GZIPOutputStream(bytes)) {
+            out.write(plain);
+        }
+        byte[] gzipped = bytes.toByteArray();
+        return new Contents(plain, gzipped.length < plain.length ? gzipped : null);
+    }
+
+    /**
+     * A static file's bytes, as we're going to send them, with the headers that go with them.
+     * Keeps the original's name (which tells the type of file) and modification time.
+     */
+    static class ServedResource extends AbstractResource implements HttpResource {
+        private final Resource original;
+        private final byte[] bytes;
+        private final HttpHeaders headers;
+
+        ServedResource(Resource original, byte[] bytes, HttpHeaders headers) {
+            this.original = original;
+            this.bytes = bytes;
+            this.headers = headers;
+        }
+
+        @Override
+        public String getFilename() { return original.getFilename(); }
+        @Override
+        public long lastModified() throws IOException { return original.lastModified(); }
+        @Override
+        public long contentLength() { return bytes.length; }
+        @Override
+        public InputStream getInputStream() { return new ByteArrayInputStream(bytes); }
+        @Override
+        public String getDescription() { return "served " + original.getDescription(); }
+        @Override
+        public HttpHeaders getResponseHeaders() { return headers; }
+    }
+}
@@ -0,0 +1,68 @@
+package com.jagbag.dvoting;
+
+import org.apache.catalina.connector.Connector;
+import org.apache.coyote.ProtocolHandler;
+import org.apache.coyote.UpgradeProtocol;
+import org.apache.coyote.http11.AbstractHttp11Protocol;
+import org.apache.coyote.http2.Http2Protocol;
+import org.apache.tomcat.util.net.SSLHostConfig;
+import org.springframework.boot.web.embedded.tomcat.TomcatConnectorCustomizer;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Settings for the HTTPS connector that Spring Boot has no properties for. See {@link ServerConfig}, and the
+ * connector-* settings in application.properties.
+ *
+ * During a vote, every voter's phone makes a burst of requests (keys, ballots, sign, signme, vote) within a few
+ * seconds, then goes quiet. What costs the most there is setting up connections, the TLS handshake in particular,
+ * not the requests themselves. So: keep connections open long enough to get through a whole ballot; let a
+ * reconnecting phone resume its TLS session rather than do a full handshake; and, over HTTP/2, let a phone send
+ * all its requests at once over one connection.
+ */
+public class ConnectorTuning implements TomcatConnectorCustomizer {
+    private final int keepAliveSeconds;
+    private final int maxKeepAliveRequests;
+    private final int tlsSessionCacheSize;
+    private final int tlsSessionTimeoutMinutes;
+    private final int http2MaxStreams;
+
+    /**
+     * @param keepAliveSeconds how long an idle connection is kept open, waiting for another request
+     * @param maxKeepAliveRequests how many requests one HTTP/1.1 connection may make before we close it
+     * @param tlsSessionCacheSize how many TLS sessions we remember, for clients to resume
+     * @param tlsSessionTimeoutMinutes how long a TLS session may be resumed
+     * @param http2MaxStreams how many requests one HTTP/2 connection may have going at once
+     */
+    public ConnectorTuning(int keepAliveSeconds, int maxKeepAliveRequests, int tlsSessionCacheSize,
+                           int tlsSessionTimeoutMinutes, int http2MaxStreams) {
+        this.keepAliveSeconds = keepAliveSeconds;
+        this.maxKeepAliveRequests = maxKeepAliveRequests;
+        this.tlsSessionCacheSize = tlsSessionCacheSize;
+        this.tlsSessionTimeoutMinutes = tlsSessionTimeoutMinutes;
+        this.http2MaxStreams = http2MaxStreams;
+    }
+
+    @Override
+    public void customize(Connector connector) {
+        int keepAliveMillis = (int)TimeUnit.SECONDS.toMillis(keepAliveSeconds);
+        ProtocolHandler handler = connector.getProtocolHandler();
+        if (handler instanceof AbstractHttp11Protocol) {
+            AbstractHttp11Protocol<?> http = (AbstractHttp11Protocol<?>)handler;
+            http.setKeepAliveTimeout(keepAliveMillis);
+            http.setMaxKeepAliveRequests(maxKeepAliveRequests);
+            for (SSLHostConfig ssl : http.findSslHostConfigs()) {
+                ssl.setSessionCacheSize(tlsSessionCacheSize);
+                ssl.setSessionTimeout((int)TimeUnit.MINUTES.toSeconds(tlsSessionTimeoutMinutes));
+            }
+        }
+        // Present if server.http2.enabled
+        for (UpgradeProtocol upgrade : connector.findUpgradeProtocols()) {
+            if (upgrade instanceof Http2Protocol) {
+                Http2Protocol http2 = (Http2Protocol)upgrade;
+                http2.setKeepAliveTimeout(keepAliveMillis);
+                http2.setMaxConcurrentStreams(http2MaxStreams);
+            }
+        }
+    }
+}
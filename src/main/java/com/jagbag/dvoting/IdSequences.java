@@ -0,0 +1,91 @@
+package com.jagbag.dvoting;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.sql.*;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Where new rows get their ids. Each table has a sequence of its own, and ids are taken from it a block of
+ * BLOCK_SIZE at a time: one trip to the sequence, and the next BLOCK_SIZE inserts need none, so Hibernate can
+ * send them to the database in one JDBC batch (see hibernate.jdbc.batch_size in application.properties).
+ * The value the sequence hands out is the first id of the block (Hibernate's "pooled-lo" optimizer), so
+ * anything inserting rows with plain JDBC, like the {@link VoteJournal}, can take blocks from the same sequence
+ * with {@link #nextBlock}, and never collide with Hibernate.
+ *
+ * All the tables used to share hibernate_sequence, one id per trip. A database from back then has rows with ids
+ * that the new sequences, starting at 1, would hand out again; so at start-up, {@link #realign} moves each
+ * sequence past the biggest id in its table. (ddl-auto=update creates the sequences; where the schema is
+ * managed by hand, as in prod, realign creates them too.)
+ */
+@Component("idSequences")
+public class IdSequences {
+    /** How many ids are taken from a sequence at a time. (A String, for use in the entities' annotations.) */
+    public static final String BLOCK_SIZE = "50";
+    static final int BLOCK = Integer.parseInt(BLOCK_SIZE);
+    /** The optimizer every entity's id generator uses; see the class comment. */
+    public static final String OPTIMIZER = "pooled-lo";
+
+    public static final String VOTE = "vote_seq";
+    public static final String VOTER = "voter_seq";
+    public static final String QUESTION = "question_seq";
+    public static final String RESPONSE_OPTION = "response_option_seq";
+    public static final String OUTBOUND_EMAIL = "outbound_email_seq";
+
+    /** Table name to the name of its id sequence */
+    static final Map<String, String> SEQUENCES = new LinkedHashMap<String, String>();
+    static {
+        SEQUENCES.put("vote", VOTE);
+        SEQUENCES.put("voter", VOTER);
+        SEQUENCES.put("question", QUESTION);
+        SEQUENCES.put("response_option", RESPONSE_OPTION);
+        SEQUENCES.put("outbound_email", OUTBOUND_EMAIL);
+    }
+
+    @Autowired
+    private DataSource dataSource;
+
+    /**
+     * Take the next block of ids from a sequence.
+     * @return the first id of the block; it and the BLOCK_SIZE - 1 after it are the caller's to use
+     */
+    public static long nextBlock(Connection connection, String sequence) throws SQLException {
+        try (Statement statement = connection.createStatement();
+             ResultSet results = statement.executeQuery("select next value for " + sequence)) {
+            results.next();
+            return results.getLong(1);
+        }
+    }
+
+    /**
+     * Make sure each table's sequence exists, and won't hand out any id already in the table. Call at start-up,
+     * before anything is inserted.
+     * @return how many sequences had to be moved
+     */
+    public int realign() throws SQLException {
+        int moved = 0;
+        try (Connection connection = dataSource.getConnection();
+             Statement statement = connection.createStatement()) {
+            for (Map.Entry<String, String> entry : SEQUENCES.entrySet()) {
+                String table = entry.getKey();
+                String sequence = entry.getValue();
+                statement.execute("create sequence if not exists " + sequence
+                        + " start with 1 increment by " + BLOCK);
+                long maxId;
+                try (ResultSet results = statement.executeQuery("select coalesce(max(id), 0) from " + table)) {
+                    results.next();
+                    maxId = results.getLong(1);
+                }
+                // (Costs a block of ids, which is nothing.)
+                if (nextBlock(connection, sequence) <= maxId) {
+                    statement.execute("alter sequence " + sequence + " restart with " + (maxId + 1));
+                    ++moved;
+                }
+            }
+        }
+        return moved;
+    }
+}
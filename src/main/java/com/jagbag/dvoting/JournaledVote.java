@@ -0,0 +1,47 @@
+package com.jagbag.dvoting;
+
+import java.time.LocalDateTime;
+import java.util.Objects;
+
+/**
+ * A Vote as it is written to the {@link VoteJournal}: everything that goes in the Vote table, with the
+ * Question referred to by ID. Serialized as one line of JSON per vote.
+ */
+public class JournaledVote {
+    public long quid;
+    public String response;
+    public String voterChitNumber;
+    public String responseChitNumber;
+    public int ranking;
+    public LocalDateTime receivedWhen;
+
+    protected JournaledVote() {} // Jackson needs this
+
+    public JournaledVote(long quid, String response, String voterChitNumber, String responseChitNumber, int ranking) {
+        this.quid = quid;
+        this.response = response;
+        this.voterChitNumber = voterChitNumber;
+        this.responseChitNumber = responseChitNumber;
+        this.ranking = ranking;
+        this.receivedWhen = LocalDateTime.now();
+    }
+
+    /**
+     * The identity of a vote, for the purpose of spotting duplicates: which Question, which me chit, which
+     * position in the ranking. Only one vote may be recorded per key.
+     */
+    public static String key(long quid, String voterChitNumber, int ranking) {
+        return quid + " " + voterChitNumber + " " + ranking;
+    }
+
+    public String key() {
+        return key(quid, voterChitNumber, ranking);
+    }
+
+    /**
+     * @return true if the other vote says the same thing as this one, i.e. is the same vote sent twice
+     */
+    public boolean sameVoteAs(String otherResponse, String otherResponseChitNumber) {
+        return Objects.equals(response, otherResponse) && Objects.equals(responseChitNumber, otherResponseChitNumber);
+    }
+}
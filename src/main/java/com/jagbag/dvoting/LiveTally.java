@@ -0,0 +1,123 @@
+package com.jagbag.dvoting;
+
+import com.jagbag.dvoting.entities.Question;
+import com.jagbag.dvoting.entities.ResponseOption;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Running vote counts for one Question: for each response, how many votes ranked it first, second, and so on.
+ * (For a SINGLE question, there's only first.) The CTF keeps one of these for each posted Question and adds to
+ * it as each vote is accepted, so reporting the counts costs time in proportion to the number of options, not
+ * the number of votes.
+ *
+ * This is only the arithmetic. Working out the winner of a ranked choice question needs the whole ballots, and
+ * every Voter should still check the detailed list of votes to see that theirs is in it.
+ */
+public class LiveTally {
+    /** What we report: see {@link #report()}. */
+    public static class Report {
+        /** Vote counts for one response. */
+        public static class ResponseCount {
+            public String response;
+            /** countsByRank[0] is how many ranked this first, countsByRank[1] second, and so on */
+            public long[] countsByRank;
+            /** how many votes for this response, at any rank */
+            public long total;
+        }
+        public long quid;
+        /** how many Voters voted: that is, how many first choices */
+        public long voterCount;
+        /** the Question's responses, in order, followed by any others we've seen votes for */
+        public List<ResponseCount> responses = new ArrayList<ResponseCount>();
+    }
+
+    private final long quid;
+    private final int ranks;
+    private final List<String> options;
+    private final Map<String, Integer> optionIndex;
+    /** ranks x options; the count for option i at rank r is at [r * options.size() + i] */
+    private final AtomicLongArray counts;
+    /** Votes for responses that aren't among the Question's options. Shouldn't happen, but a client could. */
+    private final Map<String, AtomicLongArray> otherCounts = new ConcurrentHashMap<>();
+
+    public LiveTally(Question q) {
+        quid = q.getId();
+        options = new ArrayList<String>();
+        optionIndex = new HashMap<String, Integer>();
+        for (ResponseOption opt : q.getPossibleResponses()) {
+            if (!optionIndex.containsKey(opt.getText())) {
+                optionIndex.put(opt.getText(), options.size());
+                options.add(opt.getText());
+            }
+        }
+        int r = 0;
+        while (q.acceptsResponseRank(r)) {
+            ++r;
+        }
+        ranks = Math.max(r, 1);
+        counts = new AtomicLongArray(ranks * options.size());
+    }
+
+    /**
+     * Count a vote.
+     */
+    public void count(String response, int ranking) {
+        add(response, ranking, 1);
+    }
+
+    /**
+     * Count a number of votes for the same response at the same ranking. Votes at rankings the Question doesn't
+     * allow are ignored; the CTF doesn't accept them in the first place.
+     */
+    public void add(String response, int ranking, long n) {
+        if (ranking < 0 || ranking >= ranks) {
+            return;
+        }
+        Integer i = optionIndex.get(response);
+        if (i != null) {
+            counts.addAndGet(ranking * options.size() + i, n);
+        }
+        else {
+            otherCounts.computeIfAbsent(response, (k) -> new AtomicLongArray(ranks)).addAndGet(ranking, n);
+        }
+    }
+
+    /**
+     * @return the counts as they stand right now
+     */
+    public Report report() {
+        Report report = new Report();
+        report.quid = quid;
+        for (int i = 0; i < options.size(); ++i) {
+            long[] byRank = new long[ranks];
+            for (int r = 0; r < ranks; ++r) {
+                byRank[r] = counts.get(r * options.size() + i);
+            }
+            report.responses.add(responseCount(options.get(i), byRank));
+        }
+        for (Map.Entry<String, AtomicLongArray> entry : otherCounts.entrySet()) {
+            long[] byRank = new long[ranks];
+            for (int r = 0; r < ranks; ++r) {
+                byRank[r] = entry.getValue().get(r);
+            }
+            report.responses.add(responseCount(entry.getKey(), byRank));
+        }
+        for (Report.ResponseCount rc : report.responses) {
+            report.voterCount += rc.countsByRank[0];
+        }
+        return report;
+    }
+
+    private static Report.ResponseCount responseCount(String response, long[] byRank) {
+        Report.ResponseCount rc = new Report.ResponseCount();
+        rc.response = response;
+        rc.countsByRank = byRank;
+        for (long n : byRank) {
+            rc.total += n;
+        }
+        return rc;
+    }
+}
@@ -0,0 +1,121 @@
+package com.jagbag.dvoting;
+
+import org.hibernate.boot.spi.SessionFactoryOptions;
+import org.hibernate.cache.cfg.spi.DomainDataRegionBuildingContext;
+import org.hibernate.cache.cfg.spi.DomainDataRegionConfig;
+import org.hibernate.cache.spi.support.DomainDataStorageAccess;
+import org.hibernate.cache.spi.support.RegionFactoryTemplate;
+import org.hibernate.cache.spi.support.StorageAccess;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.engine.spi.SharedSessionContractImplementor;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Hibernate's second-level cache, kept in this server's memory: each cache region is just a map. Set as
+ * hibernate.cache.region.factory_class in application.properties. Which entities are cached is up to their
+ * {@link javax.persistence.Cacheable} annotations; so far, just {@link com.jagbag.dvoting.entities.Voter},
+ * which is looked up on nearly every request (see {@link VoterListManager#getForUsername}).
+ *
+ * Meant for one server; with several servers sharing a database, each would have its own copy of the cache, and
+ * would not see the others' changes.
+ */
+public class LocalCacheRegionFactory extends RegionFactoryTemplate {
+    /** Setting for how many entries a region may hold; when it's full, it's emptied, and fills up again */
+    public static final String MAX_ENTRIES = "local-cache.max-entries";
+    static final int DEFAULT_MAX_ENTRIES = 100000;
+
+    private int maxEntries = DEFAULT_MAX_ENTRIES;
+
+    @Override
+    protected void prepareForUse(SessionFactoryOptions settings, Map configValues) {
+        Object setting = configValues.get(MAX_ENTRIES);
+        if (setting != null) {
+            maxEntries = Integer.parseInt(setting.toString());
+        }
+    }
+
+    @Override
+    protected void releaseFromUse() {
+    }
+
+    @Override
+    protected DomainDataStorageAccess createDomainDataStorageAccess(DomainDataRegionConfig regionConfig,
+                                                                   DomainDataRegionBuildingContext buildingContext) {
+        return new MapStorage(this, maxEntries);
+    }
+
+    @Override
+    protected StorageAccess createQueryResultsRegionStorageAccess(String regionName,
+                                                                  SessionFactoryImplementor sessionFactory) {
+        return new MapStorage(this, maxEntries);
+    }
+
+    @Override
+    protected StorageAccess createTimestampsRegionStorageAccess(String regionName,
+                                                                SessionFactoryImplementor sessionFactory) {
+        return new MapStorage(this, maxEntries);
+    }
+
+    /**
+     * One region's entries.
+     *
+     * Emptying a region (as {@link VoterListManager#voterListChanged} does, after every change to the Voter
+     * table) has to stop a session that read the database before the change from putting what it read into the
+     * cache after it was emptied; so nothing from a session that started before the last time the region was
+     * emptied is kept. (Which is safe only because every change is followed by emptying the region.)
+     */
+    static class MapStorage implements DomainDataStorageAccess {
+        private final RegionFactoryTemplate regionFactory;
+        private final int maxEntries;
+        private final Map<Object, Object> entries = new ConcurrentHashMap<Object, Object>();
+        private volatile long evictedAt;
+
+        MapStorage(RegionFactoryTemplate regionFactory, int maxEntries) {
+            this.regionFactory = regionFactory;
+            this.maxEntries = maxEntries;
+        }
+
+        @Override
+        public Object getFromCache(Object key, SharedSessionContractImplementor session) {
+            return entries.get(key);
+        }
+
+        @Override
+        public void putIntoCache(Object key, Object value, SharedSessionContractImplementor session) {
+            if (session != null && session.getTransactionStartTimestamp() <= evictedAt) {
+                return;
+            }
+            if (entries.size() >= maxEntries) {
+                entries.clear();
+            }
+            entries.put(key, value);
+        }
+
+        @Override
+        public boolean contains(Object key) {
+            return entries.containsKey(key);
+        }
+
+        @Override
+        public void evictData() {
+            evictedAt = regionFactory.nextTimestamp();
+            entries.clear();
+        }
+
+        @Override
+        public void evictData(Object key) {
+            entries.remove(key);
+        }
+
+        @Override
+        public void release() {
+            entries.clear();
+        }
+
+        int size() {
+            return entries.size();
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package com.jagbag.dvoting;
+
+/**
+ * A fixed-size set of lock objects, one of which is picked for a given key by hashing the key.
+ * Two callers working on the same key always get the same lock, and so are serialized; callers working on
+ * different keys usually get different locks, and so can run at the same time. (Occasionally two keys share a
+ * stripe and contend needlessly; that costs a little waiting, never correctness.)
+ * Used for synchronized blocks, as in: synchronized (stripes.lockFor(quid, username)) { ... }
+ */
+public class LockStripes {
+    private final Object[] locks;
+
+    /**
+     * @param count number of stripes; rounded up to a power of 2
+     */
+    public LockStripes(int count) {
+        int size = Integer.highestOneBit(Math.max(1, count - 1)) << 1;
+        locks = new Object[size];
+        for (int i = 0; i < size; ++i) {
+            locks[i] = new Object();
+        }
+    }
+
+    public Object lockFor(long id, Object key) {
+        int h = Long.hashCode(id) * 31 + key.hashCode();
+        h ^= (h >>> 16);
+        return locks[h & (locks.length - 1)];
+    }
+
+    public int size() {
+        return locks.length;
+    }
+}
@@ -1,6 +1,5 @@
 package com.jagbag.dvoting;
 
-import com.jagbag.dvoting.controllers.APIController;
 import com.jagbag.dvoting.controllers.LoginController;
 import com.jagbag.dvoting.entities.*;
 import com.jagbag.dvoting.email.*;
@@ -38,28 +37,44 @@ public class LoginManager {
     /** See {@link VoterListManager } */
     @Autowired protected VoterListManager voterListManager;
     @Autowired protected LoginController loginController;
-    private Map<String, String> tokens = new HashMap<String, String>();
-    private Map<String, Long> backoffPerLogin = new HashMap<String, Long>();
+    /** See {@link SessionTokens} */
+    @Autowired protected SessionTokens sessionTokens;
+
+    /** See {@link LoginThrottle} */
+    @Autowired protected LoginThrottle loginThrottle;
 
     public Voter validateLoginCredentials(String username, String password) {
         return validateLoginCredentials(username, password, true);
     }
 
     public Voter validateLoginCredentials(String username, String password, boolean doNewToken) {
+        return validateLoginCredentials(username, password, null, doNewToken);
+    }
+
+    /**
+     * Check a username and password. Doesn't make anyone wait; but a failure counts towards the penalty that
+     * the {@link LoginThrottle} will make the next attempt wait out.
+     * @param address where the attempt came from, if we know; may be null
+     * @param doNewToken whether to start a new session for the user, if the password is right
+     * @return the Voter, if the password is right; otherwise null
+     */
+    public Voter validateLoginCredentials(String username, String password, String address, boolean doNewToken) {
         Voter v = voterListManager.getForUsername(username);
         if (v == null) {
+            loginThrottle.recordFailure(username, address);
             return null;
         }
         try {
             if (v.checkPassword(password)) {
+                loginThrottle.recordSuccess(username);
                 if (doNewToken) {
-                    createTokenForUser(username);
+                    startSession(v);
                 }
                 return v;
             }
             else {
                 // exponential backoff, to mitigate dictionary attack
-                Thread.currentThread().sleep(incrementBackoffForUser(username));
+                loginThrottle.recordFailure(username, address);
                 return null;
             }
         }
@@ -71,32 +86,20 @@ public class LoginManager {
         }
     }
 
-    protected synchronized void clearBackoffForUser(String username) {
-        backoffPerLogin.put(username, 50L);
-    }
-
-    protected synchronized long incrementBackoffForUser(String username) {
-        long delay = backoffPerLogin.computeIfAbsent(username, (String u) -> {return 50L;});
-        long newDelay = (long)(delay * (ThreadLocalRandom.current().nextDouble()+1) );
-        backoffPerLogin.put(username, newDelay);
-        return delay;
-    }
-
-    protected synchronized void createTokenForUser(String username) {
-        String newToken = (new BigInteger(24, ThreadLocalRandom.current())).toString(36);
-        tokens.put(username, newToken);
-    }
-
-    protected synchronized boolean validateTokenForUser(String token, String username) {
-        return (token.equals(tokenForUser(username)));
+    /**
+     * Start a new session for the given user.
+     * @return the token for the session, which goes in the "token" cookie
+     */
+    public String startSession(Voter v) {
+        return sessionTokens.create(v);
     }
 
-    public synchronized String tokenForUser(String username) {
-        return tokens.get(username);
+    protected boolean validateTokenForUser(String token, String username) {
+        return (sessionTokens.voterFor(username, token) != null);
     }
 
-    public synchronized void forgetTokenForUser(Voter v) {
-        tokens.remove(v.getUsername());
+    public void forgetTokenForUser(Voter v) {
+        sessionTokens.remove(v.getUsername());
     }
 
     public Voter validateBasicUser(HttpHeaders headers) {
@@ -122,10 +125,7 @@ public class LoginManager {
         if (username == null || token == null) {
             throw new UnauthorizedException();
         }
-        if (!validateTokenForUser(token, username)) {
-            throw new UnauthorizedException();
-        }
-        Voter v = voterListManager.getForUsername(username);
+        Voter v = sessionTokens.voterFor(username, token);
         if (v == null) {
             throw new UnauthorizedException();
         }
@@ -176,84 +176,23 @@ public class LoginManager {
         return v;
     }
 
-    /* TODO: currently not a good job of reporting errors to the user */
-    public boolean parseUploadedVoterList(MultipartFile file) {
-        String emailPattern = "[a-zA-Z_0-9.]+(\\+[a-zA-Z_0-9.]+)?@\\w+\\.[a-zA-Z.]+";
-        String namePattern = "[\\p{IsAlphabetic}\\p{Digit} .,-]+";
-        InputStream in = null;
-        InputStreamReader inRead = null;
-        BufferedReader read = null;
-        Map<String, String> peopleWhoShouldVote = new HashMap<String, String>();
-        try {
-            in = file.getInputStream();
-            inRead = new InputStreamReader(in);
-            read = new BufferedReader(inRead);
-            String line;
-            while (true) {
-                line = read.readLine();
-                if (line == null) break;
-                if (line.length() < 3) {
-                    System.out.println("Weirdly short line in uploaded voter list file: " + line);
-                    continue;
-                }
-                if (line.length() > 80) {
-                    System.out.println("Weirdly long line in uploaded voter list file: " + line);
-                    System.out.println("Rejecting file.");
-                    return false;
-                }
-                line = line.trim();
-                String[] fields = line.split("\t");
-                if (fields.length != 2) {
-                    System.out.println("Each line of an uploaded voter list file should contain 2 tab-separated fields.");
-                    System.out.println("Skipping malformed line: " + line);
-                    continue;
-                }
-                String email = fields[0];
-                String name = fields[1];
-                if (!email.matches(emailPattern)) {
-                    System.out.println("Bad email, skipped: " + email);
-                    continue;
-                }
-                name.replaceAll("[<>'\"\\/:;=]", "");
-                if (!name.matches(namePattern)) {
-                    System.out.println("Bad name, skipped: " + fields[1]);
-                    continue;
-                }
-                if (peopleWhoShouldVote.get(email) != null) {
-                    System.out.println("Duplicate email address in data: " + email);
-                    continue;
-                }
-                peopleWhoShouldVote.put(email, name);
-            }  // END while
-            if (peopleWhoShouldVote.keySet().size() > 0) {
-                updateVoterList(peopleWhoShouldVote);
-            }
-            else {
-                System.out.println("Zero valid records; doing nothing");
-                return false;
-            }
+    /** See {@link RosterImporter} */
+    @Autowired protected RosterImporter rosterImporter;
+
+    /**
+     * Make the list of people allowed to vote match an uploaded file (see {@link RosterImporter}), and send
+     * each person who got a new account their login information.
+     * @return what was done, and what lines of the file were skipped, and why
+     */
+    public VoterListReconciler.Report parseUploadedVoterList(MultipartFile file) throws IOException {
+        VoterListReconciler.Report report;
+        try (InputStream in = file.getInputStream()) {
+            report = rosterImporter.importRoster(in);
         }
-        catch (IOException | NoSuchAlgorithmException e) {
-            e.printStackTrace();
-            return false;
+        for (Voter v : report.newVoters) {
+            sendAutomaticallyAddedAccountEmail(v);
         }
-        finally {
-            try {
-                if (read != null) {
-                    read.close();
-                }
-                if (inRead != null) {
-                    inRead.close();
-                }
-                if (in != null) {
-                    in.close();
-                }
-            }
-            catch (IOException e) {
-                e.printStackTrace();
-            }
-        }
-        return true;
+        return report;
     }
 
     /** Connection to the email sending system */
@@ -266,8 +205,7 @@ public class LoginManager {
      */
     public boolean sendResetEmail(Voter v) {
         try {
-            String text = v.processEmailText(APIController.textFromResource(resetEmailTemplate));
-            text = text.replaceAll("##BASEURL##", loginController.getHostBaseURL());
+            String text = v.processEmailText(Template.of(resetEmailTemplate), loginController.getHostBaseURL());
             emailSender.sendEmail(v.getEmail(), "your password reset", text);
             return true;
         }
@@ -284,8 +222,7 @@ public class LoginManager {
 
     public boolean sendConfirmationEmail(Voter v) {
         try {
-            String text = v.processEmailText(APIController.textFromResource(confirmEmailTemplate));
-            text = text.replaceAll("##BASEURL##", loginController.getHostBaseURL());
+            String text = v.processEmailText(Template.of(confirmEmailTemplate), loginController.getHostBaseURL());
             emailSender.sendEmail(v.getEmail(), "please confirm your email", text);
             return true;
         }
@@ -303,8 +240,7 @@ public class LoginManager {
      */
     public boolean sendAutomaticallyAddedAccountEmail(Voter v) {
         try {
-            String text = v.processEmailText(APIController.textFromResource(announceEmailTemplate));
-            text = text.replaceAll("##BASEURL##", loginController.getHostBaseURL());
+            String text = v.processEmailText(Template.of(announceEmailTemplate), loginController.getHostBaseURL());
             emailSender.sendEmail(v.getEmail(), "Digital Voting account", text);
             return true;
         }
@@ -314,52 +250,4 @@ public class LoginManager {
             return false;
         }
     }
-
-    /**
-     * Update Voter table such that the set of Voter records with allowedToVote set to true
-     * exactly matches the contents of this data structure.
-     * For each email - name pair, two possibilities:
-     * - there is an account with the given email address. If so turn on allowedToVote.
-     * - there is no account with the given email address. Make an account, email the person, and
-     *      turn on allowedToVote with their login credentials.
-     * Then, turn off voting for each Voter not in this data structure. Query for the list of Voters
-     * who are allowedToVote, and for each one, if they're not listed, turn that off.
-     * @param peopleWhoShouldVote Map with email address as key, real person name as value
-     */
-    private void updateVoterList(Map<String, String> peopleWhoShouldVote) throws UnsupportedEncodingException, NoSuchAlgorithmException {
-        Set<Voter> updatedVoters = new HashSet<Voter>();
-        for (String email : peopleWhoShouldVote.keySet()) {
-            Voter v = voterListManager.getForEmail(email);
-            if (v == null) {
-                v = new Voter(peopleWhoShouldVote.get(email), email, email);
-                String tempPassword = (new BigInteger(48, ThreadLocalRandom.current())).toString(36);
-                voterListManager.addVoter(v, tempPassword);
-                voterListManager.activateAccountWithoutConfirm(v);
-                v.setAllowedToVote(true);
-                v.prepareForReset();
-                sendAutomaticallyAddedAccountEmail(v);
-                updatedVoters.add(v);
-            }
-            else {
-                if (!v.isActiveAccount()) {
-                    voterListManager.activateAccountWithoutConfirm(v);
-                    updatedVoters.add(v);
-
-                }
-                if (!v.isAllowedToVote()) {
-                    v.setAllowedToVote(true);
-                    updatedVoters.add(v);
-                }
-            }
-        }
-        for (Voter v : voterListManager.voters()) {
-            if (v.isAllowedToVote()) {
-                if (peopleWhoShouldVote.get(v.getEmail()) == null) {
-                    v.setAllowedToVote(false);
-                    updatedVoters.add(v);
-                }
-            }
-        }
-        voterListManager.updateVoters(updatedVoters);
-    }
 }
@@ -0,0 +1,225 @@
+package com.jagbag.dvoting;
+
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongSupplier;
+
+/**
+ * Slows down password guessing. Every failed login attempt adds to a penalty for the username tried; each further
+ * attempt on that username is made to wait out the penalty before the password is even checked. The penalty grows
+ * (roughly doubling) with each failure, up to a limit, and fades away (halving every minute) once the failures
+ * stop. A successful login clears the penalty for that username.
+ *
+ * The address an attempt came from gets a penalty too, so that guessing at many usernames from one place doesn't
+ * get around the per-username penalty. But at a meeting, everyone in the room may well come from the same address
+ * (the venue's NAT, or our own reverse proxy), and a few people mistyping their passwords mustn't slow down
+ * everyone else's logins, nor should anyone in the room be able to lock the rest out. So an address is only
+ * penalized for failing against a new username, and only once it has failed against several different ones; and
+ * its penalty has a much lower limit than a username's.
+ *
+ * The waiting is not done by putting a request thread to sleep, which would let someone hammering the login
+ * page with bad passwords tie up every thread we have, and stop everyone from voting. Instead, the attempt is
+ * scheduled to be checked when the wait is over, and the request thread goes back to work; see
+ * {@link #afterPenalty}. The timer thread only keeps time: the checking (hashing the password, reading and
+ * writing the database) is handed to a small pool of threads, so that attempts whose waits end together don't
+ * queue up behind one another.
+ *
+ * The table of penalties is bounded: when it fills up, the entries that have gone longest without a failure are
+ * dropped. Entries that have faded to nothing are swept out as we go.
+ */
+@Component("loginThrottle")
+public class LoginThrottle {
+    /** Penalty after the first failure. */
+    static final long MIN_PENALTY_MILLIS = 50;
+    /** The most that anyone will be made to wait. */
+    public static final long MAX_PENALTY_MILLIS = 30_000;
+    /** How long it takes for a penalty to fade by half. */
+    static final long HALF_LIFE_MILLIS = 60_000;
+    /** How many different usernames an address may fail against before it's penalized at all. */
+    static final int FREE_USERNAMES_PER_ADDRESS = 5;
+    /** The most that an address's penalty makes anyone wait. */
+    static final long MAX_ADDRESS_PENALTY_MILLIS = 2_000;
+    /** Most usernames we remember per address; past that, every failure from the address counts. */
+    static final int MAX_USERNAMES_PER_ADDRESS = 100;
+    /** How long an address has to go without a failure for the usernames it failed against to be forgotten. */
+    static final long FORGET_USERNAMES_MILLIS = 10 * HALF_LIFE_MILLIS;
+    /** Most usernames and addresses we keep penalties for. */
+    static final int MAX_ENTRIES = 10_000;
+    /** How many penalized attempts may be checked at once. */
+    static final int CHECK_THREADS = Math.max(2, Runtime.getRuntime().availableProcessors());
+
+    private static final class Penalty {
+        long millis;
+        long lastFailureAt;
+        /** For an address: the usernames that have failed from it, and when the last of its failures was */
+        Set<String> usernames;
+        long lastAnyFailureAt;
+
+        Penalty(long millis, long lastFailureAt) {
+            this.millis = millis;
+            this.lastFailureAt = lastFailureAt;
+        }
+
+        /** The penalty, allowing for how much it has faded since the last failure. */
+        long asOf(long now) {
+            long halvings = (now - lastFailureAt) / HALF_LIFE_MILLIS;
+            return (halvings >= 63) ? 0 : (millis >> halvings);
+        }
+    }
+
+    private final LongSupplier clock;
+    private final int maxEntries;
+    private final Map<String, Penalty> penalties = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService timer;
+    private final ExecutorService checkers;
+
+    public LoginThrottle() {
+        this(System::currentTimeMillis, MAX_ENTRIES);
+    }
+
+    LoginThrottle(LongSupplier clock, int maxEntries) {
+        this.clock = clock;
+        this.maxEntries = maxEntries;
+        timer = Executors.newSingleThreadScheduledExecutor((r) -> {
+            Thread t = new Thread(r, "login-throttle");
+            t.setDaemon(true);
+            return t;
+        });
+        AtomicInteger checkerCount = new AtomicInteger();
+        checkers = Executors.newFixedThreadPool(CHECK_THREADS, (r) -> {
+            Thread t = new Thread(r, "login-check-" + checkerCount.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        timer.shutdownNow();
+        checkers.shutdownNow();
+    }
+
+    private static String userKey(String username) {
+        return "user " + username;
+    }
+
+    private static String addressKey(String address) {
+        return "address " + address;
+    }
+
+    /**
+     * @return how long an attempt to log in as the given user, from the given address, must wait, in milliseconds
+     * @param address may be null, if we don't know where the attempt came from
+     */
+    public long penaltyMillis(String username, String address) {
+        long now = clock.getAsLong();
+        long penalty = penaltyFor(userKey(username), now);
+        if (address != null) {
+            penalty = Math.max(penalty, penaltyFor(addressKey(address), now));
+        }
+        return penalty;
+    }
+
+    private long penaltyFor(String key, long now) {
+        Penalty p = penalties.get(key);
+        if (p == null) {
+            return 0;
+        }
+        synchronized (p) {
+            return p.asOf(now);
+        }
+    }
+
+    /**
+     * Note a failed attempt to log in as the given user, from the given address (which may be null).
+     */
+    public void recordFailure(String username, String address) {
+        long now = clock.getAsLong();
+        Penalty p = penaltyToIncrease(userKey(username), now);
+        synchronized (p) {
+            increase(p, now, MAX_PENALTY_MILLIS);
+        }
+        if (address != null) {
+            p = penaltyToIncrease(addressKey(address), now);
+            synchronized (p) {
+                if (p.usernames == null || now - p.lastAnyFailureAt > FORGET_USERNAMES_MILLIS) {
+                    p.usernames = new HashSet<>();
+                }
+                p.lastAnyFailureAt = now;
+                boolean newUsername = (p.usernames.size() >= MAX_USERNAMES_PER_ADDRESS) || p.usernames.add(username);
+                if (newUsername && p.usernames.size() > FREE_USERNAMES_PER_ADDRESS) {
+                    increase(p, now, MAX_ADDRESS_PENALTY_MILLIS);
+                }
+            }
+        }
+    }
+
+    private Penalty penaltyToIncrease(String key, long now) {
+        if (penalties.size() >= maxEntries && !penalties.containsKey(key)) {
+            makeRoom(now);
+        }
+        return penalties.computeIfAbsent(key, (k) -> new Penalty(0, now));
+    }
+
+    /** Called holding p's lock */
+    private static void increase(Penalty p, long now, long limit) {
+        long current = p.asOf(now);
+        long increased = (current < MIN_PENALTY_MILLIS) ? MIN_PENALTY_MILLIS
+                : (long)(current * (ThreadLocalRandom.current().nextDouble() + 1));
+        p.millis = Math.min(increased, limit);
+        p.lastFailureAt = now;
+    }
+
+    /**
+     * Note a successful login: no more penalty for that username. (The address keeps its penalty; one good
+     * password doesn't excuse a lot of bad ones.)
+     */
+    public void recordSuccess(String username) {
+        penalties.remove(userKey(username));
+    }
+
+    /**
+     * Run the given task once the penalty for the given user and address has been waited out: right away, on
+     * this thread, if there's no penalty; otherwise, later, on one of the checking threads.
+     */
+    public void afterPenalty(String username, String address, Runnable task) {
+        long wait = penaltyMillis(username, address);
+        if (wait <= 0) {
+            task.run();
+        }
+        else {
+            timer.schedule(() -> checkers.execute(task), wait, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * @return how many usernames and addresses we're keeping penalties for
+     */
+    public int size() {
+        return penalties.size();
+    }
+
+    /**
+     * Drop the penalties that have faded away; and if that doesn't free up a tenth of the table, drop those that
+     * have gone longest without a failure until it does.
+     */
+    synchronized void makeRoom(long now) {
+        penalties.values().removeIf((p) -> {
+            synchronized (p) {
+                return p.asOf(now) == 0;
+            }
+        });
+        int target = maxEntries - Math.max(1, maxEntries / 10);
+        if (penalties.size() > target) {
+            List<Map.Entry<String, Penalty>> entries = new ArrayList<>(penalties.entrySet());
+            entries.sort(Comparator.comparingLong((e) -> e.getValue().lastFailureAt));
+            for (int i = 0; i < entries.size() - target; ++i) {
+                penalties.remove(entries.get(i).getKey(), entries.get(i).getValue());
+            }
+        }
+    }
+}
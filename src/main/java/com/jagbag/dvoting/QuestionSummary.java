@@ -0,0 +1,51 @@
+package com.jagbag.dvoting;
+
+import com.jagbag.dvoting.entities.Question;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A Question as listed on the admin page: just what the page shows and needs to decide what can be done with it,
+ * in the same shape as the Question's own JSON. Read with a couple of queries for the whole list, rather than
+ * one or more per Question (see {@link CentralTabulatingFacility#questionSummaries}); nothing here is ever saved.
+ */
+public class QuestionSummary {
+    /** One of the Question's response options. */
+    public static class Option {
+        public String text;
+
+        public Option(String text) {
+            this.text = text;
+        }
+    }
+
+    public long id;
+    public String text;
+    public Question.CountingType type;
+    public String status;
+    public boolean editable;
+    public boolean deletable;
+    public boolean postable;
+    public boolean closable;
+    public LocalDateTime createdWhen;
+    public LocalDateTime closedWhen;
+    /** in the order they were added */
+    public List<Option> possibleResponses = new ArrayList<Option>();
+
+    public QuestionSummary(long id, String text, Question.CountingType type, LocalDateTime createdWhen,
+                           LocalDateTime postedWhen, LocalDateTime closedWhen) {
+        this.id = id;
+        this.text = text;
+        this.type = type;
+        this.createdWhen = createdWhen;
+        this.closedWhen = closedWhen;
+        status = Question.statusFor(postedWhen, closedWhen);
+        // The same as Question's canEdit(), canDelete(), canPost(), and canClose()
+        editable = (postedWhen == null);
+        deletable = (postedWhen == null);
+        postable = (postedWhen == null);
+        closable = (postedWhen != null && closedWhen == null);
+    }
+}
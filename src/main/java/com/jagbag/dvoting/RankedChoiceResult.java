@@ -0,0 +1,44 @@
+package com.jagbag.dvoting;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The result of instant-runoff tabulation of a ranked choice Question, as worked out by
+ * {@link RankedChoiceTabulator}, in the same shape that the admin page has always displayed.
+ */
+public class RankedChoiceResult {
+    /** How many ballots a candidate had in one round. */
+    public static class CandidateCount {
+        public String name;
+        public long votes;
+
+        public CandidateCount(String name, long votes) {
+            this.name = name;
+            this.votes = votes;
+        }
+    }
+
+    /**
+     * One way the count could have gone. Usually there's only one, but when candidates are tied for last place
+     * with the same number of first choices, which one is eliminated comes down to a coin flip, and different
+     * flips could give different winners. There's one Outcome per possible winner.
+     */
+    public static class Outcome {
+        /** null if nobody voted */
+        public String winner;
+        /** for each round, the candidates with any ballots, most ballots first */
+        public List<List<CandidateCount>> rounds;
+
+        public Outcome(String winner, List<List<CandidateCount>> rounds) {
+            this.winner = winner;
+            this.rounds = rounds;
+        }
+    }
+
+    /** ID of the Question */
+    public long quid;
+    /** how many ballots were cast */
+    public long numVotersResponded;
+    public List<Outcome> outcomes = new ArrayList<Outcome>();
+}
@@ -0,0 +1,260 @@
+package com.jagbag.dvoting;
+
+import java.util.*;
+
+/**
+ * Works out the winner of a ranked choice Question by instant runoff. This is the same count that ranked.js
+ * has always done in the browser; doing it here means it's done once, rather than by everyone who looks at
+ * the results, each of them downloading every vote first.
+ *
+ * In each round, each ballot counts for the highest-ranked candidate on it who hasn't been eliminated. If one
+ * candidate has a majority of the ballots counted that round, they win. If not, the candidate with the fewest
+ * ballots is eliminated. Ties for fewest are broken in favor of the candidate who had more first choices
+ * before any elimination; if that's a tie too, it's a coin flip. "None of the Above" is never eliminated.
+ *
+ * We don't flip coins: as in ranked.js, we follow every way the flips could go, and report one sequence of
+ * rounds for each candidate who could end up the winner. Different flips often lead to the same position
+ * (the same set of candidates eliminated), so each position is only followed once.
+ *
+ * Ballots are kept compactly: each candidate is numbered, a ballot is a string with one char per candidate
+ * (in the order ranked), and identical ballots are stored once, with a count. There are never more distinct
+ * ballots than there are orderings of candidates, and in practice far fewer, so tabulating a million ballots
+ * comes down to a few thousand ballots per round.
+ *
+ * Use: add the ballots, with {@link #addBallot} or, straight from the Vote table, with {@link #addVote}; then
+ * {@link #tabulate}. Not thread-safe.
+ */
+public class RankedChoiceTabulator {
+    /** Magic candidate that cannot be eliminated. */
+    public static final String NONE_OF_THE_ABOVE = "None of the Above";
+
+    private final List<String> candidates = new ArrayList<String>();
+    private final Map<String, Integer> candidateNumbers = new HashMap<String, Integer>();
+    private final Map<String, long[]> ballotCounts = new HashMap<String, long[]>();
+    private long ballotCount;
+
+    /** the ballot being built up by addVote */
+    private String currentVoter;
+    private StringBuilder currentBallot = new StringBuilder();
+
+    /**
+     * Add one ballot.
+     * @param responses the candidates, in the order the voter ranked them
+     */
+    public void addBallot(List<String> responses) {
+        StringBuilder ballot = new StringBuilder(responses.size());
+        for (String response : responses) {
+            ballot.append(candidateNumber(response));
+        }
+        addBallot(ballot.toString());
+    }
+
+    /**
+     * Add one Vote, that is, one ranking on one ballot. Votes must arrive grouped by ballot (i.e. by me chit
+     * number), and in order of ranking within each ballot, as they do from a query ordered by
+     * voterChitNumber, ranking.
+     */
+    public void addVote(String voterChitNumber, String response) {
+        if (!voterChitNumber.equals(currentVoter)) {
+            finishBallot();
+            currentVoter = voterChitNumber;
+        }
+        currentBallot.append(candidateNumber(response));
+    }
+
+    private void finishBallot() {
+        if (currentBallot.length() > 0) {
+            addBallot(currentBallot.toString());
+            currentBallot.setLength(0);
+        }
+        currentVoter = null;
+    }
+
+    private char candidateNumber(String response) {
+        Integer n = candidateNumbers.get(response);
+        if (n == null) {
+            if (candidates.size() > Character.MAX_VALUE) {
+                throw new IllegalStateException("Too many candidates");
+            }
+            n = candidates.size();
+            candidates.add(response);
+            candidateNumbers.put(response, n);
+        }
+        return (char)n.intValue();
+    }
+
+    private void addBallot(String ballot) {
+        if (ballot.isEmpty()) {
+            return;
+        }
+        long[] count = ballotCounts.get(ballot);
+        if (count == null) {
+            ballotCounts.put(ballot, new long[] {1});
+        }
+        else {
+            ++count[0];
+        }
+        ++ballotCount;
+    }
+
+    /**
+     * @return how many ballots have been added
+     */
+    public long getBallotCount() {
+        return ballotCount;
+    }
+
+    /**
+     * @return how many different ballots have been added
+     */
+    public int getDistinctBallotCount() {
+        return ballotCounts.size();
+    }
+
+    /**
+     * Run the count.
+     */
+    public RankedChoiceResult tabulate() {
+        finishBallot();
+        RankedChoiceResult result = new RankedChoiceResult();
+        result.numVotersResponded = ballotCount;
+        if (ballotCount == 0) {
+            result.outcomes.add(new RankedChoiceResult.Outcome(null, new ArrayList<List<RankedChoiceResult.CandidateCount>>()));
+            return result;
+        }
+        Count count = new Count();
+        Map<String, List<List<RankedChoiceResult.CandidateCount>>> roundsByWinner = new LinkedHashMap<>();
+        count.run(new BitSet(candidates.size()), new int[count.ballots.length],
+                new ArrayList<List<RankedChoiceResult.CandidateCount>>(), roundsByWinner);
+        for (Map.Entry<String, List<List<RankedChoiceResult.CandidateCount>>> entry : roundsByWinner.entrySet()) {
+            result.outcomes.add(new RankedChoiceResult.Outcome(entry.getKey(), entry.getValue()));
+        }
+        return result;
+    }
+
+    /**
+     * The state of the count that's shared by every way the coin flips could go.
+     */
+    private class Count {
+        final char[][] ballots;
+        final long[] weights;
+        final int nota;
+        final long[] firstChoices;
+        /** positions (sets of eliminated candidates) we've already followed to the end */
+        final Set<BitSet> explored = new HashSet<BitSet>();
+
+        Count() {
+            int n = ballotCounts.size();
+            ballots = new char[n][];
+            weights = new long[n];
+            int i = 0;
+            for (Map.Entry<String, long[]> entry : ballotCounts.entrySet()) {
+                ballots[i] = entry.getKey().toCharArray();
+                weights[i] = entry.getValue()[0];
+                ++i;
+            }
+            Integer notaNumber = candidateNumbers.get(NONE_OF_THE_ABOVE);
+            nota = (notaNumber == null) ? -1 : notaNumber;
+            firstChoices = new long[candidates.size()];
+            for (i = 0; i < ballots.length; ++i) {
+                firstChoices[ballots[i][0]] += weights[i];
+            }
+        }
+
+        /**
+         * Run rounds from the given position until there's a winner, branching wherever there's a coin flip.
+         * @param eliminated candidates eliminated so far
+         * @param positions for each ballot, the index on it of the candidate it counted for last round; only
+         *                  ever moves forward, so a ballot isn't re-read from the top every round
+         * @param rounds the rounds so far
+         * @param roundsByWinner where to put the rounds, when we find a winner we haven't found before
+         */
+        void run(BitSet eliminated, int[] positions, List<List<RankedChoiceResult.CandidateCount>> rounds,
+                 Map<String, List<List<RankedChoiceResult.CandidateCount>>> roundsByWinner) {
+            while (true) {
+                if (!explored.add((BitSet)eliminated.clone())) {
+                    return;  // been here before, by way of different coin flips
+                }
+                long[] votes = new long[candidates.size()];
+                long remaining = 0;
+                for (int b = 0; b < ballots.length; ++b) {
+                    char[] ballot = ballots[b];
+                    int p = positions[b];
+                    while (p < ballot.length && eliminated.get(ballot[p])) {
+                        ++p;
+                    }
+                    positions[b] = p;
+                    if (p < ballot.length) {
+                        votes[ballot[p]] += weights[b];
+                        remaining += weights[b];
+                    }
+                }
+                List<RankedChoiceResult.CandidateCount> round = roundResults(votes);
+                rounds.add(round);
+                if (round.isEmpty()) {
+                    // Every ballot is exhausted; nobody wins.
+                    roundsByWinner.putIfAbsent(null, rounds);
+                    return;
+                }
+                RankedChoiceResult.CandidateCount leader = round.get(0);
+                if (leader.votes * 2 > remaining) {
+                    roundsByWinner.putIfAbsent(leader.name, rounds);
+                    return;
+                }
+                List<Integer> toEliminate = candidatesForElimination(votes);
+                if (toEliminate.isEmpty()) {
+                    roundsByWinner.putIfAbsent(null, rounds);
+                    return;
+                }
+                // Follow all but one of the coin flips in a branch of their own...
+                for (int i = 1; i < toEliminate.size(); ++i) {
+                    BitSet branchEliminated = (BitSet)eliminated.clone();
+                    branchEliminated.set(toEliminate.get(i));
+                    run(branchEliminated, positions.clone(), new ArrayList<>(rounds), roundsByWinner);
+                }
+                // ...and carry on with the other one here.
+                eliminated.set(toEliminate.get(0));
+            }
+        }
+
+        /**
+         * @return the candidates who got any ballots this round, most ballots first
+         */
+        List<RankedChoiceResult.CandidateCount> roundResults(long[] votes) {
+            List<RankedChoiceResult.CandidateCount> round = new ArrayList<>();
+            for (int c = 0; c < votes.length; ++c) {
+                if (votes[c] > 0) {
+                    round.add(new RankedChoiceResult.CandidateCount(candidates.get(c), votes[c]));
+                }
+            }
+            round.sort((x, y) -> Long.compare(y.votes, x.votes));
+            return round;
+        }
+
+        /**
+         * @return the candidate to eliminate this round; or, if it's down to a coin flip, each of the
+         * candidates that it could be. Only candidates with ballots this round are considered, as in ranked.js.
+         */
+        List<Integer> candidatesForElimination(long[] votes) {
+            long fewest = Long.MAX_VALUE;
+            for (int c = 0; c < votes.length; ++c) {
+                if (c != nota && votes[c] > 0 && votes[c] < fewest) {
+                    fewest = votes[c];
+                }
+            }
+            long fewestFirstChoices = Long.MAX_VALUE;
+            for (int c = 0; c < votes.length; ++c) {
+                if (c != nota && votes[c] == fewest && firstChoices[c] < fewestFirstChoices) {
+                    fewestFirstChoices = firstChoices[c];
+                }
+            }
+            List<Integer> result = new ArrayList<Integer>();
+            for (int c = 0; c < votes.length; ++c) {
+                if (c != nota && votes[c] == fewest && firstChoices[c] == fewestFirstChoices) {
+                    result.add(c);
+                }
+            }
+            return result;
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package com.jagbag.dvoting;
+
+import com.jagbag.dvoting.entities.Voter;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Reads an uploaded voter list (a roster of the people who should be allowed to vote) and hands it to the
+ * {@link VoterListReconciler}.
+ *
+ * Each line of the file should have two fields: email address, and (real person's) name. The fields can be
+ * separated by a tab (as when a spreadsheet is exported as tab-delimited text), or by a comma (CSV, in which
+ * case a name with a comma in it can be put in double quotes). The file can be gzip-compressed, too; we can
+ * tell by looking.
+ *
+ * The file is read a line at a time, and fed to the reconciler in chunks, so however big it is, we never have
+ * more than a chunk of it in memory; besides, that is, the set of email addresses seen so far, which is how we
+ * notice someone being listed twice (in any case; see {@link Voter#emailKeyFor}). Lines that aren't right are skipped, and reported in the
+ * {@link VoterListReconciler.Report}.
+ */
+@Component("rosterImporter")
+public class RosterImporter {
+    /** How many people are fed to the reconciler at a time. */
+    static final int CHUNK_SIZE = 2000;
+    /** Longer lines than this are skipped: no email address and name are this long. */
+    static final int MAX_LINE_LENGTH = 1000;
+
+    static final Pattern EMAIL_PATTERN = Pattern.compile("[a-zA-Z_0-9.]+(\\+[a-zA-Z_0-9.]+)?@\\w+\\.[a-zA-Z.]+");
+    static final Pattern NAME_PATTERN = Pattern.compile("[\\p{IsAlphabetic}\\p{Digit} .,-]+");
+    static final Pattern UNSAFE_NAME_CHARACTERS = Pattern.compile("[<>'\"\\/:;=]");
+
+    /** See {@link VoterListReconciler} */
+    @Autowired
+    private VoterListReconciler voterListReconciler;
+
+    /**
+     * Read the voter list, and make the Voter table match it.
+     * @return what was done, and what was wrong with the file
+     */
+    public VoterListReconciler.Report importRoster(InputStream in) throws IOException {
+        VoterListReconciler.Report report = new VoterListReconciler.Report();
+        BufferedReader read = new BufferedReader(new InputStreamReader(ungzipped(in), StandardCharsets.UTF_8));
+        // Matchers aren't thread-safe, so each import gets its own; but we only need one of each per import.
+        Matcher email = EMAIL_PATTERN.matcher("");
+        Matcher name = NAME_PATTERN.matcher("");
+        Matcher unsafe = UNSAFE_NAME_CHARACTERS.matcher("");
+        Set<String> seen = new HashSet<String>();
+        List<VoterListReconciler.Person> chunk = new ArrayList<VoterListReconciler.Person>(CHUNK_SIZE);
+        VoterListReconciler.Reconciliation reconciliation = null;
+        try {
+            String line;
+            while ((line = read.readLine()) != null) {
+                int lineNumber = ++report.linesRead;
+                line = line.trim();
+                if (line.isEmpty()) {
+                    continue;
+                }
+                if (line.length() > MAX_LINE_LENGTH) {
+                    report.error(lineNumber, "Weirdly long line, skipped");
+                    continue;
+                }
+                List<String> fields = (line.indexOf('\t') >= 0) ? Arrays.asList(line.split("\t")) : splitCSV(line);
+                if (fields.size() != 2) {
+                    report.error(lineNumber, "Should contain 2 fields, separated by a tab or comma; skipped: " + line);
+                    continue;
+                }
+                String emailAddress = fields.get(0).trim();
+                String realName = unsafe.reset(fields.get(1).trim()).replaceAll("");
+                if (!email.reset(emailAddress).matches()) {
+                    report.error(lineNumber, "Bad email, skipped: " + emailAddress);
+                    continue;
+                }
+                if (!name.reset(realName).matches()) {
+                    report.error(lineNumber, "Bad name, skipped: " + fields.get(1));
+                    continue;
+                }
+                if (!seen.add(Voter.emailKeyFor(emailAddress))) {
+                    report.error(lineNumber, "Duplicate email address, skipped: " + emailAddress);
+                    continue;
+                }
+                chunk.add(new VoterListReconciler.Person(lineNumber, emailAddress, realName));
+                if (chunk.size() >= CHUNK_SIZE) {
+                    if (reconciliation == null) {
+                        reconciliation = voterListReconciler.begin(report);
+                    }
+                    reconciliation.add(chunk);
+                    chunk.clear();
+                }
+            }
+            if (seen.isEmpty()) {
+                report.error("Zero valid records; doing nothing");
+                return report;
+            }
+            if (reconciliation == null) {
+                reconciliation = voterListReconciler.begin(report);
+            }
+            reconciliation.add(chunk);
+            reconciliation.finish();
+        }
+        catch (IOException ex) {
+            throw ex;
+        }
+        catch (Exception ex) {
+            ex.printStackTrace();
+            report.error("Cannot save to database; no changes made");
+        }
+        finally {
+            if (reconciliation != null) {
+                reconciliation.close();
+            }
+        }
+        return report;
+    }
+
+    /**
+     * @return a stream of the contents of the given one, uncompressed, if it's gzip-compressed
+     */
+    static InputStream ungzipped(InputStream in) throws IOException {
+        BufferedInputStream buffered = new BufferedInputStream(in);
+        buffered.mark(2);
+        int first = buffered.read();
+        int second = buffered.read();
+        buffered.reset();
+        if (first == (GZIPInputStream.GZIP_MAGIC & 0xff) && second == (GZIPInputStream.GZIP_MAGIC >> 8)) {
+            return new GZIPInputStream(buffered);
+        }
+        return buffered;
+    }
+
+    /**
+     * Split a line of CSV into fields: separated by commas, except for commas inside double quotes; and two
+     * double quotes inside double quotes stand for one.
+     */
+    static List<String> splitCSV(String line) {
+        List<String> fields = new ArrayList<String>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); ++i) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c == '"') {
+                    if (i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                        field.append('"');
+                        ++i;
+                    }
+                    else {
+                        quoted = false;
+                    }
+                }
+                else {
+                    field.append(c);
+                }
+            }
+            else if (c == '"') {
+                quoted = true;
+            }
+            else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            }
+            else {
+                field.append(c);
+            }
+        }
+        fields.add(field.toString());
+        return fields;
+    }
+}
@@ -4,7 +4,9 @@ import org.apache.catalina.Context;
 import org.apache.catalina.connector.Connector;
 import org.apache.tomcat.util.descriptor.web.SecurityCollection;
 import org.apache.tomcat.util.descriptor.web.SecurityConstraint;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.web.embedded.tomcat.TomcatServletWebServerFactory;
+import org.springframework.boot.web.server.WebServerFactoryCustomizer;
 import org.springframework.boot.web.servlet.server.ServletWebServerFactory;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
@@ -29,6 +31,22 @@ public class ServerConfig {
         return tomcat;
     }
 
+    /**
+     * Keep-alive, TLS session cache, and HTTP/2 settings for the HTTPS connector. (Applies to whatever Tomcat
+     * we end up with, even if servletContainer() above is replaced, as in some tests.)
+     */
+    @Bean
+    public WebServerFactoryCustomizer<TomcatServletWebServerFactory> connectorTuning(
+            @Value("${connector-keep-alive-seconds:30}") int keepAliveSeconds,
+            @Value("${connector-max-keep-alive-requests:1000}") int maxKeepAliveRequests,
+            @Value("${connector-tls-session-cache-size:20000}") int tlsSessionCacheSize,
+            @Value("${connector-tls-session-timeout-minutes:120}") int tlsSessionTimeoutMinutes,
+            @Value("${connector-http2-max-streams:100}") int http2MaxStreams) {
+        ConnectorTuning tuning = new ConnectorTuning(keepAliveSeconds, maxKeepAliveRequests, tlsSessionCacheSize,
+                tlsSessionTimeoutMinutes, http2MaxStreams);
+        return (factory) -> factory.addConnectorCustomizers(tuning);
+    }
+
     private Connector getHttpConnector() {
         Connector connector = new Connector(TomcatServletWebServerFactory.DEFAULT_PROTOCOL);
         connector.setScheme("http");
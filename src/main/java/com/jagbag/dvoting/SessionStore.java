@@ -0,0 +1,218 @@
+package com.jagbag.dvoting;
+
+import com.jagbag.dvoting.entities.Voter;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.math.BigInteger;
+import java.security.SecureRandom;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * The logged-in sessions: for each logged-in user, the token in their cookie, and when it stops being good.
+ * A session ends when it hasn't been used for a while (the idle timeout), or when it gets to be too old no
+ * matter how busy it is (the maximum age); either way the user has to log in again. A background thread
+ * sweeps out ended sessions every so often, so that the sessions of people who never log out don't pile up.
+ *
+ * Each session also keeps the Voter it belongs to, as read from the database, so that checking who's asking
+ * doesn't cost a query on every request. The copy is only used as long as nothing about any Voter has been
+ * written to the database since it was read: see {@link VoterListManager#getVersion()}. So a change in a
+ * Voter's privileges takes effect on their very next request.
+ *
+ * One session per user, as before: logging in again replaces the previous session.
+ *
+ * This is the session-token-mode=map way of keeping sessions; see {@link SessionTokens}.
+ */
+@Component("sessionStore")
+@ConditionalOnProperty(name = "session-token-mode", havingValue = "map", matchIfMissing = true)
+public class SessionStore implements SessionTokens {
+    /** How often the background thread sweeps out ended sessions. */
+    static final long SWEEP_INTERVAL_SECONDS = 60;
+
+    /** One logged-in user's session. */
+    public static class Session {
+        /** A copy of a Voter, and the version of the voter list it was read at. */
+        private static final class VoterCopy {
+            final Voter voter;
+            final long version;
+
+            VoterCopy(Voter voter, long version) {
+                this.voter = voter;
+                this.version = version;
+            }
+        }
+
+        private final String token;
+        private final long createdAt;
+        private volatile long lastUsedAt;
+        private volatile VoterCopy voterCopy;
+
+        Session(String token, long now) {
+            this.token = token;
+            this.createdAt = now;
+            this.lastUsedAt = now;
+        }
+
+        public String getToken() { return token; }
+
+        /**
+         * @return the Voter this session belongs to, as of the given version of the voter list; or null if we
+         * don't have a copy that recent
+         */
+        public Voter voterAsOf(long version) {
+            VoterCopy copy = voterCopy;
+            return (copy != null && copy.version == version) ? copy.voter : null;
+        }
+
+        /**
+         * Keep a copy of the Voter this session belongs to.
+         * @param v the Voter
+         * @param version the version of the voter list at the time v was read (or before)
+         */
+        public void rememberVoter(Voter v, long version) {
+            voterCopy = new VoterCopy(v, version);
+        }
+    }
+
+    private final long idleMillis;
+    private final long maxAgeMillis;
+    private final LongSupplier clock;
+    private final Map<String, Session> sessions = new ConcurrentHashMap<>();
+    private final SecureRandom random = new SecureRandom();
+    private ScheduledExecutorService sweeper;
+    /** See {@link VoterListManager } */
+    @Autowired protected VoterListManager voterListManager;
+
+    @Autowired
+    public SessionStore(@Value("${session-idle-minutes:120}") long idleMinutes,
+                        @Value("${session-max-hours:24}") long maxHours) {
+        this(TimeUnit.MINUTES.toMillis(idleMinutes), TimeUnit.HOURS.toMillis(maxHours), System::currentTimeMillis);
+    }
+
+    SessionStore(long idleMillis, long maxAgeMillis, LongSupplier clock) {
+        this.idleMillis = idleMillis;
+        this.maxAgeMillis = maxAgeMillis;
+        this.clock = clock;
+    }
+
+    @PostConstruct
+    public void startSweeping() {
+        sweeper = Executors.newSingleThreadScheduledExecutor((r) -> {
+            Thread t = new Thread(r, "session-sweeper");
+            t.setDaemon(true);
+            return t;
+        });
+        sweeper.scheduleWithFixedDelay(this::sweep, SWEEP_INTERVAL_SECONDS, SWEEP_INTERVAL_SECONDS, TimeUnit.SECONDS);
+    }
+
+    @PreDestroy
+    public void stopSweeping() {
+        if (sweeper != null) {
+            sweeper.shutdownNow();
+        }
+    }
+
+    /**
+     * Start a new session for the user, ending any they had before.
+     * @return the new session's token
+     */
+    public String create(String username) {
+        String token = new BigInteger(128, random).toString(36);
+        sessions.put(username, new Session(token, clock.getAsLong()));
+        return token;
+    }
+
+    @Override
+    public String create(Voter v) {
+        return create(v.getUsername());
+    }
+
+    /**
+     * Use the session's copy of the Voter, unless the voter list has changed since it was read. Every request in
+     * the session gets the same copy, so it mustn't be changed; read a fresh one to make changes to.
+     */
+    @Override
+    public Voter voterFor(String username, String token) {
+        Session session = find(username, token);
+        if (session == null) {
+            return null;
+        }
+        long version = voterListManager.getVersion();
+        Voter v = session.voterAsOf(version);
+        if (v == null) {
+            v = voterListManager.getForUsername(username);
+            if (v == null) {
+                return null;
+            }
+            session.rememberVoter(v, version);
+        }
+        return v;
+    }
+
+    /**
+     * Look up the user's session, if the token is the right one and the session hasn't ended; and note that
+     * it's been used just now.
+     * @return the session, or null if there's no such (current) session
+     */
+    public Session find(String username, String token) {
+        Session session = sessions.get(username);
+        if (session == null || !session.token.equals(token)) {
+            return null;
+        }
+        long now = clock.getAsLong();
+        if (hasEnded(session, now)) {
+            sessions.remove(username, session);
+            return null;
+        }
+        session.lastUsedAt = now;
+        return session;
+    }
+
+    /**
+     * @return the token for the user's session, or null if they don't have one going
+     */
+    @Override
+    public String tokenFor(String username) {
+        Session session = sessions.get(username);
+        if (session == null || hasEnded(session, clock.getAsLong())) {
+            return null;
+        }
+        return session.token;
+    }
+
+    /**
+     * End the user's session.
+     */
+    @Override
+    public void remove(String username) {
+        sessions.remove(username);
+    }
+
+    /**
+     * @return how many sessions there are, including any that have ended but not yet been swept out
+     */
+    public int size() {
+        return sessions.size();
+    }
+
+    /**
+     * Remove every session that has ended.
+     */
+    public void sweep() {
+        long now = clock.getAsLong();
+        sessions.entrySet().removeIf((entry) -> hasEnded(entry.getValue(), now));
+    }
+
+    private boolean hasEnded(Session session, long now) {
+        return (now - session.lastUsedAt > idleMillis) || (now - session.createdAt > maxAgeMillis);
+    }
+}
@@ -0,0 +1,34 @@
+package com.jagbag.dvoting;
+
+import com.jagbag.dvoting.entities.Voter;
+
+/**
+ * Issues and checks the token kept in the "token" cookie, by which we know that requests come from someone who
+ * has logged in. There are two ways of doing this, chosen by the session-token-mode property:
+ * map (the default): {@link SessionStore}, which remembers every session in this server's memory;
+ * hmac: {@link SignedSessionTokens}, which remembers nothing, but signs what it needs to know into the token, so
+ * that any server sharing the signing key can check it.
+ */
+public interface SessionTokens {
+    /**
+     * Start a new session for the given Voter.
+     * @return the token for the new session
+     */
+    String create(Voter v);
+
+    /**
+     * Check the token from the cookie, and find the Voter whose session it is.
+     * @return the Voter, or null if the token isn't good (any more)
+     */
+    Voter voterFor(String username, String token);
+
+    /**
+     * @return the token for the user's session, if we remember it; otherwise null
+     */
+    String tokenFor(String username);
+
+    /**
+     * End the user's session(s).
+     */
+    void remove(String username);
+}
@@ -0,0 +1,70 @@
+package com.jagbag.dvoting;
+
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.security.interfaces.RSAPublicKey;
+
+/**
+ * Checks that a chit was signed with the private key matching a particular RSA public key.
+ * Each SigningEntity (the CTF, for response chits, and each posted Question, for me chits) makes one of these
+ * when it makes its keys, and every vote received is checked against two of them. So we pull the modulus and
+ * exponent out of the key once, up front, rather than per vote.
+ *
+ * The chit text is turned into a number the same way the client does it (see stringToBigInteger in
+ * voting.js): the UTF-8 bytes, read as an unsigned big-endian number. Note that this does NOT depend on the
+ * platform's default charset.
+ *
+ * There's no hand-rolled fast path for the usual public exponent 65537: BigInteger.modPow already does that
+ * as 16 Montgomery squarings and one multiply, and does it several times faster than a loop of
+ * multiply()/mod() calls could.
+ */
+public class SignatureVerifier {
+    private final BigInteger modulus;
+    private final BigInteger exponent;
+
+    public SignatureVerifier(RSAPublicKey key) {
+        this(key.getModulus(), key.getPublicExponent());
+    }
+
+    public SignatureVerifier(BigInteger modulus, BigInteger exponent) {
+        this.modulus = modulus;
+        this.exponent = exponent;
+    }
+
+    public BigInteger getModulus() { return modulus; }
+    public BigInteger getExponent() { return exponent; }
+
+    /**
+     * Convert chit text to the number that gets signed.
+     */
+    public static BigInteger messageValue(String chit) {
+        return new BigInteger(1, chit.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @param chit the plaintext chit
+     * @param signedChit the alleged signature on the chit, a big integer encoded in base 36
+     * @return true if signedChit, "un-signed" with our public key, gives back the chit
+     */
+    public boolean verify(String chit, String signedChit) {
+        BigInteger s;
+        try {
+            s = SigningEntity.decoded(signedChit);
+        }
+        catch (NumberFormatException ex) {
+            return false;
+        }
+        return verify(messageValue(chit), s);
+    }
+
+    public boolean verify(BigInteger m, BigInteger s) {
+        // Anything modPow could give us is in [0, n), so don't bother exponentiating if the message isn't.
+        if (m.compareTo(modulus) >= 0) {
+            return false;
+        }
+        if (s.signum() <= 0 || s.compareTo(modulus) >= 0) {
+            return false;
+        }
+        return s.modPow(exponent, modulus).equals(m);
+    }
+}
@@ -0,0 +1,205 @@
+package com.jagbag.dvoting;
+
+import com.jagbag.dvoting.entities.Voter;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Session tokens that carry everything needed to check them, signed with HMAC-SHA256, so that we don't have to
+ * remember them: any server that has the same signing key can check a token that another one issued, and a
+ * restart doesn't log everyone out. This is the session-token-mode=hmac way of keeping sessions; see
+ * {@link SessionTokens}.
+ *
+ * A token is the base64url encoding of "issued:expires:privilege-version:username", a dot, and the base64url
+ * encoding of its signature. The privilege version is {@link Voter#getPrivilegeVersion()} as of when the token
+ * was issued; if the Voter's privileges or password have changed since, the token is no good. Since that check
+ * needs the Voter as it is now, which another server may have changed, the Voter is read from the database on
+ * each request, rather than kept, as {@link SessionStore} does.
+ *
+ * Logging out can't take back a token that's out there. Instead we keep a small deny-list of users who have
+ * logged out, and when, and don't accept their tokens issued before then. An entry only needs to be kept until
+ * every token it denies has expired anyway. The deny-list is only this server's; a token sent to another server
+ * is good until it expires, or until the user's privileges or password change.
+ *
+ * Sessions end session-max-hours after logging in. There's no idle timeout in this mode, since that would mean
+ * remembering when each session was last used.
+ */
+@Component("signedSessionTokens")
+@ConditionalOnProperty(name = "session-token-mode", havingValue = "hmac")
+public class SignedSessionTokens implements SessionTokens {
+    static final String ALGORITHM = "HmacSHA256";
+
+    /** What a token says, once we've checked that it's genuine and unexpired. */
+    static final class Claims {
+        final String username;
+        final long issuedAt;
+        final long expiresAt;
+        final int privilegeVersion;
+
+        Claims(String username, long issuedAt, long expiresAt, int privilegeVersion) {
+            this.username = username;
+            this.issuedAt = issuedAt;
+            this.expiresAt = expiresAt;
+            this.privilegeVersion = privilegeVersion;
+        }
+    }
+
+    private final byte[] key;
+    private final long maxAgeMillis;
+    private final LongSupplier clock;
+    /** A Mac can't be shared between threads; and getting one is slow, so each thread keeps its own. */
+    private final ThreadLocal<Mac> macs;
+    /** For each user who has logged out, when; tokens issued up till then are no good. */
+    private final Map<String, Long> denied = new ConcurrentHashMap<>();
+    /** See {@link VoterListManager } */
+    @Autowired protected VoterListManager voterListManager;
+
+    /**
+     * @param key the signing key, base64 encoded. Every server must have the same one. If it's blank, we make
+     *            up one, which only this server will know; and since it's gone when this server stops, so are
+     *            everybody's sessions.
+     */
+    @Autowired
+    public SignedSessionTokens(@Value("${session-token-key:}") String key,
+                               @Value("${session-max-hours:24}") long maxHours) {
+        this(key.trim().isEmpty() ? randomKey() : Base64.getDecoder().decode(key.trim()),
+                TimeUnit.HOURS.toMillis(maxHours), System::currentTimeMillis);
+        if (key.trim().isEmpty()) {
+            System.out.println("No session-token-key configured; sessions will only be good on this server, until it stops.");
+        }
+    }
+
+    SignedSessionTokens(byte[] key, long maxAgeMillis, LongSupplier clock) {
+        this.key = key.clone();
+        this.maxAgeMillis = maxAgeMillis;
+        this.clock = clock;
+        macs = ThreadLocal.withInitial(() -> {
+            try {
+                Mac mac = Mac.getInstance(ALGORITHM);
+                mac.init(new SecretKeySpec(this.key, ALGORITHM));
+                return mac;
+            }
+            catch (GeneralSecurityException ex) {
+                // HmacSHA256 is a required algorithm on every Java platform
+                throw new IllegalStateException(ex);
+            }
+        });
+    }
+
+    static byte[] randomKey() {
+        byte[] key = new byte[32];
+        new SecureRandom().nextBytes(key);
+        return key;
+    }
+
+    private byte[] sign(byte[] payload) {
+        return macs.get().doFinal(payload);
+    }
+
+    @Override
+    public String create(Voter v) {
+        return issue(v.getUsername(), v.getPrivilegeVersion());
+    }
+
+    String issue(String username, int privilegeVersion) {
+        long now = clock.getAsLong();
+        Long deniedUntil = denied.get(username);
+        if (deniedUntil != null && now <= deniedUntil) {
+            // logged out and back in within the same millisecond
+            now = deniedUntil + 1;
+        }
+        String claims = String.format("%s:%s:%s:%s", Long.toString(now, 36), Long.toString(now + maxAgeMillis, 36),
+                Integer.toString(privilegeVersion, 36), username);
+        byte[] payload = claims.getBytes(StandardCharsets.UTF_8);
+        Base64.Encoder encoder = Base64.getUrlEncoder().withoutPadding();
+        return encoder.encodeToString(payload) + "." + encoder.encodeToString(sign(payload));
+    }
+
+    /**
+     * Check that the token is genuine, is the given user's, hasn't expired, and hasn't been denied.
+     * @return what the token says, or null if it's no good
+     */
+    Claims verify(String username, String token) {
+        int dot = token.indexOf('.');
+        if (dot < 0) {
+            return null;
+        }
+        byte[] payload;
+        byte[] signature;
+        try {
+            Base64.Decoder decoder = Base64.getUrlDecoder();
+            payload = decoder.decode(token.substring(0, dot));
+            signature = decoder.decode(token.substring(dot + 1));
+        }
+        catch (IllegalArgumentException ex) {
+            return null;
+        }
+        if (!MessageDigest.isEqual(signature, sign(payload))) {
+            return null;
+        }
+        // The signature is good, so the payload is one we made, and has the form we made it in.
+        String[] fields = new String(payload, StandardCharsets.UTF_8).split(":", 4);
+        Claims claims = new Claims(fields[3], Long.parseLong(fields[0], 36), Long.parseLong(fields[1], 36),
+                Integer.parseInt(fields[2], 36));
+        if (!claims.username.equals(username) || clock.getAsLong() > claims.expiresAt) {
+            return null;
+        }
+        Long deniedUntil = denied.get(username);
+        if (deniedUntil != null && claims.issuedAt <= deniedUntil) {
+            return null;
+        }
+        return claims;
+    }
+
+    @Override
+    public Voter voterFor(String username, String token) {
+        Claims claims = verify(username, token);
+        if (claims == null) {
+            return null;
+        }
+        Voter v = voterListManager.getForUsername(username);
+        if (v == null || v.getPrivilegeVersion() != claims.privilegeVersion) {
+            return null;
+        }
+        return v;
+    }
+
+    /**
+     * We don't remember tokens; the token for a new session is the one {@link #create} returns.
+     */
+    @Override
+    public String tokenFor(String username) {
+        return null;
+    }
+
+    /**
+     * Deny every token the user has been issued so far. While we're at it, drop deny-list entries that no
+     * longer deny anything: every token issued before them has expired.
+     */
+    @Override
+    public void remove(String username) {
+        long now = clock.getAsLong();
+        denied.values().removeIf((deniedUntil) -> deniedUntil + maxAgeMillis < now);
+        denied.merge(username, now, Math::max);
+    }
+
+    /**
+     * @return how many users are on the deny-list
+     */
+    public int deniedCount() {
+        return denied.size();
+    }
+}
@@ -1,17 +1,31 @@
 package com.jagbag.dvoting;
 
 import com.fasterxml.jackson.annotation.JsonGetter;
+import com.fasterxml.jackson.annotation.JsonIgnore;
 
 import java.math.BigInteger;
 import java.security.KeyPair;
 import java.security.KeyPairGenerator;
 import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
+import java.security.interfaces.RSAPrivateCrtKey;
 import java.security.interfaces.RSAPrivateKey;
 import java.security.interfaces.RSAPublicKey;
 
 public class SigningEntity {
+    /** Size, in bits, of the modulus of the RSA keys we generate. */
+    public static final int KEY_SIZE = 2048;
+
     protected KeyPair rsaKeys;
+    /** Checks signatures against our public key; made along with the keys. */
+    private SignatureVerifier verifier;
+    /* Parts of the private key for signing via the Chinese Remainder Theorem. Null if the key provider didn't
+    give us a CRT key, in which case we sign the slow way, with the private exponent. */
+    private BigInteger primeP;
+    private BigInteger primeQ;
+    private BigInteger exponentP;
+    private BigInteger exponentQ;
+    private BigInteger crtCoefficient;
 
     /*
 Note, there is no storage of keys. Keys are only kept in memory.
@@ -28,15 +42,35 @@ This is why we have StartupActions value the pollCloseWhen field on any open que
 upon starting.
  */
     protected static KeyPair generateKeyPair() throws NoSuchAlgorithmException {
+        return generateKeyPair(KEY_SIZE);
+    }
+
+    protected static KeyPair generateKeyPair(int keySize) throws NoSuchAlgorithmException {
         KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
-        generator.initialize(2048, new SecureRandom());
+        generator.initialize(keySize, new SecureRandom());
         KeyPair pair = generator.generateKeyPair();
 
         return pair;
     }
 
     public void initializeKeys() throws NoSuchAlgorithmException {
-        rsaKeys = generateKeyPair();
+        initializeKeys(KEY_SIZE);
+    }
+
+    protected void initializeKeys(int keySize) throws NoSuchAlgorithmException {
+        rsaKeys = generateKeyPair(keySize);
+        verifier = new SignatureVerifier(getPublicKey());
+        if (rsaKeys.getPrivate() instanceof RSAPrivateCrtKey) {
+            RSAPrivateCrtKey key = (RSAPrivateCrtKey)rsaKeys.getPrivate();
+            primeP = key.getPrimeP();
+            primeQ = key.getPrimeQ();
+            exponentP = key.getPrimeExponentP();
+            exponentQ = key.getPrimeExponentQ();
+            crtCoefficient = key.getCrtCoefficient();
+        }
+        else {
+            primeP = primeQ = exponentP = exponentQ = crtCoefficient = null;
+        }
     }
     protected RSAPublicKey getPublicKey() {
         if (rsaKeys == null) return null;
@@ -90,22 +124,53 @@ upon starting.
             throw new RuntimeException("Asked to sign when not  ready to sign.");
         }
         BigInteger t = decoded(blindedMessageText);
-        RSAPrivateKey key = (RSAPrivateKey)(rsaKeys.getPrivate());
-        BigInteger d = key.getPrivateExponent();
-        BigInteger n = key.getModulus();
-        BigInteger signedT = t.modPow(d, n);  // sign by encrypting with private key
+        BigInteger signedT = sign(t);
         String signedAsString = encoded(signedT);
         return signedAsString;
     }
 
+    /**
+     * Sign by encrypting with private key.
+     * If we have the CRT parts of the private key, we do two exponentiations with half-size exponents mod p
+     * and mod q and stitch the results together (Garner's formula), which is several times faster than one
+     * exponentiation with the full private exponent mod n. That is where the CPU goes when a poll opens and
+     * every voter wants all their chits signed at once.
+     * The catch with CRT is that if either half of the computation is ever wrong (hardware fault, or induced
+     * fault), the bad signature gives away a factor of n to anyone who computes gcd(s^e - t, n). So, before
+     * handing back a CRT signature, we check it with the public key, which is cheap, and fall back to the
+     * private exponent if it doesn't check out.
+     * @param t the number to be signed (for us, always a blinded chit)
+     * @return t to the power d, mod n
+     */
+    protected BigInteger sign(BigInteger t) {
+        RSAPrivateKey key = (RSAPrivateKey)(rsaKeys.getPrivate());
+        BigInteger n = key.getModulus();
+        if (primeP != null) {
+            BigInteger mP = t.mod(primeP).modPow(exponentP, primeP);
+            BigInteger mQ = t.mod(primeQ).modPow(exponentQ, primeQ);
+            BigInteger h = crtCoefficient.multiply(mP.subtract(mQ)).mod(primeP);
+            BigInteger signedT = mQ.add(h.multiply(primeQ));
+            if (signedT.modPow(verifier.getExponent(), n).equals(t.mod(n))) {
+                return signedT;
+            }
+            TroubleLogger.reportTrouble("CRT signature failed to verify; signing with the private exponent instead");
+        }
+        return t.modPow(key.getPrivateExponent(), n);
+    }
+
+    /**
+     * Get the object that checks signatures made with our private key. Null until the keys are made.
+     */
+    @JsonIgnore
+    public SignatureVerifier getVerifier() {
+        return verifier;
+    }
+
     public boolean confirmSignature(String chit, String signedChit) {
-        if (rsaKeys == null) {
+        if (verifier == null) {
             throw new RuntimeException("How can we be confirming signatures when not even ready to sign?");
         }
-        BigInteger m = new BigInteger(chit.getBytes());
-        BigInteger s = decoded(signedChit);
-        BigInteger alleged = s.modPow(getPublicExponent(), getModulus());
-        return (alleged.equals(m));
+        return verifier.verify(chit, signedChit);
     }
 
 }
\ No newline at end of file
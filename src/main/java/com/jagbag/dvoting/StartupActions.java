@@ -9,8 +9,10 @@ import org.springframework.stereotype.Component;
 
 import javax.persistence.EntityManager;
 import javax.persistence.EntityManagerFactory;
+import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.security.NoSuchAlgorithmException;
+import java.sql.SQLException;
 import java.util.List;
 
 @Component
@@ -27,6 +29,10 @@ public class StartupActions implements ApplicationRunner {
     private VoterListManager voterListManager;
     @Autowired
     protected EntityManagerFactory emf;
+    @Autowired
+    private VoteJournal voteJournal;
+    @Autowired
+    private IdSequences idSequences;
 
     public void reportConfirgurationParameters() {
         System.out.println("Configured for host: " + hostBaseURL);
@@ -36,6 +42,23 @@ public class StartupActions implements ApplicationRunner {
     public void run(ApplicationArguments args) {
         reportConfirgurationParameters();
 
+        // Before anything is inserted: make sure the id sequences are past the ids already in use
+        try {
+            int moved = idSequences.realign();
+            if (moved > 0) {
+                System.out.println("Moved " + moved + " id sequences past the ids already in use");
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+        int named = voterListManager.fillInNameKeys();
+        if (named > 0) {
+            System.out.println("Filled in the name keys of " + named + " voters");
+        }
+        int keyed = voterListManager.fillInEmailKeys();
+        if (keyed > 0) {
+            System.out.println("Filled in the email keys of " + keyed + " voters");
+        }
         try {
             voterListManager.initialize();
         } catch (UnsupportedEncodingException e) {
@@ -43,6 +66,17 @@ public class StartupActions implements ApplicationRunner {
         } catch (NoSuchAlgorithmException e) {
             e.printStackTrace();
         }
+        // Any votes accepted in the previous run that didn't make it into the database before it stopped:
+        try {
+            int count = voteJournal.replay();
+            if (count > 0) {
+                System.out.println("Recovered " + count + " votes from the vote journal");
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
         // Close any questions that were left open in the previous run:
         EntityManager em = emf.createEntityManager();
         em.getTransaction().begin();
@@ -0,0 +1,53 @@
+package com.jagbag.dvoting;
+
+import org.springframework.cache.concurrent.ConcurrentMapCache;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.http.CacheControl;
+import org.springframework.web.servlet.config.annotation.ResourceHandlerRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+import org.springframework.web.servlet.resource.*;
+
+/**
+ * How the files in the static folder get to the browser.
+ *
+ * Scripts and stylesheets can be asked for by a fingerprinted name, with a hash of the file's contents in it
+ * (voting-0b9f...e3.js); the pages link to them that way (see {@link AssetLinks}), and the browser can keep
+ * them forever. Everything is sent gzipped, if the browser takes that, compressed once and then kept in memory
+ * (see {@link CompressingResourceTransformer}). Pages, and files asked for by their plain name, the browser has to
+ * check are still the same each time it uses them.
+ *
+ * The pages the controllers fill in, like the voting page, get their links fingerprinted as they're read; they're
+ * different for each voter, so they're compressed as they're sent, by Tomcat (server.compression.enabled).
+ */
+@Configuration
+public class StaticAssets implements WebMvcConfigurer {
+    @Override
+    public void addResourceHandlers(ResourceHandlerRegistry registry) {
+        registry.addResourceHandler("/*.js", "/*.css")
+                .addResourceLocations("classpath:/static/")
+                .setCacheControl(CacheControl.noCache())
+                .resourceChain(false)
+                .addResolver(new CachingResourceResolver(new ConcurrentMapCache("scripts")))
+                .addResolver(new VersionResourceResolver().addContentVersionStrategy("/**"))
+                .addTransformer(new CompressingResourceTransformer())
+                .addTransformer(new CssLinkResourceTransformer());
+        registry.addResourceHandler("/*.html")
+                .addResourceLocations("classpath:/static/")
+                .setCacheControl(CacheControl.noCache())
+                .resourceChain(false)
+                .addResolver(new CachingResourceResolver(new ConcurrentMapCache("pages")))
+                .addTransformer(new CompressingResourceTransformer())
+                .addTransformer(new AssetLinks());
+    }
+
+    /**
+     * Once Spring knows where all the static files are, have the page templates link to the fingerprinted ones.
+     */
+    @EventListener
+    public void fingerprintTemplateLinks(ContextRefreshedEvent event) {
+        ResourceUrlProvider urls = event.getApplicationContext().getBean(ResourceUrlProvider.class);
+        Template.setFileFilter((text) -> AssetLinks.rewrite(text, urls));
+    }
+}
@@ -0,0 +1,231 @@
+package com.jagbag.dvoting;
+
+import org.springframework.core.io.Resource;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.UnaryOperator;
+
+/**
+ * A page or email with ##PLACEHOLDERS## in it, to be filled in.
+ * Each resource file is read and parsed only once (see {@link #of(Resource)}), into the literal text between the
+ * placeholders and the placeholders themselves; filling it in is then one pass over those pieces, appending to a
+ * StringBuilder that's already big enough. (This used to be a String.replaceAll() per placeholder, each one
+ * running a regular expression over, and copying, the whole text; which also mangled any value that happened to
+ * have a $ or \ in it.)
+ *
+ * A placeholder may say how its value is to be escaped, for the place in the text it goes:
+ * ##NAME:html## for HTML text or attribute values, ##NAME:js## for inside a quoted JavaScript string,
+ * ##NAME:json## for a JSON value dropped into a script, so that nothing in it can end the script tag.
+ * Plain ##NAME## inserts the value as is; that's what the emails, which are plain text, use.
+ * A placeholder with no value given is left in the text as it is, and a null value is taken as empty.
+ */
+public class Template {
+    enum Escape {
+        NONE,
+        HTML,
+        JS,
+        JSON
+    }
+
+    private static final String MARK = "##";
+    private static final Map<Resource, Template> cache = new ConcurrentHashMap<Resource, Template>();
+    /** Does whatever needs doing to the text of a template file when it's read, before it's parsed */
+    private static volatile UnaryOperator<String> fileFilter = UnaryOperator.identity();
+
+    /** literals[i] comes before names[i]; there's one more literal than there are placeholders */
+    private final String[] literals;
+    private final String[] names;
+    private final Escape[] escapes;
+    /** The placeholders as they were written, to put back when there's no value for one */
+    private final String[] originals;
+    private final int literalLength;
+
+    private Template(List<String> literals, List<String> names, List<Escape> escapes, List<String> originals) {
+        this.literals = literals.toArray(new String[0]);
+        this.names = names.toArray(new String[0]);
+        this.escapes = escapes.toArray(new Escape[0]);
+        this.originals = originals.toArray(new String[0]);
+        int length = 0;
+        for (String literal : this.literals) {
+            length += literal.length();
+        }
+        this.literalLength = length;
+    }
+
+    /**
+     * The template in the given file, read and parsed the first time it's asked for, and remembered after that.
+     */
+    public static Template of(Resource resource) {
+        return cache.computeIfAbsent(resource, (r) -> {
+            try (InputStream in = r.getInputStream()) {
+                return parse(fileFilter.apply(new String(in.readAllBytes(), StandardCharsets.UTF_8)));
+            }
+            catch (IOException ex) {
+                throw new UncheckedIOException("Cannot read template " + r.getDescription(), ex);
+            }
+        });
+    }
+
+    /**
+     * Have the text of each template file go through the given filter when it's read.
+     * Forgets any files already read, so they'll be read again, through the filter.
+     * (Used by {@link StaticAssets}, to point the links in pages at fingerprinted files.)
+     */
+    static void setFileFilter(UnaryOperator<String> filter) {
+        fileFilter = filter;
+        cache.clear();
+    }
+
+    public static Template parse(String text) {
+        List<String> literals = new ArrayList<String>();
+        List<String> names = new ArrayList<String>();
+        List<Escape> escapes = new ArrayList<Escape>();
+        List<String> originals = new ArrayList<String>();
+        int literalStart = 0;
+        int from = 0;
+        while (true) {
+            int open = text.indexOf(MARK, from);
+            if (open < 0) break;
+            int close = text.indexOf(MARK, open + MARK.length());
+            if (close < 0) break;
+            String placeholder = text.substring(open + MARK.length(), close);
+            if (!isPlaceholder(placeholder)) {
+                // Not one of ours; the second ## might start one, though
+                from = open + 1;
+                continue;
+            }
+            Escape escape = Escape.NONE;
+            int colon = placeholder.indexOf(':');
+            if (colon >= 0) {
+                escape = Escape.valueOf(placeholder.substring(colon + 1).toUpperCase());
+                placeholder = placeholder.substring(0, colon);
+            }
+            literals.add(text.substring(literalStart, open));
+            names.add(placeholder);
+            escapes.add(escape);
+            originals.add(text.substring(open, close + MARK.length()));
+            literalStart = from = close + MARK.length();
+        }
+        literals.add(text.substring(literalStart));
+        return new Template(literals, names, escapes, originals);
+    }
+
+    private static boolean isPlaceholder(String s) {
+        if (s.isEmpty()) return false;
+        int colon = s.indexOf(':');
+        int nameEnd = colon < 0 ? s.length() : colon;
+        if (nameEnd == 0) return false;
+        for (int i = 0; i < nameEnd; ++i) {
+            char c = s.charAt(i);
+            if (!((c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_')) return false;
+        }
+        if (colon >= 0) {
+            String escape = s.substring(colon + 1);
+            return escape.equals("html") || escape.equals("js") || escape.equals("json");
+        }
+        return true;
+    }
+
+    /**
+     * @return the text of the template, with no placeholders filled in
+     */
+    public String render() {
+        return render(Collections.<String, String>emptyMap());
+    }
+
+    /**
+     * @param values placeholder name (without the ##s or the escaping) to the text that goes there
+     * @return the text with the placeholders filled in
+     */
+    public String render(Map<String, String> values) {
+        if (names.length == 0) {
+            return literals[0];
+        }
+        int length = literalLength;
+        for (String name : names) {
+            String value = values.get(name);
+            if (value != null) length += value.length();
+        }
+        // a little extra for escaping
+        StringBuilder s = new StringBuilder(length + length / 16);
+        for (int i = 0; i < names.length; ++i) {
+            s.append(literals[i]);
+            if (values.containsKey(names[i])) {
+                String value = values.get(names[i]);
+                if (value != null) {
+                    append(s, value, escapes[i]);
+                }
+            }
+            else {
+                s.append(originals[i]);
+            }
+        }
+        s.append(literals[names.length]);
+        return s.toString();
+    }
+
+    static void append(StringBuilder s, String value, Escape escape) {
+        switch (escape) {
+            case NONE:
+                s.append(value);
+                return;
+            case HTML:
+                for (int i = 0; i < value.length(); ++i) {
+                    char c = value.charAt(i);
+                    switch (c) {
+                        case '<': s.append("&lt;"); break;
+                        case '>': s.append("&gt;"); break;
+                        case '&': s.append("&amp;"); break;
+                        case '"': s.append("&quot;"); break;
+                        case '\'': s.append("&#39;"); break;
+                        default: s.append(c);
+                    }
+                }
+                return;
+            case JS:
+                for (int i = 0; i < value.length(); ++i) {
+                    char c = value.charAt(i);
+                    switch (c) {
+                        case '"': s.append("\\\""); break;
+                        case '\'': s.append("\\'"); break;
+                        case '\\': s.append("\\\\"); break;
+                        case '\n': s.append("\\n"); break;
+                        case '\r': s.append("\\r"); break;
+                        case '<': s.append("\\u003c"); break;
+                        case '>': s.append("\\u003e"); break;
+                        case '&': s.append("\\u0026"); break;
+                        case '\u2028': s.append("\\u2028"); break;
+                        case '\u2029': s.append("\\u2029"); break;
+                        default:
+                            if (c < ' ') {
+                                s.append(String.format("\\u%04x", (int)c));
+                            }
+                            else {
+                                s.append(c);
+                            }
+                    }
+                }
+                return;
+            case JSON:
+                // A < can only be inside a string in JSON, where < means the same thing
+                for (int i = 0; i < value.length(); ++i) {
+                    char c = value.charAt(i);
+                    switch (c) {
+                        case '<': s.append("\\u003c"); break;
+                        case '\u2028': s.append("\\u2028"); break;
+                        case '\u2029': s.append("\\u2029"); break;
+                        default: s.append(c);
+                    }
+                }
+                return;
+        }
+    }
+}
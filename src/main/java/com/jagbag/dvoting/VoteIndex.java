@@ -0,0 +1,94 @@
+package com.jagbag.dvoting;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The CTF's in-memory record of which Votes have been accepted on each posted Question, so that whether an
+ * incoming vote is new, a repeat of one we already have, or contradicts one we already have can be decided
+ * without a trip to the database.
+ *
+ * A vote is identified by its me chit number and its ranking (a Voter gets one me chit per Question, and casts
+ * at most one Vote per position in the ranking). For each, we remember what was voted: the response chit number
+ * and the response.
+ *
+ * There's one partition per posted Question, created when the Question is posted (a new Question, so there are
+ * no votes on it yet), and thrown away when it is closed. This isn't the last word on
+ * duplicates: the Vote table has a unique index on the same columns. But with the CTF's vote locks held around
+ * check-and-record, nothing the index calls new will be turned away by the database.
+ */
+public class VoteIndex {
+    /** What we know about an incoming vote. */
+    public enum Outcome {
+        /** No vote yet with this me chit number and ranking. */
+        NEW,
+        /** The same vote has been accepted before; it's just been sent twice. */
+        REPEAT,
+        /** A different vote with this me chit number and ranking has been accepted. */
+        CONTRADICTION,
+        /** The Question isn't posted, so there's no index for it. */
+        UNKNOWN
+    }
+
+    private final Map<Long, Map<String, String>> partitions = new ConcurrentHashMap<>();
+
+    private static String key(String voterChitNumber, int ranking) {
+        return voterChitNumber + " " + ranking;
+    }
+
+    private static String value(String responseChitNumber, String response) {
+        return responseChitNumber + " " + response;
+    }
+
+    /**
+     * Start indexing votes on a Question (if we aren't already).
+     */
+    public void open(long quid) {
+        partitions.putIfAbsent(quid, new ConcurrentHashMap<>());
+    }
+
+    /**
+     * Stop indexing votes on a Question, and forget the votes on it.
+     */
+    public void release(long quid) {
+        partitions.remove(quid);
+    }
+
+    public boolean isOpen(long quid) {
+        return partitions.containsKey(quid);
+    }
+
+    /**
+     * @return how many votes are indexed for the Question, or -1 if it isn't being indexed
+     */
+    public int voteCount(long quid) {
+        Map<String, String> partition = partitions.get(quid);
+        return partition == null ? -1 : partition.size();
+    }
+
+    /**
+     * Look up an incoming vote. Doesn't record anything; call {@link #record} once the vote is accepted.
+     */
+    public Outcome check(long quid, String voterChitNumber, int ranking, String responseChitNumber, String response) {
+        Map<String, String> partition = partitions.get(quid);
+        if (partition == null) {
+            return Outcome.UNKNOWN;
+        }
+        String recorded = partition.get(key(voterChitNumber, ranking));
+        if (recorded == null) {
+            return Outcome.NEW;
+        }
+        return recorded.equals(value(responseChitNumber, response)) ? Outcome.REPEAT : Outcome.CONTRADICTION;
+    }
+
+    /**
+     * Note that a vote has been accepted. The caller is expected to hold whatever lock it held for the
+     * {@link #check}. Does nothing if the Question isn't being indexed.
+     */
+    public void record(long quid, String voterChitNumber, int ranking, String responseChitNumber, String response) {
+        Map<String, String> partition = partitions.get(quid);
+        if (partition != null) {
+            partition.putIfAbsent(key(voterChitNumber, ranking), value(responseChitNumber, response));
+        }
+    }
+}
@@ -0,0 +1,403 @@
+package com.jagbag.dvoting;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.sql.DataSource;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Write-behind store for accepted votes.
+ *
+ * When the CTF accepts a vote, it appends it here, and acknowledges the vote to the client as soon as it's on
+ * disk in the journal file&mdash; an append-only file, one line of JSON per vote. A background thread then
+ * copies the journaled votes into the Vote table, many at a time, in one transaction per batch of batched JDBC
+ * inserts, rather than one transaction per vote. Once everything in the journal is in the database, the journal
+ * is emptied.
+ *
+ * Appending is a group commit: each appender writes its line, then waits for the file to be forced to disk,
+ * but one force covers every line written before it, so when votes pour in at the close of a poll, many of
+ * them share each trip to the disk.
+ *
+ * If the process goes down with votes in the journal that never made it to the database, they're copied in on
+ * the next start-up (see {@link StartupActions}); the journal isn't emptied until that's been done. Nothing in
+ * the journal is secret: it holds exactly what the Vote table holds.
+ *
+ * A journaled vote the database won't take, because the Vote table already has a different vote with the same
+ * key, has been acknowledged and counted, so it isn't thrown away: it's reported, kept in the journal (which
+ * then isn't emptied) and listed by {@link #refusedVotes}, until someone looks into it and calls
+ * {@link #dismissRefusedVotes}. (The same vote turning up again, as when a journal is replayed, is no trouble.)
+ */
+@Component("voteJournal")
+public class VoteJournal {
+    /** Most votes to insert per transaction. */
+    static final int BATCH_SIZE = 500;
+    /** How often the background thread looks for votes to copy into the database. */
+    static final long FLUSH_INTERVAL_MILLIS = 50;
+
+    static final String INSERT_SQL = "insert into vote (id, fk_question, ranking, received_when, response, "
+            + "response_chit_number, voter_chit_number) values (?, ?, ?, ?, ?, ?, ?)";
+
+    @Value("${vote-journal}")
+    private String journalFileName;
+    @Autowired
+    private DataSource dataSource;
+
+    private final ObjectMapper objectMapper = new ObjectMapper()
+            .registerModule(new JavaTimeModule())
+            .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+    private Path journalPath;
+    private FileChannel channel;
+    /** Guards writes to the channel, and the counters. */
+    private final Object writeLock = new Object();
+    /** Held while forcing the channel to disk. */
+    private final Object syncLock = new Object();
+    private volatile long writtenTo;
+    private long syncedTo;
+    private long appendedCount;
+    private long flushedCount;
+    /** Whatever's left in the journal from the last run mustn't be thrown out until it has been replayed. */
+    private volatile boolean replayed;
+    /** Held while copying votes into the database. */
+    private final Object flushLock = new Object();
+    private final Queue<JournaledVote> unflushed = new ConcurrentLinkedQueue<>();
+    /** Votes the database refused; see above */
+    private final Map<String, JournaledVote> refused = new ConcurrentHashMap<>();
+    private ScheduledExecutorService flusher;
+    /** The block of Vote ids we're using up; see {@link IdSequences} */
+    private long nextId;
+    private long idLimit;
+
+    @PostConstruct
+    public void open() throws IOException {
+        journalPath = Paths.get(journalFileName);
+        if (journalPath.getParent() != null) {
+            Files.createDirectories(journalPath.getParent());
+        }
+        channel = FileChannel.open(journalPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND);
+        writtenTo = syncedTo = channel.size();
+        flusher = Executors.newSingleThreadScheduledExecutor((r) -> {
+            Thread t = new Thread(r, "vote-journal-flusher");
+            t.setDaemon(true);
+            return t;
+        });
+        flusher.scheduleWithFixedDelay(this::flushQuietly, FLUSH_INTERVAL_MILLIS, FLUSH_INTERVAL_MILLIS,
+                TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void close() throws IOException {
+        flusher.shutdown();
+        try {
+            flusher.awaitTermination(10, TimeUnit.SECONDS);
+        }
+        catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        flushQuietly();
+        channel.close();
+    }
+
+    /**
+     * Durably record an accepted vote. Returns once the vote is on disk in the journal; it will be copied into
+     * the Vote table shortly.
+     * The caller is responsible for making sure no other vote with the same key is appended at the same time.
+     * @throws IOException if the vote could not be written to the journal, in which case it was NOT accepted
+     */
+    public void append(JournaledVote vote) throws IOException {
+        ByteBuffer line = ByteBuffer.wrap((objectMapper.writeValueAsString(vote) + "\n").getBytes(StandardCharsets.UTF_8));
+        long end;
+        synchronized (writeLock) {
+            while (line.hasRemaining()) {
+                channel.write(line);
+            }
+            end = channel.position();
+            writtenTo = end;
+            ++appendedCount;
+        }
+        synchronized (syncLock) {
+            if (syncedTo < end) {
+                // Everything written up to now gets forced along with our line.
+                long target = writtenTo;
+                channel.force(false);
+                syncedTo = target;
+            }
+        }
+        unflushed.add(vote);
+    }
+
+    /**
+     * @return the journaled votes on the given Question that haven't made it into the database yet
+     */
+    public List<JournaledVote> unflushedVotes(long quid) {
+        List<JournaledVote> votes = new ArrayList<>();
+        for (JournaledVote vote : unflushed) {
+            if (vote.quid == quid) {
+                votes.add(vote);
+            }
+        }
+        return votes;
+    }
+
+    /**
+     * @return the journaled votes that the database refused, because it already has a different vote with the
+     * same key; these are missing from the Vote table, though they were acknowledged
+     */
+    public List<JournaledVote> refusedVotes() {
+        return new ArrayList<>(refused.values());
+    }
+
+    /**
+     * @return whether any vote on the given Question has been refused (see {@link #refusedVotes})
+     */
+    public boolean hasRefusedVotes(long quid) {
+        for (JournaledVote vote : refused.values()) {
+            if (vote.quid == quid) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Forget the votes the database refused, once they've been looked into, so that the journal can be emptied
+     * again.
+     */
+    public void dismissRefusedVotes() {
+        synchronized (flushLock) {
+            refused.clear();
+            truncateIfFlushed(true);
+        }
+    }
+
+    /**
+     * Copy every journaled vote into the Vote table now, rather than waiting for the background thread. Called
+     * before reading the Vote table, so that readers see every vote that has been acknowledged.
+     */
+    public void flush() throws SQLException {
+        synchronized (flushLock) {
+            while (!unflushed.isEmpty()) {
+                List<JournaledVote> batch = new ArrayList<>();
+                Iterator<JournaledVote> it = unflushed.iterator();
+                while (it.hasNext() && batch.size() < BATCH_SIZE) {
+                    batch.add(it.next());
+                }
+                insertVotes(batch);
+                for (int i = 0; i < batch.size(); ++i) {
+                    unflushed.remove();
+                }
+                synchronized (writeLock) {
+                    flushedCount += batch.size();
+                }
+            }
+            truncateIfFlushed(false);
+        }
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        }
+        catch (Exception ex) {
+            // The votes stay queued (and in the journal); we'll try again next time around.
+            TroubleLogger.reportTrouble("Could not copy journaled votes into the database: " + ex.getMessage());
+        }
+    }
+
+    /**
+     * Empty the journal, if everything we've written to it is in the database.
+     * @param leftovers whether to throw out what was in the journal before this run, too
+     */
+    private void truncateIfFlushed(boolean leftovers) {
+        synchronized (writeLock) {
+            try {
+                if (replayed && refused.isEmpty() && appendedCount == flushedCount && (leftovers ? channel.size() > 0 : writtenTo > 0)) {
+                    channel.truncate(0);
+                    channel.force(true);
+                    writtenTo = 0;
+                    synchronized (syncLock) {
+                        syncedTo = 0;
+                    }
+                }
+            }
+            catch (IOException ex) {
+                TroubleLogger.reportTrouble("Could not empty the vote journal: " + ex.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Insert a batch of votes into the Vote table, all in one transaction. If the database turns the batch down
+     * (most likely because the unique index says one of the votes is already there), go through them one at a
+     * time instead, so that one bad vote doesn't hold up the rest forever: one that's already there is skipped,
+     * and any other that breaks a constraint is refused (see {@link #refuse}).
+     * Any other failure is thrown, and the batch will be tried again later.
+     */
+    private void insertVotes(List<JournaledVote> votes) throws SQLException {
+        try (Connection connection = dataSource.getConnection()) {
+            boolean autoCommit = connection.getAutoCommit();
+            connection.setAutoCommit(false);
+            try (PreparedStatement statement = connection.prepareStatement(INSERT_SQL)) {
+                for (JournaledVote vote : votes) {
+                    setParameters(statement, connection, vote);
+                    statement.addBatch();
+                }
+                statement.executeBatch();
+                connection.commit();
+            }
+            catch (SQLException ex) {
+                connection.rollback();
+                insertOneByOne(connection, votes);
+            }
+            finally {
+                connection.setAutoCommit(autoCommit);
+            }
+        }
+    }
+
+    private void insertOneByOne(Connection connection, List<JournaledVote> votes) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(INSERT_SQL);
+             PreparedStatement stored = connection.prepareStatement(STORED_SQL)) {
+            for (JournaledVote vote : votes) {
+                setParameters(statement, connection, vote);
+                try {
+                    statement.executeUpdate();
+                    connection.commit();
+                }
+                catch (SQLIntegrityConstraintViolationException ex) {
+                    connection.rollback();
+                    String[] earlier = storedVote(stored, vote);
+                    if (earlier == null || !vote.sameVoteAs(earlier[0], earlier[1])) {
+                        refuse(vote, ex.getMessage());
+                    }
+                }
+            }
+        }
+    }
+
+    static final String STORED_SQL = "select response, response_chit_number from vote where fk_question = ? "
+            + "and voter_chit_number = ? and ranking = ?";
+
+    /**
+     * @param stored {@link #STORED_SQL}
+     * @return the response and response chit number of the vote in the Vote table with the same key as the given
+     * vote, or null if there's none
+     */
+    private static String[] storedVote(PreparedStatement stored, JournaledVote vote) throws SQLException {
+        stored.setLong(1, vote.quid);
+        stored.setString(2, vote.voterChitNumber);
+        stored.setInt(3, vote.ranking);
+        try (ResultSet results = stored.executeQuery()) {
+            return results.next() ? new String[] { results.getString(1), results.getString(2) } : null;
+        }
+    }
+
+    /**
+     * Keep track of a vote that the database won't take; it stays in the journal until dismissed.
+     */
+    private void refuse(JournaledVote vote, String why) {
+        refused.put(vote.key(), vote);
+        TroubleLogger.reportTrouble("Database refused journaled vote " + vote.key() + " (" + vote.response
+                + "), which was acknowledged and counted; it is kept in the vote journal: " + why);
+    }
+
+    private void setParameters(PreparedStatement statement, Connection connection, JournaledVote vote)
+            throws SQLException {
+        statement.setLong(1, nextVoteId(connection));
+        statement.setLong(2, vote.quid);
+        statement.setInt(3, vote.ranking);
+        statement.setTimestamp(4, Timestamp.valueOf(vote.receivedWhen));
+        statement.setString(5, vote.response);
+        statement.setString(6, vote.responseChitNumber);
+        statement.setString(7, vote.voterChitNumber);
+    }
+
+    /**
+     * @return an id for a new row in the Vote table. Ids are taken from the sequence a block at a time, so most
+     * calls don't go to the database. (Ids of a batch that gets rolled back are just never used.)
+     */
+    private synchronized long nextVoteId(Connection connection) throws SQLException {
+        if (nextId == idLimit) {
+            nextId = IdSequences.nextBlock(connection, IdSequences.VOTE);
+            idLimit = nextId + IdSequences.BLOCK;
+        }
+        return nextId++;
+    }
+
+    /**
+     * Copy into the database any votes left in the journal by a previous run that didn't get there before the
+     * process stopped. Votes already in the database, and votes on Questions that no longer exist, are skipped;
+     * a vote whose key is already in the database with a different vote is refused (see {@link #refusedVotes}).
+     * @return the number of votes copied into the database
+     */
+    public int replay() throws IOException, SQLException {
+        List<JournaledVote> leftOver = new ArrayList<>();
+        try (BufferedReader reader = Files.newBufferedReader(journalPath, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.trim().isEmpty()) { continue; }
+                try {
+                    leftOver.add(objectMapper.readValue(line, JournaledVote.class));
+                }
+                catch (IOException ex) {
+                    // Most likely the last line, half-written when we went down; that vote was never acknowledged.
+                    TroubleLogger.reportTrouble("Skipping unreadable line in vote journal: " + line);
+                }
+            }
+        }
+        List<JournaledVote> missing = new ArrayList<>();
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement questionExists = connection.prepareStatement("select count(*) from question where id = ?");
+             PreparedStatement stored = connection.prepareStatement(STORED_SQL)) {
+            Set<String> seen = new HashSet<>();
+            for (JournaledVote vote : leftOver) {
+                if (!seen.add(vote.key())) { continue; }
+                questionExists.setLong(1, vote.quid);
+                if (count(questionExists) == 0) {
+                    TroubleLogger.reportTrouble("Journaled vote for a question that doesn't exist: " + vote.key());
+                    continue;
+                }
+                String[] earlier = storedVote(stored, vote);
+                if (earlier == null) {
+                    missing.add(vote);
+                }
+                else if (!vote.sameVoteAs(earlier[0], earlier[1])) {
+                    refuse(vote, "a different vote with the same key is already in the database");
+                }
+            }
+        }
+        for (int i = 0; i < missing.size(); i += BATCH_SIZE) {
+            insertVotes(missing.subList(i, Math.min(missing.size(), i + BATCH_SIZE)));
+        }
+        replayed = true;
+        synchronized (flushLock) {
+            truncateIfFlushed(true);
+        }
+        return missing.size();
+    }
+
+    private static long count(PreparedStatement statement) throws SQLException {
+        try (ResultSet results = statement.executeQuery()) {
+            results.next();
+            return results.getLong(1);
+        }
+    }
+}
@@ -1,6 +1,14 @@
 package com.jagbag.dvoting;
 
 import com.jagbag.dvoting.entities.*;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.persister.entity.EntityPersister;
+import org.hibernate.stat.CacheRegionStatistics;
+import org.hibernate.stat.NaturalIdStatistics;
+import org.hibernate.stat.Statistics;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
@@ -8,8 +16,11 @@ import javax.persistence.EntityManager;
 import javax.persistence.EntityManagerFactory;
 import javax.persistence.Query;
 import java.io.UnsupportedEncodingException;
+import java.nio.charset.StandardCharsets;
 import java.security.NoSuchAlgorithmException;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiFunction;
 
 /**
  * Interface with the database store of user accounts. Allows looking up users by username, CRUD operations,
@@ -18,6 +29,10 @@ import java.util.*;
  * because there are no admin users yet to grant anyone admin privilege. Thus, first thing we do, before anything,
  * we make sure at least one user exists with admin privilege. If not, we create a user with the username
  * "admin" and password "changeme!".
+ *
+ * Voters are looked up by username on nearly every request, so they're kept in Hibernate's second-level cache
+ * (see {@link LocalCacheRegionFactory}), found there by their natural id. Every method here that writes to the
+ * Voter table empties the cache afterwards, by way of {@link #voterListChanged}.
  */
 @Component("voterListManager")
 public class VoterListManager {
@@ -25,6 +40,59 @@ public class VoterListManager {
     private EntityManagerFactory emf;
 
     private boolean initialized;
+    /** Goes up every time anything about any Voter is written to the database. */
+    private final AtomicLong version = new AtomicLong();
+    /** How many times the Voter cache has been emptied */
+    private final AtomicLong evictions = new AtomicLong();
+    /** What Hibernate calls the Voters' lists of proxy grantees, which are cached too */
+    static final String PROXY_GRANTEES = Voter.class.getName() + ".proxyGrantees";
+
+    /** How well the Voter cache is doing, since the server started */
+    public static class CacheReport {
+        /** Voters found in the cache, and not */
+        public long voterHits;
+        public long voterMisses;
+        /** Usernames found in the cache, and not */
+        public long usernameHits;
+        public long usernameMisses;
+        /** Lists of proxy grantees found in the cache, and not */
+        public long proxyGranteeHits;
+        public long proxyGranteeMisses;
+        /** How many times the cache has been emptied because the Voter table was written to */
+        public long evictions;
+    }
+
+    /** A Voter as listed on the admin page; read by {@link #voterSummaries}, and never saved */
+    public static class VoterSummary {
+        public String name;
+        public String username;
+        public String currentEmail;
+        public boolean allowedToVote;
+        public boolean admin;
+        /** Where this is in the list; pass it as after, to get the ones that follow */
+        @JsonIgnore
+        public String position;
+    }
+
+    /** Someone who could be asked to hold a Voter's proxy; see {@link #possibleProxiesFor} */
+    public static class ProxyCandidate {
+        public String name;
+        public String username;
+        /** Where this is in the list; pass it as after, to get the ones that follow */
+        @JsonIgnore
+        public String position;
+    }
+
+    /** Only accounts that are active (see {@link Voter#isActiveAccount}) */
+    static final String ACTIVE_ACCOUNT = "(v.emailConfirmed = true or v.oldEmail is not null)";
+    /** How many Voters to a page of a list, unless asked for otherwise; and the most there can be */
+    public static final int DEFAULT_PAGE_SIZE = 100;
+    public static final int MAX_PAGE_SIZE = 1000;
+    /**
+     * The parts of a list of Voters, in order: allowedToVote and admin for each. Each part is read in the order
+     * of the ix_voter_list index; see {@link #page}.
+     */
+    private static final boolean[][] LIST_PARTS = {{true, true}, {true, false}, {false, true}, {false, false}};
 
     public VoterListManager() {
         initialized = false;
@@ -37,6 +105,56 @@ public class VoterListManager {
         }
     }
 
+    /**
+     * A number that changes every time any Voter is changed, added, or removed. Anything that keeps a copy of
+     * a Voter (see {@link SessionStore}) can hang on to the version at which it read the copy, and know the
+     * copy is still good as long as the version hasn't changed.
+     * Every method here that writes to the Voter table changes the version, whether or not the write
+     * succeeded; so must anything else that writes to the Voter table.
+     */
+    public long getVersion() {
+        return version.get();
+    }
+
+    /**
+     * Note that the Voter table has (or may have) been written to; and empty the Voter cache, including the
+     * username lookups and the lists of proxy grantees.
+     */
+    public void voterListChanged() {
+        org.hibernate.Cache cache = emf.unwrap(SessionFactory.class).getCache();
+        cache.evictEntityData(Voter.class);
+        cache.evictNaturalIdData(Voter.class);
+        cache.evictCollectionData(PROXY_GRANTEES);
+        evictions.incrementAndGet();
+        version.incrementAndGet();
+    }
+
+    /**
+     * @return the cache's hits and misses (all zero if hibernate.generate_statistics is off, or there's no cache)
+     */
+    public CacheReport cacheReport() {
+        CacheReport report = new CacheReport();
+        report.evictions = evictions.get();
+        SessionFactoryImplementor sessionFactory = emf.unwrap(SessionFactoryImplementor.class);
+        EntityPersister persister = sessionFactory.getMetamodel().entityPersister(Voter.class);
+        if (!persister.canReadFromCache()) {
+            return report;
+        }
+        Statistics statistics = sessionFactory.getStatistics();
+        CacheRegionStatistics voters = statistics.getDomainDataRegionStatistics(
+                persister.getCacheAccessStrategy().getRegion().getName());
+        report.voterHits = voters.getHitCount();
+        report.voterMisses = voters.getMissCount();
+        NaturalIdStatistics usernames = statistics.getNaturalIdStatistics(Voter.class.getName());
+        report.usernameHits = usernames.getCacheHitCount();
+        report.usernameMisses = usernames.getCacheMissCount();
+        CacheRegionStatistics grantees = statistics.getDomainDataRegionStatistics(sessionFactory.getMetamodel()
+                .collectionPersister(PROXY_GRANTEES).getCacheAccessStrategy().getRegion().getName());
+        report.proxyGranteeHits = grantees.getHitCount();
+        report.proxyGranteeMisses = grantees.getMissCount();
+        return report;
+    }
+
     protected synchronized void createAdminUserIfNeeded() throws UnsupportedEncodingException, NoSuchAlgorithmException {
         if (countAdminUsers() < 1) {
             Voter adminUser = getForUsername("admin");
@@ -58,6 +176,7 @@ public class VoterListManager {
             }
             finally {
                 em.close();
+                voterListChanged();
             }
         }
     }
@@ -65,33 +184,277 @@ public class VoterListManager {
     protected synchronized int countAdminUsers() {
         int count;
         EntityManager em = emf.createEntityManager();
-        String hql = "select v from Voter v where v.admin = true";
-        List<Voter> list = em.createQuery(hql).getResultList();
-        count = list.size();
+        String hql = "select count(v) from Voter v where v.admin = true";
+        count = ((Long)em.createQuery(hql).getSingleResult()).intValue();
         em.close();
         return count;
     }
 
+    /**
+     * Look up a Voter by username (from the cache, if it's there).
+     * @return a detached Voter, or null if there's no such user
+     */
     public Voter getForUsername(String username) {
-        Voter result = null;
+        if (username == null) {
+            return null;
+        }
         EntityManager em = emf.createEntityManager();
-        String hql = "select v from Voter v where v.username = :username";
-        List<Voter> list = em.createQuery(hql).setParameter("username", username).getResultList();
-        if (list.size() == 1) {
-            result = list.get(0);
+        try {
+            return em.unwrap(Session.class).bySimpleNaturalId(Voter.class).load(username);
+        }
+        finally {
+            em.close();
         }
-        em.close();
-        return result;
     }
 
+    /**
+     * @return every Voter, with their proxy grantees, in one query
+     */
     public Collection<Voter> voters() {
         EntityManager em = emf.createEntityManager();
-        String hql = "select v from Voter v order by v.allowedToVote DESC, v.admin DESC, v.name";
+        String hql = "select distinct v from Voter v left join fetch v.proxyGrantees order by v.allowedToVote DESC, v.admin DESC, v.name";
         List<Voter> list = em.createQuery(hql).getResultList();
         em.close();
         return list;
     }
 
+    /**
+     * Lists the active accounts for the admin page, a page at a time, without loading any Voters: those who may
+     * vote first, admins first among them, then by name. See {@link #page}.
+     * @param allowedToVote whether to list only those who may vote (true), who may not (false), or all (null)
+     * @param namePrefix if not null, only those whose name starts with this (trimmed, in any case)
+     * @param after if not null, the position of the last one on the previous page
+     * @param limit how many to list, at most
+     */
+    public List<VoterSummary> voterSummaries(Boolean allowedToVote, String namePrefix, String after, int limit) {
+        String columns = "v.name, v.email, v.oldEmail, v.emailConfirmed";
+        return page(columns, "", new HashMap<String, Object>(), allowedToVote, namePrefix, after, limit,
+                (row, position) -> {
+                    VoterSummary summary = new VoterSummary();
+                    summary.allowedToVote = (Boolean)row[0];
+                    summary.admin = (Boolean)row[1];
+                    summary.username = (String)row[3];
+                    summary.name = (String)row[4];
+                    // The same as Voter's getCurrentEmail()
+                    summary.currentEmail = (Boolean)row[7] ? (String)row[5] : (String)row[6];
+                    summary.position = position;
+                    return summary;
+                });
+    }
+
+    /**
+     * Lists who could hold the given Voter's proxy, a page at a time: others with active accounts, who may vote,
+     * who are going to vote themselves rather than by proxy, and who aren't already holding two proxies (see
+     * {@link Voter#canAcceptProxy}). How many proxies each holds is counted in the same query, with the
+     * ix_voter_proxy index. Parameters as for {@link #voterSummaries}.
+     */
+    public List<ProxyCandidate> possibleProxiesFor(Voter grantor, String namePrefix, String after, int limit) {
+        String conditions = " and v.username <> :grantor and v.proxyHolder is null"
+                + " and (select count(g) from Voter g where g.proxyHolder = v and g.proxyAccepted = true) < 2";
+        Map<String, Object> parameters = new HashMap<String, Object>();
+        parameters.put("grantor", grantor.getUsername());
+        return page("v.name", conditions, parameters, true, namePrefix, after, limit,
+                (row, position) -> {
+                    ProxyCandidate candidate = new ProxyCandidate();
+                    candidate.username = (String)row[3];
+                    candidate.name = (String)row[4];
+                    candidate.position = position;
+                    return candidate;
+                });
+    }
+
+    /**
+     * Reads a page of a list of active accounts, in the order of the ix_voter_list index: allowedToVote (true
+     * first), admin (true first), nameKey, username. Each part of the list with the same allowedToVote and admin
+     * is read with a query of its own, starting where the previous page left off by way of the index (keyset
+     * pagination), so a page takes the same time wherever it is in the list: one query, or a few more where the
+     * page spans parts of the list.
+     * @param columns what to select, after v.allowedToVote, v.admin, v.nameKey, v.username
+     * @param conditions more conditions, starting with " and", or ""
+     * @param parameters the values of any parameters in conditions
+     * @param toRow makes a row of the list from what was selected, and its position in the list
+     * @throws IllegalArgumentException if after isn't a position in the list
+     */
+    private <T> List<T> page(String columns, String conditions, Map<String, Object> parameters,
+                             Boolean allowedToVote, String namePrefix, String after, int limit,
+                             BiFunction<Object[], String, T> toRow) {
+        limit = pageSize(limit);
+        String hql = "select v.allowedToVote, v.admin, v.nameKey, v.username, " + columns + " from Voter v"
+                + " where v.allowedToVote = :allowedToVote and v.admin = :admin and " + ACTIVE_ACCOUNT + conditions;
+        if (namePrefix != null && !namePrefix.trim().isEmpty()) {
+            hql += " and v.nameKey >= :prefix and v.nameKey < :prefixEnd";
+            String prefix = Voter.nameKeyFor(namePrefix);
+            parameters.put("prefix", prefix);
+            parameters.put("prefixEnd", prefix + Character.MAX_VALUE);
+        }
+        // (allowedToVote and admin are the same all through a part, but ordering by them too lets the database
+        // read the part in the order of the index, and stop at the end of the page, rather than sort the whole part)
+        String orderBy = " order by v.allowedToVote, v.admin, v.nameKey, v.username";
+        int part = 0;
+        String afterNameKey = null;
+        String afterUsername = null;
+        if (after != null) {
+            String[] fields = after.split("\\.", -1);
+            if (fields.length != 3) {
+                throw new IllegalArgumentException("Not a position in the list of voters: " + after);
+            }
+            part = Arrays.asList("11", "10", "01", "00").indexOf(fields[0]);
+            if (part < 0) {
+                throw new IllegalArgumentException("Not a position in the list of voters: " + after);
+            }
+            afterNameKey = new String(Base64.getUrlDecoder().decode(fields[1]), StandardCharsets.UTF_8);
+            afterUsername = new String(Base64.getUrlDecoder().decode(fields[2]), StandardCharsets.UTF_8);
+        }
+        List<T> list = new ArrayList<T>();
+        EntityManager em = emf.createEntityManager();
+        try {
+            for (; part < LIST_PARTS.length && list.size() < limit; ++part) {
+                boolean partAllowedToVote = LIST_PARTS[part][0];
+                boolean partAdmin = LIST_PARTS[part][1];
+                if (allowedToVote != null && allowedToVote != partAllowedToVote) {
+                    continue;
+                }
+                Query query;
+                if (afterNameKey != null) {
+                    // The rest of the part of the list where the previous page left off
+                    query = em.createQuery(hql + " and v.nameKey >= :afterNameKey"
+                            + " and (v.nameKey > :afterNameKey or v.username > :afterUsername)" + orderBy);
+                    query.setParameter("afterNameKey", afterNameKey);
+                    query.setParameter("afterUsername", afterUsername);
+                    afterNameKey = null;
+                }
+                else {
+                    query = em.createQuery(hql + orderBy);
+                }
+                query.setParameter("allowedToVote", partAllowedToVote);
+                query.setParameter("admin", partAdmin);
+                for (Map.Entry<String, Object> parameter : parameters.entrySet()) {
+                    query.setParameter(parameter.getKey(), parameter.getValue());
+                }
+                query.setMaxResults(limit - list.size());
+                List<Object[]> rows = query.getResultList();
+                for (Object[] row : rows) {
+                    list.add(toRow.apply(row, position(row)));
+                }
+            }
+        }
+        finally {
+            em.close();
+        }
+        return list;
+    }
+
+    /**
+     * @return how many there will be on a full page, if asked for limit
+     */
+    public static int pageSize(int limit) {
+        return Math.max(1, Math.min(limit, MAX_PAGE_SIZE));
+    }
+
+    /**
+     * @return where a row of a list read by {@link #page} is in the list, as a string that can be passed back in
+     * to get what comes after it
+     */
+    private static String position(Object[] row) {
+        Base64.Encoder encoder = Base64.getUrlEncoder().withoutPadding();
+        return ((Boolean)row[0] ? "1" : "0") + ((Boolean)row[1] ? "1" : "0")
+                + "." + encoder.encodeToString(((String)row[2]).getBytes(StandardCharsets.UTF_8))
+                + "." + encoder.encodeToString(((String)row[3]).getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Fills in nameKey for any Voter without one, as in a database from before there was such a thing; call at
+     * start-up.
+     * @return how many Voters needed it
+     */
+    public int fillInNameKeys() {
+        EntityManager em = emf.createEntityManager();
+        int count = 0;
+        try {
+            em.getTransaction().begin();
+            // The same as Voter.nameKeyFor, as near as SQL can say it
+            count = em.createQuery("update Voter v set v.nameKey = coalesce(lower(trim(v.name)), '') "
+                    + "where v.nameKey is null").executeUpdate();
+            em.getTransaction().commit();
+        }
+        catch (Exception ex) {
+            em.getTransaction().rollback();
+            TroubleLogger.reportTrouble("Could not fill in Voters' name keys: " + ex.getMessage());
+        }
+        finally {
+            em.close();
+            if (count > 0) {
+                voterListChanged();
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Fills in emailKey and oldEmailKey for any Voter without them, as in a database from before there were such
+     * things; call at start-up. No two Voters may have the same key, so if any two addresses differ only in case,
+     * the keys are filled in one Voter at a time, and whichever Voter comes second is reported and left without;
+     * until that's sorted out, it can't be looked up by that address.
+     * @return how many Voters' keys were filled in
+     */
+    public int fillInEmailKeys() {
+        // The same as Voter.emailKeyFor, as near as SQL can say it
+        String[] updates = { "update Voter v set v.emailKey = lower(trim(v.email)) "
+                + "where v.emailKey is null and v.email is not null",
+                "update Voter v set v.oldEmailKey = lower(trim(v.oldEmail)) "
+                + "where v.oldEmailKey is null and v.oldEmail is not null" };
+        int count = 0;
+        EntityManager em = emf.createEntityManager();
+        try {
+            em.getTransaction().begin();
+            for (String update : updates) {
+                count += em.createQuery(update).executeUpdate();
+            }
+            em.getTransaction().commit();
+        }
+        catch (Exception ex) {
+            em.getTransaction().rollback();
+            count = 0;
+            for (String update : updates) {
+                count += fillInEmailKeysOneByOne(update);
+            }
+        }
+        finally {
+            em.close();
+            if (count > 0) {
+                voterListChanged();
+            }
+        }
+        return count;
+    }
+
+    /** Does update for each Voter it applies to, on its own, reporting any that it fails for */
+    private int fillInEmailKeysOneByOne(String update) {
+        int count = 0;
+        EntityManager em = emf.createEntityManager();
+        try {
+            List<Object[]> rows = em.createQuery("select v.id, v.username from Voter v where "
+                    + update.substring(update.indexOf("where ") + "where ".length()), Object[].class).getResultList();
+            for (Object[] row : rows) {
+                try {
+                    em.getTransaction().begin();
+                    count += em.createQuery(update + " and v.id = :id").setParameter("id", row[0]).executeUpdate();
+                    em.getTransaction().commit();
+                }
+                catch (Exception ex) {
+                    em.getTransaction().rollback();
+                    TroubleLogger.reportTrouble(String.format("Voter %s has the same email address as another, "
+                            + "but for case; it can't be looked up by that address until one of them changes",
+                            row[1]));
+                }
+            }
+        }
+        finally {
+            em.close();
+        }
+        return count;
+    }
+
     public boolean addVoter(Voter v, String password) {
         boolean success = true;
         EntityManager em = emf.createEntityManager();
@@ -109,6 +472,7 @@ public class VoterListManager {
         }
         finally {
             em.close();
+            voterListChanged();
         }
         return success;
     }
@@ -128,6 +492,7 @@ public class VoterListManager {
         }
         finally {
             em.close();
+            voterListChanged();
         }
     }
 
@@ -149,6 +514,7 @@ public class VoterListManager {
             }
             finally {
                 em.close();
+                voterListChanged();
             }
             return success;
         }
@@ -163,33 +529,95 @@ public class VoterListManager {
     }
 
     /**
-     * Query for a Voter with this email address, or this is the old email address
+     * Query for a Voter with this email address, or this is the old email address. Addresses are compared as
+     * {@link Voter#emailKeyFor} has them, so case and surrounding spaces don't matter; and each is indexed, so this
+     * is one query however many Voters there are. (In SQL, because "where emailKey = ? or oldEmailKey = ?" reads
+     * the whole table, where the union of the two reads each index; and JPQL has no union.)
      * @param email
-     * @return a Voter with matching email or old email, or null
+     * @return a Voter with matching email or old email, or null; if one has it as email and another as old email,
+     * the former
      */
     public Voter getForEmail(String email) {
+        String key = Voter.emailKeyFor(email);
+        if (key == null) {
+            return null;
+        }
         EntityManager em = emf.createEntityManager();
         Voter v = null;
-        String hql = "select v from Voter v where v.email like :email";
-        Query query = em.createQuery(hql);
-        query.setParameter("email", email);
-        List results = query.getResultList();
-        if (results.size() > 0) {
-            v = (Voter)(results.get(0));
-        }
-        if (v == null) {
-            hql = "select v from Voter v where v.oldEmail like :email";
-            query = em.createQuery(hql);
-            query.setParameter("email", email);
-            results = query.getResultList();
-            if (results.size() > 0) {
-                v = (Voter)(results.get(0));
+        try {
+            List<Voter> results = em.createNativeQuery("select v.* from voter v where v.id in "
+                    + "(select id from voter where email_key = :key union select id from voter where old_email_key = :key)",
+                    Voter.class).setParameter("key", key).getResultList();
+            for (Voter each : results) {
+                if (v == null || key.equals(each.getEmailKey())) {
+                    v = each;
+                }
             }
         }
-        em.close();
+        finally {
+            em.close();
+        }
         return v;
     }
 
+    /** How many addresses {@link #getForEmails} asks about in one query; each is a parameter of the query */
+    static final int EMAILS_PER_QUERY = 1000;
+
+    /**
+     * Looks up many email addresses at once, as {@link #getForEmail} looks up one: for every
+     * {@value #EMAILS_PER_QUERY} addresses, a query for those that are Voters' email addresses, and, if any aren't,
+     * one for those that are old email addresses; rather than a query or two for each.
+     * @return the Voter for each of the given addresses that has one
+     */
+    public Map<String, Voter> getForEmails(Collection<String> emails) {
+        Map<String, List<String>> asGiven = new HashMap<String, List<String>>();
+        for (String email : emails) {
+            String key = Voter.emailKeyFor(email);
+            if (key != null) {
+                asGiven.computeIfAbsent(key, k -> new ArrayList<String>()).add(email);
+            }
+        }
+        List<String> keys = new ArrayList<String>(asGiven.keySet());
+        Map<String, Voter> byKey = new HashMap<String, Voter>();
+        EntityManager em = emf.createEntityManager();
+        try {
+            for (int from = 0; from < keys.size(); from += EMAILS_PER_QUERY) {
+                List<String> some = keys.subList(from, Math.min(keys.size(), from + EMAILS_PER_QUERY));
+                for (Voter v : em.createQuery("select distinct v from Voter v left join fetch v.proxyGrantees "
+                        + "where v.emailKey in :keys", Voter.class).setParameter("keys", some).getResultList()) {
+                    byKey.put(v.getEmailKey(), v);
+                }
+                // As with getForEmail, a match on the current address wins
+                List<String> left = new ArrayList<String>();
+                for (String key : some) {
+                    if (!byKey.containsKey(key)) {
+                        left.add(key);
+                    }
+                }
+                if (left.isEmpty()) {
+                    continue;
+                }
+                for (Voter v : em.createQuery("select distinct v from Voter v left join fetch v.proxyGrantees "
+                        + "where v.oldEmailKey in :keys", Voter.class).setParameter("keys", left).getResultList()) {
+                    byKey.put(v.getOldEmailKey(), v);
+                }
+            }
+        }
+        finally {
+            em.close();
+        }
+        Map<String, Voter> found = new HashMap<String, Voter>();
+        for (String key : keys) {
+            Voter v = byKey.get(key);
+            if (v != null) {
+                for (String email : asGiven.get(key)) {
+                    found.put(email, v);
+                }
+            }
+        }
+        return found;
+    }
+
     /**
      * Handle a request that a password get reset.
      * @see Voter#prepareForReset() for how the request is handled, which involves valuing some persistent fields.
@@ -213,6 +641,7 @@ public class VoterListManager {
         }
         finally {
             em.close();
+            voterListChanged();
         }
         return success;
     }
@@ -237,6 +666,7 @@ public class VoterListManager {
         }
         finally {
             em.close();
+            voterListChanged();
         }
         return success;
     }
@@ -257,6 +687,7 @@ public class VoterListManager {
         }
         finally {
             em.close();
+            voterListChanged();
         }
         return success;
     }
@@ -292,6 +723,7 @@ public class VoterListManager {
         }
         finally {
             em.close();
+            voterListChanged();
         }
         return success;
     }
@@ -0,0 +1,276 @@
+package com.jagbag.dvoting;
+
+import com.jagbag.dvoting.entities.Voter;
+import org.hibernate.Session;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import java.io.UnsupportedEncodingException;
+import java.math.BigInteger;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Makes the set of Voters who are allowed to vote exactly match an uploaded list of email addresses and names
+ * (see /voters/upload, and {@link RosterImporter}, which reads the file). For each person on the list:
+ * - if there's an account with that email address (or old email address), make sure it's active and allowed to vote;
+ * - if not, make an account, allowed to vote, with a random password they'll be sent.
+ * Everyone else who is allowed to vote, isn't any more.
+ *
+ * This is done in bulk, rather than a person at a time: the whole voter list is read with one query, into an
+ * index by email address; the people on the uploaded list are then fed in, a chunk at a time, and what needs
+ * doing for each chunk is worked out from the index, in memory, and written: new accounts inserted in JDBC
+ * batches, and changes to existing accounts made with a few set-based update statements. At the end, everyone
+ * who wasn't on the list loses the vote. It's all one transaction: either it all happens, or none of it does.
+ * See {@link #begin}.
+ */
+@Component("voterListReconciler")
+public class VoterListReconciler {
+    /** How many new accounts are inserted in each JDBC batch. */
+    static final int BATCH_SIZE = 500;
+    /** How many ids go into the "in" list of each update statement. */
+    static final int IDS_PER_UPDATE = 1000;
+    /** Most error messages kept in a Report; after that, they're only counted. */
+    static final int MAX_ERRORS_KEPT = 200;
+
+    /** What happened (or, if it was rejected, didn't happen) with an uploaded voter list. */
+    public static class Report {
+        /** Whether any changes were made; false if the file was rejected, or writing to the database failed. */
+        public boolean applied;
+        public int linesRead;
+        public int accountsAdded;
+        /** Existing accounts that were activated */
+        public int accountsActivated;
+        /** Existing accounts that were allowed to vote */
+        public int votingEnabled;
+        /** Accounts that weren't on the list, and are no longer allowed to vote */
+        public int votingDisabled;
+        /** Accounts on the list that were already active and allowed to vote */
+        public int unchanged;
+        /** How many lines were skipped, or other things went wrong */
+        public int errorCount;
+        /** A message for each line that was skipped (up to {@link #MAX_ERRORS_KEPT}), or for why nothing was done */
+        public List<String> errors = new ArrayList<String>();
+        /** The accounts that were added, each with the random password its owner needs to be sent */
+        public List<Voter> newVoters = new ArrayList<Voter>();
+
+        public void error(String message) {
+            if (errors.size() < MAX_ERRORS_KEPT) {
+                errors.add(message);
+            }
+            ++errorCount;
+        }
+
+        public void error(int lineNumber, String message) {
+            error(String.format("line %d: %s", lineNumber, message));
+        }
+
+        /** Forget the changes we were going to report; they didn't happen after all. */
+        void nothingDone() {
+            applied = false;
+            accountsAdded = accountsActivated = votingEnabled = votingDisabled = unchanged = 0;
+            newVoters.clear();
+        }
+    }
+
+    /** Someone on an uploaded list. */
+    public static class Person {
+        public final int lineNumber;
+        public final String email;
+        public final String name;
+
+        public Person(int lineNumber, String email, String name) {
+            this.lineNumber = lineNumber;
+            this.email = email;
+            this.name = name;
+        }
+    }
+
+    /** What we need to know about each existing account. */
+    private static final class RosterEntry {
+        final long id;
+        final boolean allowedToVote;
+        final boolean active;
+
+        RosterEntry(long id, boolean allowedToVote, boolean active) {
+            this.id = id;
+            this.allowedToVote = allowedToVote;
+            this.active = active;
+        }
+    }
+
+    @Autowired
+    private EntityManagerFactory emf;
+    /** See {@link VoterListManager } */
+    @Autowired
+    private VoterListManager voterListManager;
+
+    /**
+     * Start making the Voter table match an uploaded list. Feed in the people on the list with
+     * {@link Reconciliation#add}, then {@link Reconciliation#finish}; and close it, whatever happens, which
+     * undoes everything if it didn't finish.
+     */
+    public Reconciliation begin(Report report) {
+        return new Reconciliation(report);
+    }
+
+    /** One upload's worth of changes to the Voter table, in progress. */
+    public class Reconciliation implements AutoCloseable {
+        private final Report report;
+        private final List<RosterEntry> roster = new ArrayList<RosterEntry>();
+        private final Map<String, RosterEntry> byEmail = new HashMap<String, RosterEntry>();
+        private final Set<String> usernames = new HashSet<String>();
+        /** Ids of the existing accounts that are on the list */
+        private final Set<Long> listed = new HashSet<Long>();
+        private final EntityManager em;
+        private boolean finished;
+
+        Reconciliation(Report report) {
+            this.report = report;
+            loadRoster(roster, byEmail, usernames);
+            em = emf.createEntityManager();
+            em.getTransaction().begin();
+            em.unwrap(Session.class).setJdbcBatchSize(BATCH_SIZE);
+        }
+
+        /**
+         * Make the changes needed for these people on the list. Each email address should only be fed in once.
+         */
+        public void add(List<Person> people) throws UnsupportedEncodingException, NoSuchAlgorithmException {
+            List<Voter> newVoters = new ArrayList<Voter>();
+            List<Long> toActivate = new ArrayList<Long>();
+            List<Long> toEnable = new ArrayList<Long>();
+            for (Person person : people) {
+                RosterEntry entry = byEmail.get(Voter.emailKeyFor(person.email));
+                if (entry == null) {
+                    if (!usernames.add(person.email)) {
+                        report.error(person.lineNumber, "Someone else already has the username " + person.email
+                                + "; skipped");
+                        continue;
+                    }
+                    newVoters.add(newVoter(person.name, person.email));
+                    continue;
+                }
+                if (!listed.add(entry.id)) {
+                    continue;  // listed under both their email address and their old one
+                }
+                if (!entry.active) {
+                    toActivate.add(entry.id);
+                }
+                if (!entry.allowedToVote) {
+                    toEnable.add(entry.id);
+                }
+                if (entry.active && entry.allowedToVote) {
+                    ++report.unchanged;
+                }
+            }
+            for (int i = 0; i < newVoters.size(); ++i) {
+                em.persist(newVoters.get(i));
+                if ((i + 1) % BATCH_SIZE == 0) {
+                    em.flush();
+                    em.clear();
+                }
+            }
+            em.flush();
+            em.clear();
+            updateAll(em, "update Voter v set v.emailConfirmed = true where v.id in :ids", toActivate);
+            updateAll(em, "update Voter v set v.allowedToVote = true where v.id in :ids", toEnable);
+            report.newVoters.addAll(newVoters);
+            report.accountsAdded += newVoters.size();
+            report.accountsActivated += toActivate.size();
+            report.votingEnabled += toEnable.size();
+        }
+
+        /**
+         * Take the vote away from everyone who wasn't on the list, and commit all the changes.
+         */
+        public void finish() {
+            List<Long> toDisable = new ArrayList<Long>();
+            for (RosterEntry entry : roster) {
+                if (entry.allowedToVote && !listed.contains(entry.id)) {
+                    toDisable.add(entry.id);
+                }
+            }
+            updateAll(em, "update Voter v set v.allowedToVote = false where v.id in :ids", toDisable);
+            em.getTransaction().commit();
+            finished = true;
+            report.votingDisabled = toDisable.size();
+            report.applied = true;
+        }
+
+        @Override
+        public void close() {
+            try {
+                if (!finished) {
+                    if (em.getTransaction().isActive()) {
+                        em.getTransaction().rollback();
+                    }
+                    report.nothingDone();
+                }
+            }
+            finally {
+                em.close();
+                voterListManager.voterListChanged();
+            }
+        }
+    }
+
+    /**
+     * Read every account, with just what we need to know about it, in one query. An account can be found by its
+     * email address or its old email address, in any case (see {@link Voter#emailKeyFor}); if one account's email
+     * address is another's old email address, the former wins, as with {@link VoterListManager#getForEmail}.
+     */
+    private void loadRoster(List<RosterEntry> roster, Map<String, RosterEntry> byEmail, Set<String> usernames) {
+        EntityManager em = emf.createEntityManager();
+        try {
+            List<Object[]> rows = em.createQuery(
+                    "select v.id, v.username, v.emailKey, v.oldEmailKey, v.allowedToVote, v.emailConfirmed from Voter v",
+                    Object[].class).getResultList();
+            for (Object[] row : rows) {
+                String oldEmail = (String)row[3];
+                boolean emailConfirmed = (Boolean)row[5];
+                RosterEntry entry = new RosterEntry((Long)row[0], (Boolean)row[4], emailConfirmed || oldEmail != null);
+                roster.add(entry);
+                usernames.add((String)row[1]);
+                if (oldEmail != null) {
+                    byEmail.putIfAbsent(oldEmail, entry);
+                }
+            }
+            for (int i = 0; i < rows.size(); ++i) {
+                String email = (String)rows.get(i)[2];
+                if (email != null) {
+                    byEmail.put(email, roster.get(i));
+                }
+            }
+        }
+        finally {
+            em.close();
+        }
+    }
+
+    /**
+     * A new account for someone on the list: username is their email address; active, without them having to
+     * confirm their email address, since it's come from an admin; allowed to vote; and with a random password,
+     * which they will be sent.
+     */
+    private Voter newVoter(String name, String email)
+            throws UnsupportedEncodingException, NoSuchAlgorithmException {
+        Voter v = new Voter(name, email, email);
+        v.setPassword((new BigInteger(48, ThreadLocalRandom.current())).toString(36));
+        v.prepareForConfirmationEmail();
+        v.setEmailConfirmed(true);
+        v.setAllowedToVote(true);
+        v.prepareForReset();
+        return v;
+    }
+
+    private void updateAll(EntityManager em, String jpql, List<Long> ids) {
+        for (int from = 0; from < ids.size(); from += IDS_PER_UPDATE) {
+            List<Long> chunk = ids.subList(from, Math.min(ids.size(), from + IDS_PER_UPDATE));
+            em.createQuery(jpql).setParameter("ids", chunk).executeUpdate();
+        }
+    }
+}
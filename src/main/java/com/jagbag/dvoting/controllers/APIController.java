@@ -51,12 +51,12 @@ public class APIController {
 
     /**
      * Find a file in the classpath and return its text contents.
+     * The file is only actually read the first time; see {@link Template#of(Resource)}.
      * @param myResource a file
      * @return a String containing the file's contents
      * */
     public static String textFromResource(Resource myResource) throws IOException {
-        String text = new String(myResource.getInputStream().readAllBytes());
-        return text;
+        return Template.of(myResource).render();
     }
 
     /**
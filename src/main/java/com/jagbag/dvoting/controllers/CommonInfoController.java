@@ -11,17 +11,13 @@ import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
 
-import javax.persistence.EntityManager;
-import javax.persistence.EntityManagerFactory;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
-import java.util.ArrayList;
-import java.util.HashSet;
-import java.util.List;
-import java.util.Set;
+import java.util.*;
 
 /**
  * Endpoint handler to
@@ -34,16 +30,13 @@ public class CommonInfoController extends APIController {
     @Autowired
     private CentralTabulatingFacility ctf;
 
+    /**
+     * List all the Questions, with just what the admin page shows; see {@link QuestionSummary}
+     */
     @GetMapping("/questions")
-    public ResponseEntity<List<Question>> getQuestions(@RequestHeader HttpHeaders headers) {
+    public ResponseEntity<List<QuestionSummary>> getQuestions(@RequestHeader HttpHeaders headers) {
         loginManager.validatePrivilegedUser(headers);
-        EntityManager em = emf.createEntityManager();
-        em.getTransaction().begin();
-        String hql = "select q from Question q order by q.createdWhen";
-        List<Question> list = em.createQuery(hql).getResultList();
-        em.getTransaction().commit();
-        em.close();
-        return ResponseEntity.ok(list);
+        return ResponseEntity.ok(ctf.questionSummaries());
     }
 
     /**
@@ -62,58 +55,82 @@ public class CommonInfoController extends APIController {
         return q;
     }
 
+    /**
+     * List the active accounts, a page at a time (see {@link VoterListManager#voterSummaries}). If there may be
+     * more, the response has a Link header with the URL of the next page, rel="next".
+     * @param filterValue whether to list those who may vote (yes), who may not (no), or all
+     * @param search if given, list only those whose name starts with it
+     * @param after if given, where the previous page left off (from its Link header)
+     * @param limit how many to list on the page
+     */
     @GetMapping("/voters")
-    public List<Voter> getVoters(@RequestHeader HttpHeaders headers,
+    public ResponseEntity<List<VoterListManager.VoterSummary>> getVoters(@RequestHeader HttpHeaders headers,
                                  @RequestParam(value = "canvote", defaultValue = "all", required = false)
-                                         String filterValue) {
+                                         String filterValue,
+                                 @RequestParam(required = false) String search,
+                                 @RequestParam(required = false) String after,
+                                 @RequestParam(defaultValue = "" + VoterListManager.DEFAULT_PAGE_SIZE) int limit) {
         loginManager.validatePrivilegedUser(headers);
-        List<Voter> results = new ArrayList<Voter>();
-        boolean includeCanVote = false;
-        boolean includeCannotVote = false;
+        Boolean allowedToVote;
         switch (filterValue) {
             case "all":
-                includeCanVote = true;
-                includeCannotVote = true;
+                allowedToVote = null;
                 break;
             case "yes":
-                includeCanVote = true;
+                allowedToVote = true;
                 break;
             case "no":
-                includeCannotVote = true;
+                allowedToVote = false;
                 break;
             default:
                 throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
                         "Parameter should be yes, no, or all");
         }
-        for (Voter voter : voterListManager.voters()) {
-            /* TODO: option to see accounts that are not activated */
-            if (voter.isActiveAccount()) {
-                if ((voter.isAllowedToVote() && includeCanVote) || (!voter.isAllowedToVote() && includeCannotVote)) {
-                    results.add(voter);
-                }
-            }
+        /* TODO: option to see accounts that are not activated */
+        List<VoterListManager.VoterSummary> page;
+        try {
+            page = voterListManager.voterSummaries(allowedToVote, search, after, limit);
+        }
+        catch (IllegalArgumentException ex) {
+            throw new BadRequestException();
         }
-        return results;
+        String next = (page.size() < VoterListManager.pageSize(limit)) ? null : page.get(page.size() - 1).position;
+        return withNextPageLink(page, next);
     }
 
+    /**
+     * List who might hold the logged-in Voter's proxy, a page at a time; parameters and response as for
+     * {@link #getVoters}.
+     */
     @GetMapping("/pp")
-    public List<Voter> possibleProxies(@RequestHeader HttpHeaders headers) {
+    public ResponseEntity<List<VoterListManager.ProxyCandidate>> possibleProxies(@RequestHeader HttpHeaders headers,
+                                 @RequestParam(required = false) String search,
+                                 @RequestParam(required = false) String after,
+                                 @RequestParam(defaultValue = "" + VoterListManager.DEFAULT_PAGE_SIZE) int limit) {
         Voter inquirer = loginManager.validatePrivilegedUser(headers);
-        List<Voter> results = new ArrayList<Voter>();
-        for (Voter voter : voterListManager.voters()) {
-            if (voter.isActiveAccount()) {  // only list active accounts...
-                if (!inquirer.equals(voter)) { // of OTHER people...
-                    if (voter.isAllowedToVote()) {  // who have voting privilege...
-                        if (voter.getProxyHolder() == null) { // who are personally going to vote, not thru a proxy...
-                            if (voter.getAcceptedProxyGrantees().size() < 2) { // and aren't already holding 2 proxies
-                                results.add(voter);
-                            }
-                        }
-                    }
-                }
-            }
+        List<VoterListManager.ProxyCandidate> page;
+        try {
+            page = voterListManager.possibleProxiesFor(inquirer, search, after, limit);
+        }
+        catch (IllegalArgumentException ex) {
+            throw new BadRequestException();
+        }
+        String next = (page.size() < VoterListManager.pageSize(limit)) ? null : page.get(page.size() - 1).position;
+        return withNextPageLink(page, next);
+    }
+
+    /**
+     * @param next the position to pass as after for the next page, or null if there's no next page
+     * @return the page, with a Link header for the next page, if there is one: this request's path and query,
+     * with after set to next
+     */
+    static <T> ResponseEntity<List<T>> withNextPageLink(List<T> page, String next) {
+        if (next == null) {
+            return ResponseEntity.ok(page);
         }
-        return results;
+        String url = ServletUriComponentsBuilder.fromCurrentRequest().scheme(null).host(null).port(null)
+                .replaceQueryParam("after", next).build().toUriString();
+        return ResponseEntity.ok().header(HttpHeaders.LINK, String.format("<%s>; rel=\"next\"", url)).body(page);
     }
 
     /**
@@ -132,15 +149,18 @@ public class CommonInfoController extends APIController {
     public HttpStatus requestProxy(@RequestHeader HttpHeaders headers,
                                    @RequestParam(required = false) String proxy) throws IOException {
         Voter grantor = loginManager.validateVotingUser(headers);
+        // Make changes to a fresh copy, not the one the user's session keeps, in case we don't get to save them.
+        grantor = voterListManager.getForUsername(grantor.getUsername());
         if (proxy == null) {
             Voter currentProxyHolder = grantor.getProxyHolder();
             if (currentProxyHolder != null) {
                 grantor.setProxyHolder(null);
                 voterListManager.updateVoter(grantor);
                 // send email informing person who was proxy holder
-                String text = APIController.textFromResource(cancelProxyTemplate);
-                text = text.replaceAll("##PROXYNAME##", currentProxyHolder.getName());
-                text = text.replaceAll("##NAME##", grantor.getName());
+                Map<String, String> values = new HashMap<String, String>();
+                values.put("PROXYNAME", currentProxyHolder.getName());
+                values.put("NAME", grantor.getName());
+                String text = Template.of(cancelProxyTemplate).render(values);
                 emailSender.sendEmail(currentProxyHolder.getEmail(), "Digital Voting proxy status", text);
             }
             return HttpStatus.OK;
@@ -163,11 +183,12 @@ public class CommonInfoController extends APIController {
                     URLEncoder.encode(proxyVoter.getUsername(), StandardCharsets.UTF_8.toString()),
                     URLEncoder.encode(grantor.getUsername(), StandardCharsets.UTF_8.toString()));
 
-            String text = APIController.textFromResource(requestProxyTemplate);
-            text = text.replaceAll("##PROXYNAME##", proxyVoter.getName());
-            text = text.replaceAll("##NAME##", grantor.getName());
-            text = text.replaceAll("##ACCEPT_URL##", acceptURL);
-            text = text.replaceAll("##REFUSE_URL##", refuseURL);
+            Map<String, String> values = new HashMap<String, String>();
+            values.put("PROXYNAME", proxyVoter.getName());
+            values.put("NAME", grantor.getName());
+            values.put("ACCEPT_URL", acceptURL);
+            values.put("REFUSE_URL", refuseURL);
+            String text = Template.of(requestProxyTemplate).render(values);
             emailSender.sendEmail(proxyVoter.getEmail(), "Digital Voting proxy request", text);
             Set<Voter> affectedVoters = new HashSet<Voter>();
             affectedVoters.add(proxyVoter);
@@ -199,9 +220,10 @@ public class CommonInfoController extends APIController {
             grantingVoter.setProxyHolder(null);
             voterListManager.updateVoter(grantingVoter);
             // send email informing the person of this
-            String text = APIController.textFromResource(proxyRefusedTemplate);
-            text = text.replaceAll("##PROXYNAME##", proxyHolder.getName());
-            text = text.replaceAll("##NAME##", grantingVoter.getName());
+            Map<String, String> values = new HashMap<String, String>();
+            values.put("PROXYNAME", proxyHolder.getName());
+            values.put("NAME", grantingVoter.getName());
+            String text = Template.of(proxyRefusedTemplate).render(values);
             emailSender.sendEmail(proxyHolder.getEmail(), "Digital Voting proxy status", text);
         }
         return ResponseEntity.ok().body("Thank you");
@@ -10,6 +10,9 @@ import org.springframework.beans.factory.annotation.*;
 import org.springframework.core.io.Resource;
 import org.springframework.http.*;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.async.DeferredResult;
+
+import javax.servlet.http.HttpServletRequest;
 
 /**
  * Endpoint controller for pages relating to creating an account, logging in, logging out, and related
@@ -18,6 +21,13 @@ import org.springframework.web.bind.annotation.*;
 @RestController
 public class LoginController extends APIController {
     @Autowired private VoterListManager voterListManager;
+    @Autowired private LoginThrottle loginThrottle;
+
+    /**
+     * How long a request waiting out a {@link LoginThrottle} penalty may wait, in milliseconds: longer than the
+     * longest penalty, rather than the container's default, which is no longer.
+     */
+    static final long THROTTLED_REQUEST_TIMEOUT_MILLIS = LoginThrottle.MAX_PENALTY_MILLIS + 30_000;
 
     @Value( "${auto-priv-everyone:no}" )
     private String autoPrivilegeEveryone;
@@ -162,38 +172,86 @@ public class LoginController extends APIController {
         return landing(headers);
     }
 
+    /** Something that checks a password, once any penalty has been waited out */
+    private interface PasswordCheck {
+        ResponseEntity run() throws Exception;
+    }
+
+    /**
+     * @return the result of the given check, run once the {@link LoginThrottle} penalty for the given user and
+     * address has been waited out. If the request times out first, the answer is "try again later", and the
+     * password isn't checked after all.
+     */
+    private DeferredResult<ResponseEntity> afterPenalty(String username, String address, PasswordCheck check) {
+        DeferredResult<ResponseEntity> result = new DeferredResult<ResponseEntity>(THROTTLED_REQUEST_TIMEOUT_MILLIS);
+        result.onTimeout(() -> result.setResult(ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .body("Too many failed attempts; please try again later")));
+        loginThrottle.afterPenalty(username, address, () -> {
+            if (result.isSetOrExpired()) {
+                return;
+            }
+            try {
+                result.setResult(check.run());
+            }
+            catch (Exception ex) {
+                result.setErrorResult(ex);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Log in. If there have been failed attempts to log in as this user, or from this address, lately, the
+     * password isn't checked until the penalty for those has been waited out; meanwhile the request thread
+     * is free to handle other requests. See {@link LoginThrottle}.
+     */
     @PostMapping("/landing")
-    public ResponseEntity pleaseLogin(@RequestBody String formData) throws Exception {
+    public DeferredResult<ResponseEntity> pleaseLogin(@RequestBody String formData, HttpServletRequest request) throws Exception {
         Map<String, String> formValue = parseForm(formData);
         String username = formValue.get("user");
         String password = formValue.get("password");
         if (username == null || password == null) {
-            return getLoginPage();
+            DeferredResult<ResponseEntity> result = new DeferredResult<ResponseEntity>();
+            result.setResult(getLoginPage());
+            return result;
         }
-        Voter v = loginManager.validateLoginCredentials(username, password);
+        String address = request.getRemoteAddr();
+        return afterPenalty(username, address, () -> logIn(username, password, address));
+    }
+
+    private ResponseEntity logIn(String username, String password, String address) throws Exception {
+        Voter v = loginManager.validateLoginCredentials(username, password, address, false);
         if (v == null) {
             return getLoginPage();
         }
         if (!v.isActiveAccount()) {
             return redirectToPage("please_confirm_email.html");
         }
+        String token = loginManager.startSession(v);
         HttpHeaders responseHeaders = new HttpHeaders();
         responseHeaders.add("Set-Cookie",
-                String.format("token=%s; HttpOnly; SameSite=Lax", loginManager.tokenForUser(username)));
+                String.format("token=%s; HttpOnly; SameSite=Lax", token));
         responseHeaders.add("Set-Cookie",
                 String.format("user=%s; SameSite=Lax", username));
         responseHeaders.add("Location", "/");
         return ResponseEntity.status(HttpStatus.SEE_OTHER).headers(responseHeaders).build();
     }
 
+    /**
+     * Change the logged-in user's password, given their current one. Like logging in, the current password isn't
+     * checked until any penalty for failed attempts has been waited out; see {@link #pleaseLogin}.
+     */
     @PostMapping("/changepassword")
-    public ResponseEntity changePassword(@RequestHeader HttpHeaders headers, @RequestBody String formData) throws Exception {
+    public DeferredResult<ResponseEntity> changePassword(@RequestHeader HttpHeaders headers, @RequestBody String formData,
+                                                         HttpServletRequest request) throws Exception {
         Voter v;
         try {
             v = loginManager.validateBasicUser(headers);
         }
         catch (Exception ex) {
-            return redirectToPage("/logged_out_password_change_attempt.html");
+            DeferredResult<ResponseEntity> result = new DeferredResult<ResponseEntity>();
+            result.setResult(redirectToPage("/logged_out_password_change_attempt.html"));
+            return result;
         }
         Map<String, String> formValue = parseForm(formData);
         String oldPassword = formValue.get("password");
@@ -211,17 +269,19 @@ public class LoginController extends APIController {
              */
             throw new BadRequestException();
         }
-        if (null == loginManager.validateLoginCredentials(v.getUsername(), oldPassword, false)) {
-            /* TODO: test this
-             */
-            return redirectToPage("/mistyped_password_password_change_attempt.html");
-        }
-        // validateLoginCredentials will have re-set the token, so they will have to log in again
-        if (!voterListManager.setPassword(v, newPassword1)) {
-            // this would be wtf
-            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body("Failed to change password");
-        }
-        return redirectToPage("/success.html");
+        String address = request.getRemoteAddr();
+        return afterPenalty(v.getUsername(), address, () -> {
+            // A fresh copy of the Voter, not the one the user's session keeps, to change
+            Voter fresh = loginManager.validateLoginCredentials(v.getUsername(), oldPassword, address, false);
+            if (fresh == null) {
+                return redirectToPage("/mistyped_password_password_change_attempt.html");
+            }
+            if (!voterListManager.setPassword(fresh, newPassword1)) {
+                // this would be wtf
+                return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body("Failed to change password");
+            }
+            return redirectToPage("/success.html");
+        });
     }
 
     @PostMapping("/newuser")
@@ -264,13 +324,19 @@ public class LoginController extends APIController {
         }
         if (v != null) {
             // There's an account with that username or email, but it was never activated.
-            // Re-use the account for this person. TODO: test the scenario where user put in same email but new username.
+            // Re-use the account for this person; but not with an email address that another account has.
+            Voter hasEmail = voterListManager.getForEmail(formValue.get("email"));
+            if (hasEmail != null && hasEmail.getId() != v.getId()) {
+                return redirectToPage(String.format("/dupemailerr.html?email=%s", formValue.get("email")));
+            }
             v.setUsername(formValue.get("user"));
             v.setPassword(formValue.get("password"));
             v.setEmail(formValue.get("email"));
             v.setName(formValue.get("name"));
             v.invalidateConfirmationCode();
-            voterListManager.updateVoter(v);
+            if (!voterListManager.updateVoter(v)) {
+                return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body("Failed to create new account");
+            }
         }
         if (v == null) {
             v = new Voter(formValue.get("name"), formValue.get("user"), formValue.get("email"));
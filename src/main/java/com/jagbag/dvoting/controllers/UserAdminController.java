@@ -11,8 +11,11 @@ import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.util.HtmlUtils;
+
+import java.io.IOException;
+import java.util.Objects;
 
-import javax.persistence.*;
 
 /**
  * Endpoint controller for endpoints related to management of the list of users/voters.
@@ -38,6 +41,15 @@ public class UserAdminController extends APIController {
         return v;
     }
 
+    /**
+     * How well the Voter cache is doing: admin only.
+     */
+    @GetMapping("/votercache")
+    public VoterListManager.CacheReport getVoterCacheReport(@RequestHeader HttpHeaders headers) {
+        loginManager.validateAdminUser(headers);
+        return voterListManager.cacheReport();
+    }
+
     /*
     admin can change admin, allowedToVote (but not while a question is open)
     TODO: forbid removing admin privs from last single user with admin privs
@@ -51,19 +63,11 @@ public class UserAdminController extends APIController {
         }
         v.setAllowedToVote(patchVoter.isAllowedToVote());
         v.setAdmin(patchVoter.isAdmin());
-        EntityManager em = emf.createEntityManager();
-        em.getTransaction().begin();
-        try {
-            em.merge(v);
-            em.getTransaction().commit();
-        }
-        catch (Exception ex) {
-            em.getTransaction().rollback();
+        // Going through the VoterListManager means the user's session stops using its old copy of their
+        // privileges right away.
+        if (!voterListManager.updateVoter(v)) {
             throw new RuntimeException("Cannot save changes to database");
         }
-        finally {
-            em.close();
-        }
         return new ResponseEntity(v, HttpStatus.OK);
     }
 
@@ -77,10 +81,13 @@ public class UserAdminController extends APIController {
             // only allow these operations if the logged-in user matches the user we want to update
             throw new ForbiddenException();
         }
+        // Make changes to a fresh copy, not the one the user's session keeps, in case we don't get to save them.
+        v = voterListManager.getForUsername(username);
         v.setName(patchVoter.getName());
-        if (!v.getCurrentEmail().equals(patchVoter.getEmail())) {
+        // Compared the way getForEmail compares them, so that retyping one's own address differently isn't a change
+        if (!Objects.equals(Voter.emailKeyFor(v.getCurrentEmail()), Voter.emailKeyFor(patchVoter.getEmail()))) {
             Voter possibleDuplicate = voterListManager.getForEmail(patchVoter.getEmail());
-            if (possibleDuplicate != null) {
+            if (possibleDuplicate != null && possibleDuplicate.getId() != v.getId()) {
                 // Nope! Don't allow an email address being used by another account.
                 return redirectToPage("dupemailerr.html");
             }
@@ -111,11 +118,10 @@ public class UserAdminController extends APIController {
 
     private boolean sendConfirmationEmail(Voter v) {
         try {
-            String text = v.processEmailText(textFromResource(confirmEmailTemplate));
-            text = text.replaceAll("##BASEURL##", getHostBaseURL());
+            String text = v.processEmailText(Template.of(confirmEmailTemplate), getHostBaseURL());
             emailSender.sendEmail(v.getEmail(), "please confirm your new email", text);
 
-            text = v.processEmailText(textFromResource(changeEmailNoticeTemplate));
+            text = v.processEmailText(Template.of(changeEmailNoticeTemplate), getHostBaseURL());
             emailSender.sendEmail(v.getOldEmail(), "your email address on your account was changed", text);
 
             return true;
@@ -149,12 +155,42 @@ public class UserAdminController extends APIController {
     public ResponseEntity handleFileUpload(@RequestHeader HttpHeaders headers,
                                    @RequestParam("file") MultipartFile file) {
         loginManager.validateAdminUser(headers);
-        if (loginManager.parseUploadedVoterList(file)) {
-            return redirectToPage("/success.html");
+        VoterListReconciler.Report report;
+        try {
+            report = loginManager.parseUploadedVoterList(file);
         }
-        else {
+        catch (IOException ex) {
+            ex.printStackTrace();
+            return redirectToPage("/uploaderrors.html");
+        }
+        if (!report.applied && report.errors.isEmpty()) {
             return redirectToPage("/uploaderrors.html");
         }
+        return showResponse(describeUpload(report));
+    }
+
+    /**
+     * @return a bit of HTML telling the admin what an upload did, and which lines of the file were skipped
+     */
+    protected String describeUpload(VoterListReconciler.Report report) {
+        StringBuilder s = new StringBuilder();
+        if (report.applied) {
+            s.append(String.format("Read %d lines. Added %d accounts; activated %d; allowed %d more to vote; "
+                            + "%d no longer allowed to vote; %d unchanged.<p/>",
+                    report.linesRead, report.accountsAdded, report.accountsActivated, report.votingEnabled,
+                    report.votingDisabled, report.unchanged));
+        }
+        else {
+            s.append("Errors were found in the uploaded file; no action taken.<p/>");
+        }
+        if (!report.errors.isEmpty()) {
+            s.append("<ul>");
+            for (String error : report.errors) {
+                s.append("<li>").append(HtmlUtils.htmlEscape(error)).append("</li>");
+            }
+            s.append("</ul>");
+        }
+        return s.toString();
     }
 
 
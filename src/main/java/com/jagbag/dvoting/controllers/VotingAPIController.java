@@ -11,10 +11,12 @@ import org.springframework.beans.factory.annotation.Value;
 import org.springframework.core.io.Resource;
 import org.springframework.http.*;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 
 /**
  * Controller for endpoints for the actual process of voting.
@@ -73,39 +75,72 @@ public class VotingAPIController extends APIController {
             }
             effectiveVoter = proxyGrantee;
         }
-        String pageText = textFromResource(votingPageTemplate);
-        pageText = fillInVotingInfo(pageText, effectiveVoter);
-        return ResponseEntity.ok().body(pageText);
+        BallotSnapshot snapshot = ctf.ballotSnapshot();
+        // The page is the same until the questions change, or it's for someone else
+        String eTag = String.format("\"%d-%x\"", snapshot.version,
+                Objects.hash(effectiveVoter.getUsername(), effectiveVoter.getName(), snapshot.eTag));
+        if (isNotModified(headers, eTag)) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(eTag).build();
+        }
+        String pageText = Template.of(votingPageTemplate).render(votingInfo(snapshot, effectiveVoter));
+        return ResponseEntity.ok().eTag(eTag).cacheControl(CacheControl.noCache().cachePrivate()).body(pageText);
     }
 
-    public String fillInVotingInfo(String pageText, Voter effectiveVoter) throws JsonProcessingException {
-        pageText = pageText.replaceAll("##EXPONENT##", ctf.getPublicExponent().toString(10));
-        pageText = pageText.replaceAll("##MODULUS##", ctf.getModulus().toString(10));
-        pageText = pageText.replaceAll("##VOTER##", effectiveVoter.getUsername());
-        pageText = pageText.replaceAll("##VOTERNAME##", effectiveVoter.getName());
+    /**
+     * @return the values for the variables in the voting page template
+     */
+    public Map<String, String> votingInfo(BallotSnapshot snapshot, Voter effectiveVoter) {
+        Map<String, String> values = new HashMap<String, String>();
+        values.put("EXPONENT", snapshot.publicExponent);
+        values.put("MODULUS", snapshot.modulus);
+        values.put("VOTER", effectiveVoter.getUsername());
+        values.put("VOTERNAME", effectiveVoter.getName());
+        values.put("QUESTIONS", snapshot.questionsJson);
+        return values;
+    }
 
-        String questionString = new ObjectMapper().writeValueAsString(ctf.votableQuestionList());
-        pageText = pageText.replaceAll("##QUESTIONS##", questionString);
+    /**
+     * @return whether the client already has the version of the thing with the given ETag, according to the
+     * If-None-Match header
+     */
+    static boolean isNotModified(HttpHeaders headers, String eTag) {
+        for (String tag : headers.getIfNoneMatch()) {
+            if (tag.startsWith("W/")) {
+                // Compressing the response may have weakened it; it's still the same text
+                tag = tag.substring(2);
+            }
+            if (tag.equals(eTag) || tag.equals("*")) {
+                return true;
+            }
+        }
+        return false;
+    }
 
-        return pageText;
+    /**
+     * Respond with the given JSON, or with 304 Not Modified if the client already has it.
+     * The client has to ask each time (no-cache), but mostly gets told it has it already.
+     */
+    private ResponseEntity<String> jsonWithETag(HttpHeaders headers, String eTag, String json) {
+        if (isNotModified(headers, eTag)) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(eTag).build();
+        }
+        return ResponseEntity.ok().eTag(eTag).cacheControl(CacheControl.noCache().cachePrivate())
+                .contentType(MediaType.APPLICATION_JSON).body(json);
     }
 
     /* return public key and modulus */
     @GetMapping("/ballots/keys")
-    public String getKeys(@RequestHeader HttpHeaders headers) throws JsonProcessingException {
-        ObjectMapper objectMapper = new ObjectMapper();
-        Map<String, String> obj = new HashMap<String, String>();
-        obj.put("public", ctf.getPublicExponent().toString(10));
-        obj.put("modulus", ctf.getModulus().toString(10));
-        return objectMapper.writeValueAsString(obj);
+    public ResponseEntity<String> getKeys(@RequestHeader HttpHeaders headers) {
+        BallotSnapshot snapshot = ctf.ballotSnapshot();
+        return jsonWithETag(headers, snapshot.keysETag, snapshot.keysJson);
     }
 
     /* return currently open questions */
     @GetMapping("/ballots")
-    public ResponseEntity<List<Question>> getOpenQuestions(@RequestHeader HttpHeaders headers) {
+    public ResponseEntity<String> getOpenQuestions(@RequestHeader HttpHeaders headers) {
         loginManager.validateVotingUser(headers);
-        List<Question> list = ctf.votableQuestionList();
-        return ResponseEntity.ok(list);
+        BallotSnapshot snapshot = ctf.ballotSnapshot();
+        return jsonWithETag(headers, snapshot.eTag, snapshot.questionsJson);
     }
 
     /**
@@ -175,6 +210,22 @@ public class VotingAPIController extends APIController {
         return new ResponseEntity(result, HttpStatus.OK);
     }
 
+    /**
+     * Sign every chit on a ballot in one request: the response chits and me chit for each of one or more
+     * Questions. Each chit gets its own status in the result (OK, FORBIDDEN, or NOT_FOUND, as the single-chit
+     * endpoints would have returned), so one bad chit doesn't spoil the rest.
+     */
+    @PostMapping(value="ballots/sign")
+    public ResponseEntity<List<BallotSigningResult>> getBallotsSigned(@RequestHeader HttpHeaders headers,
+                                                                      @RequestParam(required = false) String behalf,
+                                                                      @RequestBody List<BallotSigningRequest> requests) {
+        Voter v = getEffectiveVoter(headers, behalf);
+        if (requests == null) {
+            throw new BadRequestException();
+        }
+        return ResponseEntity.ok(ctf.signBallots(requests, v));
+    }
+
     @PostMapping(value="ballot/{quid}/vote")
     public ResponseEntity submitVote(@PathVariable int quid, @RequestBody VoteMessage vote) {
         /* Pointedly NOT verifying that this is a logged-in voter.
@@ -237,14 +288,47 @@ public class VotingAPIController extends APIController {
         return new ResponseEntity("Thank you! Your vote will be tallied.", result);
     }
 
+    /**
+     * The list of all the votes on a Question, streamed out as it's read from the database; see
+     * {@link CentralTabulatingFacility#writeVoteVerificationList}.
+     */
     @GetMapping(value="ballot/{quid}/verify")
-    public ResponseEntity getVoteVerificationInfo(@RequestHeader HttpHeaders headers,
+    public ResponseEntity<StreamingResponseBody> getVoteVerificationInfo(@RequestHeader HttpHeaders headers,
                                                   @PathVariable int quid) {
         /*
         Just as you don't need to be logged in to vote (using an already-signed chit) you shouldn't
         need to be logged in to verify that it went through.
          */
-        List<Vote> votes = ctf.detailedTabulationForQuestion(quid);
-        return new ResponseEntity(votes, HttpStatus.OK);
+        StreamingResponseBody body = (out) -> ctf.writeVoteVerificationList(quid, out);
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(body);
+    }
+
+    /**
+     * Just the vote counts for a Question, per response and per rank. Much less to send (and, while the
+     * Question is open, much less to compute) than the full list from verify, for anyone who wants to watch
+     * the results but isn't checking their own vote.
+     */
+    @GetMapping(value="ballot/{quid}/tally")
+    public ResponseEntity<LiveTally.Report> getVoteTally(@PathVariable long quid) {
+        LiveTally.Report report = ctf.tallyForQuestion(quid);
+        if (report == null) {
+            throw new ItemNotFoundException();
+        }
+        return ResponseEntity.ok(report);
+    }
+
+    /**
+     * Instant-runoff results for a ranked choice Question, worked out here rather than in every browser.
+     */
+    @GetMapping(value="ballot/{quid}/rcv")
+    public ResponseEntity<RankedChoiceResult> getRankedChoiceResult(@PathVariable long quid) {
+        Question q = ctf.lookUpQuestion(quid);
+        if (q == null) {
+            throw new ItemNotFoundException();
+        }
+        if (q.getType() != Question.CountingType.RANKED_CHOICE) {
+            throw new BadRequestException();
+        }
+        return ResponseEntity.ok(ctf.rankedChoiceResultForQuestion(quid));
     }
 }
@@ -0,0 +1,344 @@
+package com.jagbag.dvoting.email;
+
+import com.jagbag.dvoting.TroubleLogger;
+import com.jagbag.dvoting.entities.OutboundEmail;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Primary;
+import org.springframework.mail.SimpleMailMessage;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Sending email without making anyone wait for the mail server. Everything that sends email gets this (it's the
+ * primary EmailSender), and all it does is put the email in the outbox table and return; a small pool of worker
+ * threads takes emails from the outbox and sends them, in batches, through the real EmailSender
+ * (SimpleEmailSender, or MockEmailSender when not in prod), which sends each batch over one connection to the mail
+ * server.
+ *
+ * Since the outbox is in the database, emails waiting to be sent aren't lost if the server stops; they're sent
+ * when it starts again. An email that can't be sent is tried again later, waiting twice as long after each
+ * failure, up to {@link #MAX_ATTEMPTS} times; then we give up on it, and report it. We don't send more than
+ * email-max-per-minute emails a minute, so as not to get on the wrong side of the mail server.
+ *
+ * Emails that have been sent, or given up on, are kept in the outbox table for a while ({@link #KEEP_SENT_DAYS}
+ * days), in case anyone needs to know what was sent to whom when, and then deleted. Their text isn't kept: some
+ * emails carry a new password or a password reset code, which mustn't sit in the database.
+ */
+@Component("emailOutbox")
+@Primary
+public class EmailOutbox implements EmailSender {
+    /** How many emails a worker sends over one connection to the mail server. */
+    static final int BATCH_SIZE = 20;
+    /** How long a worker has to send a batch before another may try. */
+    static final long CLAIM_SECONDS = 300;
+    /** How often we look in the outbox, besides whenever an email is put there. */
+    static final long POLL_MILLIS = 1000;
+    /** How many times we try to send an email before giving up on it. */
+    public static final int MAX_ATTEMPTS = 8;
+    /** Longest we wait before trying to send an email again. */
+    static final long MAX_BACKOFF_MILLIS = TimeUnit.HOURS.toMillis(1);
+    static final int KEEP_SENT_DAYS = 7;
+
+    private final EntityManagerFactory emf;
+    private final EmailSender transport;
+    private final int workerCount;
+    private final long minMillisBetweenEmails;
+    private final long firstBackoffMillis;
+
+    private ScheduledExecutorService dispatcher;
+    private ExecutorService workers;
+    /** One for each worker that isn't busy. */
+    private Semaphore idleWorkers;
+    /** When the next email may be sent, as far as the rate limit goes. */
+    private long nextSendAt;
+
+    @Autowired
+    public EmailOutbox(EntityManagerFactory emf, @Qualifier("emailSender") EmailSender transport,
+                       @Value("${email-workers:2}") int workerCount,
+                       @Value("${email-max-per-minute:120}") int maxPerMinute) {
+        this(emf, transport, workerCount, maxPerMinute, TimeUnit.MINUTES.toMillis(1));
+    }
+
+    /**
+     * @param firstBackoffMillis how long to wait before trying again after the first failure to send an email
+     */
+    public EmailOutbox(EntityManagerFactory emf, EmailSender transport, int workerCount, int maxPerMinute,
+                       long firstBackoffMillis) {
+        this.emf = emf;
+        this.transport = transport;
+        this.workerCount = workerCount;
+        this.minMillisBetweenEmails = TimeUnit.MINUTES.toMillis(1) / Math.max(1, maxPerMinute);
+        this.firstBackoffMillis = firstBackoffMillis;
+    }
+
+    @PostConstruct
+    public void start() {
+        if (workerCount < 1) {
+            System.out.println("email-workers is 0; emails will wait in the outbox.");
+            return;
+        }
+        idleWorkers = new Semaphore(workerCount);
+        dispatcher = Executors.newSingleThreadScheduledExecutor((r) -> {
+            Thread t = new Thread(r, "email-dispatcher");
+            t.setDaemon(true);
+            return t;
+        });
+        workers = Executors.newFixedThreadPool(workerCount, new ThreadFactory() {
+            private int count = 0;
+            @Override
+            public synchronized Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "email-worker-" + (++count));
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        dispatcher.scheduleWithFixedDelay(this::dispatch, 0, POLL_MILLIS, TimeUnit.MILLISECONDS);
+        dispatcher.scheduleWithFixedDelay(this::deleteOldEmails, 1, 24, TimeUnit.HOURS);
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (dispatcher != null) {
+            dispatcher.shutdownNow();
+            workers.shutdownNow();
+        }
+    }
+
+    @Override
+    public boolean isConfiguredForEmail() {
+        return transport.isConfiguredForEmail();
+    }
+
+    /**
+     * Put the email in the outbox, to be sent soon.
+     */
+    @Override
+    public void sendEmail(String email, String subject, String text) {
+        if (!isConfiguredForEmail()) {
+            System.err.println("Attempt to send email when we are not configured for email!");
+            return;
+        }
+        EntityManager em = emf.createEntityManager();
+        em.getTransaction().begin();
+        try {
+            em.persist(new OutboundEmail(email, subject, text));
+            em.getTransaction().commit();
+        }
+        catch (Exception ex) {
+            em.getTransaction().rollback();
+            throw new RuntimeException("Cannot save to database");
+        }
+        finally {
+            em.close();
+        }
+        wakeUp();
+    }
+
+    /** Look in the outbox now, rather than at the next poll. */
+    private void wakeUp() {
+        if (dispatcher != null) {
+            try {
+                dispatcher.execute(this::dispatch);
+            }
+            catch (RejectedExecutionException ex) {
+                // shutting down
+            }
+        }
+    }
+
+    /**
+     * Hand batches of emails that are due to be sent to idle workers, until we run out of one or the other.
+     */
+    void dispatch() {
+        try {
+            while (idleWorkers.tryAcquire()) {
+                // Until a worker has the batch, the worker is still idle, whatever goes wrong
+                boolean handedOff = false;
+                try {
+                    List<OutboundEmail> batch = claimBatch();
+                    if (batch.isEmpty()) {
+                        return;
+                    }
+                    workers.execute(() -> {
+                        try {
+                            deliver(batch);
+                        }
+                        finally {
+                            idleWorkers.release();
+                            wakeUp();
+                        }
+                    });
+                    handedOff = true;
+                }
+                finally {
+                    if (!handedOff) {
+                        idleWorkers.release();
+                    }
+                }
+            }
+        }
+        catch (Exception ex) {
+            // Keep polling; maybe the database will be back
+            ex.printStackTrace();
+        }
+    }
+
+    /**
+     * Find some emails that are due to be sent, and that no one else is sending, and claim them.
+     */
+    List<OutboundEmail> claimBatch() {
+        LocalDateTime now = LocalDateTime.now();
+        List<OutboundEmail> claimed = new ArrayList<OutboundEmail>();
+        EntityManager em = emf.createEntityManager();
+        em.getTransaction().begin();
+        try {
+            List<Long> due = em.createQuery("select e.id from OutboundEmail e where e.status = :pending "
+                            + "and e.nextAttemptWhen <= :now and (e.claimedUntil is null or e.claimedUntil < :now) "
+                            + "order by e.nextAttemptWhen", Long.class)
+                    .setParameter("pending", OutboundEmail.Status.PENDING)
+                    .setParameter("now", now)
+                    .setMaxResults(BATCH_SIZE)
+                    .getResultList();
+            for (Long id : due) {
+                // Only if no one else has claimed it since we looked
+                int updated = em.createQuery("update OutboundEmail e set e.claimedUntil = :until where e.id = :id "
+                                + "and e.status = :pending and (e.claimedUntil is null or e.claimedUntil < :now)")
+                        .setParameter("until", now.plusSeconds(CLAIM_SECONDS))
+                        .setParameter("id", id)
+                        .setParameter("pending", OutboundEmail.Status.PENDING)
+                        .setParameter("now", now)
+                        .executeUpdate();
+                if (updated == 1) {
+                    claimed.add(em.find(OutboundEmail.class, id));
+                }
+            }
+            em.getTransaction().commit();
+        }
+        catch (Exception ex) {
+            em.getTransaction().rollback();
+            throw ex;
+        }
+        finally {
+            em.close();
+        }
+        return claimed;
+    }
+
+    /**
+     * Send a batch of emails, and note in the outbox how that went.
+     */
+    void deliver(List<OutboundEmail> batch) {
+        List<SimpleMailMessage> messages = new ArrayList<SimpleMailMessage>();
+        for (OutboundEmail outbound : batch) {
+            SimpleMailMessage message = new SimpleMailMessage();
+            message.setTo(outbound.getRecipient());
+            message.setSubject(outbound.getSubject());
+            message.setText(outbound.getText());
+            messages.add(message);
+        }
+        Map<SimpleMailMessage, Exception> failed;
+        try {
+            waitForRateLimit(messages.size());
+            failed = transport.sendEmails(messages);
+        }
+        catch (InterruptedException ex) {
+            // shutting down; the claim will run out, and someone will send them later
+            return;
+        }
+        catch (Exception ex) {
+            failed = new IdentityHashMap<SimpleMailMessage, Exception>();
+            for (SimpleMailMessage message : messages) {
+                failed.put(message, ex);
+            }
+        }
+        EntityManager em = emf.createEntityManager();
+        em.getTransaction().begin();
+        try {
+            for (int i = 0; i < batch.size(); ++i) {
+                OutboundEmail outbound = batch.get(i);
+                Exception failure = failed.get(messages.get(i));
+                if (failure == null) {
+                    outbound.markSent();
+                }
+                else {
+                    LocalDateTime retryWhen = null;
+                    if (outbound.getAttempts() + 1 < MAX_ATTEMPTS) {
+                        retryWhen = LocalDateTime.now().plus(backoffMillis(outbound.getAttempts()), ChronoUnit.MILLIS);
+                    }
+                    else {
+                        TroubleLogger.reportTrouble(String.format("Giving up on sending email %d to %s: %s",
+                                outbound.getId(), outbound.getRecipient(), failure));
+                    }
+                    outbound.markFailed(String.valueOf(failure), retryWhen);
+                }
+                em.merge(outbound);
+            }
+            em.getTransaction().commit();
+        }
+        catch (Exception ex) {
+            // They'll be sent again when the claim runs out; better twice than never.
+            ex.printStackTrace();
+            em.getTransaction().rollback();
+        }
+        finally {
+            em.close();
+        }
+    }
+
+    /**
+     * @return how long to wait before trying again, after the given number of failed attempts: doubling each
+     * time, with a bit of randomness so that a bunch of emails that failed together don't all retry together
+     */
+    long backoffMillis(int failedAttempts) {
+        long backoff = firstBackoffMillis << Math.min(failedAttempts, 30);
+        backoff = Math.min(backoff, MAX_BACKOFF_MILLIS);
+        return backoff + ThreadLocalRandom.current().nextLong(backoff / 4 + 1);
+    }
+
+    /**
+     * Wait until sending the given number of emails won't go over the rate limit.
+     */
+    private void waitForRateLimit(int emails) throws InterruptedException {
+        long sendAt;
+        synchronized (this) {
+            long now = System.currentTimeMillis();
+            sendAt = Math.max(now, nextSendAt);
+            nextSendAt = sendAt + emails * minMillisBetweenEmails;
+        }
+        long wait = sendAt - System.currentTimeMillis();
+        if (wait > 0) {
+            Thread.sleep(wait);
+        }
+    }
+
+    void deleteOldEmails() {
+        EntityManager em = emf.createEntityManager();
+        em.getTransaction().begin();
+        try {
+            em.createQuery("delete from OutboundEmail e where (e.status = :sent and e.sentWhen < :before) "
+                            + "or (e.status = :failed and e.createdWhen < :before)")
+                    .setParameter("sent", OutboundEmail.Status.SENT)
+                    .setParameter("failed", OutboundEmail.Status.FAILED)
+                    .setParameter("before", LocalDateTime.now().minusDays(KEEP_SENT_DAYS))
+                    .executeUpdate();
+            em.getTransaction().commit();
+        }
+        catch (Exception ex) {
+            ex.printStackTrace();
+            em.getTransaction().rollback();
+        }
+        finally {
+            em.close();
+        }
+    }
+}
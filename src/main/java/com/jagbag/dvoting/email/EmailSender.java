@@ -1,9 +1,32 @@
 package com.jagbag.dvoting.email;
 
+import org.springframework.mail.SimpleMailMessage;
+
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
 /**
  * Interface to the email system, for sending out emails to users.
  */
 public interface EmailSender {
     public boolean isConfiguredForEmail();
     void sendEmail(String email, String subject, String text);
+
+    /**
+     * Send several emails; over one connection to the mail server, if the implementation can.
+     * @return the messages that couldn't be sent, each with what went wrong; empty if all went well
+     */
+    default Map<SimpleMailMessage, Exception> sendEmails(List<SimpleMailMessage> messages) {
+        Map<SimpleMailMessage, Exception> failed = new IdentityHashMap<SimpleMailMessage, Exception>();
+        for (SimpleMailMessage message : messages) {
+            try {
+                sendEmail(message.getTo()[0], message.getSubject(), message.getText());
+            }
+            catch (Exception ex) {
+                failed.put(message, ex);
+            }
+        }
+        return failed;
+    }
 }
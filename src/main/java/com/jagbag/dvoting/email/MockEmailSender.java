@@ -5,6 +5,9 @@ import org.springframework.context.annotation.Profile;
 import org.springframework.mail.javamail.JavaMailSender;
 import org.springframework.stereotype.Component;
 
+import java.util.Deque;
+import java.util.concurrent.ConcurrentLinkedDeque;
+
 /**
  * Mock interface with email, for development purposes, when we can't actually send email.
  */
@@ -16,8 +19,20 @@ public class MockEmailSender implements EmailSender {
         return true; // never sends email, but for dev, will always PRETEND to
     }
 
+    /** Who the most recent emails (up to {@link #RECIPIENTS_KEPT} of them) were "sent" to, so tests can check. */
+    private final Deque<String> recentRecipients = new ConcurrentLinkedDeque<String>();
+    static final int RECIPIENTS_KEPT = 1000;
+
+    public boolean wasSentTo(String email) {
+        return recentRecipients.contains(email);
+    }
+
     @Override
     public void sendEmail(String email, String subject, String text) {
+        recentRecipients.addLast(email);
+        if (recentRecipients.size() > RECIPIENTS_KEPT) {
+            recentRecipients.pollFirst();
+        }
         System.out.println("To: " + email);
         System.out.println("Subject: " + subject);
         System.out.println(text);
@@ -3,10 +3,16 @@ package com.jagbag.dvoting.email;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Profile;
+import org.springframework.mail.MailException;
+import org.springframework.mail.MailSendException;
 import org.springframework.mail.SimpleMailMessage;
 import org.springframework.mail.javamail.JavaMailSender;
 import org.springframework.stereotype.Component;
 
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
 /**
  * See this super-basic and simple tutorial: https://www.baeldung.com/spring-email
  * SMTP parameters must be set in application.properties for this to work.
@@ -40,4 +46,42 @@ public class SimpleEmailSender implements EmailSender {
             System.err.println("Attempt to send email when we are not configured for email!");
         }
     }
+
+    /**
+     * JavaMailSender sends a batch of messages over one connection to the SMTP server, rather than connecting
+     * for each one.
+     */
+    @Override
+    public Map<SimpleMailMessage, Exception> sendEmails(List<SimpleMailMessage> messages) {
+        Map<SimpleMailMessage, Exception> failed = new IdentityHashMap<SimpleMailMessage, Exception>();
+        if (!isConfiguredForEmail()) {
+            System.err.println("Attempt to send email when we are not configured for email!");
+            return failed;
+        }
+        try {
+            javaMailSender.send(messages.toArray(new SimpleMailMessage[0]));
+        }
+        catch (MailSendException ex) {
+            // Some got sent, and some didn't
+            for (Map.Entry<Object, Exception> failure : ex.getFailedMessages().entrySet()) {
+                for (SimpleMailMessage message : messages) {
+                    if (message.equals(failure.getKey())) {
+                        failed.put(message, failure.getValue());
+                    }
+                }
+            }
+            if (failed.isEmpty()) {
+                // couldn't even connect
+                for (SimpleMailMessage message : messages) {
+                    failed.put(message, ex);
+                }
+            }
+        }
+        catch (MailException ex) {
+            for (SimpleMailMessage message : messages) {
+                failed.put(message, ex);
+            }
+        }
+        return failed;
+    }
 }
@@ -0,0 +1,100 @@
+package com.jagbag.dvoting.entities;
+
+import com.jagbag.dvoting.IdSequences;
+import org.hibernate.annotations.GenericGenerator;
+import org.hibernate.annotations.Parameter;
+import javax.persistence.*;
+import java.time.LocalDateTime;
+
+/**
+ * An email waiting in the outbox to be sent, or that has been sent, or that we gave up on.
+ * See {@link com.jagbag.dvoting.email.EmailOutbox}.
+ * Some emails carry a new password or a password reset code, so the text is only kept until the email has been
+ * sent or given up on; after that, only who it went to, the subject, and how it went are kept.
+ * While a worker is trying to send it, it's claimed (claimedUntil is in the future), so that no other worker, on
+ * this server or another, tries to send it too. If the worker dies, the claim runs out and it's tried again.
+ * (ddl-auto=update creates the table and the index; where the schema is managed by hand, as in prod, create them
+ * with:
+ * create table outbound_email (id bigint not null, recipient varchar(255), subject varchar(255), text clob,
+ *     status integer, attempts integer not null, created_when timestamp, next_attempt_when timestamp,
+ *     claimed_until timestamp, sent_when timestamp, last_error varchar(255), primary key (id));
+ * create index ix_outbound_email_due on outbound_email (status, next_attempt_when);
+ * )
+ */
+@Entity
+@Table(indexes = @Index(name = "ix_outbound_email_due", columnList = "status, nextAttemptWhen"))
+public class OutboundEmail {
+    public enum Status {
+        PENDING,
+        SENT,
+        FAILED
+    }
+
+    @Id
+    @GeneratedValue(strategy=GenerationType.SEQUENCE, generator="outbound_email_ids")
+    @GenericGenerator(name="outbound_email_ids", strategy="enhanced-sequence", parameters={
+            @Parameter(name="sequence_name", value=IdSequences.OUTBOUND_EMAIL),
+            @Parameter(name="increment_size", value=IdSequences.BLOCK_SIZE),
+            @Parameter(name="optimizer", value=IdSequences.OPTIMIZER)})
+    private long id;
+    private String recipient;
+    private String subject;
+    @Lob
+    private String text;
+    private Status status;
+    private int attempts;
+    private LocalDateTime createdWhen;
+    private LocalDateTime nextAttemptWhen;
+    private LocalDateTime claimedUntil;
+    private LocalDateTime sentWhen;
+    private String lastError;
+
+    protected OutboundEmail() {} // Hibernate needs this
+
+    public OutboundEmail(String recipient, String subject, String text) {
+        this.recipient = recipient;
+        this.subject = subject;
+        this.text = text;
+        this.status = Status.PENDING;
+        this.createdWhen = LocalDateTime.now();
+        this.nextAttemptWhen = createdWhen;
+    }
+
+    public long getId() { return id; }
+    public String getRecipient() { return recipient; }
+    public String getSubject() { return subject; }
+    public String getText() { return text; }
+    public Status getStatus() { return status; }
+    public int getAttempts() { return attempts; }
+    public LocalDateTime getCreatedWhen() { return createdWhen; }
+    public LocalDateTime getNextAttemptWhen() { return nextAttemptWhen; }
+    public LocalDateTime getSentWhen() { return sentWhen; }
+    public String getLastError() { return lastError; }
+
+    public void markSent() {
+        status = Status.SENT;
+        text = null;
+        ++attempts;
+        sentWhen = LocalDateTime.now();
+        claimedUntil = null;
+        lastError = null;
+    }
+
+    /**
+     * Note a failed attempt to send.
+     * @param error what went wrong
+     * @param retryWhen when to try again; or null to give up
+     */
+    public void markFailed(String error, LocalDateTime retryWhen) {
+        ++attempts;
+        lastError = (error == null || error.length() <= 255) ? error : error.substring(0, 255);
+        claimedUntil = null;
+        if (retryWhen == null) {
+            status = Status.FAILED;
+            text = null;
+        }
+        else {
+            nextAttemptWhen = retryWhen;
+        }
+    }
+}
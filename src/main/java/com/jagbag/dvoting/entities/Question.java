@@ -1,5 +1,7 @@
 package com.jagbag.dvoting.entities;
 
+import org.hibernate.annotations.GenericGenerator;
+import org.hibernate.annotations.Parameter;
 import com.jagbag.dvoting.*;
 import com.fasterxml.jackson.annotation.JsonGetter;
 import com.fasterxml.jackson.annotation.JsonManagedReference;
@@ -51,27 +53,37 @@ import java.time.*;
  * RANKED_CHOICE voting differently has to happen in the client side: allowing the user to order their
  * choices at the voting end, and going through the ranked choice algorithm to pick a winner on the reporting
  * end.
+ * A Question's response options are loaded only when asked for, so that a query for lots of Questions doesn't
+ * make another query per Question for its options. {@link CentralTabulatingFacility#lookUpQuestion} asks for
+ * them (by way of the WITH_RESPONSES entity graph), as should anything else that loads a Question to use after
+ * its EntityManager is closed.
  */
 @Entity
+@NamedEntityGraph(name = Question.WITH_RESPONSES, attributeNodes = @NamedAttributeNode("possibleResponses"))
 public class Question extends SigningEntity {
     public enum CountingType {
         SINGLE,
         MULTIPLE,
         RANKED_CHOICE
     }
+    /** Name of the entity graph that loads a Question along with its response options */
+    public static final String WITH_RESPONSES = "Question.withResponses";
+
     @Id
-    @GeneratedValue(strategy=GenerationType.AUTO)
+    @GeneratedValue(strategy=GenerationType.SEQUENCE, generator="question_ids")
+    @GenericGenerator(name="question_ids", strategy="enhanced-sequence", parameters={
+            @Parameter(name="sequence_name", value=IdSequences.QUESTION),
+            @Parameter(name="increment_size", value=IdSequences.BLOCK_SIZE),
+            @Parameter(name="optimizer", value=IdSequences.OPTIMIZER)})
     private long id;
     private String text;
     CountingType type;
     private java.time.LocalDateTime createdWhen;
     private java.time.LocalDateTime postedWhen;
     private java.time.LocalDateTime closedWhen;
-    @OneToMany(fetch = FetchType.EAGER)
+    @OneToMany(fetch = FetchType.LAZY)
     @JoinColumn(name = "fk_question")
     public List<ResponseOption> possibleResponses;
-    @Transient
-    protected HashMap<String, String> blindedChitByUser;
 
     protected Question() {} // Hibernate needs this
 
@@ -122,7 +134,6 @@ public class Question extends SigningEntity {
     public java.time.LocalDateTime getCreatedWhen() { return createdWhen; }
     public void post() throws NoSuchAlgorithmException {
         initializeKeys();
-        blindedChitByUser = new HashMap<String, String>();
         postedWhen = java.time.LocalDateTime.now();
     }
     public void close() {
@@ -148,6 +159,13 @@ public class Question extends SigningEntity {
     }
     @JsonGetter("status")
     public String getStatus() {
+        return statusFor(postedWhen, closedWhen);
+    }
+
+    /**
+     * @return the status of a Question posted and closed when given (either may be null); see the class comment
+     */
+    public static String statusFor(LocalDateTime postedWhen, LocalDateTime closedWhen) {
         if (closedWhen != null) {
             return "closed";
         }
@@ -178,12 +196,4 @@ public class Question extends SigningEntity {
         if (rsaKeys == null) return null;
         return getPublicKey().getPublicExponent().toString(10);
     }
-
-    public String getBlindedChitForUser(String username) {
-        return blindedChitByUser.get(username);
-    }
-
-    public void setBlindedChitForUser(String username, String blindedMessageText) {
-        blindedChitByUser.put(username, blindedMessageText);
-    }
 }
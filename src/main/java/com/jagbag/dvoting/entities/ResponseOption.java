@@ -1,5 +1,8 @@
 package com.jagbag.dvoting.entities;
 
+import com.jagbag.dvoting.IdSequences;
+import org.hibernate.annotations.GenericGenerator;
+import org.hibernate.annotations.Parameter;
 import com.fasterxml.jackson.annotation.JsonIgnore;
 
 import javax.persistence.*;
@@ -17,7 +20,11 @@ import javax.persistence.*;
 @Entity
 public class ResponseOption {
     @Id
-    @GeneratedValue(strategy=GenerationType.AUTO)
+    @GeneratedValue(strategy=GenerationType.SEQUENCE, generator="response_option_ids")
+    @GenericGenerator(name="response_option_ids", strategy="enhanced-sequence", parameters={
+            @Parameter(name="sequence_name", value=IdSequences.RESPONSE_OPTION),
+            @Parameter(name="increment_size", value=IdSequences.BLOCK_SIZE),
+            @Parameter(name="optimizer", value=IdSequences.OPTIMIZER)})
     private long id;
     private String text;
     @JsonIgnore
@@ -1,5 +1,8 @@
 package com.jagbag.dvoting.entities;
 
+import com.jagbag.dvoting.IdSequences;
+import org.hibernate.annotations.GenericGenerator;
+import org.hibernate.annotations.Parameter;
 import org.hibernate.annotations.Immutable;
 import javax.persistence.*;
 
@@ -12,14 +15,27 @@ import javax.persistence.*;
  * know the numeric identifiers that they assigned their votes, and thus can verify that their
  * votes was counted by observing that that numeric identifier appears in the list of votes in the
  * tabulation.
+ * There can be only one Vote per me chit number per ranking on a Question; the unique index on those columns
+ * makes sure of it, whatever the application does. (ddl-auto=update creates the index; where the schema is
+ * managed by hand, as in prod, create it with:
+ * create unique index uk_vote_question_chit_rank on vote (fk_question, voter_chit_number, ranking)
+ * after weeding out any duplicates.)
+ * A Vote's Question is loaded only if asked for: a list of Votes is nearly always a list of the votes on one
+ * Question, which the caller already has.
  */
 @Entity
 @Immutable
+@Table(uniqueConstraints = @UniqueConstraint(name = "uk_vote_question_chit_rank",
+        columnNames = {"fk_question", "voterChitNumber", "ranking"}))
 public class Vote {
     @Id
-    @GeneratedValue(strategy= GenerationType.AUTO)
+    @GeneratedValue(strategy=GenerationType.SEQUENCE, generator="vote_ids")
+    @GenericGenerator(name="vote_ids", strategy="enhanced-sequence", parameters={
+            @Parameter(name="sequence_name", value=IdSequences.VOTE),
+            @Parameter(name="increment_size", value=IdSequences.BLOCK_SIZE),
+            @Parameter(name="optimizer", value=IdSequences.OPTIMIZER)})
     private long id;
-    @ManyToOne
+    @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "fk_question")
     private Question question;
     private String response;
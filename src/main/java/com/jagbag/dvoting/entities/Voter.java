@@ -1,8 +1,15 @@
 package com.jagbag.dvoting.entities;
 
+import com.jagbag.dvoting.IdSequences;
+import org.hibernate.annotations.GenericGenerator;
+import org.hibernate.annotations.Parameter;
+import com.jagbag.dvoting.Template;
 import com.fasterxml.jackson.annotation.JsonGetter;
 import com.fasterxml.jackson.annotation.JsonIgnore;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
 import org.hibernate.annotations.NaturalId;
+import org.hibernate.annotations.NaturalIdCache;
 
 import java.io.UnsupportedEncodingException;
 import java.math.BigInteger;
@@ -13,7 +20,9 @@ import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Objects;
 import java.util.concurrent.ThreadLocalRandom;
 import javax.validation.constraints.*;
 import javax.persistence.*;
@@ -39,6 +48,9 @@ import javax.xml.bind.DatatypeConverter;
  * Passwords are never saved in cleartext. Submitted passwords are concatenated with the (user-specific) salt,
  * hashed, and then compared with the password hash. This mean that reading the database does not give you the
  * information you would need to log in as someone else.
+ * Voters are kept in Hibernate's second-level cache, and can be found there by username (the natural id),
+ * since some Voter is looked up on nearly every request. Anything that writes to the Voter table must go through
+ * the VoterListManager, which empties the cache after every write (see VoterListManager.voterListChanged).
  * A Voter may assign their "proxy" to another Voter.
  * Note: Hibernate is apparently not able to update the database from the previous schema to accommodate
  * this. Some kind of error trying to execute "alter table voter add column proxy_accepted boolean not null"
@@ -72,18 +84,52 @@ import javax.xml.bind.DatatypeConverter;
  * Questions, what blinded chits have been signed. Then the client can report "this question may have
  * already been voted on, either by a proxy holder or by you in another browser."
  * Future enhancement: proxy relationships having expiration date?
+ * The admin page's list of Voters, and the list of possible proxy holders, are read a page at a time in the
+ * order of the ix_voter_list index (see VoterListManager.voterSummaries); nameKey, the name lower-cased, is
+ * there to sort and search by. (ddl-auto=update adds the column and the indexes; where the schema is managed
+ * by hand, as in prod:
+ * alter table voter add column name_key varchar(255);
+ * create index ix_voter_list on voter (allowed_to_vote, admin, name_key, username);
+ * create index ix_voter_proxy on voter (fk_proxy, proxy_accepted);
+ * VoterListManager.fillInNameKeys fills in the column at start-up.)
+ * Likewise, an account is looked up by email address (see VoterListManager.getForEmail) by emailKey or
+ * oldEmailKey: the address trimmed and lower-cased, so that " Alice@Example.com" is alice@example.com. No two
+ * accounts may have the same one. (Again, where the schema is managed by hand:
+ * alter table voter add column email_key varchar(255);
+ * alter table voter add column old_email_key varchar(255);
+ * create unique index uk_voter_email_key on voter (email_key);
+ * create unique index uk_voter_old_email_key on voter (old_email_key);
+ * and VoterListManager.fillInEmailKeys fills them in at start-up, reporting any addresses that more than one
+ * account has, which need sorting out by hand.)
  */
 @Entity
+@Table(indexes = {
+        @Index(name = "ix_voter_list", columnList = "allowedToVote, admin, nameKey, username"),
+        @Index(name = "ix_voter_proxy", columnList = "fk_proxy, proxyAccepted"),
+        @Index(name = "uk_voter_email_key", columnList = "emailKey", unique = true),
+        @Index(name = "uk_voter_old_email_key", columnList = "oldEmailKey", unique = true)})
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
+@NaturalIdCache
 public class Voter {
     @Id
-    @GeneratedValue(strategy=GenerationType.AUTO)
+    @GeneratedValue(strategy=GenerationType.SEQUENCE, generator="voter_ids")
+    @GenericGenerator(name="voter_ids", strategy="enhanced-sequence", parameters={
+            @Parameter(name="sequence_name", value=IdSequences.VOTER),
+            @Parameter(name="increment_size", value=IdSequences.BLOCK_SIZE),
+            @Parameter(name="optimizer", value=IdSequences.OPTIMIZER)})
     private long id;
     private String name;
+    /** The name, for sorting and searching by; see {@link #nameKeyFor} */
+    private String nameKey;
     @NaturalId
     private String username;
     // TODO: enforce validation of email
     @Email private String email;
     @Email private String oldEmail;
+    /** email and oldEmail, to look up by; see {@link #emailKeyFor} */
+    private String emailKey;
+    private String oldEmailKey;
     private boolean allowedToVote;
     private boolean admin;
     private String passwordSalt;
@@ -102,14 +148,15 @@ public class Voter {
     private boolean proxyAccepted;
     @OneToMany(fetch = FetchType.EAGER)
     @JoinColumn(name = "fk_proxy")
+    @Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
     public List<Voter> proxyGrantees;
 
     protected Voter() {} // Hibernate needs this
 
     public Voter(String name, String username, String email) {
-        this.name = name;
+        setName(name);
         this.username = username;
-        this.email = email;
+        setEmail(email);
         this.allowedToVote = false;
         this.admin = false;
         this.emailConfirmed = false;
@@ -118,13 +165,47 @@ public class Voter {
     public long getId() { return id; }
     public void setId(long newID) { this.id = newID; }
     public String getName() { return name; }
-    public void setName(String newName) { this.name = newName; }
+    public void setName(String newName) {
+        this.name = newName;
+        this.nameKey = nameKeyFor(newName);
+    }
+
+    /**
+     * @return a name as it's sorted and searched by: trimmed and lower-cased, so that "al" finds " Alice"
+     */
+    public static String nameKeyFor(String name) {
+        if (name == null) {
+            return "";
+        }
+        return name.trim().toLowerCase(Locale.ROOT);
+    }
     public String getUsername() { return username; }
     public void setUsername(String newUsername) { this.username = newUsername; } // TODO: test: does this wreak havoc?
     public String getEmail() { return email; }
-    public void setEmail(String newEmail) { this.email = newEmail; }
+    public void setEmail(String newEmail) {
+        this.email = newEmail;
+        this.emailKey = emailKeyFor(newEmail);
+    }
+    @JsonIgnore
+    public String getEmailKey() { return emailKey; }
+    @JsonIgnore
+    public String getOldEmailKey() { return oldEmailKey; }
     public String getOldEmail() { return oldEmail; }
-    public void setOldEmail(String theEmail) { this.oldEmail = theEmail; }
+    public void setOldEmail(String theEmail) {
+        this.oldEmail = theEmail;
+        this.oldEmailKey = emailKeyFor(theEmail);
+    }
+
+    /**
+     * @return an email address as it's looked up by: trimmed and lower-cased (or null, for no address)
+     */
+    public static String emailKeyFor(String email) {
+        if (email == null) {
+            return null;
+        }
+        return email.trim().toLowerCase(Locale.ROOT);
+    }
+
     public boolean isAllowedToVote() { return this.allowedToVote; }
     public void setAllowedToVote(boolean flag) { this.allowedToVote = flag; }
     public boolean isAdmin() { return this.admin; }
@@ -207,8 +288,8 @@ public class Voter {
     public void submitEmailChange(String newEmail) {
         if (!newEmail.equals(email)) {
             prepareForConfirmationEmail();
-            oldEmail = getEmail();
-            email = newEmail;
+            setOldEmail(getEmail());
+            setEmail(newEmail);
             emailConfirmed = false;
         }
     }
@@ -233,23 +314,28 @@ public class Voter {
     }
 
     /**
-     * Fills in variables in email templates.
-     * Used for both the new account confirmation email and the reset password email, so deals with a superset
-     * of the variables involved in those processes.
-     * Note that some variables are handled by LoginController instead of here.
-     * @param text
-     * @return
+     * Fills in an email template: the variables having to do with this voter, and ##BASEURL##.
+     */
+    public String processEmailText(Template template, String baseURL) throws UnsupportedEncodingException {
+        Map<String, String> values = emailTemplateValues();
+        values.put("BASEURL", baseURL);
+        return template.render(values);
+    }
+
+    /**
+     * @return the values for the variables in email templates having to do with this voter
      */
-    public String processEmailText(String text) throws UnsupportedEncodingException {
-        text = text.replaceAll("##USERNAME##", getUsername());
-        text = text.replaceAll("##QUERYUSER##", URLEncoder.encode(getUsername(), StandardCharsets.UTF_8.toString()));
-        text = text.replaceAll("##EMAIL##", getEmail());
-        text = text.replaceAll("##OLDEMAIL##", getOldEmail());
-        text = text.replaceAll("##NAME##", getName());
-        text = text.replaceAll("##CODE##", getConfirmationCode());
-        text = text.replaceAll("##RESET##", resetConfirmationCode);
-        text = text.replaceAll("##PASS##", newRandomPassword);
-        return text;
+    private Map<String, String> emailTemplateValues() throws UnsupportedEncodingException {
+        Map<String, String> values = new HashMap<String, String>();
+        values.put("USERNAME", getUsername());
+        values.put("QUERYUSER", URLEncoder.encode(getUsername(), StandardCharsets.UTF_8.toString()));
+        values.put("EMAIL", getEmail());
+        values.put("OLDEMAIL", getOldEmail());
+        values.put("NAME", getName());
+        values.put("CODE", getConfirmationCode());
+        values.put("RESET", resetConfirmationCode);
+        values.put("PASS", newRandomPassword);
+        return values;
     }
 
     /* If it's a new account and the email has never been confirmed, it's not yet active,
@@ -258,6 +344,16 @@ public class Voter {
         return (emailConfirmed || (oldEmail != null));
     }
 
+    /**
+     * A number that changes whenever anything changes that decides what this person may do: their privileges,
+     * or their password. A signed session token carries the number as of when it was issued, so that such a
+     * change ends any session started before it (see {@link com.jagbag.dvoting.SignedSessionTokens}).
+     */
+    @JsonIgnore
+    public int getPrivilegeVersion() {
+        return Objects.hash(allowedToVote, admin, passwordHash);
+    }
+
     @JsonGetter("currentEmail")
     public String getCurrentEmail() {
         if (emailConfirmed) {
@@ -51,37 +51,39 @@ class AdministratableQuestion extends Question {
         }
     }
     reportVotes() {
-        let url = "ballot/" + this.id + "/verify";
-        let promise = axios.get(url);
-        promise.then( response => this.processVerificationData(response) )
-            .catch( error => console.log(error) );
-    }
-    processVerificationData(response) {
-        var report = response.data;
         if (this.isSingleChoice()) {
-            this.results = {};
-            this.numVotersResponded = 0;
-            var i;
-            this.possibleResponses.forEach( (option, i) => {
-                this.results[option.getText()] = 0;
-            });
-            for (i = 0; i < report.length; ++i) {
-	            var record = report[i];
-		        var questionID = record.question.id;
-                if (questionID != this.id) { continue; }
-                if (this.results[record.response]) {
-                    this.results[record.response] += 1;
-                }
-                else {   // Covers the case that a response was not in the question's list of possible responses...
-                    this.results[record.response] = 1;  // which shouldn't happen, as things work now, but just in case...
-                }
-                ++(this.numVotersResponded);
-            }
+            // The counts are all we need here; no need for the whole list of votes.
+            let url = "ballot/" + this.id + "/tally";
+            let promise = axios.get(url);
+            promise.then( response => this.processTally(response) )
+                .catch( error => console.log(error) );
         }
         else if (this.isRankedChoice()) {
-            tabulateRankedChoiceResults(this, report);
+            // The server does the instant-runoff count.
+            let url = "ballot/" + this.id + "/rcv";
+            let promise = axios.get(url);
+            promise.then( response => this.processRankedChoiceResult(response) )
+                .catch( error => console.log(error) );
         }
     }
+    processTally(response) {
+        var tally = response.data;
+        if (tally.quid != this.id) { return; }
+        this.results = {};
+        this.possibleResponses.forEach( (option, i) => {
+            this.results[option.getText()] = 0;
+        });
+        tally.responses.forEach( (count, i) => {
+            this.results[count.response] = count.total;
+        });
+        this.numVotersResponded = tally.voterCount;
+    }
+    processRankedChoiceResult(response) {
+        var result = response.data;
+        if (result.quid != this.id) { return; }
+        this.outcomes = result.outcomes;
+        this.numVotersResponded = result.numVotersResponded;
+    }
     canDeleteOption() {
         return (this.possibleResponses.length > 2);
     }
@@ -43,6 +43,8 @@ class Voter {
         });
     }
 }
+const USERS_PER_PAGE = 100;
+
 var adminApp = new Vue({
     el: '#adminapp',
     data: {
@@ -54,6 +56,9 @@ var adminApp = new Vue({
         admin: false,
         userRefreshTime: '',
         allusers: [],
+        searchText: '',
+        pageUrls: [],  // the pages after the first that we've gone forward to; the last is the one showing
+        nextPageUrl: null,
         errorText: '',
         updateTimerToken: '',
     },
@@ -70,6 +75,11 @@ var adminApp = new Vue({
             userActive();
             this.fetchQuestions();  // re-fetch when the filter changes
         },
+        searchText: function(val) {
+            userActive();
+            this.$data.pageUrls = [];  // back to the first page of whatever matches now
+            this.fetchUsers();
+        },
     },
     methods: {
         processUserInfo: function(response) {
@@ -78,13 +88,34 @@ var adminApp = new Vue({
             this.$data.allowedToVote = response.data.allowedToVote;
             this.$data.admin = response.data.admin;
         },
+        firstPageUrl: function() {
+            let url = "voters?limit=" + USERS_PER_PAGE;
+            if (this.$data.searchText.trim().length > 0) {
+                url += "&search=" + encodeURIComponent(this.$data.searchText);
+            }
+            return url;
+        },
         fetchUsers: function() {
             userActive();
-            let url = "voters/";
+            let pages = this.$data.pageUrls;
+            let url = (pages.length > 0) ? pages[pages.length - 1] : this.firstPageUrl();
             let promise = axios.get(url);
             promise.then(response => this.processUserList(response), error => handleQueryError(error));
         },
+        nextPage: function() {
+            if (this.$data.nextPageUrl) {
+                this.$data.pageUrls.push(this.$data.nextPageUrl);
+                this.fetchUsers();
+            }
+        },
+        previousPage: function() {
+            this.$data.pageUrls.pop();
+            this.fetchUsers();
+        },
         processUserList: function(response) {
+            // The server says where the next page is, if there is one, in the Link header
+            let next = /<([^>]*)>;\s*rel="next"/.exec(response.headers.link || "");
+            this.$data.nextPageUrl = next ? next[1] : null;
             this.$data.showingUsers = true;
             this.$data.userRefreshTime = new Date();
             this.$data.allusers = [];
@@ -15,8 +15,15 @@ var landingApp = new Vue({
         proxyAccepted: false,
         selectedPotentialProxy: '',
         potentialProxies: [],
+        proxySearchText: '',
         acceptedProxyGrantees: [],
     },
+    watch: {
+        proxySearchText: function(val) {
+            userActive();
+            this.fetchPotentialProxies();
+        },
+    },
     mounted() {
         this.$data.username = getUser();
         this.getUserInfo();
@@ -91,7 +98,11 @@ var landingApp = new Vue({
             this.getUserInfo();
         },
         fetchPotentialProxies: function() {
+            // The first page of them; with many members, narrow it down by name
             let url = "/pp";
+            if (this.$data.proxySearchText.trim().length > 0) {
+                url += "?search=" + encodeURIComponent(this.$data.proxySearchText);
+            }
             let aPromise = axios.get(url);
             aPromise.then(response => { this.$data.potentialProxies = response.data; },
                             error => handleQueryError(error));
@@ -289,55 +289,68 @@ class Ballot {
     }
     getSignedForUser() {
         this.errorCountPerSigning = 0;
+        var request = { quid: this.theQuestion.id, responseChits: [], meChit: null };
         var k = Ballot.randomKforModulus(gModulus);
         // Response chits are all signed with the same key
         this.responseChits.forEach( (chit, i) => {
-		    var blindedChitText = chit.blindedMessageText(gModulus, k, gPublicKey);
-            this.signOneChit(chit, blindedChitText, this.theQuestion.id);
+		    request.responseChits.push(chit.blindedMessageText(gModulus, k, gPublicKey));
 	    });
 	    // The me chit is signed with a key that is specific to the the question
 	    k = Ballot.randomKforModulus(this.theQuestion.n);
-	    var blindedChitText = this.personalChit.blindedMessageText(this.theQuestion.n, k, this.theQuestion.e);
-	    this.signOneChit(this.personalChit, blindedChitText, this.theQuestion.id);
+	    request.meChit = this.personalChit.blindedMessageText(this.theQuestion.n, k, this.theQuestion.e);
 	    this.saveToLocalStorage();
-    };
-    signOneChit(chit, blindedChitText, quid) {
-        var url = "ballot/" + quid + chit.getSignatureEndpoint();
+	    // All the chits for this ballot go in one request
+        var url = "ballots/sign";
         if (this.voter) {
             url = url + "?behalf=" + encodeURIComponent(this.voter);
         }
-        let promise = axios.post(url, { b: blindedChitText });
+        let promise = axios.post(url, [ request ]);
         promise.then( response => {
-            chit.acceptSignedBlindedText(response);
+            let result = response.data[0];
+            result.responseChits.forEach( (signedChit, i) => {
+                this.acceptSignedChit(this.responseChits[i], signedChit);
+            });
+            this.acceptSignedChit(this.personalChit, result.meChit);
             this.saveToLocalStorage();
          })
         .catch( (error) => {
             console.log(error.response);
-            if (!this.errorCountPerSigning) {
-                if (error.response) {
-                    if (error.response.status == 404) { //Not Found
-                        // This is what is returned if the Question is not polling-- could happen if
-                        // it was closed
-                        // just as we loaded. Re-fetch the question list so that we can detect that it closed (if so.)
-                        voterApp.checkForNewQuestions();
-                    }
-                    else if  (error.response.status == 403) {   // Forbidden
-                        // The CTF will refuse to sign chits if this effective voter has already
-                        // had chits signed for this question. Could happen if this Question was
-                        // viewed by the Voter (or the Voter's proxy holder) in another browser.
-                        this.state = Ballot.UNAVAILABLE_STATE;
-                    }
-                    else if (error.response.status == 401) {  // Unauthorized
-                        alert("Either you were logged out, or your permission to vote was revoked.");
-                        window.location.href = "/";
-                    }
+            this.signingFailed(error.response ? error.response.status : null);
+        });
+    };
+    acceptSignedChit(chit, signedChit) {
+        if (signedChit.status == 200) {
+            chit.acceptSignedBlindedText({ data: signedChit.signed });
+        }
+        else {
+            this.signingFailed(signedChit.status);
+        }
+    };
+    signingFailed(status) {
+        if (!this.errorCountPerSigning) {
+            if (status) {
+                if (status == 404) { //Not Found
+                    // This is what is returned if the Question is not polling-- could happen if
+                    // it was closed
+                    // just as we loaded. Re-fetch the question list so that we can detect that it closed (if so.)
+                    voterApp.checkForNewQuestions();
+                }
+                else if  (status == 403) {   // Forbidden
+                    // The CTF will refuse to sign chits if this effective voter has already
+                    // had chits signed for this question. Could happen if this Question was
+                    // viewed by the Voter (or the Voter's proxy holder) in another browser.
+                    this.state = Ballot.UNAVAILABLE_STATE;
                 }
-                else {  // TODO: test that general internet glitchyness would end up here?
-                    alert("Internet glitch? Glitch in communication with server. Please check your network and try re-loading this page.");
+                else if (status == 401) {  // Unauthorized
+                    alert("Either you were logged out, or your permission to vote was revoked.");
+                    window.location.href = "/";
                 }
             }
-            ++this.errorCountPerSigning;
-        });
+            else {  // TODO: test that general internet glitchyness would end up here?
+                alert("Internet glitch? Glitch in communication with server. Please check your network and try re-loading this page.");
+            }
+        }
+        ++this.errorCountPerSigning;
     };
     chitForResponse(response) {
         var chit = null;
@@ -492,8 +505,6 @@ class SingleChoiceBallot extends Ballot {
         var i;
         for (i = 0; i < report.length; ++i) {
 	        var record = report[i];
-		    var questionID = record.question.id;
-            if (questionID != this.theQuestion.id) { continue; }
             if (this.results[record.response]) {
                 this.results[record.response] += 1;
             }
@@ -634,8 +645,6 @@ class RankedChoiceBallot extends Ballot {
         var i;
         for (i = 0; i < report.length; ++i) {
 	        var record = report[i];
-		    var questionID = record.question.id;
-            if (questionID != this.theQuestion.id) { continue; }
             var voterID = record.voterChitNumber;
             if (!this.personalChit.matchesID(voterID)) { continue; }
             if (!this.iVoted()) {
@@ -0,0 +1,220 @@
+package com.jagbag.dvoting;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.jagbag.dvoting.entities.Question;
+import com.jagbag.dvoting.entities.ResponseOption;
+import com.jagbag.dvoting.entities.Voter;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpStatus;
+import org.springframework.test.context.ActiveProfiles;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Hammers the CTF from many threads at once, to check that the per-voter limits on chit signing, and the
+ * detection of contradictory votes, still hold when nothing is serialized on the CTF as a whole.
+ */
+@SpringBootTest
+@ActiveProfiles("test")
+class CentralTabulatingFacilityConcurrencyTest {
+    static final int THREADS = 16;
+
+    @Autowired
+    private CentralTabulatingFacility ctf;
+    @Autowired
+    private EntityManagerFactory emf;
+
+    Question postedQuestion(String text, String... options) throws Exception {
+        Question q = new Question(text);
+        for (String option : options) {
+            q.addResponseOption(new ResponseOption(option));
+        }
+        q.setCreateDateTime();
+        EntityManager em = emf.createEntityManager();
+        em.getTransaction().begin();
+        em.persist(q);
+        for (ResponseOption opt : q.getPossibleResponses()) {
+            em.persist(opt);
+        }
+        em.getTransaction().commit();
+        em.close();
+        ctf.postQuestion(q);
+        return q;
+    }
+
+    static Voter votingVoter(String username) {
+        Voter v = new Voter(username, username, username + "@xyz.com");
+        v.setAllowedToVote(true);
+        return v;
+    }
+
+    static String blinded(long n) {
+        return SigningEntity.encoded(BigInteger.valueOf(n));
+    }
+
+    /**
+     * Run the task from THREADS threads, all let go at the same moment; return how many times it returned true.
+     */
+    static int runTogether(int times, Callable<Boolean> task) throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<Boolean>> futures = new ArrayList<>();
+        for (int i = 0; i < times; ++i) {
+            futures.add(pool.submit(() -> {
+                start.await();
+                return task.call();
+            }));
+        }
+        start.countDown();
+        int successes = 0;
+        for (Future<Boolean> f : futures) {
+            if (f.get(60, TimeUnit.SECONDS)) {
+                ++successes;
+            }
+        }
+        pool.shutdown();
+        return successes;
+    }
+
+    @Test
+    void responseChitLimitHoldsUnderContention() throws Exception {
+        Question q = postedQuestion("Which snack?", "Fritos", "Cheetos", "Pita Chips");
+        Voter greedy = votingVoter("greedy");
+        AtomicInteger next = new AtomicInteger(1000);
+        int signed = runTogether(200, () ->
+                ctf.signResponseChit(blinded(next.incrementAndGet()), greedy, q) != null);
+        assertEquals(q.numberOfAllowedChits(), signed);
+
+        // Many honest voters at once all get their full allotment
+        AtomicInteger voterNumber = new AtomicInteger();
+        int honest = runTogether(50, () -> {
+            Voter v = votingVoter("honest" + voterNumber.incrementAndGet());
+            boolean ok = true;
+            for (int i = 0; i < q.numberOfAllowedChits(); ++i) {
+                ok &= (ctf.signResponseChit(blinded(i + 1), v, q) != null);
+            }
+            // ...and can have any of them re-signed
+            ok &= (ctf.signResponseChit(blinded(1), v, q) != null);
+            return ok;
+        });
+        assertEquals(50, honest);
+    }
+
+    @Test
+    void oneMeChitPerVoterUnderContention() throws Exception {
+        Question q = postedQuestion("Who should chair?", "Nick", "Rick");
+        Voter greedy = votingVoter("greedyme");
+        AtomicInteger next = new AtomicInteger(5000);
+        int signed = runTogether(200, () ->
+                ctf.signMeChit(blinded(next.incrementAndGet()), greedy, q) != null);
+        assertEquals(1, signed);
+
+        Voter patient = votingVoter("patientme");
+        int resigned = runTogether(100, () -> ctf.signMeChit(blinded(42), patient, q) != null);
+        assertEquals(100, resigned);
+    }
+
+    VoteMessage signedVote(Question q, long voterNumber, long responseNumber, String response, int ranking) {
+        VoteMessage vote = new VoteMessage();
+        vote.meChit = String.format("%d %d me", q.getId(), voterNumber);
+        vote.meChitSigned = q.signText(SigningEntity.encoded(SignatureVerifier.messageValue(vote.meChit)));
+        vote.responseChit = String.format("%d %d %s", q.getId(), responseNumber, response);
+        vote.responseChitSigned = ctf.signText(SigningEntity.encoded(SignatureVerifier.messageValue(vote.responseChit)));
+        vote.ranking = ranking;
+        return vote;
+    }
+
+    /** How many votes on the Question there are in the list a Voter checks their vote against */
+    int votesOn(Question q) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ctf.writeVoteVerificationList(q.getId(), out);
+        return new ObjectMapper().readValue(out.toByteArray(), List.class).size();
+    }
+
+    @Test
+    void contradictoryVotesDetectedUnderContention() throws Exception {
+        Question q = postedQuestion("Snacks at the meeting?", "yes", "no");
+        VoteMessage yes = signedVote(q, 777, 111, "yes", 0);
+        VoteMessage no = signedVote(q, 777, 222, "no", 0);
+        AtomicInteger which = new AtomicInteger();
+        int accepted = runTogether(100, () -> {
+            VoteMessage vote = (which.incrementAndGet() % 2 == 0) ? yes : no;
+            return ctf.receiveVoteOnQuestion(q.getId(), vote) == HttpStatus.OK;
+        });
+        assertEquals(1, votesOn(q));
+        // Whichever one got in first, its duplicates are accepted, and the contradicting votes aren't.
+        assertEquals(50, accepted);
+
+        // Lots of different voters voting at once all get counted.
+        AtomicInteger voterNumber = new AtomicInteger(1000);
+        int counted = runTogether(100, () -> {
+            int n = voterNumber.incrementAndGet();
+            return ctf.receiveVoteOnQuestion(q.getId(), signedVote(q, n, n, "no", 0)) == HttpStatus.OK;
+        });
+        assertEquals(100, counted);
+        assertEquals(101, votesOn(q));
+    }
+
+    @Test
+    void liveTallyKeepsUpWithVotes() throws Exception {
+        Question q = postedQuestion("Where to meet?", "library", "cafe");
+        AtomicInteger voterNumber = new AtomicInteger(3000);
+        runTogether(120, () -> {
+            int n = voterNumber.incrementAndGet();
+            String response = (n % 3 == 0) ? "library" : "cafe";
+            // each vote twice; the repeat mustn't be counted
+            ctf.receiveVoteOnQuestion(q.getId(), signedVote(q, n, n, response, 0));
+            return ctf.receiveVoteOnQuestion(q.getId(), signedVote(q, n, n, response, 0)) == HttpStatus.OK;
+        });
+        LiveTally.Report live = ctf.tallyForQuestion(q.getId());
+        assertEquals(120, live.voterCount);
+        assertEquals("library", live.responses.get(0).response);
+        assertEquals(40, live.responses.get(0).total);
+        assertEquals(80, live.responses.get(1).total);
+
+        // Once the question is closed, the database gives the same answer.
+        ctf.closeQuestion(q);
+        LiveTally.Report closed = ctf.tallyForQuestion(q.getId());
+        assertEquals(120, closed.voterCount);
+        assertEquals(40, closed.responses.get(0).total);
+        assertEquals(80, closed.responses.get(1).total);
+    }
+
+    @Test
+    void rankedChoiceResultIsKeptOnceClosed() throws Exception {
+        Question q = postedQuestion("Who should chair?", "Nick", "Rick", "Vic");
+        q.setType(Question.CountingType.RANKED_CHOICE);
+        AtomicInteger voterNumber = new AtomicInteger(6000);
+        runTogether(30, () -> {
+            int n = voterNumber.incrementAndGet();
+            boolean ok = true;
+            // 6 for Vic then Rick, 12 for Nick, 12 for Rick: Vic's ballots go to Rick in the second round
+            String[] ranking = (n % 5 == 0) ? new String[] {"Vic", "Rick"} : (n % 5 < 3) ? new String[] {"Nick"} : new String[] {"Rick"};
+            for (int r = 0; r < ranking.length; ++r) {
+                ok &= ctf.receiveVoteOnQuestion(q.getId(), signedVote(q, n, 10 * n + r, ranking[r], r)) == HttpStatus.OK;
+            }
+            return ok;
+        });
+        RankedChoiceResult live = ctf.rankedChoiceResultForQuestion(q.getId());
+        assertEquals(30, live.numVotersResponded);
+        assertEquals("Rick", live.outcomes.get(0).winner);
+        assertNotSame(live, ctf.rankedChoiceResultForQuestion(q.getId()));
+
+        ctf.closeQuestion(q);
+        RankedChoiceResult closed = ctf.rankedChoiceResultForQuestion(q.getId());
+        assertEquals("Rick", closed.outcomes.get(0).winner);
+        assertSame(closed, ctf.rankedChoiceResultForQuestion(q.getId()));
+    }
+}
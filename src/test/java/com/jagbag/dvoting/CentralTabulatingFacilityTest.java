@@ -3,8 +3,10 @@ package com.jagbag.dvoting;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.jagbag.dvoting.entities.Question;
 import com.jagbag.dvoting.entities.ResponseOption;
+import com.jagbag.dvoting.entities.Voter;
 import org.junit.jupiter.api.Test;
 
+import java.math.BigInteger;
 import java.util.*;
 import java.security.NoSuchAlgorithmException;
 
@@ -42,5 +44,50 @@ class CentralTabulatingFacilityTest {
         assertEquals(list.size(), 1);
     }
 
+    static BallotSigningRequest signingRequest(long quid, long... chits) {
+        BallotSigningRequest request = new BallotSigningRequest();
+        request.quid = quid;
+        request.responseChits = new ArrayList<String>();
+        for (long chit : chits) {
+            request.responseChits.add(SigningEntity.encoded(BigInteger.valueOf(chit)));
+        }
+        request.meChit = SigningEntity.encoded(BigInteger.valueOf(99));
+        return request;
+    }
 
-}
\ No newline at end of file
+    @Test
+    void signBallots() {
+        Question q1 = new Question("What snacks should we have?");
+        q1.addResponseOption(new ResponseOption("oatmeal cookies"));
+        q1.addResponseOption(new ResponseOption("cranberry orange bread"));
+        CentralTabulatingFacility ctf = makeCTFWithQuestion(q1);
+        Voter v = new Voter("Someone", "someone", "nobody@nowhere.com");
+        v.setAllowedToVote(true);
+
+        List<BallotSigningRequest> requests = new ArrayList<BallotSigningRequest>();
+        requests.add(signingRequest(q1.getId(), 11, 12));
+        requests.add(signingRequest(q1.getId() + 1000, 13));
+        List<BallotSigningResult> results = ctf.signBallots(requests, v);
+        assertEquals(2, results.size());
+        BallotSigningResult result = results.get(0);
+        assertEquals(q1.getId(), result.quid);
+        assertEquals(2, result.responseChits.size());
+        for (BallotSigningResult.SignedChit signedChit : result.responseChits) {
+            assertEquals(200, signedChit.status);
+        }
+        assertEquals(ctf.signText(SigningEntity.encoded(BigInteger.valueOf(12))), result.responseChits.get(1).signed);
+        assertEquals(200, result.meChit.status);
+        assertEquals(q1.signText(SigningEntity.encoded(BigInteger.valueOf(99))), result.meChit.signed);
+        assertEquals(404, results.get(1).responseChits.get(0).status);
+        assertEquals(404, results.get(1).meChit.status);
+
+        // Asking again for the same chits is fine; asking for one more isn't.
+        results = ctf.signBallots(Collections.singletonList(signingRequest(q1.getId(), 12, 11, 14)), v);
+        result = results.get(0);
+        assertEquals(200, result.responseChits.get(0).status);
+        assertEquals(200, result.responseChits.get(1).status);
+        assertEquals(403, result.responseChits.get(2).status);
+        assertNull(result.responseChits.get(2).signed);
+        assertEquals(200, result.meChit.status);
+    }
+}
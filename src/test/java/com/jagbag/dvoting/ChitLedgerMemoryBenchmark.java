@@ -0,0 +1,79 @@
+package com.jagbag.dvoting;
+
+import org.junit.jupiter.api.Test;
+
+import java.math.BigInteger;
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Measures the heap taken by the chit ledger with 100k voters each having had 4 response chits and a me chit
+ * signed on each of 20 questions, and, for comparison, the heap taken by a sample of the same bookkeeping done
+ * the old way (a map of maps of sets of base-36 strings), scaled up to the same size.
+ * Not part of the regular test run; run it on its own, with plenty of heap, with
+ * ./mvnw test -Dtest=ChitLedgerMemoryBenchmark -DargLine=-Xmx4g
+ */
+class ChitLedgerMemoryBenchmark {
+    static final int VOTERS = 100_000;
+    static final int QUESTIONS = 20;
+    static final int RESPONSES = 4;
+    static final int OLD_WAY_SAMPLE = 5_000;
+
+    static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 5; ++i) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    static BigInteger randomChit() {
+        return new BigInteger(SigningEntity.KEY_SIZE - 1, ThreadLocalRandom.current());
+    }
+
+    @Test
+    void footprint() {
+        String[] usernames = new String[VOTERS];
+        for (int v = 0; v < VOTERS; ++v) {
+            usernames[v] = "voter" + v + "@example.com";
+        }
+        long before = usedHeap();
+        ChitLedger ledger = new ChitLedger();
+        for (int q = 0; q < QUESTIONS; ++q) {
+            ledger.open(q);
+            for (int v = 0; v < VOTERS; ++v) {
+                for (int r = 0; r < RESPONSES; ++r) {
+                    assertEquals(ChitLedger.Outcome.NEW, ledger.recordResponseChit(q, usernames[v], randomChit(), RESPONSES));
+                }
+                assertEquals(ChitLedger.Outcome.NEW, ledger.recordMeChit(q, usernames[v], randomChit()));
+            }
+        }
+        long ledgerBytes = usedHeap() - before;
+        assertEquals(VOTERS, ledger.voterCount(0));
+
+        before = usedHeap();
+        Map<String, Map<Long, Set<String>>> oldWay = new HashMap<>();
+        for (int v = 0; v < OLD_WAY_SAMPLE; ++v) {
+            Map<Long, Set<String>> perQuestion = oldWay.computeIfAbsent(usernames[v], (x) -> new HashMap<>());
+            for (long q = 0; q < QUESTIONS; ++q) {
+                Set<String> chits = perQuestion.computeIfAbsent(q, (x) -> new HashSet<>());
+                for (int r = 0; r <= RESPONSES; ++r) {  // the me chits were kept in a similar map on each Question
+                    chits.add(SigningEntity.encoded(randomChit()));
+                }
+            }
+        }
+        long oldWayBytes = (usedHeap() - before) * (VOTERS / OLD_WAY_SAMPLE);
+        assertEquals(OLD_WAY_SAMPLE, oldWay.size());
+
+        System.out.println(String.format("%d voters x %d questions: ledger %.1f MB (%.0f bytes per voter per question); "
+                        + "strings, extrapolated from %d voters, %.1f MB",
+                VOTERS, QUESTIONS, ledgerBytes / 1e6, (double)ledgerBytes / VOTERS / QUESTIONS,
+                OLD_WAY_SAMPLE, oldWayBytes / 1e6));
+        for (int q = 0; q < QUESTIONS; ++q) {
+            ledger.release(q);
+        }
+        assertEquals(0, ledger.voterCount(0));
+    }
+}
@@ -0,0 +1,50 @@
+package com.jagbag.dvoting;
+
+import org.junit.jupiter.api.Test;
+
+import java.math.BigInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ChitLedgerTest {
+
+    @Test
+    void responseChitLimit() {
+        ChitLedger ledger = new ChitLedger();
+        ledger.open(1);
+        assertEquals(ChitLedger.Outcome.NEW, ledger.recordResponseChit(1, "alice", BigInteger.valueOf(11), 2));
+        assertEquals(ChitLedger.Outcome.NEW, ledger.recordResponseChit(1, "alice", BigInteger.valueOf(12), 2));
+        assertEquals(ChitLedger.Outcome.REPEAT, ledger.recordResponseChit(1, "alice", BigInteger.valueOf(11), 2));
+        assertEquals(ChitLedger.Outcome.REFUSED, ledger.recordResponseChit(1, "alice", BigInteger.valueOf(13), 2));
+        // Limits are per voter...
+        assertEquals(ChitLedger.Outcome.NEW, ledger.recordResponseChit(1, "bob", BigInteger.valueOf(13), 2));
+        // ...and per question
+        ledger.open(2);
+        assertEquals(ChitLedger.Outcome.NEW, ledger.recordResponseChit(2, "alice", BigInteger.valueOf(13), 2));
+        assertEquals(2, ledger.voterCount(1));
+    }
+
+    @Test
+    void oneMeChit() {
+        ChitLedger ledger = new ChitLedger();
+        ledger.open(1);
+        BigInteger chit = new BigInteger("123456789012345678901234567890");
+        assertEquals(ChitLedger.Outcome.NEW, ledger.recordMeChit(1, "carol", chit));
+        assertEquals(ChitLedger.Outcome.REPEAT, ledger.recordMeChit(1, "carol", new BigInteger(chit.toString())));
+        assertEquals(ChitLedger.Outcome.REFUSED, ledger.recordMeChit(1, "carol", chit.add(BigInteger.ONE)));
+        // The me chit doesn't count against response chits
+        assertEquals(ChitLedger.Outcome.NEW, ledger.recordResponseChit(1, "carol", chit, 1));
+    }
+
+    @Test
+    void closedQuestionsAreReleased() {
+        ChitLedger ledger = new ChitLedger();
+        assertEquals(ChitLedger.Outcome.REFUSED, ledger.recordMeChit(3, "dave", BigInteger.ONE));
+        ledger.open(3);
+        assertEquals(ChitLedger.Outcome.NEW, ledger.recordMeChit(3, "dave", BigInteger.ONE));
+        ledger.release(3);
+        assertFalse(ledger.isOpen(3));
+        assertEquals(0, ledger.voterCount(3));
+        assertEquals(ChitLedger.Outcome.REFUSED, ledger.recordResponseChit(3, "dave", BigInteger.TEN, 5));
+    }
+}
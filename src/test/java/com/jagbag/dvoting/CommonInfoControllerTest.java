@@ -0,0 +1,282 @@
+package com.jagbag.dvoting;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.jagbag.dvoting.entities.Question;
+import com.jagbag.dvoting.entities.ResponseOption;
+import com.jagbag.dvoting.entities.Voter;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.function.Executable;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import java.io.ByteArrayOutputStream;
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * The lists of voters and questions: what's in them, and that each takes the same few SQL statements however
+ * long it is (counted with Hibernate's statistics, which application.properties turns on).
+ */
+@SpringBootTest
+@ActiveProfiles("test")
+@AutoConfigureMockMvc
+class CommonInfoControllerTest {
+    @Autowired private VoterListManager voterListManager;
+    @Autowired private LoginManager loginManager;
+    @Autowired private CentralTabulatingFacility ctf;
+    @Autowired private EntityManagerFactory emf;
+    @Autowired private MockMvc mockMvc;
+    @Autowired private ObjectMapper objectMapper;
+
+    private HttpHeaders admin;
+    private String batch;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        voterListManager.initialize();
+        admin = new HttpHeaders();
+        admin.add(HttpHeaders.COOKIE, String.format("user=%s;token=%s", "admin",
+                loginManager.startSession(voterListManager.getForUsername("admin"))));
+        batch = Long.toString(System.nanoTime(), 36);
+    }
+
+    Voter newVoter(String name) {
+        String username = name.toLowerCase() + batch;
+        Voter v = new Voter(name, username, username + "@lists.org");
+        assertTrue(voterListManager.addVoter(v, "password!"));
+        voterListManager.activateAccountWithoutConfirm(v);
+        v.setAllowedToVote(true);
+        assertTrue(voterListManager.updateVoter(v));
+        return voterListManager.getForUsername(username);
+    }
+
+    /** Has holder hold grantor's proxy */
+    void holdProxy(Voter holder, Voter grantor) {
+        holder.requestProxyHolding(grantor);
+        holder.acceptProxyHolding(grantor);
+        assertTrue(voterListManager.updateVoter(grantor));
+    }
+
+    Question savedQuestion(String text, String... options) {
+        Question q = new Question(text);
+        for (String option : options) {
+            q.addResponseOption(new ResponseOption(option));
+        }
+        q.setCreateDateTime();
+        EntityManager em = emf.createEntityManager();
+        em.getTransaction().begin();
+        em.persist(q);
+        for (ResponseOption opt : q.getPossibleResponses()) {
+            em.persist(opt);
+        }
+        em.getTransaction().commit();
+        em.close();
+        return q;
+    }
+
+    List<Map<String, Object>> getList(String path) throws Exception {
+        String json = mockMvc.perform(get(path).headers(admin)).andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsString();
+        return objectMapper.readValue(json, new TypeReference<List<Map<String, Object>>>() {});
+    }
+
+    Map<String, Object> entryFor(List<Map<String, Object>> list, String key, Object value) {
+        for (Map<String, Object> entry : list) {
+            if (value.equals(entry.get(key))) {
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return how many SQL statements Hibernate sent to the database doing the given thing. The statistics
+     * count everyone's statements, and the email outbox looks at its table every second, so this is the fewest
+     * out of a few tries. Each try starts with an empty second-level cache, as after any change to a Voter.
+     */
+    long statements(Executable action) throws Throwable {
+        SessionFactory sessionFactory = emf.unwrap(SessionFactory.class);
+        Statistics statistics = sessionFactory.getStatistics();
+        long fewest = Long.MAX_VALUE;
+        for (int i = 0; i < 3; ++i) {
+            sessionFactory.getCache().evictAllRegions();
+            long before = statistics.getPrepareStatementCount();
+            action.execute();
+            fewest = Math.min(fewest, statistics.getPrepareStatementCount() - before);
+        }
+        return fewest;
+    }
+
+    @Test
+    void votersList() throws Throwable {
+        Voter holder = newVoter("Holder");
+        Voter grantor = newVoter("Grantor");
+        holdProxy(holder, grantor);
+        Voter barred = newVoter("Barred");
+        barred.setAllowedToVote(false);
+        assertTrue(voterListManager.updateVoter(barred));
+
+        List<Map<String, Object>> all = getList("/voters");
+        Map<String, Object> entry = entryFor(all, "username", holder.getUsername());
+        assertEquals("Holder", entry.get("name"));
+        assertEquals(holder.getUsername() + "@lists.org", entry.get("currentEmail"));
+        assertEquals(true, entry.get("allowedToVote"));
+        assertEquals(false, entry.get("admin"));
+        assertNotNull(entryFor(all, "username", barred.getUsername()));
+        assertNull(entryFor(getList("/voters?canvote=yes"), "username", barred.getUsername()));
+        assertNotNull(entryFor(getList("/voters?canvote=no"), "username", barred.getUsername()));
+
+        for (int i = 0; i < 20; ++i) {
+            holdProxy(holder, newVoter("Member" + i));
+        }
+        // A query for each part of the list on the page: may vote or not, admin or not
+        assertTrue(statements(() -> getList("/voters")) <= 4);
+    }
+
+    @Test
+    void votersListPages() throws Throwable {
+        List<String> usernames = new ArrayList<String>();
+        for (int i = 0; i < 25; ++i) {
+            usernames.add(newVoter(String.format("Pager%sx%02d", batch, i)).getUsername());
+        }
+        // Searched for in any case, and found in name order, ten at a time
+        String path = "/voters?limit=10&search=" + ("pAGER" + batch).toUpperCase();
+        List<String> found = new ArrayList<String>();
+        List<Long> counts = new ArrayList<Long>();
+        for (int page = 0; page < 3; ++page) {
+            String thisPage = path;
+            MvcResult result = mockMvc.perform(get(thisPage).headers(admin)).andExpect(status().isOk()).andReturn();
+            List<Map<String, Object>> list = objectMapper.readValue(result.getResponse().getContentAsString(),
+                    new TypeReference<List<Map<String, Object>>>() {});
+            for (Map<String, Object> entry : list) {
+                found.add((String)entry.get("username"));
+            }
+            counts.add(statements(() -> getList(thisPage)));
+            String link = result.getResponse().getHeader(HttpHeaders.LINK);
+            if (page < 2) {
+                assertEquals(10, list.size());
+                Matcher next = Pattern.compile("<(.*)>; rel=\"next\"").matcher(link);
+                assertTrue(next.matches());
+                path = next.group(1);
+            }
+            else {
+                assertEquals(5, list.size());
+                assertNull(link);
+            }
+        }
+        assertEquals(usernames, found);
+        // However far into the list: a query for each part of the list the page might be in
+        for (long count : counts) {
+            assertTrue(count <= 4);
+        }
+
+        mockMvc.perform(get("/voters?after=nowhere").headers(admin)).andExpect(status().isBadRequest());
+    }
+
+    @Test
+    void possibleProxiesList() throws Throwable {
+        Voter holder = newVoter("Holder");
+        Voter one = newVoter("One");
+        Voter two = newVoter("Two");
+        Voter free = newVoter("Free");
+        holdProxy(holder, one);
+        List<Map<String, Object>> possible = getList("/pp");
+        assertNotNull(entryFor(possible, "username", holder.getUsername()));
+        assertEquals("Free", entryFor(possible, "username", free.getUsername()).get("name"));
+        // Voting by proxy themselves
+        assertNull(entryFor(possible, "username", one.getUsername()));
+        assertNull(entryFor(possible, "username", "admin"));
+
+        holdProxy(holder, two);
+        possible = getList("/pp");
+        // Holding two proxies already
+        assertNull(entryFor(possible, "username", holder.getUsername()));
+        assertNotNull(entryFor(possible, "username", free.getUsername()));
+
+        List<Map<String, Object>> found = getList("/pp?search=fr");
+        assertNotNull(entryFor(found, "username", free.getUsername()));
+        for (Map<String, Object> entry : found) {
+            assertTrue(((String)entry.get("name")).startsWith("Fr"));
+        }
+
+        for (int i = 0; i < 20; ++i) {
+            newVoter("Member" + i);
+        }
+        // A query for admins, and one for everyone else
+        assertTrue(statements(() -> getList("/pp")) <= 2);
+    }
+
+    @Test
+    void questionsList() throws Throwable {
+        Question q = savedQuestion("Meet on Tuesdays?", "yes", "no", "abstain");
+        List<Map<String, Object>> questions = getList("/questions");
+        Map<String, Object> entry = entryFor(questions, "id", (int)q.getId());
+        assertEquals("Meet on Tuesdays?", entry.get("text"));
+        assertEquals("SINGLE", entry.get("type"));
+        assertEquals("new", entry.get("status"));
+        assertEquals(true, entry.get("editable"));
+        assertEquals(true, entry.get("postable"));
+        assertEquals(false, entry.get("closable"));
+        List<Map<String, Object>> options = (List<Map<String, Object>>)entry.get("possibleResponses");
+        assertEquals(3, options.size());
+        assertEquals("yes", options.get(0).get("text"));
+        assertEquals("abstain", options.get(2).get("text"));
+
+        for (int i = 0; i < 20; ++i) {
+            savedQuestion("Question " + i + "?", "yes", "no");
+        }
+        assertEquals(2, statements(() -> getList("/questions")));
+        assertEquals(1, statements(() -> mockMvc.perform(get("/questions/{quid}", q.getId()).headers(admin))
+                .andExpect(status().isOk())));
+    }
+
+    @Test
+    void votesList() throws Throwable {
+        Question q = savedQuestion("Count me?", "yes", "no");
+        ctf.postQuestion(q);
+        for (int i = 1; i <= 3; ++i) {
+            VoteMessage vote = new VoteMessage();
+            vote.meChit = String.format("%d %d me", q.getId(), 100 + i);
+            vote.meChitSigned = q.signText(SigningEntity.encoded(SignatureVerifier.messageValue(vote.meChit)));
+            vote.responseChit = String.format("%d %d %s", q.getId(), 200 + i, (i == 1) ? "no" : "yes");
+            vote.responseChitSigned = ctf.signText(SigningEntity.encoded(SignatureVerifier.messageValue(vote.responseChit)));
+            assertEquals(HttpStatus.OK, ctf.receiveVoteOnQuestion(q.getId(), vote));
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ctf.writeVoteVerificationList(q.getId(), out);
+        assertEquals(3, objectMapper.readValue(out.toByteArray(), List.class).size());
+        assertEquals(1, statements(() -> ctf.writeVoteVerificationList(q.getId(), new ByteArrayOutputStream())));
+    }
+
+    @Test
+    void requestingAProxyLeavesTheSessionsVoterAlone() throws Exception {
+        Voter grantor = newVoter("Gina");
+        Voter holder = newVoter("Hank");
+        HttpHeaders headers = new HttpHeaders();
+        headers.add(HttpHeaders.COOKIE, String.format("user=%s;token=%s", grantor.getUsername(),
+                loginManager.startSession(grantor)));
+        Voter sessionCopy = loginManager.validateBasicUser(headers);
+        mockMvc.perform(get("/voters/requestproxy").param("proxy", holder.getUsername()).headers(headers))
+                .andExpect(status().isOk());
+        // The change is saved, but not made to the copy every request in the session shares
+        assertEquals(holder, voterListManager.getForUsername(grantor.getUsername()).getProxyHolder());
+        assertNull(sessionCopy.getProxyHolder());
+    }
+}
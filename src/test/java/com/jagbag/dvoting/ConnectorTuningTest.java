@@ -0,0 +1,40 @@
+package com.jagbag.dvoting;
+
+import org.apache.catalina.connector.Connector;
+import org.apache.coyote.http11.AbstractHttp11Protocol;
+import org.apache.coyote.http2.Http2Protocol;
+import org.apache.tomcat.util.net.SSLHostConfig;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ConnectorTuningTest {
+    @Test
+    void tunesHttpTlsAndHttp2() {
+        Connector connector = new Connector("org.apache.coyote.http11.Http11NioProtocol");
+        SSLHostConfig ssl = new SSLHostConfig();
+        connector.addSslHostConfig(ssl);
+        Http2Protocol http2 = new Http2Protocol();
+        connector.addUpgradeProtocol(http2);
+
+        new ConnectorTuning(30, 1000, 20000, 120, 100).customize(connector);
+
+        AbstractHttp11Protocol<?> http = (AbstractHttp11Protocol<?>)connector.getProtocolHandler();
+        assertEquals(30000, http.getKeepAliveTimeout());
+        assertEquals(1000, http.getMaxKeepAliveRequests());
+        assertEquals(20000, ssl.getSessionCacheSize());
+        assertEquals(7200, ssl.getSessionTimeout());
+        assertEquals(30000, http2.getKeepAliveTimeout());
+        assertEquals(100, http2.getMaxConcurrentStreams());
+    }
+
+    @Test
+    void leavesPlainHttpAlone() {
+        Connector connector = new Connector("org.apache.coyote.http11.Http11NioProtocol");
+        new ConnectorTuning(5, 10, 20000, 120, 100).customize(connector);
+        AbstractHttp11Protocol<?> http = (AbstractHttp11Protocol<?>)connector.getProtocolHandler();
+        assertEquals(5000, http.getKeepAliveTimeout());
+        assertEquals(10, http.getMaxKeepAliveRequests());
+        assertEquals(0, http.findSslHostConfigs().length);
+    }
+}
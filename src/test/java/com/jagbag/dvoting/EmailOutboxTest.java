@@ -0,0 +1,155 @@
+package com.jagbag.dvoting;
+
+import com.jagbag.dvoting.email.EmailOutbox;
+import com.jagbag.dvoting.email.EmailSender;
+import com.jagbag.dvoting.email.MockEmailSender;
+import com.jagbag.dvoting.entities.OutboundEmail;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@SpringBootTest
+@ActiveProfiles("test")
+class EmailOutboxTest {
+    @Autowired
+    private EmailSender emailSender;
+    @Autowired @Qualifier("emailSender")
+    private MockEmailSender mockEmailSender;
+    @Autowired
+    private EntityManagerFactory emf;
+
+    List<OutboundEmail> outboxFor(String recipient) {
+        EntityManager em = emf.createEntityManager();
+        List<OutboundEmail> list = em.createQuery("select e from OutboundEmail e where e.recipient = :recipient",
+                OutboundEmail.class).setParameter("recipient", recipient).getResultList();
+        em.close();
+        return list;
+    }
+
+    OutboundEmail waitUntilDone(String recipient) throws InterruptedException {
+        for (int i = 0; i < 200; ++i) {
+            List<OutboundEmail> list = outboxFor(recipient);
+            if (list.size() == 1 && list.get(0).getStatus() != OutboundEmail.Status.PENDING) {
+                return list.get(0);
+            }
+            Thread.sleep(50);
+        }
+        fail("email to " + recipient + " never got sent or given up on");
+        return null;
+    }
+
+    @Test
+    void sendingOnlyEnqueues() throws InterruptedException {
+        assertTrue(emailSender instanceof EmailOutbox);
+        emailSender.sendEmail("queued@outbox.com", "hello", "just saying");
+        // The test profile has no workers running; it waits...
+        List<OutboundEmail> queued = outboxFor("queued@outbox.com");
+        assertEquals(1, queued.size());
+        assertEquals(OutboundEmail.Status.PENDING, queued.get(0).getStatus());
+        assertFalse(mockEmailSender.wasSentTo("queued@outbox.com"));
+
+        // ...until some are
+        EmailOutbox outbox = new EmailOutbox(emf, mockEmailSender, 2, 60000);
+        outbox.start();
+        try {
+            OutboundEmail sent = waitUntilDone("queued@outbox.com");
+            assertEquals(OutboundEmail.Status.SENT, sent.getStatus());
+            assertEquals(1, sent.getAttempts());
+            assertNull(sent.getText());  // it could have held a password
+            assertTrue(mockEmailSender.wasSentTo("queued@outbox.com"));
+        }
+        finally {
+            outbox.stop();
+        }
+    }
+
+    @Test
+    void databaseTroubleDoesNotStopSending() throws InterruptedException {
+        emailSender.sendEmail("patient@outbox.com", "hello", "still there?");
+        // The first time the one worker's batch is looked for, the database is down
+        AtomicInteger failures = new AtomicInteger(1);
+        EntityManagerFactory flakyEmf = (EntityManagerFactory)Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[] { EntityManagerFactory.class }, (proxy, method, args) -> {
+                    if (method.getName().equals("createEntityManager") && failures.getAndDecrement() > 0) {
+                        throw new IllegalStateException("database is down");
+                    }
+                    try {
+                        return method.invoke(emf, args);
+                    }
+                    catch (InvocationTargetException ex) {
+                        throw ex.getCause();
+                    }
+                });
+        EmailOutbox outbox = new EmailOutbox(flakyEmf, mockEmailSender, 1, 60000);
+        outbox.start();
+        try {
+            assertEquals(OutboundEmail.Status.SENT, waitUntilDone("patient@outbox.com").getStatus());
+            assertTrue(failures.get() < 0);
+        }
+        finally {
+            outbox.stop();
+        }
+    }
+
+    /** Fails the first time for flaky addresses, every time for bouncing addresses, and is slow about it. */
+    static class UnreliableSender implements EmailSender {
+        final Map<String, AtomicInteger> attempts = new ConcurrentHashMap<>();
+
+        public boolean isConfiguredForEmail() { return true; }
+
+        @Override
+        public void sendEmail(String email, String subject, String text) {
+            int attempt = attempts.computeIfAbsent(email, (e) -> new AtomicInteger()).incrementAndGet();
+            try {
+                Thread.sleep(20);
+            }
+            catch (InterruptedException ex) {
+                throw new RuntimeException(ex);
+            }
+            if (email.startsWith("bounce") || (email.startsWith("flaky") && attempt == 1)) {
+                throw new RuntimeException("mail server says no");
+            }
+        }
+    }
+
+    @Test
+    void failuresAreRetriedWithBackoff() throws InterruptedException {
+        UnreliableSender transport = new UnreliableSender();
+        EmailOutbox outbox = new EmailOutbox(emf, transport, 2, 60000, 10);
+        outbox.start();
+        try {
+            long start = System.nanoTime();
+            outbox.sendEmail("flaky@outbox.com", "retry", "please");
+            outbox.sendEmail("bounce@outbox.com", "retry", "please");
+            outbox.sendEmail("fine@outbox.com", "retry", "please");
+            OutboundEmail flaky = waitUntilDone("flaky@outbox.com");
+            assertEquals(OutboundEmail.Status.SENT, flaky.getStatus());
+            assertEquals(2, flaky.getAttempts());
+            assertEquals(OutboundEmail.Status.SENT, waitUntilDone("fine@outbox.com").getStatus());
+            OutboundEmail bounce = waitUntilDone("bounce@outbox.com");
+            assertEquals(OutboundEmail.Status.FAILED, bounce.getStatus());
+            assertEquals(EmailOutbox.MAX_ATTEMPTS, bounce.getAttempts());
+            assertTrue(bounce.getLastError().contains("mail server says no"));
+            assertNull(bounce.getText());
+            assertEquals(EmailOutbox.MAX_ATTEMPTS, transport.attempts.get("bounce@outbox.com").get());
+            // each retry waited longer than the one before
+            assertTrue(System.nanoTime() - start > 10_000_000L * ((1 << (EmailOutbox.MAX_ATTEMPTS - 1)) - 1));
+        }
+        finally {
+            outbox.stop();
+        }
+    }
+}
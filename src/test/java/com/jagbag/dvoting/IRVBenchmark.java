@@ -0,0 +1,60 @@
+package com.jagbag.dvoting;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+/**
+ * How long instant-runoff tabulation takes, from the rows of the Vote table to the result, for 10 thousand,
+ * 100 thousand, and a million ballots. Not part of the regular test run; run with
+ * mvn test -Dtest=IRVBenchmark
+ */
+class IRVBenchmark {
+    static final String[] CANDIDATES = {"Nick", "Rick", "Vic", "Dick", "Mick", RankedChoiceTabulator.NONE_OF_THE_ABOVE};
+    static final int ITERATIONS = 5;
+
+    /**
+     * Vote rows, as they come from the database: voterChitNumber, response, grouped by ballot in ranking order.
+     * Preferences are skewed, so some candidates are more popular than others, and ballots rank a random number
+     * of candidates.
+     */
+    static List<String[]> voteRows(int ballots, Random random) {
+        List<String[]> rows = new ArrayList<String[]>();
+        for (int b = 0; b < ballots; ++b) {
+            String voterChitNumber = Long.toString(random.nextLong() & Long.MAX_VALUE);
+            List<String> ranking = new ArrayList<String>(Arrays.asList(CANDIDATES));
+            ranking.sort(Comparator.comparingDouble((c) -> random.nextDouble() * (1 + c.length() % 4)));
+            int ranked = 1 + random.nextInt(CANDIDATES.length);
+            for (int r = 0; r < ranked; ++r) {
+                rows.add(new String[] {voterChitNumber, ranking.get(r)});
+            }
+        }
+        return rows;
+    }
+
+    static RankedChoiceResult tabulate(List<String[]> rows) {
+        RankedChoiceTabulator tabulator = new RankedChoiceTabulator();
+        for (String[] row : rows) {
+            tabulator.addVote(row[0], row[1]);
+        }
+        return tabulator.tabulate();
+    }
+
+    @Test
+    void tabulate() {
+        Random random = new Random(42);
+        for (int ballots : new int[] {10000, 100000, 1000000}) {
+            List<String[]> rows = voteRows(ballots, random);
+            tabulate(rows); // warm up
+            long best = Long.MAX_VALUE;
+            RankedChoiceResult result = null;
+            for (int i = 0; i < ITERATIONS; ++i) {
+                long start = System.nanoTime();
+                result = tabulate(rows);
+                best = Math.min(best, System.nanoTime() - start);
+            }
+            System.out.println(String.format("%,9d ballots (%,d rows): %,8.1f ms; %d outcome(s), %d round(s)",
+                    ballots, rows.size(), best / 1e6, result.outcomes.size(), result.outcomes.get(0).rounds.size()));
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package com.jagbag.dvoting;
+
+import com.jagbag.dvoting.entities.Question;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@SpringBootTest
+@ActiveProfiles("test")
+class IdSequencesTest {
+    @Autowired
+    private IdSequences idSequences;
+    @Autowired
+    private DataSource dataSource;
+    @Autowired
+    private EntityManagerFactory emf;
+
+    long savedQuestionId(String text) {
+        Question q = new Question(text);
+        q.setCreateDateTime();
+        EntityManager em = emf.createEntityManager();
+        em.getTransaction().begin();
+        em.persist(q);
+        em.getTransaction().commit();
+        em.close();
+        return q.getId();
+    }
+
+    @Test
+    void realignMovesSequencesPastIdsInUse() throws Exception {
+        long id = savedQuestionId("Sequence me?");
+        try (Connection connection = dataSource.getConnection();
+             Statement statement = connection.createStatement()) {
+            // As if the table had been filled from hibernate_sequence, and question_seq were new
+            statement.execute("alter sequence " + IdSequences.QUESTION + " restart with 1");
+            assertTrue(idSequences.realign() >= 1);
+            long maxId;
+            try (ResultSet results = statement.executeQuery("select max(id) from question")) {
+                results.next();
+                maxId = results.getLong(1);
+            }
+            assertTrue(maxId >= id);
+            assertTrue(IdSequences.nextBlock(connection, IdSequences.QUESTION) > maxId);
+            // Already past: left alone
+            assertEquals(0, idSequences.realign());
+        }
+    }
+
+    @Test
+    void idsComeInBlocks() throws Exception {
+        try (Connection connection = dataSource.getConnection()) {
+            long first = IdSequences.nextBlock(connection, IdSequences.RESPONSE_OPTION);
+            long second = IdSequences.nextBlock(connection, IdSequences.RESPONSE_OPTION);
+            assertEquals(IdSequences.BLOCK, second - first);
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package com.jagbag.dvoting;
+
+import com.jagbag.dvoting.entities.Question;
+import com.jagbag.dvoting.entities.ResponseOption;
+import com.jagbag.dvoting.entities.Vote;
+import com.jagbag.dvoting.entities.Voter;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import java.util.function.IntFunction;
+
+/**
+ * How many rows a second Hibernate can insert: Votes, and Voters as when a voter list is uploaded, a transaction
+ * per so many rows. See {@link IdSequences}. Not part of the regular test run; run with
+ * mvn test -Dtest=InsertBenchmark
+ * With the database in the same process, a trip to the database costs little more than a method call; to see
+ * what it costs with a database server, run an H2 server (java -cp h2.jar org.h2.tools.Server -tcp -ifNotExists)
+ * and add -Dspring.datasource.url=jdbc:h2:tcp://localhost/benchdb
+ */
+@SpringBootTest
+@ActiveProfiles("test")
+class InsertBenchmark {
+    static final int ROWS = 20000;
+    static final int PER_TRANSACTION = 500;
+
+    @Autowired
+    private EntityManagerFactory emf;
+
+    Question savedQuestion() {
+        Question q = new Question("Insert faster?");
+        q.addResponseOption(new ResponseOption("yes"));
+        q.addResponseOption(new ResponseOption("no"));
+        q.setCreateDateTime();
+        EntityManager em = emf.createEntityManager();
+        em.getTransaction().begin();
+        em.persist(q);
+        for (ResponseOption opt : q.getPossibleResponses()) {
+            em.persist(opt);
+        }
+        em.getTransaction().commit();
+        em.close();
+        return q;
+    }
+
+    /** @return rows inserted per second */
+    double insert(String what, IntFunction<Object> row) {
+        long start = System.nanoTime();
+        EntityManager em = emf.createEntityManager();
+        for (int i = 0; i < ROWS; i += PER_TRANSACTION) {
+            em.getTransaction().begin();
+            for (int j = i; j < i + PER_TRANSACTION; ++j) {
+                em.persist(row.apply(j));
+            }
+            em.getTransaction().commit();
+            em.clear();
+        }
+        em.close();
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.println(String.format("%s: %,d rows in %.2f s, %,.0f inserts/s", what, ROWS, seconds,
+                ROWS / seconds));
+        return ROWS / seconds;
+    }
+
+    @Test
+    void insertVotesAndVoters() {
+        for (int round = 0; round < 3; ++round) {
+            Question q = savedQuestion();
+            String batch = Long.toString(System.nanoTime(), 36);
+            insert("Votes", (i) -> new Vote(q, i % 2 == 0 ? "yes" : "no", batch + i, batch + "r" + i, 0));
+            insert("Voters", (i) -> new Voter("Member " + i, "m" + batch + "x" + i,
+                    "m" + batch + "x" + i + "@bench.org"));
+        }
+    }
+}
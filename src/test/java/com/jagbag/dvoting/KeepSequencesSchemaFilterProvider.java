@@ -0,0 +1,52 @@
+package com.jagbag.dvoting;
+
+import org.hibernate.boot.model.relational.Namespace;
+import org.hibernate.boot.model.relational.Sequence;
+import org.hibernate.mapping.Table;
+import org.hibernate.tool.schema.internal.DefaultSchemaFilter;
+import org.hibernate.tool.schema.spi.SchemaFilter;
+import org.hibernate.tool.schema.spi.SchemaFilterProvider;
+
+/**
+ * Keeps ddl-auto=create from dropping the id sequences (see application-test.properties). The test contexts
+ * share one database, and each takes blocks of ids from the sequences (see {@link IdSequences}); if a new
+ * context started the sequences over, it would hand out ids that an older context still has in its block.
+ */
+public class KeepSequencesSchemaFilterProvider implements SchemaFilterProvider {
+    static final SchemaFilter KEEP_SEQUENCES = new SchemaFilter() {
+        @Override
+        public boolean includeNamespace(Namespace namespace) {
+            return true;
+        }
+
+        @Override
+        public boolean includeTable(Table table) {
+            return true;
+        }
+
+        @Override
+        public boolean includeSequence(Sequence sequence) {
+            return false;
+        }
+    };
+
+    @Override
+    public SchemaFilter getCreateFilter() {
+        return KEEP_SEQUENCES;
+    }
+
+    @Override
+    public SchemaFilter getDropFilter() {
+        return KEEP_SEQUENCES;
+    }
+
+    @Override
+    public SchemaFilter getMigrateFilter() {
+        return DefaultSchemaFilter.INSTANCE;
+    }
+
+    @Override
+    public SchemaFilter getValidateFilter() {
+        return DefaultSchemaFilter.INSTANCE;
+    }
+}
@@ -0,0 +1,61 @@
+package com.jagbag.dvoting;
+
+import com.jagbag.dvoting.entities.Question;
+import com.jagbag.dvoting.entities.ResponseOption;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LiveTallyTest {
+
+    static Question question(Question.CountingType type, String... options) {
+        Question q = new Question("Which?");
+        q.setType(type);
+        for (String option : options) {
+            q.addResponseOption(new ResponseOption(option));
+        }
+        return q;
+    }
+
+    @Test
+    void singleChoice() {
+        LiveTally tally = new LiveTally(question(Question.CountingType.SINGLE, "yes", "no"));
+        tally.count("yes", 0);
+        tally.count("no", 0);
+        tally.count("yes", 0);
+        tally.count("yes", 1); // not a rank a SINGLE question has
+        LiveTally.Report report = tally.report();
+        assertEquals(3, report.voterCount);
+        assertEquals(2, report.responses.size());
+        assertEquals("yes", report.responses.get(0).response);
+        assertEquals(2, report.responses.get(0).total);
+        assertEquals(1, report.responses.get(0).countsByRank.length);
+        assertEquals(1, report.responses.get(1).total);
+    }
+
+    @Test
+    void rankedChoice() {
+        LiveTally tally = new LiveTally(question(Question.CountingType.RANKED_CHOICE, "Nick", "Rick", "Vic"));
+        tally.count("Nick", 0);
+        tally.count("Rick", 1);
+        tally.count("Vic", 2);
+        tally.add("Rick", 0, 5);
+        tally.count("Nick", 1);
+        LiveTally.Report report = tally.report();
+        assertEquals(6, report.voterCount);
+        assertArrayEquals(new long[] {1, 1, 0}, report.responses.get(0).countsByRank);
+        assertArrayEquals(new long[] {5, 1, 0}, report.responses.get(1).countsByRank);
+        assertArrayEquals(new long[] {0, 0, 1}, report.responses.get(2).countsByRank);
+        assertEquals(6, report.responses.get(1).total);
+    }
+
+    @Test
+    void unexpectedResponsesAreStillCounted() {
+        LiveTally tally = new LiveTally(question(Question.CountingType.SINGLE, "yes", "no"));
+        tally.count("maybe", 0);
+        LiveTally.Report report = tally.report();
+        assertEquals(3, report.responses.size());
+        assertEquals("maybe", report.responses.get(2).response);
+        assertEquals(1, report.voterCount);
+    }
+}
@@ -0,0 +1,159 @@
+package com.jagbag.dvoting;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.jagbag.dvoting.entities.Question;
+import com.jagbag.dvoting.entities.ResponseOption;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.boot.web.embedded.tomcat.TomcatServletWebServerFactory;
+import org.springframework.boot.web.servlet.server.ServletWebServerFactory;
+import org.springframework.boot.web.server.LocalServerPort;
+import org.springframework.context.annotation.Bean;
+import org.springframework.test.context.ActiveProfiles;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import java.io.*;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Load test: how long it takes to cast a vote, over HTTP, on a quiet server, and on a server that's being flooded
+ * with attempts to guess passwords. The guesses pile up penalties (see {@link LoginThrottle}) that each take
+ * seconds to wait out; if waiting tied up a request thread, the flood would soon have them all and voting would
+ * stall. Not part of the regular test run; run with
+ * mvn test -Dtest=LoginFloodBenchmark
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+        properties = {"server.ssl.enabled=false", "spring.main.allow-bean-definition-overriding=true"})
+@ActiveProfiles("test")
+class LoginFloodBenchmark {
+    /** Plain HTTP, rather than {@link ServerConfig}'s redirect to HTTPS; the test setup has no keystore. */
+    @TestConfiguration
+    static class PlainServerConfig {
+        @Bean
+        public ServletWebServerFactory servletContainer() {
+            return new TomcatServletWebServerFactory();
+        }
+    }
+
+    static final int VOTES = 300;
+    /** More than Tomcat's 200 request threads */
+    static final int FLOODERS = 400;
+
+    @LocalServerPort private int port;
+    @Autowired private CentralTabulatingFacility ctf;
+    @Autowired private EntityManagerFactory emf;
+    @Autowired private LoginThrottle loginThrottle;
+    private ObjectMapper objectMapper = new ObjectMapper();
+    private int chitNumber = 1000;
+
+    int post(String path, String contentType, String body, int timeoutMillis) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection)new URL("http://localhost:" + port + path).openConnection();
+        connection.setConnectTimeout(timeoutMillis);
+        connection.setReadTimeout(timeoutMillis);
+        connection.setInstanceFollowRedirects(false);
+        connection.setRequestMethod("POST");
+        connection.setRequestProperty("Content-Type", contentType);
+        connection.setDoOutput(true);
+        try (OutputStream out = connection.getOutputStream()) {
+            out.write(body.getBytes(StandardCharsets.UTF_8));
+        }
+        int status = connection.getResponseCode();
+        InputStream in = (status < 400) ? connection.getInputStream() : connection.getErrorStream();
+        if (in != null) {
+            in.readAllBytes();
+            in.close();
+        }
+        return status;
+    }
+
+    Question postedQuestion() throws Exception {
+        Question q = new Question("Keep voting through the flood?");
+        q.addResponseOption(new ResponseOption("yes"));
+        q.addResponseOption(new ResponseOption("no"));
+        q.setCreateDateTime();
+        EntityManager em = emf.createEntityManager();
+        em.getTransaction().begin();
+        em.persist(q);
+        for (ResponseOption opt : q.getPossibleResponses()) {
+            em.persist(opt);
+        }
+        em.getTransaction().commit();
+        em.close();
+        ctf.postQuestion(q);
+        return q;
+    }
+
+    /** @return how long each vote took, in milliseconds, sorted */
+    long[] castVotes(Question q) throws Exception {
+        long[] latencies = new long[VOTES];
+        for (int i = 0; i < VOTES; ++i) {
+            int n = chitNumber++;
+            VoteMessage vote = new VoteMessage();
+            vote.meChit = String.format("%d %d me", q.getId(), n);
+            vote.meChitSigned = q.signText(SigningEntity.encoded(SignatureVerifier.messageValue(vote.meChit)));
+            vote.responseChit = String.format("%d %d %s", q.getId(), n + 500000, (n % 3 == 0) ? "no" : "yes");
+            vote.responseChitSigned = ctf.signText(SigningEntity.encoded(SignatureVerifier.messageValue(vote.responseChit)));
+            String body = objectMapper.writeValueAsString(vote);
+            long start = System.nanoTime();
+            int status = post("/ballot/" + q.getId() + "/vote", "application/json", body, 30000);
+            latencies[i] = (System.nanoTime() - start) / 1000000;
+            assertEquals(200, status);
+        }
+        Arrays.sort(latencies);
+        return latencies;
+    }
+
+    static String summary(long[] sorted) {
+        return String.format("median %d ms, 99th percentile %d ms, max %d ms",
+                sorted[sorted.length / 2], sorted[sorted.length * 99 / 100], sorted[sorted.length - 1]);
+    }
+
+    @Test
+    void votingDuringLoginFlood() throws Exception {
+        Question q = postedQuestion();
+        castVotes(q); // warm up
+        long[] quiet = castVotes(q);
+        System.out.println("Voting, quiet:          " + summary(quiet));
+
+        AtomicBoolean flooding = new AtomicBoolean(true);
+        AtomicLong attempts = new AtomicLong();
+        List<Thread> flooders = new ArrayList<Thread>();
+        for (int i = 0; i < FLOODERS; ++i) {
+            String username = "victim" + (i % 10);
+            Thread t = new Thread(() -> {
+                while (flooding.get()) {
+                    try {
+                        post("/landing", "application/x-www-form-urlencoded",
+                                "user=" + username + "&password=guess" + attempts.incrementAndGet(), 60000);
+                    }
+                    catch (IOException ex) {
+                        // timed out, or we're stopping
+                    }
+                }
+            });
+            t.setDaemon(true);
+            t.start();
+            flooders.add(t);
+        }
+        // let the penalties build up
+        Thread.sleep(3000);
+        System.out.println(String.format("Penalty for victim0, after %,d guesses: %d ms",
+                attempts.get(), loginThrottle.penaltyMillis("victim0", "127.0.0.1")));
+        long[] flooded = castVotes(q);
+        System.out.println("Voting, during flood:   " + summary(flooded));
+        flooding.set(false);
+
+        // Flat, give or take: nowhere near the seconds a guess has to wait
+        assertTrue(flooded[flooded.length / 2] < quiet[quiet.length / 2] + 250);
+    }
+}
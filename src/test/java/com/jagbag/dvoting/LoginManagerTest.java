@@ -0,0 +1,166 @@
+package com.jagbag.dvoting;
+
+import com.jagbag.dvoting.entities.Voter;
+import com.jagbag.dvoting.exceptions.ForbiddenException;
+import com.jagbag.dvoting.exceptions.UnauthorizedException;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+import static org.junit.jupiter.api.Assertions.*;
+
+@SpringBootTest
+@ActiveProfiles("test")
+@AutoConfigureMockMvc
+class LoginManagerTest {
+    @Autowired
+    private LoginManager loginManager;
+    @Autowired
+    private VoterListManager voterListManager;
+    @Autowired
+    private LoginThrottle loginThrottle;
+    @Autowired
+    private MockMvc mockMvc;
+
+    HttpHeaders loggedIn(String username, String password) {
+        Voter v = loginManager.validateLoginCredentials(username, password, false);
+        assertNotNull(v);
+        HttpHeaders headers = new HttpHeaders();
+        headers.add(HttpHeaders.COOKIE, "user=" + username + "; token=" + loginManager.startSession(v));
+        return headers;
+    }
+
+    @Test
+    void sessionKeepsVoterUntilVoterListChanges() {
+        Voter v = new Voter("Sam Session", "samsession", "sam@session.com");
+        assertTrue(voterListManager.addVoter(v, "secret!"));
+        voterListManager.activateAccountWithoutConfirm(v);
+        HttpHeaders headers = loggedIn("samsession", "secret!");
+
+        Voter first = loginManager.validateBasicUser(headers);
+        assertSame(first, loginManager.validateBasicUser(headers));
+        assertThrows(ForbiddenException.class, () -> loginManager.validateVotingUser(headers));
+
+        // Granting the privilege takes effect on the next request
+        Voter changed = voterListManager.getForUsername("samsession");
+        changed.setAllowedToVote(true);
+        assertTrue(voterListManager.updateVoter(changed));
+        Voter second = loginManager.validateVotingUser(headers);
+        assertNotSame(first, second);
+        assertTrue(second.isAllowedToVote());
+
+        // Removing the account ends the session
+        voterListManager.removeVoter(second);
+        assertThrows(UnauthorizedException.class, () -> loginManager.validateBasicUser(headers));
+    }
+
+    @Test
+    void loggingOutEndsSession() {
+        Voter v = new Voter("Lou Logout", "loulogout", "lou@logout.com");
+        assertTrue(voterListManager.addVoter(v, "secret!"));
+        voterListManager.activateAccountWithoutConfirm(v);
+        HttpHeaders headers = loggedIn("loulogout", "secret!");
+        Voter lou = loginManager.validateBasicUser(headers);
+        loginManager.forgetTokenForUser(lou);
+        assertThrows(UnauthorizedException.class, () -> loginManager.validateBasicUser(headers));
+    }
+
+    MvcResult postLogin(String username, String password, String address) throws Exception {
+        MvcResult started = mockMvc.perform(post("/landing")
+                .content("user=" + username + "&password=" + password)
+                .with((req) -> { req.setRemoteAddr(address); return req; }))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        return mockMvc.perform(asyncDispatch(started)).andReturn();
+    }
+
+    @Test
+    void failedLoginsArePenalizedWithoutBlocking() throws Exception {
+        Voter v = new Voter("Pat Penalty", "patpenalty", "pat@penalty.com");
+        assertTrue(voterListManager.addVoter(v, "secret!"));
+        voterListManager.activateAccountWithoutConfirm(v);
+
+        MvcResult result = postLogin("patpenalty", "guess", "10.1.2.3");
+        assertNull(result.getResponse().getHeader("Location"));
+        assertTrue(loginThrottle.penaltyMillis("patpenalty", null) > 0);
+        // One person's mistake doesn't slow down everyone else at the same address
+        assertEquals(0, loginThrottle.penaltyMillis("someoneelse", "10.1.2.3"));
+
+        result = postLogin("patpenalty", "secret!", "10.9.8.7");
+        assertEquals(HttpStatus.SEE_OTHER.value(), result.getResponse().getStatus());
+        assertEquals("/", result.getResponse().getHeader("Location"));
+        assertEquals(0, loginThrottle.penaltyMillis("patpenalty", null));
+    }
+
+    MvcResult postNewUser(String username, String email) throws Exception {
+        return mockMvc.perform(post("/newuser")
+                .content("user=" + username + "&password=secret!&password2=secret!&email=" + email
+                        + "&name=Nell+New"))
+                .andReturn();
+    }
+
+    @Test
+    void reusedAccountMayNotTakeAnotherAccountsEmail() throws Exception {
+        // Never activated, so the username can be signed up for again
+        assertTrue(voterListManager.addVoter(new Voter("Ian Idle", "ianidle", "ian@idle.com"), "secret!"));
+        Voter taken = new Voter("Tess Taken", "tesstaken", "tess@taken.com");
+        assertTrue(voterListManager.addVoter(taken, "secret!"));
+        voterListManager.activateAccountWithoutConfirm(taken);
+
+        MvcResult result = postNewUser("ianidle", "TESS@taken.com");
+        assertEquals("/dupemailerr.html?email=TESS@taken.com", result.getResponse().getHeader("Location"));
+        assertEquals("ian@idle.com", voterListManager.getForUsername("ianidle").getEmail());
+
+        result = postNewUser("ianidle", "nell@new.com");
+        assertEquals(HttpStatus.SEE_OTHER.value(), result.getResponse().getStatus());
+        assertFalse(result.getResponse().getHeader("Location").contains("err"));
+        Voter reused = voterListManager.getForUsername("ianidle");
+        assertEquals("nell@new.com", reused.getEmail());
+        assertEquals("Nell New", reused.getName());
+    }
+
+    @Test
+    void throttledRequestsOutlastTheLongestPenalty() throws Exception {
+        MvcResult started = mockMvc.perform(post("/landing")
+                .content("user=nobodyatall&password=guess"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        assertTrue(started.getRequest().getAsyncContext().getTimeout() > LoginThrottle.MAX_PENALTY_MILLIS);
+    }
+
+    MvcResult postChangePassword(HttpHeaders headers, String password, String newPassword) throws Exception {
+        MvcResult started = mockMvc.perform(post("/changepassword").headers(headers)
+                .content("password=" + password + "&password1=" + newPassword + "&password2=" + newPassword)
+                .with((req) -> { req.setRemoteAddr("10.4.5.6"); return req; }))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        return mockMvc.perform(asyncDispatch(started)).andReturn();
+    }
+
+    @Test
+    void changingPasswordIsPenalizedLikeLoggingIn() throws Exception {
+        Voter v = new Voter("Cass Change", "casschange", "cass@change.com");
+        assertTrue(voterListManager.addVoter(v, "secret!"));
+        voterListManager.activateAccountWithoutConfirm(v);
+        HttpHeaders headers = loggedIn("casschange", "secret!");
+
+        MvcResult result = postChangePassword(headers, "guess", "newsecret!");
+        assertTrue(result.getResponse().getHeader("Location").contains("mistyped_password"));
+        assertTrue(loginThrottle.penaltyMillis("casschange", null) > 0);
+        // One person's mistake doesn't slow down everyone else at the same address
+        assertEquals(0, loginThrottle.penaltyMillis("someoneelse", "10.4.5.6"));
+
+        result = postChangePassword(headers, "secret!", "newsecret!");
+        assertTrue(result.getResponse().getHeader("Location").contains("success"));
+        assertNotNull(loginManager.validateLoginCredentials("casschange", "newsecret!", false));
+    }
+}
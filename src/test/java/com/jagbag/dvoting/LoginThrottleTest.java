@@ -0,0 +1,162 @@
+package com.jagbag.dvoting;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LoginThrottleTest {
+    @Test
+    void penaltyGrowsWithFailures() {
+        AtomicLong now = new AtomicLong();
+        LoginThrottle throttle = new LoginThrottle(now::get, 100);
+        assertEquals(0, throttle.penaltyMillis("alice", "10.0.0.1"));
+        throttle.recordFailure("alice", "10.0.0.1");
+        assertEquals(LoginThrottle.MIN_PENALTY_MILLIS, throttle.penaltyMillis("alice", null));
+        long previous = LoginThrottle.MIN_PENALTY_MILLIS;
+        for (int i = 0; i < 50; ++i) {
+            throttle.recordFailure("alice", "10.0.0.1");
+            long penalty = throttle.penaltyMillis("alice", null);
+            assertTrue(penalty >= previous);
+            assertTrue(penalty <= LoginThrottle.MAX_PENALTY_MILLIS);
+            previous = penalty;
+        }
+        assertEquals(LoginThrottle.MAX_PENALTY_MILLIS, previous);
+        // Nobody else is penalized for alice's troubles
+        assertEquals(0, throttle.penaltyMillis("bob", "10.0.0.2"));
+    }
+
+    @Test
+    void penaltyFades() {
+        AtomicLong now = new AtomicLong();
+        LoginThrottle throttle = new LoginThrottle(now::get, 100);
+        for (int i = 0; i < 50; ++i) {
+            throttle.recordFailure("alice", null);
+        }
+        now.addAndGet(LoginThrottle.HALF_LIFE_MILLIS);
+        assertEquals(LoginThrottle.MAX_PENALTY_MILLIS / 2, throttle.penaltyMillis("alice", null));
+        now.addAndGet(LoginThrottle.HALF_LIFE_MILLIS * 20);
+        assertEquals(0, throttle.penaltyMillis("alice", null));
+    }
+
+    @Test
+    void successClearsUserButNotAddress() {
+        AtomicLong now = new AtomicLong();
+        LoginThrottle throttle = new LoginThrottle(now::get, 100);
+        for (int i = 0; i <= LoginThrottle.FREE_USERNAMES_PER_ADDRESS; ++i) {
+            throttle.recordFailure("guess" + i, "10.0.0.1");
+        }
+        throttle.recordFailure("alice", "10.0.0.1");
+        throttle.recordSuccess("alice");
+        assertEquals(0, throttle.penaltyMillis("alice", null));
+        assertTrue(throttle.penaltyMillis("alice", "10.0.0.1") > 0);
+        // Guessing at many usernames from one address doesn't get around the penalty
+        assertTrue(throttle.penaltyMillis("carol", "10.0.0.1") > 0);
+    }
+
+    @Test
+    void roomBehindOneAddressIsNotLockedOut() {
+        AtomicLong now = new AtomicLong();
+        LoginThrottle throttle = new LoginThrottle(now::get, 100);
+        // Someone mistypes their password over and over: only they are slowed down
+        for (int i = 0; i < 50; ++i) {
+            throttle.recordFailure("alice", "10.0.0.1");
+        }
+        assertEquals(LoginThrottle.MAX_PENALTY_MILLIS, throttle.penaltyMillis("alice", "10.0.0.1"));
+        assertEquals(0, throttle.penaltyMillis("bob", "10.0.0.1"));
+        // So do a few others
+        for (int i = 1; i < LoginThrottle.FREE_USERNAMES_PER_ADDRESS; ++i) {
+            throttle.recordFailure("member" + i, "10.0.0.1");
+        }
+        assertEquals(0, throttle.penaltyMillis("bob", "10.0.0.1"));
+        // Failing against one username after another does slow down the whole address, but never by much
+        for (int i = 0; i < 50; ++i) {
+            throttle.recordFailure("guess" + i, "10.0.0.1");
+        }
+        assertEquals(LoginThrottle.MAX_ADDRESS_PENALTY_MILLIS, throttle.penaltyMillis("bob", "10.0.0.1"));
+        now.addAndGet(LoginThrottle.HALF_LIFE_MILLIS);
+        assertEquals(LoginThrottle.MAX_ADDRESS_PENALTY_MILLIS / 2, throttle.penaltyMillis("bob", "10.0.0.1"));
+    }
+
+    @Test
+    void addressForgetsItsUsernames() {
+        AtomicLong now = new AtomicLong();
+        LoginThrottle throttle = new LoginThrottle(now::get, 100);
+        for (int i = 0; i < LoginThrottle.FREE_USERNAMES_PER_ADDRESS; ++i) {
+            throttle.recordFailure("member" + i, "10.0.0.1");
+        }
+        now.addAndGet(LoginThrottle.FORGET_USERNAMES_MILLIS + 1);
+        throttle.recordFailure("latecomer", "10.0.0.1");
+        assertEquals(0, throttle.penaltyMillis("bob", "10.0.0.1"));
+    }
+
+    @Test
+    void tableIsBounded() {
+        AtomicLong now = new AtomicLong();
+        LoginThrottle throttle = new LoginThrottle(now::get, 100);
+        throttle.recordFailure("first", null);
+        for (int i = 0; i < 1000; ++i) {
+            now.incrementAndGet();
+            throttle.recordFailure("user" + i, "address" + i);
+            assertTrue(throttle.size() <= 100);
+        }
+        // The ones that have gone longest without a failure are the ones forgotten
+        assertEquals(0, throttle.penaltyMillis("first", null));
+        assertTrue(throttle.penaltyMillis("user999", null) > 0);
+    }
+
+    @Test
+    void waitIsScheduledNotSlept() throws InterruptedException {
+        LoginThrottle throttle = new LoginThrottle();
+        try {
+            AtomicReference<Thread> ranOn = new AtomicReference<>();
+            throttle.afterPenalty("alice", "10.0.0.1", () -> ranOn.set(Thread.currentThread()));
+            assertSame(Thread.currentThread(), ranOn.get());
+
+            throttle.recordFailure("alice", "10.0.0.1");
+            CountDownLatch done = new CountDownLatch(1);
+            long start = System.nanoTime();
+            throttle.afterPenalty("alice", "10.0.0.1", () -> {
+                ranOn.set(Thread.currentThread());
+                done.countDown();
+            });
+            // we got control back before the task ran
+            assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < LoginThrottle.MIN_PENALTY_MILLIS);
+            assertTrue(done.await(5, TimeUnit.SECONDS));
+            assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= LoginThrottle.MIN_PENALTY_MILLIS - 1);
+            assertNotSame(Thread.currentThread(), ranOn.get());
+        }
+        finally {
+            throttle.shutdown();
+        }
+    }
+
+    @Test
+    void penalizedChecksDontQueueBehindOneAnother() throws InterruptedException {
+        LoginThrottle throttle = new LoginThrottle();
+        try {
+            throttle.recordFailure("alice", null);
+            throttle.recordFailure("bob", null);
+            CountDownLatch bobChecked = new CountDownLatch(1);
+            CountDownLatch aliceChecked = new CountDownLatch(1);
+            // alice's check can't finish until bob's has run, so they can't be run one at a time
+            throttle.afterPenalty("alice", null, () -> {
+                try {
+                    if (bobChecked.await(5, TimeUnit.SECONDS)) {
+                        aliceChecked.countDown();
+                    }
+                }
+                catch (InterruptedException ex) {}
+            });
+            throttle.afterPenalty("bob", null, bobChecked::countDown);
+            assertTrue(aliceChecked.await(5, TimeUnit.SECONDS));
+        }
+        finally {
+            throttle.shutdown();
+        }
+    }
+}
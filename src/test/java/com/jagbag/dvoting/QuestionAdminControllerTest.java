@@ -4,6 +4,7 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import com.jagbag.dvoting.controllers.QuestionAdminController;
 import com.jagbag.dvoting.entities.Question;
 import com.jagbag.dvoting.entities.ResponseOption;
+import com.jagbag.dvoting.entities.Voter;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.json.JacksonJsonParser;
@@ -56,10 +57,11 @@ class QuestionAdminControllerTest {
             fail("weird exception thrown");
         }
         // log in as admin
-        if (null == loginManager.validateLoginCredentials("admin", "changeme!")) {
+        Voter admin = loginManager.validateLoginCredentials("admin", "changeme!", false);
+        if (null == admin) {
             fail("Could not log in as admin");
         }
-        String token = loginManager.tokenForUser("admin");
+        String token = loginManager.startSession(admin);
         HttpHeaders headers = new HttpHeaders();
         ArrayList<String> cookies = new ArrayList<String>();
         cookies.add(String.format("user=%s;token=%s", "admin", token));
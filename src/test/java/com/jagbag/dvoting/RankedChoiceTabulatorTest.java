@@ -0,0 +1,99 @@
+package com.jagbag.dvoting;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RankedChoiceTabulatorTest {
+
+    static void ballots(RankedChoiceTabulator tabulator, int times, String... ranking) {
+        for (int i = 0; i < times; ++i) {
+            tabulator.addBallot(Arrays.asList(ranking));
+        }
+    }
+
+    @Test
+    void majorityInFirstRound() {
+        RankedChoiceTabulator tabulator = new RankedChoiceTabulator();
+        ballots(tabulator, 6, "Nick", "Rick");
+        ballots(tabulator, 4, "Rick", "Nick");
+        RankedChoiceResult result = tabulator.tabulate();
+        assertEquals(10, result.numVotersResponded);
+        assertEquals(1, result.outcomes.size());
+        assertEquals("Nick", result.outcomes.get(0).winner);
+        assertEquals(1, result.outcomes.get(0).rounds.size());
+        assertEquals(2, tabulator.getDistinctBallotCount());
+    }
+
+    @Test
+    void eliminationTransfersBallots() {
+        RankedChoiceTabulator tabulator = new RankedChoiceTabulator();
+        ballots(tabulator, 4, "Nick", "Vic");
+        ballots(tabulator, 3, "Rick", "Vic");
+        ballots(tabulator, 2, "Vic", "Rick");
+        RankedChoiceResult result = tabulator.tabulate();
+        RankedChoiceResult.Outcome outcome = result.outcomes.get(0);
+        // Vic goes first; their ballots go to Rick, who then beats Nick 5 to 4.
+        assertEquals("Rick", outcome.winner);
+        assertEquals(2, outcome.rounds.size());
+        assertEquals("Nick", outcome.rounds.get(0).get(0).name);
+        assertEquals(4, outcome.rounds.get(0).get(0).votes);
+        assertEquals("Rick", outcome.rounds.get(1).get(0).name);
+        assertEquals(5, outcome.rounds.get(1).get(0).votes);
+    }
+
+    @Test
+    void noneOfTheAboveIsNeverEliminated() {
+        String nota = RankedChoiceTabulator.NONE_OF_THE_ABOVE;
+        RankedChoiceTabulator tabulator = new RankedChoiceTabulator();
+        ballots(tabulator, 1, nota);
+        ballots(tabulator, 2, "Nick", nota);
+        ballots(tabulator, 3, "Rick");
+        RankedChoiceResult result = tabulator.tabulate();
+        assertEquals(1, result.outcomes.size());
+        RankedChoiceResult.Outcome outcome = result.outcomes.get(0);
+        // None of the Above has the fewest at first, but it's Nick who goes, then Rick.
+        assertEquals(3, outcome.rounds.size());
+        assertEquals(nota, outcome.winner);
+        assertEquals(3, outcome.rounds.get(1).get(0).votes);
+    }
+
+    @Test
+    void coinFlipsGiveEachPossibleWinner() {
+        RankedChoiceTabulator tabulator = new RankedChoiceTabulator();
+        ballots(tabulator, 3, "Nick", "Vic");
+        ballots(tabulator, 3, "Rick", "Nick");
+        ballots(tabulator, 3, "Vic", "Rick");
+        RankedChoiceResult result = tabulator.tabulate();
+        Set<String> winners = new HashSet<String>();
+        for (RankedChoiceResult.Outcome outcome : result.outcomes) {
+            winners.add(outcome.winner);
+        }
+        assertEquals(new HashSet<String>(Arrays.asList("Nick", "Rick", "Vic")), winners);
+    }
+
+    @Test
+    void votesGroupedByBallot() {
+        RankedChoiceTabulator tabulator = new RankedChoiceTabulator();
+        tabulator.addVote("111", "Nick");
+        tabulator.addVote("111", "Rick");
+        tabulator.addVote("222", "Rick");
+        tabulator.addVote("333", "Rick");
+        tabulator.addVote("333", "Nick");
+        RankedChoiceResult result = tabulator.tabulate();
+        assertEquals(3, result.numVotersResponded);
+        assertEquals("Rick", result.outcomes.get(0).winner);
+    }
+
+    @Test
+    void nobodyVoted() {
+        RankedChoiceResult result = new RankedChoiceTabulator().tabulate();
+        assertEquals(0, result.numVotersResponded);
+        assertEquals(1, result.outcomes.size());
+        assertNull(result.outcomes.get(0).winner);
+    }
+}
@@ -0,0 +1,71 @@
+package com.jagbag.dvoting;
+
+import com.jagbag.dvoting.entities.Voter;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@SpringBootTest
+@ActiveProfiles("test")
+class RosterImporterTest {
+    @Autowired
+    private RosterImporter rosterImporter;
+    @Autowired
+    private VoterListManager voterListManager;
+
+    @Test
+    void splitCSV() {
+        assertEquals(Arrays.asList("a@b.com", "Ann"), RosterImporter.splitCSV("a@b.com,Ann"));
+        assertEquals(Arrays.asList("a@b.com", "Smith, Ann"), RosterImporter.splitCSV("a@b.com,\"Smith, Ann\""));
+        assertEquals(Arrays.asList("a@b.com", "Ann \"the\" Smith"), RosterImporter.splitCSV("a@b.com,\"Ann \"\"the\"\" Smith\""));
+        assertEquals(Arrays.asList("a@b.com", "", ""), RosterImporter.splitCSV("a@b.com,,"));
+    }
+
+    @Test
+    void gzipIsRecognized() throws IOException {
+        byte[] text = "plain text".getBytes(StandardCharsets.UTF_8);
+        ByteArrayOutputStream zipped = new ByteArrayOutputStream();
+        try (GZIPOutputStream out = new GZIPOutputStream(zipped)) {
+            out.write(text);
+        }
+        assertArrayEquals(text, RosterImporter.ungzipped(new ByteArrayInputStream(zipped.toByteArray())).readAllBytes());
+        assertArrayEquals(text, RosterImporter.ungzipped(new ByteArrayInputStream(text)).readAllBytes());
+    }
+
+    @Test
+    void importGzippedCSVInChunks() throws IOException {
+        int people = RosterImporter.CHUNK_SIZE * 2 + 17;
+        StringBuilder s = new StringBuilder(VoterListReconcilerTest.currentVoters(voterListManager));
+        for (int i = 0; i < people; ++i) {
+            s.append(String.format("csv%d@chunked.org,\"Chunk, Number %d\"\n", i, i));
+        }
+        StringBuilder longLine = new StringBuilder("someone@long.com,");
+        for (int i = 0; i < RosterImporter.MAX_LINE_LENGTH; ++i) longLine.append('x');
+        s.append(longLine).append('\n');
+        s.append("csv7@chunked.org,Seven Again\n");
+        ByteArrayOutputStream zipped = new ByteArrayOutputStream();
+        try (Writer out = new OutputStreamWriter(new GZIPOutputStream(zipped), StandardCharsets.UTF_8)) {
+            out.write(s.toString());
+        }
+
+        VoterListReconciler.Report report = rosterImporter.importRoster(new ByteArrayInputStream(zipped.toByteArray()));
+        assertTrue(report.applied);
+        assertEquals(people, report.accountsAdded);
+        assertEquals(people, report.newVoters.size());
+        assertEquals(0, report.votingDisabled);
+        assertEquals(2, report.errorCount);
+        assertTrue(report.errors.get(0).contains("long"));
+        assertTrue(report.errors.get(1).contains("Duplicate"));
+        Voter last = voterListManager.getForUsername("csv" + (people - 1) + "@chunked.org");
+        assertEquals("Chunk, Number " + (people - 1), last.getName());
+        assertTrue(last.isAllowedToVote());
+    }
+}
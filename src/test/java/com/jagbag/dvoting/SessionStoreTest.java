@@ -0,0 +1,84 @@
+package com.jagbag.dvoting;
+
+import com.jagbag.dvoting.entities.Voter;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SessionStoreTest {
+    static final long IDLE = 1000;
+    static final long MAX_AGE = 5000;
+
+    @Test
+    void tokenMustMatch() {
+        AtomicLong now = new AtomicLong();
+        SessionStore store = new SessionStore(IDLE, MAX_AGE, now::get);
+        String token = store.create("alice");
+        assertNotNull(store.find("alice", token));
+        assertNull(store.find("alice", token + "x"));
+        assertNull(store.find("bob", token));
+        assertEquals(token, store.tokenFor("alice"));
+        // Logging in again replaces the old session
+        String newToken = store.create("alice");
+        assertNotEquals(token, newToken);
+        assertNull(store.find("alice", token));
+        store.remove("alice");
+        assertNull(store.find("alice", newToken));
+        assertNull(store.tokenFor("alice"));
+    }
+
+    @Test
+    void idleSessionsEnd() {
+        AtomicLong now = new AtomicLong();
+        SessionStore store = new SessionStore(IDLE, MAX_AGE, now::get);
+        String token = store.create("alice");
+        now.addAndGet(IDLE - 1);
+        assertNotNull(store.find("alice", token));  // ...which counts as using it
+        now.addAndGet(IDLE - 1);
+        assertNotNull(store.find("alice", token));
+        now.addAndGet(IDLE + 1);
+        assertNull(store.find("alice", token));
+        assertNull(store.tokenFor("alice"));
+    }
+
+    @Test
+    void busySessionsEndToo() {
+        AtomicLong now = new AtomicLong();
+        SessionStore store = new SessionStore(IDLE, MAX_AGE, now::get);
+        String token = store.create("alice");
+        for (long t = 0; t < MAX_AGE; t += IDLE / 2) {
+            now.set(t);
+            assertNotNull(store.find("alice", token));
+        }
+        now.set(MAX_AGE + 1);
+        assertNull(store.find("alice", token));
+    }
+
+    @Test
+    void sweepRemovesEndedSessions() {
+        AtomicLong now = new AtomicLong();
+        SessionStore store = new SessionStore(IDLE, MAX_AGE, now::get);
+        store.create("alice");
+        now.set(IDLE / 2);
+        String token = store.create("bob");
+        now.set(IDLE + 1);
+        store.sweep();
+        assertEquals(1, store.size());
+        assertNotNull(store.find("bob", token));
+    }
+
+    @Test
+    void voterCopyIsVersioned() {
+        AtomicLong now = new AtomicLong();
+        SessionStore store = new SessionStore(IDLE, MAX_AGE, now::get);
+        String token = store.create("alice");
+        SessionStore.Session session = store.find("alice", token);
+        assertNull(session.voterAsOf(7));
+        Voter alice = new Voter("Alice", "alice", "alice@xyz.com");
+        session.rememberVoter(alice, 7);
+        assertSame(alice, store.find("alice", token).voterAsOf(7));
+        assertNull(session.voterAsOf(8));
+    }
+}
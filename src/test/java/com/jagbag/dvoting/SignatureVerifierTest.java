@@ -0,0 +1,54 @@
+package com.jagbag.dvoting;
+
+import org.junit.jupiter.api.Test;
+
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.security.NoSuchAlgorithmException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SignatureVerifierTest {
+
+    static SigningEntity makeSigner() {
+        SigningEntity thing = new SigningEntity();
+        try {
+            thing.initializeKeys();
+        } catch (NoSuchAlgorithmException e) {
+            e.printStackTrace();
+            fail("NoSuchAlgorithmException thrown");
+        }
+        return thing;
+    }
+
+    @Test
+    void messageValueIsUtf8() {
+        String chit = "12 345 Crème brûlée";
+        assertEquals(new BigInteger(1, chit.getBytes(StandardCharsets.UTF_8)), SignatureVerifier.messageValue(chit));
+    }
+
+    @Test
+    void verify() {
+        SigningEntity thing = makeSigner();
+        SignatureVerifier verifier = thing.getVerifier();
+        assertEquals(thing.getModulus(), verifier.getModulus());
+        assertEquals(thing.getPublicExponent(), verifier.getExponent());
+        String chit = "7 8675309 Crème brûlée";
+        String signed = thing.signText(SigningEntity.encoded(SignatureVerifier.messageValue(chit)));
+        assertTrue(verifier.verify(chit, signed));
+        assertFalse(verifier.verify("7 8675309 Creme brulee", signed));
+        assertFalse(verifier.verify(chit, "not base 36!"));
+        assertFalse(verifier.verify(chit, SigningEntity.encoded(BigInteger.ZERO)));
+        assertFalse(verifier.verify(chit, SigningEntity.encoded(thing.getModulus())));
+    }
+
+    @Test
+    void otherKeyDoesNotVerify() {
+        SigningEntity thing = makeSigner();
+        SigningEntity other = makeSigner();
+        String chit = "7 1234 me";
+        String signed = thing.signText(SigningEntity.encoded(SignatureVerifier.messageValue(chit)));
+        assertTrue(thing.confirmSignature(chit, signed));
+        assertFalse(other.confirmSignature(chit, signed));
+    }
+}
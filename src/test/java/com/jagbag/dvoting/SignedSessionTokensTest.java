@@ -0,0 +1,118 @@
+package com.jagbag.dvoting;
+
+import com.jagbag.dvoting.entities.Voter;
+import com.jagbag.dvoting.exceptions.UnauthorizedException;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@SpringBootTest(properties = "session-token-mode=hmac")
+@ActiveProfiles("test")
+class SignedSessionTokensTest {
+    static final long MAX_AGE = 5000;
+    static final byte[] KEY = "not a very secret key, but a test".getBytes();
+
+    @Autowired
+    private LoginManager loginManager;
+    @Autowired
+    private VoterListManager voterListManager;
+    @Autowired
+    private SessionTokens sessionTokens;
+
+    @Test
+    void tokenIsGoodOnAnyServerWithTheKey() {
+        AtomicLong now = new AtomicLong(1_000_000);
+        SignedSessionTokens one = new SignedSessionTokens(KEY, MAX_AGE, now::get);
+        SignedSessionTokens other = new SignedSessionTokens(KEY, MAX_AGE, now::get);
+        String token = one.issue("alice", 7);
+        SignedSessionTokens.Claims claims = other.verify("alice", token);
+        assertNotNull(claims);
+        assertEquals("alice", claims.username);
+        assertEquals(7, claims.privilegeVersion);
+        assertEquals(now.get() + MAX_AGE, claims.expiresAt);
+
+        // ...but not on one with another key, nor for another user
+        SignedSessionTokens stranger = new SignedSessionTokens(SignedSessionTokens.randomKey(), MAX_AGE, now::get);
+        assertNull(stranger.verify("alice", token));
+        assertNull(other.verify("bob", token));
+    }
+
+    @Test
+    void tamperedTokenIsNoGood() {
+        AtomicLong now = new AtomicLong(1_000_000);
+        SignedSessionTokens tokens = new SignedSessionTokens(KEY, MAX_AGE, now::get);
+        String token = tokens.issue("alice", 7);
+        String forged = tokens.issue("alice:bob", 7);
+        // swap in a payload for a different user, keeping the signature
+        String spliced = forged.substring(0, forged.indexOf('.')) + token.substring(token.indexOf('.'));
+        assertNull(tokens.verify("alice:bob", spliced));
+        assertNull(tokens.verify("alice", "garbage"));
+        assertNull(tokens.verify("alice", "not.base64!"));
+        assertNull(tokens.verify("alice", token.substring(0, token.length() - 2)));
+    }
+
+    @Test
+    void tokenExpires() {
+        AtomicLong now = new AtomicLong(1_000_000);
+        SignedSessionTokens tokens = new SignedSessionTokens(KEY, MAX_AGE, now::get);
+        String token = tokens.issue("alice", 7);
+        now.addAndGet(MAX_AGE);
+        assertNotNull(tokens.verify("alice", token));
+        now.incrementAndGet();
+        assertNull(tokens.verify("alice", token));
+    }
+
+    @Test
+    void logoutDeniesEarlierTokens() {
+        AtomicLong now = new AtomicLong(1_000_000);
+        SignedSessionTokens tokens = new SignedSessionTokens(KEY, MAX_AGE, now::get);
+        String token = tokens.issue("alice", 7);
+        String bobsToken = tokens.issue("bob", 7);
+        tokens.remove("alice");
+        assertNull(tokens.verify("alice", token));
+        assertNotNull(tokens.verify("bob", bobsToken));
+        // logging in again, even right away, works
+        String newToken = tokens.issue("alice", 7);
+        assertNotNull(tokens.verify("alice", newToken));
+        assertEquals(1, tokens.deniedCount());
+        // Once every token it could deny has expired, the entry goes away
+        now.addAndGet(MAX_AGE + 1);
+        tokens.remove("bob");
+        assertEquals(1, tokens.deniedCount());
+    }
+
+    HttpHeaders cookies(String username, String token) {
+        HttpHeaders headers = new HttpHeaders();
+        headers.add(HttpHeaders.COOKIE, "user=" + username + "; token=" + token);
+        return headers;
+    }
+
+    @Test
+    void privilegeChangeEndsSession() {
+        Voter v = new Voter("Hal Hmac", "halhmac", "hal@hmac.com");
+        assertTrue(voterListManager.addVoter(v, "secret!"));
+        voterListManager.activateAccountWithoutConfirm(v);
+        Voter hal = loginManager.validateLoginCredentials("halhmac", "secret!", false);
+        String token = loginManager.startSession(hal);
+        assertNull(sessionTokens.tokenFor("halhmac"));  // we don't remember it
+        HttpHeaders headers = cookies("halhmac", token);
+        assertEquals("halhmac", loginManager.validateBasicUser(headers).getUsername());
+
+        Voter changed = voterListManager.getForUsername("halhmac");
+        changed.setAdmin(true);
+        assertTrue(voterListManager.updateVoter(changed));
+        assertThrows(UnauthorizedException.class, () -> loginManager.validateBasicUser(headers));
+
+        // A new session has the new privileges; until logging out
+        HttpHeaders newHeaders = cookies("halhmac", loginManager.startSession(changed));
+        Voter admin = loginManager.validateAdminUser(newHeaders);
+        loginManager.forgetTokenForUser(admin);
+        assertThrows(UnauthorizedException.class, () -> loginManager.validateBasicUser(newHeaders));
+    }
+}
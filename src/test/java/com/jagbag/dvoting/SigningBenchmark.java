@@ -0,0 +1,49 @@
+package com.jagbag.dvoting;
+
+import org.junit.jupiter.api.Test;
+
+import java.math.BigInteger;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Compares signing blinded chits with the full private exponent against signing via the CRT parts of the key.
+ * Not part of the regular test run (surefire only picks up *Test classes); run it on its own with
+ * ./mvnw test -Dtest=SigningBenchmark
+ */
+class SigningBenchmark {
+    static final int WARMUP = 200;
+    static final int ITERATIONS = 500;
+
+    @Test
+    void compareSigningPaths() throws NoSuchAlgorithmException {
+        for (int keySize : new int[] { 2048, 3072 }) {
+            SigningEntity thing = new SigningEntity();
+            thing.initializeKeys(keySize);
+            BigInteger d = thing.getPrivateExponent();
+            BigInteger n = thing.getModulus();
+            BigInteger[] chits = new BigInteger[ITERATIONS];
+            for (int i = 0; i < chits.length; ++i) {
+                chits[i] = new BigInteger(keySize - 1, ThreadLocalRandom.current());
+            }
+            for (int i = 0; i < WARMUP; ++i) {
+                assertEquals(chits[i].modPow(d, n), thing.sign(chits[i]));
+            }
+            long start = System.nanoTime();
+            for (BigInteger t : chits) {
+                t.modPow(d, n);
+            }
+            long plainNanos = System.nanoTime() - start;
+            start = System.nanoTime();
+            for (BigInteger t : chits) {
+                thing.sign(t);
+            }
+            long crtNanos = System.nanoTime() - start;
+            System.out.println(String.format("%d-bit key: private exponent %.3f ms/signature, CRT %.3f ms/signature, speedup %.2fx",
+                    keySize, plainNanos / 1e6 / ITERATIONS, crtNanos / 1e6 / ITERATIONS,
+                    (double)plainNanos / crtNanos));
+        }
+    }
+}
@@ -76,4 +76,23 @@ class SigningEntityTest {
         assertFalse(thing.confirmSignature(chit, "random1other2string"));
     }
 
-}
\ No newline at end of file
+    @Test
+    void crtSignatureMatchesPrivateExponent() {
+        SigningEntity thing = new SigningEntity();
+        try {
+            thing.initializeKeys();
+        } catch (NoSuchAlgorithmException e) {
+            e.printStackTrace();
+            fail("NoSuchAlgorithmException thrown");
+        }
+        for (int i = 0; i < 10; ++i) {
+            BigInteger t = new BigInteger(thing.getModulus().bitLength() - 1, ThreadLocalRandom.current());
+            BigInteger expected = t.modPow(thing.getPrivateExponent(), thing.getModulus());
+            assertEquals(expected, thing.sign(t));
+        }
+        // The client always reduces mod n, but nothing stops a client sending something bigger
+        BigInteger big = thing.getModulus().add(BigInteger.TEN);
+        assertEquals(big.modPow(thing.getPrivateExponent(), thing.getModulus()), thing.sign(big));
+    }
+
+}
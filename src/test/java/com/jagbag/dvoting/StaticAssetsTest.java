@@ -0,0 +1,80 @@
+package com.jagbag.dvoting;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@SpringBootTest
+@ActiveProfiles("test")
+@AutoConfigureMockMvc
+class StaticAssetsTest {
+    @Autowired
+    private MockMvc mockMvc;
+
+    static String gunzip(byte[] bytes) throws IOException {
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(bytes))) {
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+    static String classpathText(String path) throws IOException {
+        try (InputStream in = new ClassPathResource(path).getInputStream()) {
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+    @Test
+    void pagesLinkToFingerprintedScripts() throws Exception {
+        MvcResult page = mockMvc.perform(get("/adminvoter.html").header("Accept-Encoding", "gzip, deflate"))
+                .andExpect(status().isOk())
+                .andExpect(header().string("Content-Encoding", "gzip"))
+                .andExpect(header().string("Vary", "Accept-Encoding"))
+                .andReturn();
+        assertFalse(page.getResponse().getHeader("Cache-Control").contains("immutable"));
+        String html = gunzip(page.getResponse().getContentAsByteArray());
+        assertFalse(html.contains("adminvoter.js?version"));
+        Matcher m = Pattern.compile("src=\"(adminvoter-[0-9a-f]{32}\\.js)\"").matcher(html);
+        assertTrue(m.find());
+
+        MvcResult script = mockMvc.perform(get("/" + m.group(1)).header("Accept-Encoding", "gzip"))
+                .andExpect(status().isOk())
+                .andExpect(header().string("Content-Encoding", "gzip"))
+                .andReturn();
+        assertTrue(script.getResponse().getHeader("Cache-Control").contains("immutable"));
+        String js = classpathText("static/adminvoter.js");
+        assertEquals(js, gunzip(script.getResponse().getContentAsByteArray()));
+
+        // By its plain name, and to a browser that can't take gzip
+        MvcResult plain = mockMvc.perform(get("/adminvoter.js"))
+                .andExpect(status().isOk())
+                .andReturn();
+        assertNull(plain.getResponse().getHeader("Content-Encoding"));
+        assertFalse(plain.getResponse().getHeader("Cache-Control").contains("immutable"));
+        assertEquals(js, plain.getResponse().getContentAsString());
+    }
+
+    @Test
+    void templatesLinkToFingerprintedScripts() {
+        String page = Template.of(new ClassPathResource("static/voteapp.html")).render();
+        assertTrue(Pattern.compile("src=\"voting-[0-9a-f]{32}\\.js\"").matcher(page).find());
+        assertTrue(page.contains("##VOTERNAME:html##"));
+    }
+}
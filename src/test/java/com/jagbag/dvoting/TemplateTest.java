@@ -0,0 +1,42 @@
+package com.jagbag.dvoting;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.ClassPathResource;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TemplateTest {
+    @Test
+    void fillIn() {
+        Map<String, String> values = new HashMap<String, String>();
+        values.put("NAME", "Al $1 \\ Smith");
+        values.put("CODE", "xyz");
+        values.put("EMPTY", null);
+        Template t = Template.parse("Dear ##NAME##, ##CODE####CODE## ##MISSING## ##EMPTY##.##not one## # ##");
+        assertEquals("Dear Al $1 \\ Smith, xyzxyz ##MISSING## .##not one## # ##", t.render(values));
+        assertEquals("no placeholders", Template.parse("no placeholders").render(values));
+        assertEquals("##xyz", Template.parse("####CODE##").render(values));
+    }
+
+    @Test
+    void escaping() {
+        Map<String, String> values = new HashMap<String, String>();
+        values.put("X", "<b>\"Bo\" & 'Jo'</b>\\\n");
+        Template t = Template.parse("##X:html##|##X:js##|##X:json##|##X##");
+        assertEquals("&lt;b&gt;&quot;Bo&quot; &amp; &#39;Jo&#39;&lt;/b&gt;\\\n"
+                + "|\\u003cb\\u003e\\\"Bo\\\" \\u0026 \\'Jo\\'\\u003c/b\\u003e\\\\\\n"
+                + "|\\u003cb>\"Bo\" & 'Jo'\\u003c/b>\\\n"
+                + "|<b>\"Bo\" & 'Jo'</b>\\\n", t.render(values));
+    }
+
+    @Test
+    void resourcesAreReadOnce() {
+        ClassPathResource page = new ClassPathResource("static/voteapp.html");
+        Template t = Template.of(page);
+        assertSame(t, Template.of(new ClassPathResource("static/voteapp.html")));
+        assertTrue(t.render().contains("##VOTERNAME:html##"));
+    }
+}
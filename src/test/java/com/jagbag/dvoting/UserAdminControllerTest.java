@@ -0,0 +1,62 @@
+package com.jagbag.dvoting;
+
+import com.jagbag.dvoting.entities.Voter;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.patch;
+import static org.junit.jupiter.api.Assertions.*;
+
+@SpringBootTest
+@ActiveProfiles("test")
+@AutoConfigureMockMvc
+class UserAdminControllerTest {
+    @Autowired private VoterListManager voterListManager;
+    @Autowired private LoginManager loginManager;
+    @Autowired private MockMvc mockMvc;
+
+    Voter activeVoter(String name, String username, String email) {
+        Voter v = new Voter(name, username, email);
+        assertTrue(voterListManager.addVoter(v, "password!"));
+        voterListManager.activateAccountWithoutConfirm(v);
+        return voterListManager.getForUsername(username);
+    }
+
+    MvcResult patchInfo(Voter v, String name, String email) throws Exception {
+        HttpHeaders headers = new HttpHeaders();
+        headers.add(HttpHeaders.COOKIE, String.format("user=%s;token=%s", v.getUsername(), loginManager.startSession(v)));
+        return mockMvc.perform(patch("/voters/{username}", v.getUsername()).headers(headers)
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(String.format("{\"name\": \"%s\", \"email\": \"%s\"}", name, email)))
+                .andReturn();
+    }
+
+    @Test
+    void retypingOwnEmailIsNotAChange() throws Exception {
+        Voter v = activeVoter("Rhea Retype", "rhearetype", "Rhea@Retype.com");
+        MvcResult result = patchInfo(v, "Rhea Retyped", " rhea@RETYPE.com ");
+        assertEquals(HttpStatus.OK.value(), result.getResponse().getStatus());
+        Voter saved = voterListManager.getForUsername("rhearetype");
+        assertEquals("Rhea Retyped", saved.getName());
+        assertEquals("Rhea@Retype.com", saved.getEmail());
+        assertTrue(saved.isEmailConfirmed());
+    }
+
+    @Test
+    void someoneElsesEmailInAnyCaseIsADuplicate() throws Exception {
+        activeVoter("Olga Other", "olgaother", "olga@other.com");
+        Voter v = activeVoter("Dan Dup", "dandup", "dan@dup.com");
+        MvcResult result = patchInfo(v, "Dan Dup", "OLGA@other.com");
+        assertEquals(HttpStatus.SEE_OTHER.value(), result.getResponse().getStatus());
+        assertEquals("dupemailerr.html", result.getResponse().getHeader("Location"));
+        assertEquals("dan@dup.com", voterListManager.getForUsername("dandup").getEmail());
+    }
+}
@@ -0,0 +1,62 @@
+package com.jagbag.dvoting;
+
+import org.junit.jupiter.api.Test;
+
+import java.math.BigInteger;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Measures signature verifications per second: the way confirmSignature used to do it (unwrap the key for
+ * every call, platform charset) against a shared SignatureVerifier.
+ * Not part of the regular test run; run it on its own with ./mvnw test -Dtest=VerificationBenchmark
+ */
+class VerificationBenchmark {
+    static final int CHITS = 1000;
+    static final int ROUNDS = 20;
+
+    @Test
+    void verificationsPerSecond() throws NoSuchAlgorithmException {
+        SigningEntity thing = new SigningEntity();
+        thing.initializeKeys();
+        String[] chits = new String[CHITS];
+        String[] signatures = new String[CHITS];
+        for (int i = 0; i < CHITS; ++i) {
+            chits[i] = String.format("17 %d Pita Chips", ThreadLocalRandom.current().nextLong(Long.MAX_VALUE));
+            signatures[i] = thing.signText(SigningEntity.encoded(SignatureVerifier.messageValue(chits[i])));
+        }
+        SignatureVerifier verifier = thing.getVerifier();
+        for (int round = 0; round < 3; ++round) {
+            for (int i = 0; i < CHITS; ++i) {
+                assertTrue(verifyTheOldWay(thing, chits[i], signatures[i]));
+                assertTrue(verifier.verify(chits[i], signatures[i]));
+            }
+        }
+        long start = System.nanoTime();
+        for (int round = 0; round < ROUNDS; ++round) {
+            for (int i = 0; i < CHITS; ++i) {
+                verifyTheOldWay(thing, chits[i], signatures[i]);
+            }
+        }
+        long oldNanos = System.nanoTime() - start;
+        start = System.nanoTime();
+        for (int round = 0; round < ROUNDS; ++round) {
+            for (int i = 0; i < CHITS; ++i) {
+                verifier.verify(chits[i], signatures[i]);
+            }
+        }
+        long newNanos = System.nanoTime() - start;
+        double count = (double)CHITS * ROUNDS;
+        System.out.println(String.format("per-call key unwrapping: %.0f verifications/s; shared verifier: %.0f verifications/s",
+                count * 1e9 / oldNanos, count * 1e9 / newNanos));
+    }
+
+    static boolean verifyTheOldWay(SigningEntity thing, String chit, String signedChit) {
+        BigInteger m = new BigInteger(chit.getBytes());
+        BigInteger s = SigningEntity.decoded(signedChit);
+        BigInteger alleged = s.modPow(thing.getPublicExponent(), thing.getModulus());
+        return (alleged.equals(m));
+    }
+}
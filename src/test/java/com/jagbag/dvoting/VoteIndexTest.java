@@ -0,0 +1,47 @@
+package com.jagbag.dvoting;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class VoteIndexTest {
+
+    @Test
+    void newRepeatContradiction() {
+        VoteIndex index = new VoteIndex();
+        index.open(1);
+        assertEquals(VoteIndex.Outcome.NEW, index.check(1, "111", 0, "222", "yes"));
+        index.record(1, "111", 0, "222", "yes");
+        assertEquals(VoteIndex.Outcome.REPEAT, index.check(1, "111", 0, "222", "yes"));
+        assertEquals(VoteIndex.Outcome.CONTRADICTION, index.check(1, "111", 0, "222", "no"));
+        assertEquals(VoteIndex.Outcome.CONTRADICTION, index.check(1, "111", 0, "333", "yes"));
+        // Another ranking, or another question, is another vote
+        assertEquals(VoteIndex.Outcome.NEW, index.check(1, "111", 1, "333", "no"));
+        index.open(2);
+        assertEquals(VoteIndex.Outcome.NEW, index.check(2, "111", 0, "222", "no"));
+        assertEquals(1, index.voteCount(1));
+    }
+
+    @Test
+    void recordingDoesNotOverwrite() {
+        VoteIndex index = new VoteIndex();
+        index.open(1);
+        index.record(1, "111", 0, "222", "yes");
+        index.record(1, "111", 0, "222", "no");
+        assertEquals(VoteIndex.Outcome.REPEAT, index.check(1, "111", 0, "222", "yes"));
+    }
+
+    @Test
+    void closedQuestionsAreReleased() {
+        VoteIndex index = new VoteIndex();
+        assertEquals(VoteIndex.Outcome.UNKNOWN, index.check(1, "111", 0, "222", "yes"));
+        index.open(1);
+        index.record(1, "111", 0, "222", "yes");
+        index.open(1); // opening again keeps what's there
+        assertEquals(1, index.voteCount(1));
+        index.release(1);
+        assertFalse(index.isOpen(1));
+        assertEquals(-1, index.voteCount(1));
+        assertEquals(VoteIndex.Outcome.UNKNOWN, index.check(1, "111", 0, "222", "yes"));
+    }
+}
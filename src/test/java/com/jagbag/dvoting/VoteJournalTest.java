@@ -0,0 +1,167 @@
+package com.jagbag.dvoting;
+
+import com.jagbag.dvoting.entities.Question;
+import com.jagbag.dvoting.entities.ResponseOption;
+import com.jagbag.dvoting.entities.Vote;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpStatus;
+import org.springframework.test.context.ActiveProfiles;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@SpringBootTest
+@ActiveProfiles("test")
+class VoteJournalTest {
+    @Autowired
+    private VoteJournal voteJournal;
+    @Autowired
+    private EntityManagerFactory emf;
+    @Autowired
+    private CentralTabulatingFacility ctf;
+    @Value("${vote-journal}")
+    private String journalFileName;
+
+    Question savedQuestion(String text) {
+        Question q = new Question(text);
+        q.addResponseOption(new ResponseOption("yes"));
+        q.addResponseOption(new ResponseOption("no"));
+        q.setCreateDateTime();
+        EntityManager em = emf.createEntityManager();
+        em.getTransaction().begin();
+        em.persist(q);
+        for (ResponseOption opt : q.getPossibleResponses()) {
+            em.persist(opt);
+        }
+        em.getTransaction().commit();
+        em.close();
+        return q;
+    }
+
+    List<Vote> votesOn(Question q) {
+        EntityManager em = emf.createEntityManager();
+        List<Vote> list = em.createQuery("select v from Vote v where v.question = :q", Vote.class)
+                .setParameter("q", q).getResultList();
+        em.close();
+        return list;
+    }
+
+    @Test
+    void appendedVotesReachTheDatabase() throws Exception {
+        Question q = savedQuestion("Journal me?");
+        for (int i = 0; i < 1200; ++i) {
+            voteJournal.append(new JournaledVote(q.getId(), i % 2 == 0 ? "yes" : "no", "" + i, "" + (5000 + i), 0));
+        }
+        voteJournal.flush();
+        assertEquals(1200, votesOn(q).size());
+        assertTrue(voteJournal.unflushedVotes(q.getId()).isEmpty());
+        assertEquals(0, Files.size(Paths.get(journalFileName)));
+    }
+
+    @Test
+    void unflushedVotesAreVisible() throws Exception {
+        Question q = savedQuestion("Visible?");
+        voteJournal.append(new JournaledVote(q.getId(), "yes", "42", "43", 0));
+        List<JournaledVote> found = voteJournal.unflushedVotes(q.getId());
+        if (!found.isEmpty()) { // unless the background thread already got to it
+            assertEquals(1, found.size());
+            assertTrue(found.get(0).sameVoteAs("yes", "43"));
+            assertFalse(found.get(0).sameVoteAs("no", "43"));
+        }
+        voteJournal.flush();
+        assertEquals(1, votesOn(q).size());
+    }
+
+    @Test
+    void databaseRejectsDuplicates() throws Exception {
+        Question q = savedQuestion("Twice?");
+        voteJournal.append(new JournaledVote(q.getId(), "yes", "21", "22", 0));
+        voteJournal.flush();
+        // The unique index turns this away, but the good votes in the same batch still get in:
+        voteJournal.append(new JournaledVote(q.getId(), "no", "21", "23", 0));
+        voteJournal.append(new JournaledVote(q.getId(), "no", "24", "25", 0));
+        voteJournal.flush();
+        List<Vote> votes = votesOn(q);
+        assertEquals(2, votes.size());
+        for (Vote v : votes) {
+            if (v.getVoterChitNumber().equals("21")) {
+                assertEquals("yes", v.getResponse());
+            }
+        }
+        // ...but it isn't lost: it's kept in the journal until someone has looked into it
+        assertTrue(voteJournal.hasRefusedVotes(q.getId()));
+        assertEquals(1, voteJournal.refusedVotes().size());
+        assertEquals("no", voteJournal.refusedVotes().get(0).response);
+        assertTrue(Files.size(Paths.get(journalFileName)) > 0);
+        // The same vote again is no trouble
+        voteJournal.append(new JournaledVote(q.getId(), "yes", "21", "22", 0));
+        voteJournal.flush();
+        assertEquals(1, voteJournal.refusedVotes().size());
+        voteJournal.dismissRefusedVotes();
+        assertFalse(voteJournal.hasRefusedVotes(q.getId()));
+        assertEquals(0, Files.size(Paths.get(journalFileName)));
+    }
+
+    /** A vote on a posted Question, with signed chits, as a Voter's client would send it */
+    VoteMessage vote(Question q, int meChitNumber, int responseChitNumber, String response) {
+        VoteMessage vote = new VoteMessage();
+        vote.meChit = String.format("%d %d me", q.getId(), meChitNumber);
+        vote.meChitSigned = q.signText(SigningEntity.encoded(SignatureVerifier.messageValue(vote.meChit)));
+        vote.responseChit = String.format("%d %d %s", q.getId(), responseChitNumber, response);
+        vote.responseChitSigned = ctf.signText(SigningEntity.encoded(SignatureVerifier.messageValue(vote.responseChit)));
+        return vote;
+    }
+
+    @Test
+    void refusedVoteIsNotInTheTally() throws Exception {
+        Question q = savedQuestion("Tally me?");
+        ctf.postQuestion(q);
+        // A vote the CTF doesn't know about, as if it had got into the database some other way
+        EntityManager em = emf.createEntityManager();
+        em.getTransaction().begin();
+        em.persist(new Vote(em.find(Question.class, q.getId()), "no", "31", "32", 0));
+        em.getTransaction().commit();
+        em.close();
+        assertEquals(HttpStatus.OK, ctf.receiveVoteOnQuestion(q.getId(), vote(q, 31, 33, "yes")));
+        voteJournal.flush();
+
+        assertTrue(voteJournal.hasRefusedVotes(q.getId()));
+        // Counted from the database: the "no" that's there, not the "yes" that was refused
+        LiveTally.Report report = ctf.tallyForQuestion(q.getId());
+        assertEquals(1, report.voterCount);
+        assertEquals("yes", report.responses.get(0).response);
+        assertEquals(0, report.responses.get(0).total);
+        assertEquals(1, report.responses.get(1).total);
+        voteJournal.dismissRefusedVotes();
+        ctf.closeQuestion(q);
+    }
+
+    @Test
+    void replayRecoversVotesLeftInTheJournal() throws Exception {
+        Question q = savedQuestion("Recover?");
+        voteJournal.flush();
+        // As if the previous run wrote these, and went down before copying them into the database:
+        String lines = "{\"quid\":" + q.getId() + ",\"response\":\"yes\",\"voterChitNumber\":\"11\","
+                + "\"responseChitNumber\":\"12\",\"ranking\":0,\"receivedWhen\":\"2020-05-01T12:00:00\"}\n"
+                + "{\"quid\":" + q.getId() + ",\"response\":\"no\",\"voterChitNumber\":\"13\","
+                + "\"responseChitNumber\":\"14\",\"ranking\":0,\"receivedWhen\":\"2020-05-01T12:00:01\"}\n"
+                + "{\"quid\":-1,\"response\":\"no\",\"voterChitNumber\":\"15\","
+                + "\"responseChitNumber\":\"16\",\"ranking\":0,\"receivedWhen\":\"2020-05-01T12:00:02\"}\n"
+                + "{\"quid\":" + q.getId() + ",\"resp";
+        Files.write(Paths.get(journalFileName), lines.getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+        assertEquals(2, voteJournal.replay());
+        assertEquals(2, votesOn(q).size());
+        assertEquals(0, Files.size(Paths.get(journalFileName)));
+        assertEquals(0, voteJournal.replay());
+    }
+}
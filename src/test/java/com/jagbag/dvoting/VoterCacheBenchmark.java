@@ -0,0 +1,125 @@
+package com.jagbag.dvoting;
+
+import com.jagbag.dvoting.entities.Voter;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.boot.web.embedded.tomcat.TomcatServletWebServerFactory;
+import org.springframework.boot.web.server.LocalServerPort;
+import org.springframework.boot.web.servlet.server.ServletWebServerFactory;
+import org.springframework.context.annotation.Bean;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.*;
+import java.util.concurrent.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Load test: how many authenticated requests a second the server can answer, when each one has to look up the
+ * logged-in Voter, as it does with session-token-mode=hmac. The request is for the open ballots, which costs
+ * next to nothing besides the lookup. Not part of the regular test run; run with
+ * mvn test -Dtest=VoterCacheBenchmark
+ * and, to compare, without the Voter cache:
+ * mvn test -Dtest=VoterCacheBenchmark -Dspring.jpa.properties.hibernate.cache.use_second_level_cache=false
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+        properties = {"server.ssl.enabled=false", "spring.main.allow-bean-definition-overriding=true",
+                "session-token-mode=hmac"})
+@ActiveProfiles("test")
+class VoterCacheBenchmark {
+    /** Plain HTTP, rather than {@link ServerConfig}'s redirect to HTTPS; the test setup has no keystore. */
+    @TestConfiguration
+    static class PlainServerConfig {
+        @Bean
+        public ServletWebServerFactory servletContainer() {
+            return new TomcatServletWebServerFactory();
+        }
+    }
+
+    static final int VOTERS = 500;
+    static final int THREADS = 32;
+    static final int REQUESTS = 40000;
+
+    @LocalServerPort private int port;
+    @Autowired private VoterListManager voterListManager;
+    @Autowired private LoginManager loginManager;
+
+    /** @return the Cookie header for each of a bunch of new, logged-in voters */
+    List<String> loggedInVoters() {
+        String batch = Long.toString(System.currentTimeMillis(), 36);
+        List<String> cookies = new ArrayList<String>();
+        for (int i = 0; i < VOTERS; ++i) {
+            String username = "cached" + batch + "x" + i;
+            Voter v = new Voter("Cached " + i, username, username + "@cache.org");
+            assertTrue(voterListManager.addVoter(v, "password!"));
+            voterListManager.activateAccountWithoutConfirm(v);
+            v.setAllowedToVote(true);
+            assertTrue(voterListManager.updateVoter(v));
+        }
+        // Logged in after all the writes, so that their sessions' privileges are current
+        for (int i = 0; i < VOTERS; ++i) {
+            String username = "cached" + batch + "x" + i;
+            Voter v = voterListManager.getForUsername(username);
+            cookies.add(String.format("user=%s; token=%s", username, loginManager.startSession(v)));
+        }
+        return cookies;
+    }
+
+    int get(String path, String cookie) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection)new URL("http://localhost:" + port + path).openConnection();
+        connection.setRequestProperty("Cookie", cookie);
+        int status = connection.getResponseCode();
+        InputStream in = (status < 400) ? connection.getInputStream() : connection.getErrorStream();
+        if (in != null) {
+            in.readAllBytes();
+            in.close();
+        }
+        return status;
+    }
+
+    /** @return requests per second */
+    double requests(List<String> cookies, int count) throws Exception {
+        ExecutorService threads = Executors.newFixedThreadPool(THREADS);
+        List<Future<Integer>> results = new ArrayList<Future<Integer>>();
+        long start = System.nanoTime();
+        for (int t = 0; t < THREADS; ++t) {
+            int first = t;
+            results.add(threads.submit(() -> {
+                int ok = 0;
+                for (int i = first; i < count; i += THREADS) {
+                    if (get("/ballots", cookies.get(i % cookies.size())) == 200) {
+                        ++ok;
+                    }
+                }
+                return ok;
+            }));
+        }
+        int ok = 0;
+        for (Future<Integer> result : results) {
+            ok += result.get();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        threads.shutdown();
+        assertEquals(count, ok);
+        return count / seconds;
+    }
+
+    @Test
+    void authenticatedThroughput() throws Exception {
+        List<String> cookies = loggedInVoters();
+        requests(cookies, REQUESTS / 4); // warm up
+        VoterListManager.CacheReport before = voterListManager.cacheReport();
+        double perSecond = requests(cookies, REQUESTS);
+        VoterListManager.CacheReport after = voterListManager.cacheReport();
+        System.out.println(String.format("%,d authenticated requests, %d threads: %,.0f requests/s; "
+                        + "username lookups %,d hits, %,d misses; Voters %,d hits, %,d misses", REQUESTS, THREADS,
+                perSecond, after.usernameHits - before.usernameHits, after.usernameMisses - before.usernameMisses,
+                after.voterHits - before.voterHits, after.voterMisses - before.voterMisses));
+    }
+}
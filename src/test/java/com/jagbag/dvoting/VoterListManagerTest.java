@@ -1,12 +1,18 @@
 package com.jagbag.dvoting;
 
 import com.jagbag.dvoting.entities.Voter;
+import org.hibernate.SessionFactory;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.test.context.ActiveProfiles;
 
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
 import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -16,6 +22,8 @@ class VoterListManagerTest {
 
     @Autowired
     private VoterListManager voterListManager;
+    @Autowired
+    private EntityManagerFactory emf;
 
     /*
     TODO: use separate set(s) of app properties; point to a test database; init db to a known state; then write these tests
@@ -80,7 +88,7 @@ class VoterListManagerTest {
         String phonyEmailTemplate = "##USERNAME##:message:##CODE##";
         String phonyEmailText = null;
         try {
-            phonyEmailText = v.processEmailText(phonyEmailTemplate);
+            phonyEmailText = v.processEmailText(Template.parse(phonyEmailTemplate), "http://localhost");
         } catch (UnsupportedEncodingException e) {
             e.printStackTrace();
             fail("UnsupportedEncodingException");
@@ -95,10 +103,143 @@ class VoterListManagerTest {
 
     @Test
     void getForUsername() {
+        assertNull(voterListManager.getForUsername("nobody-by-this-name"));
+        assertNull(voterListManager.getForUsername(null));
+    }
+
+    @Test
+    void lookupsComeFromTheCache() {
+        Voter v = new Voter("Dave", "dave", "dave@xyz.com");
+        voterListManager.addVoter(v, "!@#$%^&*(");
+        voterListManager.getForUsername("dave");
+        VoterListManager.CacheReport before = voterListManager.cacheReport();
+        for (int i = 0; i < 10; ++i) {
+            Voter found = voterListManager.getForUsername("dave");
+            assertEquals("Dave", found.getName());
+            // A copy of its own each time, to change as it likes
+            found.setName("Not Dave");
+        }
+        VoterListManager.CacheReport after = voterListManager.cacheReport();
+        assertEquals(10, after.usernameHits - before.usernameHits);
+        assertEquals(10, after.voterHits - before.voterHits);
+        assertEquals(before.usernameMisses, after.usernameMisses);
+    }
+
+    @Test
+    void cachedLookupsSeeEveryWrite() throws Exception {
+        Voter erin = new Voter("Erin", "erin", "erin@xyz.com");
+        Voter frank = new Voter("Frank", "frank", "frank@xyz.com");
+        voterListManager.addVoter(erin, "!@#$%^&*(");
+        voterListManager.addVoter(frank, "!@#$%^&*(");
+        assertFalse(voterListManager.getForUsername("erin").isAllowedToVote());
+        assertTrue(voterListManager.getForUsername("frank").proxyGrantees.isEmpty());
+
+        erin = voterListManager.getForUsername("erin");
+        erin.setAllowedToVote(true);
+        erin.setProxyHolder(voterListManager.getForUsername("frank"));
+        assertTrue(voterListManager.updateVoter(erin));
+        assertTrue(voterListManager.getForUsername("erin").isAllowedToVote());
+        // Frank's list changed, though only Erin was written
+        assertEquals(1, voterListManager.getForUsername("frank").proxyGrantees.size());
+
+        voterListManager.setPassword(voterListManager.getForUsername("frank"), "new password!");
+        assertTrue(voterListManager.getForUsername("frank").checkPassword("new password!"));
+
+        erin = voterListManager.getForUsername("erin");
+        erin.setProxyHolder(null);
+        voterListManager.updateVoter(erin);
+        voterListManager.removeVoter(erin);
+        assertNull(voterListManager.getForUsername("erin"));
+        assertTrue(voterListManager.getForUsername("frank").proxyGrantees.isEmpty());
     }
 
     @Test
     void voters() {
     }
 
+    @Test
+    void nameKeysFilledIn() {
+        Voter grace = new Voter("  Grace Hopper", "grace", "grace@xyz.com");
+        voterListManager.addVoter(grace, "!@#$%^&*(");
+        voterListManager.activateAccountWithoutConfirm(grace);
+        // As in a database from before Voters had name keys
+        EntityManager em = emf.createEntityManager();
+        em.getTransaction().begin();
+        em.createQuery("update Voter v set v.nameKey = null where v.username = 'grace'").executeUpdate();
+        em.getTransaction().commit();
+        em.close();
+        assertTrue(voterListManager.voterSummaries(null, "grace h", null, 10).isEmpty());
+
+        assertTrue(voterListManager.fillInNameKeys() >= 1);
+        List<VoterListManager.VoterSummary> found = voterListManager.voterSummaries(null, "grace h", null, 10);
+        assertEquals(1, found.size());
+        assertEquals("grace", found.get(0).username);
+        assertEquals(0, voterListManager.fillInNameKeys());
+    }
+
+    @Test
+    void getForEmail() {
+        Voter fay = new Voter("Fay", "fay", "Fay@XYZ.com");
+        assertTrue(voterListManager.addVoter(fay, "!@#$%^&*("));
+        assertEquals("fay", voterListManager.getForEmail("fay@xyz.com").getUsername());
+        assertEquals("fay", voterListManager.getForEmail(" FAY@xyz.COM ").getUsername());
+        // Differing only in case is the same address
+        assertFalse(voterListManager.addVoter(new Voter("Fay Too", "faytoo", "fay@xyz.com"), "!@#$%^&*("));
+        assertNull(voterListManager.getForUsername("faytoo"));
+
+        // Found by the address being changed from, too, but the one who has it now wins
+        fay = voterListManager.getForUsername("fay");
+        fay.submitEmailChange("fay@abc.com");
+        assertTrue(voterListManager.updateVoter(fay));
+        assertEquals("fay", voterListManager.getForEmail("fay@xyz.com").getUsername());
+        Voter dave = new Voter("Dave", "dave", "FAY@xyz.com");
+        assertTrue(voterListManager.addVoter(dave, "!@#$%^&*("));
+        assertEquals("dave", voterListManager.getForEmail("fay@xyz.com").getUsername());
+        assertNull(voterListManager.getForEmail("nobody@xyz.com"));
+    }
+
+    @Test
+    void getForEmails() {
+        List<String> emails = new ArrayList<String>();
+        for (int i = 0; i < VoterListManager.EMAILS_PER_QUERY + 10; ++i) {
+            String username = "many" + i;
+            assertTrue(voterListManager.addVoter(new Voter("Many " + i, username, username + "@xyz.com"),
+                    "!@#$%^&*("));
+            emails.add(username.toUpperCase() + "@xyz.com");
+        }
+        emails.add("nobody@xyz.com");
+        SessionFactory sessionFactory = emf.unwrap(SessionFactory.class);
+        sessionFactory.getCache().evictAllRegions();
+        long before = sessionFactory.getStatistics().getPrepareStatementCount();
+        Map<String, Voter> found = voterListManager.getForEmails(emails);
+        long statements = sessionFactory.getStatistics().getPrepareStatementCount() - before;
+        assertEquals(VoterListManager.EMAILS_PER_QUERY + 10, found.size());
+        assertEquals("many7", found.get("MANY7@xyz.com").getUsername());
+        assertFalse(found.containsKey("nobody@xyz.com"));
+        // For each thousand, a query for email addresses, and one for old ones if need be; the email outbox may
+        // have looked at its table meanwhile
+        assertTrue(statements <= 5);
+    }
+
+    @Test
+    void emailKeysFilledIn() {
+        Voter erin = new Voter("Erin", "erin", "Erin@XYZ.com");
+        assertTrue(voterListManager.addVoter(erin, "!@#$%^&*("));
+        Voter erinToo = new Voter("Erin Too", "erintoo", "erintoo@xyz.com");
+        assertTrue(voterListManager.addVoter(erinToo, "!@#$%^&*("));
+        // As in a database from before Voters had email keys, where two addresses differ only in case
+        EntityManager em = emf.createEntityManager();
+        em.getTransaction().begin();
+        em.createQuery("update Voter v set v.emailKey = null where v.username in ('erin', 'erintoo')").executeUpdate();
+        em.createQuery("update Voter v set v.email = 'erin@xyz.com' where v.username = 'erintoo'").executeUpdate();
+        em.getTransaction().commit();
+        em.close();
+        assertNull(voterListManager.getForEmail("erin@xyz.com"));
+
+        assertTrue(voterListManager.fillInEmailKeys() >= 1);
+        assertNotNull(voterListManager.getForEmail("erin@xyz.com"));
+        // The other one is reported, and left without, every time
+        assertEquals(0, voterListManager.fillInEmailKeys());
+    }
+
 }
\ No newline at end of file
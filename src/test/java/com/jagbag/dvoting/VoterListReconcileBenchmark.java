@@ -0,0 +1,52 @@
+package com.jagbag.dvoting;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * How long it takes to upload a voter list of 20 thousand people: first when none of them have accounts, then
+ * again with a few changes. Not part of the regular test run; run with
+ * mvn test -Dtest=VoterListReconcileBenchmark
+ */
+@SpringBootTest
+@ActiveProfiles("test")
+class VoterListReconcileBenchmark {
+    static final int PEOPLE = 20000;
+
+    @Autowired
+    private RosterImporter rosterImporter;
+
+    static String roster(int people, int skip) {
+        StringBuilder s = new StringBuilder();
+        for (int i = 0; i < people; ++i) {
+            if (skip > 0 && i % skip == 0) continue;
+            s.append(String.format("member%d@roster.org\tMember Number %d\n", i, i));
+        }
+        return s.toString();
+    }
+
+    VoterListReconciler.Report upload(String text) throws Exception {
+        long start = System.nanoTime();
+        VoterListReconciler.Report report = rosterImporter.importRoster(
+                new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8)));
+        System.out.println(String.format("%,d lines: %,d ms; added %d, enabled %d, disabled %d, unchanged %d",
+                report.linesRead, (System.nanoTime() - start) / 1000000, report.accountsAdded, report.votingEnabled,
+                report.votingDisabled, report.unchanged));
+        assertTrue(report.applied);
+        return report;
+    }
+
+    @Test
+    void uploadRoster() throws Exception {
+        upload(roster(PEOPLE, 0));
+        upload(roster(PEOPLE, 100));
+        upload(roster(PEOPLE, 0));
+    }
+}
@@ -0,0 +1,92 @@
+package com.jagbag.dvoting;
+
+import com.jagbag.dvoting.entities.Voter;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@SpringBootTest
+@ActiveProfiles("test")
+class VoterListReconcilerTest {
+    @Autowired
+    private RosterImporter rosterImporter;
+    @Autowired
+    private VoterListManager voterListManager;
+
+    VoterListReconciler.Report upload(String text) throws IOException {
+        return rosterImporter.importRoster(new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    /** Everyone who's currently allowed to vote, as lines of a voter list file, so that other tests' voters stay put */
+    static String currentVoters(VoterListManager voterListManager) {
+        StringBuilder s = new StringBuilder();
+        for (Voter v : voterListManager.voters()) {
+            if (v.isAllowedToVote()) {
+                s.append(v.getEmail()).append('\t').append(v.getName().replaceAll("[^\\p{IsAlphabetic} ]", "")).append('\n');
+            }
+        }
+        return s.toString();
+    }
+
+    @Test
+    void reconcile() throws IOException {
+        Voter already = new Voter("Rita Already", "ritaalready", "rita@already.com");
+        assertTrue(voterListManager.addVoter(already, "secret!"));
+        voterListManager.activateAccountWithoutConfirm(already);
+        already.setAllowedToVote(true);
+        assertTrue(voterListManager.updateVoter(already));
+        Voter pending = new Voter("Pete Pending", "petepending", "pete@pending.com");
+        assertTrue(voterListManager.addVoter(pending, "secret!"));
+        Voter dropped = new Voter("Dora Dropped", "doradropped", "dora@dropped.com");
+        assertTrue(voterListManager.addVoter(dropped, "secret!"));
+        voterListManager.activateAccountWithoutConfirm(dropped);
+        dropped.setAllowedToVote(true);
+        assertTrue(voterListManager.updateVoter(dropped));
+        int othersVoting = 0;
+        for (Voter v : voterListManager.voters()) {
+            if (v.isAllowedToVote()) ++othersVoting;
+        }
+        othersVoting -= 2;  // Rita and Dora
+        String others = currentVoters(voterListManager).replaceAll("dora@dropped.com\t[^\n]*\n", "").replaceAll("rita@already.com\t[^\n]*\n", "");
+
+        VoterListReconciler.Report report = upload(others
+                + "Rita@Already.COM\tRita Already\n"
+                + "pete@pending.com\tPete Pending\n"
+                + "nina@new.com\tNina New\n"
+                + "not an email\tSomeone\n"
+                + "NINA@new.com\tNina Again\n"
+                + "ned@new.com\tNed <b>New</b>\n");
+        assertTrue(report.applied);
+        assertEquals(othersVoting + 6, report.linesRead);
+        assertEquals(2, report.accountsAdded);
+        assertEquals(1, report.accountsActivated);
+        assertEquals(1, report.votingEnabled);
+        assertEquals(1, report.votingDisabled);
+        assertEquals(othersVoting + 1, report.unchanged);
+        assertEquals(2, report.errors.size());
+        assertTrue(report.errors.get(0).startsWith("line " + (othersVoting + 4)));
+        assertTrue(report.errors.get(1).contains("Duplicate"));
+
+        Voter nina = voterListManager.getForUsername("nina@new.com");
+        assertTrue(nina.isAllowedToVote());
+        assertTrue(nina.isActiveAccount());
+        assertEquals("Ned bNewb", voterListManager.getForUsername("ned@new.com").getName());
+        Voter pete = voterListManager.getForUsername("petepending");
+        assertTrue(pete.isAllowedToVote());
+        assertTrue(pete.isActiveAccount());
+        assertFalse(voterListManager.getForUsername("doradropped").isAllowedToVote());
+        assertTrue(voterListManager.getForUsername("ritaalready").isAllowedToVote());
+
+        // Uploading the same list again changes nothing
+        report = upload(currentVoters(voterListManager));
+        assertTrue(report.applied);
+        assertEquals(0, report.accountsAdded + report.accountsActivated + report.votingEnabled + report.votingDisabled);
+    }
+}
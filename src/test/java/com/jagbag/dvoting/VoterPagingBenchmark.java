@@ -0,0 +1,82 @@
+package com.jagbag.dvoting;
+
+import com.jagbag.dvoting.entities.Voter;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * How long a page of the admin page's list of voters takes, at the start of a long list and at the end: with
+ * keyset pagination (see {@link VoterListManager#voterSummaries}) they should take the same time. Not part of
+ * the regular test run; run with
+ * mvn test -Dtest=VoterPagingBenchmark
+ */
+@SpringBootTest
+@ActiveProfiles("test")
+class VoterPagingBenchmark {
+    static final int VOTERS = 50000;
+    static final int PER_TRANSACTION = 500;
+    static final int PAGE = 100;
+
+    @Autowired
+    private VoterListManager voterListManager;
+    @Autowired
+    private EntityManagerFactory emf;
+
+    void addVoters(String batch) {
+        EntityManager em = emf.createEntityManager();
+        for (int i = 0; i < VOTERS; i += PER_TRANSACTION) {
+            em.getTransaction().begin();
+            for (int j = i; j < i + PER_TRANSACTION; ++j) {
+                Voter v = new Voter(String.format("Member %s %05d", batch, j), "m" + batch + "x" + j,
+                        "m" + batch + "x" + j + "@bench.org");
+                v.setEmailConfirmed(true);
+                v.setAllowedToVote(true);
+                em.persist(v);
+            }
+            em.getTransaction().commit();
+            em.clear();
+        }
+        em.close();
+        voterListManager.voterListChanged();
+    }
+
+    @Test
+    void pagesTakeTheSameTimeThroughout() {
+        String batch = Long.toString(System.currentTimeMillis(), 36);
+        addVoters(batch);
+        String prefix = "Member " + batch;
+        List<Long> nanos = new ArrayList<Long>();
+        int count = 0;
+        for (int round = 0; round < 2; ++round) { // the first time through, to warm up
+            nanos.clear();
+            count = 0;
+            String after = null;
+            do {
+                long start = System.nanoTime();
+                List<VoterListManager.VoterSummary> page = voterListManager.voterSummaries(null, prefix, after,
+                        PAGE);
+                nanos.add(System.nanoTime() - start);
+                count += page.size();
+                after = (page.size() < PAGE) ? null : page.get(page.size() - 1).position;
+            } while (after != null);
+        }
+        long firstNanos = 0;
+        long lastNanos = 0;
+        for (int i = 0; i < 10; ++i) {
+            firstNanos += nanos.get(i);
+            lastNanos += nanos.get(nanos.size() - 1 - i);
+        }
+        assertEquals(VOTERS, count);
+        System.out.println(String.format("%,d voters, %d to a page: first 10 pages %.2f ms each, last 10 pages "
+                + "%.2f ms each", VOTERS, PAGE, firstNanos / 10 / 1e6, lastNanos / 10 / 1e6));
+    }
+}
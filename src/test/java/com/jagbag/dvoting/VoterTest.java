@@ -44,7 +44,7 @@ class VoterTest {
         v.prepareForConfirmationEmail();
         String emailText = null;
         try {
-            emailText = v.processEmailText("##CODE##");
+            emailText = v.processEmailText(Template.parse("##CODE##"), "http://localhost");
         } catch (UnsupportedEncodingException e) {
             e.printStackTrace();
             fail("UnsupportedEncodingException");
@@ -62,9 +62,9 @@ class VoterTest {
         Voter v = new Voter("David", "squiggles", "david@nowhere.org");
         String emailText = null;
         try {
-            emailText = v.processEmailText("##NAME##");
+            emailText = v.processEmailText(Template.parse("##NAME##"), "http://localhost");
             assertEquals(emailText, v.getName());
-            emailText = v.processEmailText("##USERNAME##");
+            emailText = v.processEmailText(Template.parse("##USERNAME##"), "http://localhost");
             assertEquals(emailText, v.getUsername());
         } catch (UnsupportedEncodingException e) {
             fail("UnsupportedEncodingException");
@@ -80,7 +80,7 @@ class VoterTest {
         v.prepareForConfirmationEmail();
         String emailText = null;
         try {
-            emailText = v.processEmailText("##CODE##");
+            emailText = v.processEmailText(Template.parse("##CODE##"), "http://localhost");
         } catch (UnsupportedEncodingException e) {
             e.printStackTrace();
             fail("UnsupportedEncodingException");
@@ -1,6 +1,7 @@
 package com.jagbag.dvoting;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.jagbag.dvoting.controllers.VotingAPIController;
 import com.jagbag.dvoting.entities.Question;
 import com.jagbag.dvoting.entities.ResponseOption;
@@ -9,10 +10,21 @@ import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpStatus;
 import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
 
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
 import java.security.NoSuchAlgorithmException;
+import java.util.List;
+import java.util.Map;
 
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 import static org.junit.jupiter.api.Assertions.*;
 
 @SpringBootTest
@@ -22,6 +34,10 @@ class VotingAPIControllerTest {
     @Autowired private VotingAPIController votingAPIController;
     @Autowired
     private CentralTabulatingFacility ctf;
+    @Autowired
+    private EntityManagerFactory emf;
+    @Autowired
+    private MockMvc mockMvc;
 
     //TODO see https://spring.io/guides/gs/testing-web/ for how to implement such tests
     @Test
@@ -37,7 +53,79 @@ class VotingAPIControllerTest {
     }
 
     @Test
-    void getVoteVerificationInfo() {
+    void getVoteVerificationInfo() throws Exception {
+        Question q = new Question("Stream the votes?");
+        q.addResponseOption(new ResponseOption("yes"));
+        q.addResponseOption(new ResponseOption("no"));
+        q.setCreateDateTime();
+        EntityManager em = emf.createEntityManager();
+        em.getTransaction().begin();
+        em.persist(q);
+        for (ResponseOption opt : q.getPossibleResponses()) {
+            em.persist(opt);
+        }
+        em.getTransaction().commit();
+        em.close();
+        ctf.postQuestion(q);
+        for (int i = 1; i <= 3; ++i) {
+            VoteMessage vote = new VoteMessage();
+            vote.meChit = String.format("%d %d me", q.getId(), 100 + i);
+            vote.meChitSigned = q.signText(SigningEntity.encoded(SignatureVerifier.messageValue(vote.meChit)));
+            vote.responseChit = String.format("%d %d %s", q.getId(), 200 + i, (i == 1) ? "no" : "yes");
+            vote.responseChitSigned = ctf.signText(SigningEntity.encoded(SignatureVerifier.messageValue(vote.responseChit)));
+            assertEquals(HttpStatus.OK, ctf.receiveVoteOnQuestion(q.getId(), vote));
+        }
+
+        MvcResult started = mockMvc.perform(get("/ballot/{quid}/verify", q.getId()))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        MvcResult result = mockMvc.perform(asyncDispatch(started))
+                .andExpect(status().isOk())
+                .andReturn();
+        List<Map<String, Object>> records = new ObjectMapper().readValue(result.getResponse().getContentAsString(),
+                new TypeReference<List<Map<String, Object>>>(){});
+        assertEquals(3, records.size());
+        int yes = 0;
+        for (Map<String, Object> record : records) {
+            // only what a voter needs
+            assertEquals(4, record.size());
+            assertEquals(0, record.get("ranking"));
+            if (record.get("voterChitNumber").equals("101")) {
+                assertEquals("201", record.get("responseChitNumber"));
+                assertEquals("no", record.get("response"));
+            }
+            if (record.get("response").equals("yes")) {
+                ++yes;
+            }
+        }
+        assertEquals(2, yes);
+    }
+
+    @Test
+    void ballotSnapshotChangesOnlyWithQuestions() throws Exception {
+        BallotSnapshot before = ctf.ballotSnapshot();
+        assertSame(before, ctf.ballotSnapshot());
+        String keysTag = mockMvc.perform(get("/ballots/keys"))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getHeader("ETag");
+        assertEquals(before.keysETag, keysTag);
+        mockMvc.perform(get("/ballots/keys").header("If-None-Match", keysTag))
+                .andExpect(status().isNotModified());
+
+        Question q = new Question("Snapshot this?");
+        q.addResponseOption(new ResponseOption("yes"));
+        q.addResponseOption(new ResponseOption("no"));
+        ctf.postQuestion(q);
+        BallotSnapshot posted = ctf.ballotSnapshot();
+        assertTrue(posted.version > before.version);
+        assertNotEquals(before.eTag, posted.eTag);
+        assertTrue(posted.questionsJson.contains("Snapshot this?"));
+        assertEquals(before.keysETag, posted.keysETag);
+
+        ctf.closeQuestion(q);
+        BallotSnapshot closed = ctf.ballotSnapshot();
+        assertTrue(closed.version > posted.version);
+        assertFalse(closed.questionsJson.contains("Snapshot this?"));
     }
 
     @Test
@@ -55,14 +143,7 @@ class VotingAPIControllerTest {
             e.printStackTrace();
             fail("NoSuchAlgorithmException");
         }
-        String finalText = null;
-        try {
-            finalText = votingAPIController.fillInVotingInfo(templateText, v);
-        }
-        catch (JsonProcessingException e) {
-            e.printStackTrace();
-            fail("JSON serialization error");
-        }
+        String finalText = Template.parse(templateText).render(votingAPIController.votingInfo(ctf.ballotSnapshot(), v));
         String[] fields = finalText.split("~");
         assertEquals(fields[0], ctf.getPublicExponent().toString(10));
         assertEquals(fields[1], ctf.getModulus().toString(10));
@@ -0,0 +1,282 @@
+package com.jagbag.dvoting;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.jagbag.dvoting.entities.Question;
+import com.jagbag.dvoting.entities.ResponseOption;
+import com.jagbag.dvoting.entities.Voter;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.boot.web.embedded.tomcat.TomcatServletWebServerFactory;
+import org.springframework.boot.web.server.LocalServerPort;
+import org.springframework.boot.web.servlet.server.ServletWebServerFactory;
+import org.springframework.context.annotation.Bean;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.TrustManagerFactory;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigInteger;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.KeyStore;
+import java.security.SecureRandom;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Load test: a room full of phones all voting at once, over HTTPS, first with HTTP/1.1, then with HTTP/2.
+ * Each phone (a new HttpClient, so a new connection, as a new phone would have) goes through the whole voting
+ * flow the way voting.js does: the keys and the ballots, at once; then signing each response chit and the me chit,
+ * all at once; then the vote. Over HTTP/1.1, the requests sent at once each need a connection of their own, and
+ * so a TLS handshake; over HTTP/2 they all go over the one connection. See {@link ConnectorTuning}.
+ * Not part of the regular test run; run with
+ * mvn test -Dtest=VotingFlowLoadBenchmark
+ * (Uses the HttpClient that came with Java 11, to speak HTTP/2; hence the Java 11 in pom.xml.)
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+        properties = {"spring.main.allow-bean-definition-overriding=true"})
+@ActiveProfiles("test")
+class VotingFlowLoadBenchmark {
+    /** HTTPS only, without {@link ServerConfig}'s extra HTTP connector on port 8080 */
+    @TestConfiguration
+    static class HttpsOnlyServerConfig {
+        @Bean
+        public ServletWebServerFactory servletContainer() {
+            return new TomcatServletWebServerFactory();
+        }
+    }
+
+    static final int VOTERS = 300;
+    /** How many phones are going through the flow at any moment */
+    static final int PHONES_AT_ONCE = 50;
+    /** keys, ballots, sign yes, sign no, signme, vote */
+    static final int REQUESTS_PER_VOTER = 6;
+    static final Path KEYSTORE = Paths.get("target", "loadtest-keystore.p12");
+    static final String PASSWORD = "loadtest";
+
+    /** The test setup has no keystore; make a self-signed one. */
+    @DynamicPropertySource
+    static void tls(DynamicPropertyRegistry registry) throws Exception {
+        if (!Files.exists(KEYSTORE)) {
+            Files.createDirectories(KEYSTORE.getParent());
+            Process keytool = new ProcessBuilder(
+                    Paths.get(System.getProperty("java.home"), "bin", "keytool").toString(),
+                    "-genkeypair", "-alias", "tomcat", "-keyalg", "RSA", "-keysize", "2048",
+                    "-storetype", "PKCS12", "-keystore", KEYSTORE.toString(),
+                    "-storepass", PASSWORD, "-keypass", PASSWORD, "-validity", "30",
+                    "-dname", "CN=localhost", "-ext", "SAN=dns:localhost,ip:127.0.0.1")
+                    .inheritIO().start();
+            assertEquals(0, keytool.waitFor());
+        }
+        registry.add("server.ssl.enabled", () -> "true");
+        registry.add("server.ssl.key-store", () -> KEYSTORE.toUri().toString());
+        registry.add("server.ssl.key-store-type", () -> "PKCS12");
+        registry.add("server.ssl.key-store-password", () -> PASSWORD);
+        registry.add("server.ssl.key-password", () -> PASSWORD);
+        registry.add("server.ssl.key-alias", () -> "tomcat");
+    }
+
+    @LocalServerPort private int port;
+    @Autowired private CentralTabulatingFacility ctf;
+    @Autowired private EntityManagerFactory emf;
+    @Autowired private VoterListManager voterListManager;
+    @Autowired private LoginManager loginManager;
+    private ObjectMapper objectMapper = new ObjectMapper();
+    private SecureRandom random = new SecureRandom();
+    private AtomicInteger chitNumber = new AtomicInteger(1000);
+    private SSLContext sslContext;
+    /** Shared by all the phones' HttpClients, rather than each making threads of its own */
+    private ExecutorService clientExecutor = Executors.newCachedThreadPool();
+
+    SSLContext trustOurKeystore() throws Exception {
+        KeyStore keyStore = KeyStore.getInstance("PKCS12");
+        try (InputStream in = Files.newInputStream(KEYSTORE)) {
+            keyStore.load(in, PASSWORD.toCharArray());
+        }
+        TrustManagerFactory trust = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+        trust.init(keyStore);
+        SSLContext context = SSLContext.getInstance("TLS");
+        context.init(null, trust.getTrustManagers(), null);
+        return context;
+    }
+
+    Question postedQuestion(String text) throws Exception {
+        Question q = new Question(text);
+        q.addResponseOption(new ResponseOption("yes"));
+        q.addResponseOption(new ResponseOption("no"));
+        q.setCreateDateTime();
+        EntityManager em = emf.createEntityManager();
+        em.getTransaction().begin();
+        em.persist(q);
+        for (ResponseOption opt : q.getPossibleResponses()) {
+            em.persist(opt);
+        }
+        em.getTransaction().commit();
+        em.close();
+        ctf.postQuestion(q);
+        return q;
+    }
+
+    /** @return the Cookie header for each of a bunch of new, logged-in voters */
+    List<String> loggedInVoters() {
+        String batch = Long.toString(System.currentTimeMillis(), 36);
+        List<String> cookies = new ArrayList<String>();
+        for (int i = 0; i < VOTERS; ++i) {
+            String username = "phone" + batch + "x" + i;
+            Voter v = new Voter("Phone " + i, username, username + "@load.org");
+            assertTrue(voterListManager.addVoter(v, "password!"));
+            voterListManager.activateAccountWithoutConfirm(v);
+            v.setAllowedToVote(true);
+            assertTrue(voterListManager.updateVoter(v));
+            cookies.add(String.format("user=%s; token=%s", username, loginManager.startSession(v)));
+        }
+        return cookies;
+    }
+
+    HttpRequest.Builder request(String path, String cookie) {
+        return HttpRequest.newBuilder(URI.create("https://localhost:" + port + path))
+                .header("Cookie", cookie)
+                .timeout(java.time.Duration.ofSeconds(60));
+    }
+
+    CompletableFuture<HttpResponse<String>> get(HttpClient client, String path, String cookie) {
+        return client.sendAsync(request(path, cookie).GET().build(), HttpResponse.BodyHandlers.ofString());
+    }
+
+    CompletableFuture<HttpResponse<String>> post(HttpClient client, String path, String cookie, Object body)
+            throws IOException {
+        HttpRequest r = request(path, cookie)
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(objectMapper.writeValueAsString(body)))
+                .build();
+        return client.sendAsync(r, HttpResponse.BodyHandlers.ofString());
+    }
+
+    static String ok(CompletableFuture<HttpResponse<String>> response, HttpClient.Version version) {
+        HttpResponse<String> r = response.join();
+        assertEquals(200, r.statusCode(), r.body());
+        assertEquals(version, r.version());
+        return r.body();
+    }
+
+    /** A chit, blinded as the client does it: the chit's number times k^e, mod n */
+    static class Blinded {
+        final String chit;
+        final BigInteger k;
+        final BigInteger n;
+        final String blinded;
+
+        Blinded(String chit, SigningEntity signer, SecureRandom random) {
+            this.chit = chit;
+            this.n = signer.getModulus();
+            BigInteger k;
+            do {
+                k = new BigInteger(n.bitLength() - 1, random);
+            } while (!k.gcd(n).equals(BigInteger.ONE));
+            this.k = k;
+            BigInteger m = SignatureVerifier.messageValue(chit);
+            this.blinded = SigningEntity.encoded(m.multiply(k.modPow(signer.getPublicExponent(), n)).mod(n));
+        }
+
+        /** The signature on the chit itself, from the signature on the blinded chit */
+        String unblind(String signedBlinded) {
+            return SigningEntity.encoded(SigningEntity.decoded(signedBlinded).multiply(k.modInverse(n)).mod(n));
+        }
+    }
+
+    /** One phone, one voter, the whole flow. */
+    void vote(HttpClient.Version version, String cookie, Question q) throws IOException {
+        HttpClient client = HttpClient.newBuilder()
+                .version(version)
+                .sslContext(sslContext)
+                .executor(clientExecutor)
+                .build();
+        CompletableFuture<HttpResponse<String>> keys = get(client, "/ballots/keys", cookie);
+        CompletableFuture<HttpResponse<String>> ballots = get(client, "/ballots", cookie);
+        ok(keys, version);
+        assertTrue(ok(ballots, version).contains(q.getText()));
+
+        int n = chitNumber.incrementAndGet();
+        Blinded me = new Blinded(String.format("%d %d me", q.getId(), n), q, random);
+        Blinded yes = new Blinded(String.format("%d %d yes", q.getId(), n + 500000), ctf, random);
+        Blinded no = new Blinded(String.format("%d %d no", q.getId(), n + 900000), ctf, random);
+        String signPath = "/ballot/" + q.getId() + "/sign";
+        CompletableFuture<HttpResponse<String>> signedYes = post(client, signPath, cookie,
+                Collections.singletonMap("b", yes.blinded));
+        CompletableFuture<HttpResponse<String>> signedNo = post(client, signPath, cookie,
+                Collections.singletonMap("b", no.blinded));
+        CompletableFuture<HttpResponse<String>> signedMe = post(client, "/ballot/" + q.getId() + "/signme", cookie,
+                Collections.singletonMap("b", me.blinded));
+
+        VoteMessage vote = new VoteMessage();
+        vote.meChit = me.chit;
+        vote.meChitSigned = me.unblind(ok(signedMe, version));
+        String signedYesText = ok(signedYes, version);
+        String signedNoText = ok(signedNo, version);
+        if (n % 3 == 0) {
+            vote.responseChit = no.chit;
+            vote.responseChitSigned = no.unblind(signedNoText);
+        }
+        else {
+            vote.responseChit = yes.chit;
+            vote.responseChitSigned = yes.unblind(signedYesText);
+        }
+        ok(post(client, "/ballot/" + q.getId() + "/vote", cookie, vote), version);
+    }
+
+    /** @return requests per second */
+    double everyoneVotes(HttpClient.Version version, List<String> cookies, Question q) throws Exception {
+        ExecutorService phones = Executors.newFixedThreadPool(PHONES_AT_ONCE);
+        List<Future<Long>> flows = new ArrayList<Future<Long>>();
+        long start = System.nanoTime();
+        for (String cookie : cookies) {
+            flows.add(phones.submit(() -> {
+                long flowStart = System.nanoTime();
+                vote(version, cookie, q);
+                return (System.nanoTime() - flowStart) / 1000000;
+            }));
+        }
+        long[] latencies = new long[flows.size()];
+        for (int i = 0; i < latencies.length; ++i) {
+            latencies[i] = flows.get(i).get();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        phones.shutdown();
+        Arrays.sort(latencies);
+        assertEquals(cookies.size(), ctf.tallyForQuestion(q.getId()).voterCount);
+        double perSecond = cookies.size() * REQUESTS_PER_VOTER / seconds;
+        System.out.println(String.format("%s: %d voters in %.2f s, %.0f requests/s; whole flow median %d ms, "
+                        + "99th percentile %d ms", version, cookies.size(), seconds, perSecond,
+                latencies[latencies.length / 2], latencies[latencies.length * 99 / 100]));
+        return perSecond;
+    }
+
+    @Test
+    void http1VersusHttp2() throws Exception {
+        sslContext = trustOurKeystore();
+        List<String> cookies = loggedInVoters();
+        // warm up
+        everyoneVotes(HttpClient.Version.HTTP_1_1, cookies, postedQuestion("Warm up 1.1?"));
+        everyoneVotes(HttpClient.Version.HTTP_2, cookies, postedQuestion("Warm up 2?"));
+
+        double http1 = everyoneVotes(HttpClient.Version.HTTP_1_1, cookies, postedQuestion("Vote over HTTP/1.1?"));
+        double http2 = everyoneVotes(HttpClient.Version.HTTP_2, cookies, postedQuestion("Vote over HTTP/2?"));
+        System.out.println(String.format("HTTP/2 vs HTTP/1.1: %.2fx the requests per second", http2 / http1));
+        clientExecutor.shutdown();
+    }
+}
@@ -0,0 +1,73 @@
+package com.jagbag.dvoting;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.core.io.Resource;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigInteger;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Compares filling in the voting page the way it used to be done (read the file, then a replaceAll() for each
+ * placeholder) against a parsed, cached Template.
+ * Not part of the regular test run; run with
+ * ./mvnw test -Dtest=VotingPageTemplateBenchmark
+ */
+class VotingPageTemplateBenchmark {
+    static final int WARMUP = 5000;
+    static final int ITERATIONS = 20000;
+
+    static String oldWay(Resource page, Map<String, String> values) throws IOException {
+        String pageText;
+        try (InputStream in = page.getInputStream()) {
+            pageText = new String(in.readAllBytes());
+        }
+        pageText = pageText.replaceAll("##EXPONENT##", values.get("EXPONENT"));
+        pageText = pageText.replaceAll("##MODULUS##", values.get("MODULUS"));
+        pageText = pageText.replaceAll("##VOTER:js##", values.get("VOTER"));
+        pageText = pageText.replaceAll("##VOTERNAME:html##", values.get("VOTERNAME"));
+        pageText = pageText.replaceAll("##QUESTIONS:json##", values.get("QUESTIONS"));
+        return pageText;
+    }
+
+    @Test
+    void compareVotingPage() throws IOException {
+        Resource page = new ClassPathResource("static/voteapp.html");
+        Map<String, String> values = new HashMap<String, String>();
+        values.put("EXPONENT", "65537");
+        values.put("MODULUS", new BigInteger(2048, ThreadLocalRandom.current()).toString(10));
+        values.put("VOTER", "someone");
+        values.put("VOTERNAME", "Some One");
+        StringBuilder questions = new StringBuilder("[");
+        for (int i = 0; i < 10; ++i) {
+            if (i > 0) questions.append(',');
+            questions.append(String.format("{\"id\":%d,\"text\":\"Should we do thing number %d?\","
+                    + "\"responseOptions\":[{\"text\":\"yes\"},{\"text\":\"no\"},{\"text\":\"abstain\"}]}", i, i));
+        }
+        values.put("QUESTIONS", questions.append(']').toString());
+
+        assertEquals(oldWay(page, values), Template.of(page).render(values));
+        for (int i = 0; i < WARMUP; ++i) {
+            oldWay(page, values);
+            Template.of(page).render(values);
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; ++i) {
+            oldWay(page, values);
+        }
+        long oldNanos = System.nanoTime() - start;
+        start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; ++i) {
+            Template.of(page).render(values);
+        }
+        long templateNanos = System.nanoTime() - start;
+        System.out.println(String.format("voting page: read + replaceAll %.2f us/page, template %.2f us/page, speedup %.1fx",
+                oldNanos / 1e3 / ITERATIONS, templateNanos / 1e3 / ITERATIONS, (double)oldNanos / templateNanos));
+    }
+}